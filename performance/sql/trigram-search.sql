@@ -0,0 +1,65 @@
+-- Benchmark of fragment searches of facilities and users, with and without the trigram indexes.
+--
+-- Loads 100k facilities and 200k users into a database with demo data, runs the queries the
+-- facility and user searches generate with the trigram indexes and with bitmap scans disabled
+-- (which makes the planner fall back to sequential scans), and rolls everything back.
+--
+-- Usage: psql -h <host> -U postgres -d open_lmis -f performance/sql/trigram-search.sql
+
+\timing on
+SET search_path TO referencedata;
+
+BEGIN;
+
+INSERT INTO facilities (id, active, code, enabled, name, geographiczoneid, typeid)
+SELECT md5('facility' || i)::uuid, true, 'BF' || lpad(i::text, 6, '0'), true,
+    (ARRAY['Health Center', 'District Hospital', 'Dispensary', 'Warehouse'])[1 + i % 4]
+        || ' ' || md5(i::text),
+    (SELECT id FROM geographic_zones ORDER BY code LIMIT 1),
+    (SELECT id FROM facility_types ORDER BY code LIMIT 1)
+FROM generate_series(1, 100000) AS i;
+
+INSERT INTO users (id, active, username, firstname, lastname)
+SELECT md5('user' || i)::uuid, true, 'bench' || md5(i::text),
+    (ARRAY['Anna', 'John', 'Maria', 'Peter', 'Grace'])[1 + i % 5] || substr(md5(i::text), 1, 4),
+    'Lastname' || substr(md5(i::text), 5, 8)
+FROM generate_series(1, 200000) AS i;
+
+ANALYZE facilities;
+ANALYZE users;
+
+-- with trigram indexes
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT f.* FROM facilities f
+WHERE UPPER(f.name) LIKE '%HOSPITAL 4F2%'
+ORDER BY similarity(UPPER(f.name), 'HOSPITAL 4F2') DESC, f.name ASC
+LIMIT 10;
+
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT count(*) FROM facilities f WHERE UPPER(f.code) LIKE '%0421%';
+
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT u.* FROM users u
+WHERE UPPER(u.username) LIKE '%BENCH4F2%' AND UPPER(u.lastname) LIKE '%LASTNAME%'
+ORDER BY similarity(UPPER(u.username), 'BENCH4F2')
+    + similarity(UPPER(u.lastname), 'LASTNAME') DESC, u.username ASC
+LIMIT 10;
+
+-- sequential scans, like before the trigram indexes
+SET LOCAL enable_bitmapscan = off;
+
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT f.* FROM facilities f
+WHERE UPPER(f.name) LIKE '%HOSPITAL 4F2%'
+ORDER BY f.name ASC
+LIMIT 10;
+
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT count(*) FROM facilities f WHERE UPPER(f.code) LIKE '%0421%';
+
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT u.* FROM users u
+WHERE UPPER(u.username) LIKE '%BENCH4F2%' AND UPPER(u.lastname) LIKE '%LASTNAME%'
+LIMIT 10;
+
+ROLLBACK;
@@ -32,6 +32,7 @@ import static org.mockito.Mockito.mock;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.GeometryFactory;
@@ -54,7 +55,9 @@ import org.openlmis.referencedata.domain.Identifiable;
 import org.openlmis.referencedata.domain.Program;
 import org.openlmis.referencedata.domain.SupportedProgram;
 import org.openlmis.referencedata.domain.SupportedProgramPrimaryKey;
+import org.openlmis.referencedata.exception.ValidationMessageException;
 import org.openlmis.referencedata.repository.custom.FacilityRepositoryCustom;
+import org.openlmis.referencedata.repository.custom.impl.FacilityRepositoryImpl;
 import org.openlmis.referencedata.testbuilder.ExtraDataBuilder;
 import org.openlmis.referencedata.testbuilder.FacilityDataBuilder;
 import org.openlmis.referencedata.testbuilder.FacilityTypeDataBuilder;
@@ -67,6 +70,7 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.test.util.ReflectionTestUtils;
 
 @SuppressWarnings("PMD.TooManyMethods")
 public class FacilityRepositoryIntegrationTest extends BaseCrudRepositoryIntegrationTest<Facility> {
@@ -87,6 +91,9 @@ public class FacilityRepositoryIntegrationTest extends BaseCrudRepositoryIntegra
   @Autowired
   private ProgramRepository programRepository;
 
+  @Autowired
+  private FacilityRepositoryImpl repositoryImpl;
+
   private FacilityType facilityType = new FacilityTypeDataBuilder().buildAsNew();
   private GeographicLevel geographicLevel = new GeographicLevelDataBuilder().buildAsNew();
   private GeographicZone geographicZone = new GeographicZoneDataBuilder()
@@ -195,6 +202,32 @@ public class FacilityRepositoryIntegrationTest extends BaseCrudRepositoryIntegra
     assertEquals(searchedAndSortedFacility.get(1).getName(), facility1.getName());
   }
 
+  @Test
+  public void shouldRankFacilitiesBySimilarityOfNameIfSortIsNull() {
+    facility.setName("Central Facility Store");
+    facility1.setName("Facility Store");
+
+    repository.save(facility);
+    repository.save(facility1);
+
+    FacilityRepositoryCustom.SearchParams searchParams =
+        new TestSearchParams(null, "facility store", null, Sets.newHashSet());
+
+    ReflectionTestUtils.setField(repositoryImpl, "rankBySimilarity", true);
+    List<Facility> rankedFacilities;
+    try {
+      rankedFacilities = repository
+          .search(searchParams, Sets.newHashSet(), null, pageableWithNullSort)
+          .getContent();
+    } finally {
+      ReflectionTestUtils.setField(repositoryImpl, "rankBySimilarity", false);
+    }
+
+    assertEquals(2, rankedFacilities.size());
+    assertEquals(facility1.getId(), rankedFacilities.get(0).getId());
+    assertEquals(facility.getId(), rankedFacilities.get(1).getId());
+  }
+
   @Test
   public void shouldFindAndSortFacilityByFacilityName() {
     facility1.setName("Facility - z");
@@ -238,6 +271,40 @@ public class FacilityRepositoryIntegrationTest extends BaseCrudRepositoryIntegra
     assertEquals(facility.getId(), foundFacilities.get(0).getId());
   }
 
+  @Test
+  public void shouldFindPageOfFacilitiesByBoundarySortedByName() {
+    // given
+    GeometryFactory gf = new GeometryFactory();
+
+    facility.setName("B");
+    facility.setLocation(gf.createPoint(new Coordinate(1, 1)));
+    repository.save(facility);
+
+    facility1.setName("A");
+    facility1.setLocation(gf.createPoint(new Coordinate(1.5, 1.5)));
+    repository.save(facility1);
+
+    Polygon boundary = gf.createPolygon(new Coordinate[]{
+        new Coordinate(0, 0),
+        new Coordinate(2, 0),
+        new Coordinate(2, 2),
+        new Coordinate(0, 2),
+        new Coordinate(0, 0)
+    });
+
+    // when
+    Page<Facility> firstPage = repository.findByBoundary(boundary, new PageRequest(0, 1));
+    Page<Facility> secondPage = repository.findByBoundary(boundary, new PageRequest(1, 1));
+    final Page<Facility> emptyPage = repository.findByBoundary(boundary, new PageRequest(2, 1));
+
+    // then
+    assertEquals(2, firstPage.getTotalElements());
+    assertEquals(Collections.singletonList(facility1), firstPage.getContent());
+    assertEquals(Collections.singletonList(facility), secondPage.getContent());
+    assertEquals(2, emptyPage.getTotalElements());
+    assertEquals(0, emptyPage.getContent().size());
+  }
+
   @Test
   public void shouldFindFacilitiesByIds() {
     Facility facility2 = generateInstance();
@@ -332,53 +399,98 @@ public class FacilityRepositoryIntegrationTest extends BaseCrudRepositoryIntegra
   }
 
   @Test
-  public void shouldFindFacilitiesByAllParams() throws JsonProcessingException {
+  public void shouldPageAndSortFacilitiesFoundUsingExtraData() throws JsonProcessingException {
     // given
-    Map<String, Object> extraDataUrban = new ExtraDataBuilder().add("type", "urban").build();
-    facility.setExtraData(extraDataUrban);
+    Map<String, Object> extraDataRural = new ExtraDataBuilder().add("type", "rural").build();
+
+    facility.setExtraData(extraDataRural);
+    facility1.setExtraData(extraDataRural);
     repository.save(facility);
+    repository.save(facility1);
 
-    FacilityRepositoryCustom.SearchParams searchParams = new TestSearchParams(
-        facility.getCode(), facility.getName(), facilityType.getCode(), Sets.newHashSet());
+    FacilityRepositoryCustom.SearchParams searchParams =
+        new TestSearchParams(null, null, null, Sets.newHashSet());
 
     // when
-    String extraDataJson = mapper.writeValueAsString(extraDataUrban);
-    List<Facility> foundFacilities = repository.search(
-        searchParams, singleton(geographicZone.getId()), extraDataJson, pageable).getContent();
+    String extraDataJson = mapper.writeValueAsString(extraDataRural);
+    Page<Facility> page = repository.search(searchParams, null, extraDataJson,
+        new PageRequest(0, 1, Sort.Direction.DESC, "code"));
+
     // then
-    assertEquals(1, foundFacilities.size());
-    assertThat(
-        foundFacilities.stream().map(Identifiable::getId).collect(Collectors.toSet()),
-        hasItems(facility.getId())
-    );
+    Facility expected = facility.getCode().compareTo(facility1.getCode()) > 0
+        ? facility
+        : facility1;
+    assertThat(page.getTotalElements(), is(2L));
+    assertThat(page.getContent(), hasSize(1));
+    assertThat(page.getContent(), hasItem(expected));
   }
 
   @Test
-  public void shouldFindFacilitiesByBoundary() {
+  public void shouldSortFacilitiesFoundUsingExtraDataByJoinedPropertyLikeOtherSearches()
+      throws JsonProcessingException {
     // given
-    GeometryFactory gf = new GeometryFactory();
+    Map<String, Object> extraDataRural = new ExtraDataBuilder().add("type", "rural").build();
+    GeographicZone otherZone = geographicZoneRepository.save(new GeographicZoneDataBuilder()
+        .withName("A" + geographicZone.getName())
+        .withLevel(geographicLevel)
+        .buildAsNew());
 
-    facility.setLocation(gf.createPoint(new Coordinate(1, 1)));
+    facility.setExtraData(extraDataRural);
+    facility1.setExtraData(extraDataRural);
+    facility1.setGeographicZone(otherZone);
     repository.save(facility);
-
-    facility1.setLocation(gf.createPoint(new Coordinate(-1, 1)));
     repository.save(facility1);
 
-    Coordinate[] coords = new Coordinate[]{
-        new Coordinate(0, 0),
-        new Coordinate(2, 0),
-        new Coordinate(2, 2),
-        new Coordinate(0, 2),
-        new Coordinate(0, 0)
-    };
-    Polygon boundary = gf.createPolygon(coords);
+    FacilityRepositoryCustom.SearchParams searchParams =
+        new TestSearchParams(null, null, null, Sets.newHashSet());
+    PageRequest byZoneName = new PageRequest(0, 10, Sort.Direction.ASC, "geographicZone.name");
 
     // when
-    List<Facility> foundFacilities = repository.findByBoundary(boundary);
+    String extraDataJson = mapper.writeValueAsString(extraDataRural);
+    List<Facility> withExtraData = repository
+        .search(searchParams, null, extraDataJson, byZoneName)
+        .getContent();
+    List<Facility> withoutExtraData = repository
+        .search(searchParams, null, null, byZoneName)
+        .getContent();
+
+    // then
+    assertEquals(Lists.newArrayList(facility1, facility), withExtraData);
+    assertEquals(withoutExtraData, withExtraData);
+  }
 
+  @Test(expected = ValidationMessageException.class)
+  public void shouldRejectInvalidSortOfFacilitiesFoundUsingExtraData()
+      throws JsonProcessingException {
+    FacilityRepositoryCustom.SearchParams searchParams =
+        new TestSearchParams(null, null, null, Sets.newHashSet());
+    String extraDataJson = mapper.writeValueAsString(
+        new ExtraDataBuilder().add("type", "rural").build());
+
+    repository.search(searchParams, null, extraDataJson,
+        new PageRequest(0, 1, Sort.Direction.DESC, "code; DROP TABLE facilities"));
+  }
+
+  @Test
+  public void shouldFindFacilitiesByAllParams() throws JsonProcessingException {
+    // given
+    Map<String, Object> extraDataUrban = new ExtraDataBuilder().add("type", "urban").build();
+    facility.setExtraData(extraDataUrban);
+    repository.save(facility);
+
+    FacilityRepositoryCustom.SearchParams searchParams = new TestSearchParams(
+        facility.getCode(), facility.getName(), facilityType.getCode(), Sets.newHashSet());
+
+    // when
+    String extraDataJson = mapper.writeValueAsString(extraDataUrban);
+    List<Facility> foundFacilities = repository.search(
+        searchParams, singleton(geographicZone.getId()), extraDataJson, pageable).getContent();
     // then
     assertEquals(1, foundFacilities.size());
-    assertEquals(facility.getId(), foundFacilities.get(0).getId());
+    assertThat(
+        foundFacilities.stream().map(Identifiable::getId).collect(Collectors.toSet()),
+        hasItems(facility.getId())
+    );
   }
 
   @Test
@@ -44,6 +44,7 @@ import java.util.stream.StreamSupport;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceException;
+import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
@@ -297,6 +298,45 @@ public class FacilityTypeApprovedProductRepositoryIntegrationTest {
     assertThat(page.getContent(), hasSize(1));
   }
 
+  @Test
+  public void shouldGetProductsWithOrderablesAfterGivenId() {
+    saveAndGetProduct(facilityType1, true);
+    saveAndGetProduct(facilityType1, false);
+    saveAndGetProduct(facilityType2, true);
+
+    List<Pair<FacilityTypeApprovedProduct, Orderable>> firstPage = ftapRepository
+        .searchProductsAfter(facility.getId(), program.getId(), null, null, null, null, 1);
+    assertThat(firstPage, hasSize(1));
+
+    List<Pair<FacilityTypeApprovedProduct, Orderable>> secondPage = ftapRepository
+        .searchProductsAfter(facility.getId(), program.getId(), null, null, null,
+            firstPage.get(0).getLeft().getId(), 10);
+    assertThat(secondPage, hasSize(1));
+    assertTrue(firstPage.get(0).getLeft().getId()
+        .compareTo(secondPage.get(0).getLeft().getId()) < 0);
+
+    for (Pair<FacilityTypeApprovedProduct, Orderable> product : Lists.newArrayList(
+        firstPage.get(0), secondPage.get(0))) {
+      assertEquals(product.getLeft().getOrderableId(), product.getRight().getId());
+    }
+    assertEquals(2L, ftapRepository
+        .countProducts(facility.getId(), program.getId(), null, null, null));
+  }
+
+  @Test
+  public void shouldGetFullSupplyProductsAfterGivenId() {
+    saveAndGetProduct(facilityType1, true);
+    saveAndGetProduct(facilityType1, false);
+
+    List<Pair<FacilityTypeApprovedProduct, Orderable>> products = ftapRepository
+        .searchProductsAfter(facility.getId(), program.getId(), true, null, null, null, 10);
+
+    assertThat(products, hasSize(1));
+    assertEquals(orderableFullSupply.getId(), products.get(0).getRight().getId());
+    assertEquals(1L, ftapRepository
+        .countProducts(facility.getId(), program.getId(), true, null, null));
+  }
+
   @Test
   public void shouldGetFullSupply() {
     saveAndGetProduct(facilityType1, true);
@@ -23,6 +23,8 @@ import static org.junit.Assert.assertTrue;
 import java.time.LocalDate;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.assertj.core.util.Lists;
 import org.junit.Before;
 import org.junit.Test;
@@ -34,6 +36,7 @@ import org.openlmis.referencedata.domain.GeographicZone;
 import org.openlmis.referencedata.domain.IdealStockAmount;
 import org.openlmis.referencedata.domain.ProcessingPeriod;
 import org.openlmis.referencedata.domain.ProcessingSchedule;
+import org.openlmis.referencedata.dto.IdealStockAmountCsvModel;
 import org.openlmis.referencedata.testbuilder.CommodityTypeDataBuilder;
 import org.openlmis.referencedata.testbuilder.FacilityDataBuilder;
 import org.openlmis.referencedata.testbuilder.FacilityTypeDataBuilder;
@@ -156,6 +159,28 @@ public class IdealStockAmountRepositoryIntegrationTest extends
     assertTrue(list.contains(isa2.getId()));
   }
 
+  @Test
+  public void shouldStreamCsvModelsOfAllIdealStockAmounts() {
+    final IdealStockAmount isa = isaRepository.save(generateInstance());
+
+    List<IdealStockAmountCsvModel> models;
+    try (Stream<IdealStockAmountCsvModel> stream = isaRepository.streamAllCsvModels()) {
+      models = stream.collect(Collectors.toList());
+    }
+
+    assertThat(models, hasSize(1));
+    IdealStockAmountCsvModel model = models.get(0);
+    assertEquals(facility.getCode(), model.getFacility().getCode());
+    assertEquals(commodityType.getClassificationSystem(),
+        model.getCommodityType().getClassificationSystem());
+    assertEquals(commodityType.getClassificationId(),
+        model.getCommodityType().getClassificationId());
+    assertEquals(period.getName(), model.getProcessingPeriod().getName());
+    assertEquals(period.getProcessingSchedule().getCode().toString(),
+        model.getProcessingPeriod().getProcessingSchedule().getCode());
+    assertEquals(isa.getAmount(), model.getAmount());
+  }
+
   @Test
   public void shouldGetPageOfIdealStockAmounts() {
     isaRepository.save(generateInstance());
@@ -461,6 +461,20 @@ public class OrderableRepositoryIntegrationTest {
     checkSingleResultOrderableVersion(actual.getContent(), orderable.getVersionNumber());
   }
 
+  @Test
+  public void findAllLatestShouldFindPreviousVersionAfterLatestVersionIsDeleted() {
+    // given
+    Orderable orderable = saveAndGetOrderable();
+    repository.delete(orderable);
+    entityManager.flush();
+
+    // when
+    Page<Orderable> actual = repository.findAllLatest(pageable);
+
+    // then
+    checkSingleResultOrderableVersion(actual.getContent(), orderable.getVersionNumber() - 1);
+  }
+
   @Test
   public void findAllLatestByIdsShouldReturnEmptyPageEmptyContentWithNothingInTheRepository() {
     // given and when
@@ -719,6 +733,26 @@ public class OrderableRepositoryIntegrationTest {
     assertEquals(lastUpdated, orderable3.getLastUpdated().withZoneSameLocal(ZoneId.of("GMT")));
   }
 
+  @Test
+  public void shouldFindLastUpdatedDateByParamsContainingQuotes() {
+    Orderable orderable = saveAndGetOrderable();
+    orderable.setFullProductName("Children's paracetamol");
+    repository.save(orderable);
+
+    ZonedDateTime lastUpdated = repository.findLatestModifiedDateByParams(
+        new TestSearchParams(null, "children's", null, null));
+
+    assertEquals(lastUpdated, orderable.getLastUpdated().withZoneSameLocal(ZoneId.of("GMT")));
+  }
+
+  @Test
+  public void shouldNotFindLastUpdatedDateIfNoOrderableMatchesParams() {
+    saveAndGetOrderable();
+
+    assertNull(repository.findLatestModifiedDateByParams(
+        new TestSearchParams("no such code", null, null, null)));
+  }
+
   private void searchOrderablesAndCheckResults(String code, String name, Program program,
       Orderable orderable, int expectedSize) {
     String programCode = null == program ? null : program.getCode().toString();
@@ -204,6 +204,28 @@ public class ProcessingPeriodRepositoryIntegrationTest
     assertThat(content, contains(period3, period2, period1));
   }
 
+  @Test
+  public void shouldCountAllMatchingPeriodsWhenReturningPage() {
+    pageable = new PageRequest(1, 2, Direction.ASC, "startDate");
+
+    Page<ProcessingPeriod> page = periodRepository.search(schedule.getId(), null, null, null,
+        null, null, pageable);
+
+    assertEquals(3, page.getTotalElements());
+    assertThat(page.getContent(), contains(period3));
+  }
+
+  @Test
+  public void shouldReturnEmptyPageBeyondMatchingPeriods() {
+    pageable = new PageRequest(5, 2);
+
+    Page<ProcessingPeriod> page = periodRepository.search(schedule.getId(), null, null, null,
+        null, null, pageable);
+
+    assertEquals(3, page.getTotalElements());
+    assertThat(page.getContent(), hasSize(0));
+  }
+
   @Test
   public void shouldFindPeriodsByScheduleList() {
     ProcessingSchedule schedule2 = new ProcessingScheduleDataBuilder().buildWithoutId();
@@ -15,11 +15,15 @@
 
 package org.openlmis.referencedata.repository;
 
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import java.time.ZonedDateTime;
+import java.util.List;
 import java.util.Optional;
 import org.junit.Assert;
 import org.junit.Before;
@@ -99,6 +103,19 @@ public class ProcessingScheduleRepositoryIntegrationTest
     assertEquals(code3, actual3.get().getCode().toString());
   }
 
+  @Test
+  public void shouldFindSchedulesByCodes() {
+    ProcessingSchedule schedule1 = repository.save(
+        new ProcessingScheduleDataBuilder().withCode("code1").buildWithoutId());
+    ProcessingSchedule schedule2 = repository.save(
+        new ProcessingScheduleDataBuilder().withCode("code2").buildWithoutId());
+    repository.save(new ProcessingScheduleDataBuilder().withCode("code3").buildWithoutId());
+
+    List<ProcessingSchedule> actual = repository.findByCodeIn(Sets.newHashSet("code1", "code2"));
+
+    assertThat(actual, containsInAnyOrder(schedule1, schedule2));
+  }
+
   @Test(expected = DataIntegrityViolationException.class)
   public void shouldThrowExceptionIfCodeIsDuplicatedCaseInsensitive() {
     ProcessingSchedule scheduleLowerCase = new ProcessingScheduleDataBuilder()
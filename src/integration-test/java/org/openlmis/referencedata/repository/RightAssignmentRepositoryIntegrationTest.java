@@ -19,6 +19,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Collections;
 import java.util.Set;
 import java.util.UUID;
 import org.junit.Before;
@@ -154,6 +155,31 @@ public class RightAssignmentRepositoryIntegrationTest
     assertEquals(RIGHT_NAME, foundPermissionStrings.iterator().next());
   }
 
+  @Test
+  public void findRightNamesByUserShouldFindDistinctRightNames() {
+    // given
+    rightRepository.save(new RightDataBuilder()
+        .withName(ANOTHER_RIGHT_NAME)
+        .withType(RightType.GENERAL_ADMIN)
+        .buildAsNew());
+    repository.save(new RightAssignmentDataBuilder()
+        .withUser(user1)
+        .withRightName(RIGHT_NAME)
+        .withFacility(facility.getId())
+        .buildAsNew());
+    User user2 = persistUser(UUID.randomUUID());
+    repository.save(new RightAssignmentDataBuilder()
+        .withUser(user2)
+        .withRightName(ANOTHER_RIGHT_NAME)
+        .buildAsNew());
+
+    // when
+    Set<String> foundRightNames = repository.findRightNamesByUser(userId);
+
+    // then
+    assertEquals(Collections.singleton(RIGHT_NAME), foundRightNames);
+  }
+
   @Test
   public void findSupervisionProgramsByUserShouldFindPrograms() {
     rightRepository.save(new RightDataBuilder()
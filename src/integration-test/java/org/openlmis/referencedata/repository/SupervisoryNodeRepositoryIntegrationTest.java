@@ -26,6 +26,9 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
 import com.google.common.collect.Sets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import org.junit.Before;
 import org.junit.Test;
@@ -492,6 +495,112 @@ public class SupervisoryNodeRepositoryIntegrationTest extends
     assertThat(supervisoryNode3.getParentNode(), is(nullValue()));
   }
 
+  @Test
+  public void shouldFindFacilitiesSupervisedByDescendantsAfterNodesAreMoved() {
+    // given
+    SupervisoryNode root = supervisoryNodeRepository.save(generateInstance());
+    SupervisoryNode child = supervisoryNodeRepository.save(generateInstance());
+    SupervisoryNode grandchild = supervisoryNodeRepository.save(generateInstance());
+    requisitionGroupRepository.save(new RequisitionGroupDataBuilder()
+        .withSupervisoryNode(grandchild)
+        .withMemberFacility(facility)
+        .buildAsNew());
+
+    // when
+    child.assignChildNodes(Sets.newHashSet(grandchild));
+    root.assignChildNodes(Sets.newHashSet(child));
+    supervisoryNodeRepository.saveAndFlush(root);
+
+    // then
+    assertEquals(Collections.singletonList(facility), findSupervisedFacilities(root));
+    assertEquals(Collections.singletonList(facility), findSupervisedFacilities(child));
+
+    // when
+    child.assignChildNodes(Sets.newHashSet());
+    supervisoryNodeRepository.saveAndFlush(child);
+
+    // then
+    assertThat(findSupervisedFacilities(root), hasSize(0));
+    assertEquals(Collections.singletonList(facility), findSupervisedFacilities(grandchild));
+  }
+
+  @Test
+  public void shouldFindSupervisedFacilitiesSupportingProgram() {
+    // given
+    Program program = programRepository.save(new ProgramDataBuilder().withoutId().build());
+    ProcessingSchedule schedule = scheduleRepository
+        .save(new ProcessingScheduleDataBuilder().buildWithoutId());
+    Facility supportingFacility = facilityRepository.save(new FacilityDataBuilder()
+        .withGeographicZone(geographicZone)
+        .withoutOperator()
+        .withType(facilityType)
+        .withSupportedProgram(program)
+        .buildAsNew());
+
+    SupervisoryNode parent = supervisoryNodeRepository.save(generateInstance());
+    SupervisoryNode child = supervisoryNodeRepository.save(generateInstance());
+    parent.assignChildNodes(Sets.newHashSet(child));
+    supervisoryNodeRepository.saveAndFlush(parent);
+
+    RequisitionGroup requisitionGroup = requisitionGroupRepository
+        .save(new RequisitionGroupDataBuilder()
+            .withSupervisoryNode(child)
+            .withMemberFacility(facility)
+            .withMemberFacility(supportingFacility)
+            .buildAsNew());
+    requisitionGroupProgramScheduleRepository.save(new RequisitionGroupProgramScheduleDataBuilder()
+        .withProgram(program)
+        .withRequisitionGroup(requisitionGroup)
+        .withSchedule(schedule)
+        .withDropOffFacility(facility)
+        .buildAsNew());
+
+    // when
+    Set<Facility> supervisedFacilities = facilityRepository
+        .findSupervisedFacilities(parent.getId(), program.getId());
+
+    // then
+    assertEquals(asSet(supportingFacility), supervisedFacilities);
+
+    // when
+    Page<Facility> page = facilityRepository
+        .findSupervisedFacilities(parent.getId(), program.getId(), new PageRequest(0, 10));
+
+    // then
+    assertEquals(1, page.getTotalElements());
+    assertEquals(Collections.singletonList(supportingFacility), page.getContent());
+  }
+
+  @Test
+  public void shouldFindPageOfSupervisedFacilitiesSortedByName() {
+    // given
+    Facility other = facilityRepository.save(new FacilityDataBuilder()
+        .withName("AAA")
+        .withGeographicZone(geographicZone)
+        .withoutOperator()
+        .withType(facilityType)
+        .buildAsNew());
+
+    SupervisoryNode parent = supervisoryNodeRepository.save(generateInstance());
+    SupervisoryNode child = supervisoryNodeRepository.save(generateInstance());
+    parent.assignChildNodes(Sets.newHashSet(child));
+    supervisoryNodeRepository.saveAndFlush(parent);
+
+    requisitionGroupRepository.save(new RequisitionGroupDataBuilder()
+        .withSupervisoryNode(child)
+        .withMemberFacility(facility)
+        .withMemberFacility(other)
+        .buildAsNew());
+
+    // when
+    Page<Facility> page = facilityRepository
+        .findSupervisedFacilities(parent.getId(), null, new PageRequest(0, 1));
+
+    // then
+    assertEquals(2, page.getTotalElements());
+    assertEquals(Collections.singletonList(other), page.getContent());
+  }
+
   @Test
   public void shouldAssignPartnerNodes() {
     // given
@@ -550,4 +659,10 @@ public class SupervisoryNodeRepositoryIntegrationTest extends
     assertThat(supervisoryNode2.getPartnerNodeOf(), is(nullValue()));
     assertThat(supervisoryNode3.getPartnerNodeOf(), is(nullValue()));
   }
+
+  private List<Facility> findSupervisedFacilities(SupervisoryNode node) {
+    return facilityRepository
+        .findSupervisedFacilities(node.getId(), null, new PageRequest(0, 10))
+        .getContent();
+  }
 }
@@ -21,6 +21,7 @@ import static org.hamcrest.Matchers.hasItems;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.openlmis.referencedata.domain.RightType.GENERAL_ADMIN;
 import static org.openlmis.referencedata.domain.RightType.ORDER_FULFILLMENT;
@@ -37,6 +38,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceException;
 import org.junit.Before;
@@ -55,6 +57,7 @@ import org.openlmis.referencedata.domain.RoleAssignment;
 import org.openlmis.referencedata.domain.SupervisionRoleAssignment;
 import org.openlmis.referencedata.domain.SupervisoryNode;
 import org.openlmis.referencedata.domain.User;
+import org.openlmis.referencedata.dto.UserPrincipal;
 import org.openlmis.referencedata.testbuilder.DirectRoleAssignmentDataBuilder;
 import org.openlmis.referencedata.testbuilder.FacilityDataBuilder;
 import org.openlmis.referencedata.testbuilder.FacilityTypeDataBuilder;
@@ -163,6 +166,21 @@ public class UserRepositoryIntegrationTest extends BaseCrudRepositoryIntegration
     assertEquals(user.isActive(), receivedUser.isActive());
   }
 
+  @Test
+  public void shouldFindPrincipalOfUser() {
+    User user = users.get(0);
+
+    UserPrincipal principal = repository.findPrincipal(user.getId());
+
+    assertEquals(
+        new UserPrincipal(user.getId(), user.getHomeFacilityId(), user.isActive()), principal);
+  }
+
+  @Test
+  public void shouldNotFindPrincipalOfMissingUser() {
+    assertNull(repository.findPrincipal(UUID.randomUUID()));
+  }
+
   @Test
   public void searchUsersWithAllParametersNullShouldReturnAllUsers() {
     Page<User> receivedUsers = repository
@@ -0,0 +1,195 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openlmis.referencedata.service.SupervisedFacilityExpander.Strategy;
+import org.slf4j.profiler.Profiler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Compares supervisory node expansion strategies on a generated hierarchy of 5k supervisory nodes
+ * and 50k facilities. It is not a part of the integrationTest task, run it with the benchmark
+ * task instead. Timings of each strategy are printed at the end.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@ActiveProfiles("test")
+@Transactional
+public class SupervisedFacilityExpanderBenchmark {
+
+  private static final int NODES = 5_000;
+  private static final int FACILITIES_PER_NODE = 10;
+  private static final int CHILDREN_PER_NODE = 5;
+  private static final int PROGRAMS = 3;
+  private static final int PROGRAMS_PER_GROUP = 2;
+  private static final int SUPERVISION_ASSIGNMENTS = 1_000;
+  private static final int BATCH_SIZE = 1_000;
+  private static final int MEASURED_RUNS = 3;
+
+  @Autowired
+  private JdbcTemplate template;
+
+  @Autowired
+  private SupervisedFacilityExpander expander;
+
+  private List<Pair<UUID, UUID>> nodePrograms;
+
+  @Before
+  public void setUp() {
+    Random random = new Random(0);
+
+    UUID levelId = UUID.randomUUID();
+    UUID zoneId = UUID.randomUUID();
+    UUID facilityTypeId = UUID.randomUUID();
+    UUID scheduleId = UUID.randomUUID();
+    template.update("INSERT INTO referencedata.geographic_levels (id, code, levelnumber)"
+        + " VALUES (?, ?, 1)", levelId, "BENCHMARK");
+    template.update("INSERT INTO referencedata.geographic_zones (id, code, levelid)"
+        + " VALUES (?, ?, ?)", zoneId, "BENCHMARK", levelId);
+    template.update("INSERT INTO referencedata.facility_types (id, code) VALUES (?, ?)",
+        facilityTypeId, "BENCHMARK");
+    template.update("INSERT INTO referencedata.processing_schedules (id, code, name)"
+        + " VALUES (?, ?, ?)", scheduleId, "BENCHMARK", "Benchmark");
+
+    List<UUID> programIds = new ArrayList<>();
+    List<Object[]> programs = new ArrayList<>();
+    for (int i = 0; i < PROGRAMS; i++) {
+      programIds.add(UUID.randomUUID());
+      programs.add(new Object[]{programIds.get(i), "BENCHMARK-" + i});
+    }
+    insert("INSERT INTO referencedata.programs"
+        + " (id, code, periodsskippable, enabledatephysicalstockcountcompleted)"
+        + " VALUES (?, ?, FALSE, FALSE)", programs);
+
+    // Nodes are generated in breadth-first order, so the parent of every node already exists.
+    List<UUID> nodeIds = new ArrayList<>();
+    List<Object[]> nodes = new ArrayList<>();
+    List<Object[]> groups = new ArrayList<>();
+    List<Object[]> groupPrograms = new ArrayList<>();
+    List<Object[]> facilities = new ArrayList<>();
+    List<Object[]> members = new ArrayList<>();
+    List<Object[]> supportedPrograms = new ArrayList<>();
+
+    for (int i = 0; i < NODES; i++) {
+      UUID nodeId = UUID.randomUUID();
+      UUID groupId = UUID.randomUUID();
+      nodeIds.add(nodeId);
+      nodes.add(new Object[]{nodeId, "SN-" + i, "Node " + i,
+          i == 0 ? null : nodeIds.get((i - 1) / CHILDREN_PER_NODE)});
+      groups.add(new Object[]{groupId, "RG-" + i, "Group " + i, nodeId});
+
+      for (int j = 0; j < PROGRAMS_PER_GROUP; j++) {
+        groupPrograms.add(new Object[]{UUID.randomUUID(),
+            programIds.get((i + j) % PROGRAMS), scheduleId, groupId});
+      }
+
+      for (int j = 0; j < FACILITIES_PER_NODE; j++) {
+        UUID facilityId = UUID.randomUUID();
+        facilities.add(new Object[]{facilityId, "F-" + i + "-" + j, "Facility " + i + "-" + j,
+            zoneId, facilityTypeId});
+        members.add(new Object[]{groupId, facilityId});
+
+        for (UUID programId : programIds) {
+          supportedPrograms.add(new Object[]{facilityId, programId, random.nextInt(10) > 0});
+        }
+      }
+    }
+
+    insert("INSERT INTO referencedata.supervisory_nodes (id, code, name, parentid)"
+        + " VALUES (?, ?, ?, ?)", nodes);
+    insert("INSERT INTO referencedata.requisition_groups (id, code, name, supervisorynodeid)"
+        + " VALUES (?, ?, ?, ?)", groups);
+    insert("INSERT INTO referencedata.requisition_group_program_schedules"
+        + " (id, programid, processingscheduleid, requisitiongroupid, directdelivery)"
+        + " VALUES (?, ?, ?, ?, TRUE)", groupPrograms);
+    insert("INSERT INTO referencedata.facilities"
+        + " (id, code, name, geographiczoneid, typeid, active, enabled)"
+        + " VALUES (?, ?, ?, ?, ?, TRUE, TRUE)", facilities);
+    insert("INSERT INTO referencedata.requisition_group_members (requisitiongroupid, facilityid)"
+        + " VALUES (?, ?)", members);
+    insert("INSERT INTO referencedata.supported_programs (facilityid, programid, active)"
+        + " VALUES (?, ?, ?)", supportedPrograms);
+    template.execute("ANALYZE");
+
+    // Supervision role assignments are spread over the whole hierarchy, the way they are
+    // returned by get_right_assignments.sql: one row per user, right, node and program.
+    nodePrograms = new ArrayList<>();
+    for (int i = 0; i < SUPERVISION_ASSIGNMENTS; i++) {
+      nodePrograms.add(ImmutablePair.of(nodeIds.get(random.nextInt(NODES)),
+          programIds.get(random.nextInt(PROGRAMS))));
+    }
+  }
+
+  @Test
+  public void shouldReturnSameFacilitiesWithEveryStrategy() throws IOException {
+    Map<Strategy, Map<Pair<UUID, UUID>, Set<UUID>>> results = new EnumMap<>(Strategy.class);
+    for (Strategy strategy : Strategy.values()) {
+      // warm up connections, statement caches and the JIT before measuring
+      results.put(strategy, withoutEmptySets(expander.expand(nodePrograms, strategy)));
+    }
+
+    Profiler profiler = new Profiler("SUPERVISORY_NODE_EXPANSION_BENCHMARK");
+    for (Strategy strategy : Strategy.values()) {
+      profiler.start(strategy.name());
+      for (int i = 0; i < MEASURED_RUNS; i++) {
+        expander.expand(nodePrograms, strategy);
+      }
+    }
+    profiler.stop().print();
+
+    Map<Pair<UUID, UUID>, Set<UUID>> expected = results.get(Strategy.PER_ROW);
+    assertFalse(expected.isEmpty());
+    assertEquals(expected, results.get(Strategy.SINGLE_QUERY));
+    assertEquals(expected, results.get(Strategy.IN_MEMORY));
+  }
+
+  private Map<Pair<UUID, UUID>, Set<UUID>> withoutEmptySets(
+      Map<Pair<UUID, UUID>, Set<UUID>> supervisedFacilities) {
+    return supervisedFacilities
+        .entrySet()
+        .stream()
+        .filter(entry -> !entry.getValue().isEmpty())
+        .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+  }
+
+  private void insert(String sql, List<Object[]> rows) {
+    for (int i = 0; i < rows.size(); i += BATCH_SIZE) {
+      template.batchUpdate(sql, rows.subList(i, Math.min(i + BATCH_SIZE, rows.size())));
+    }
+  }
+}
@@ -27,33 +27,45 @@ public final class AuditLogHelper {
   }
 
   public static void notFound(RestAssuredClient client, String token, String resourceUrl) {
-    withStatus(client, token, resourceUrl, 404);
+    withStatus(client, token, getAuditPath(resourceUrl), 404);
   }
 
   public static void unauthorized(RestAssuredClient client, String token, String resourceUrl) {
-    withStatus(client, token, resourceUrl, 403);
+    withStatus(client, token, getAuditPath(resourceUrl), 403);
   }
 
   public static void ok(RestAssuredClient client, String token, String resourceUrl) {
-    withStatus(client, token, resourceUrl, 200);
+    withStatus(client, token, getAuditPath(resourceUrl), 200);
   }
 
-  private static void withStatus(RestAssuredClient client, String token, String resourceUrl,
+  public static void exportNotFound(RestAssuredClient client, String token, String resourceUrl) {
+    withStatus(client, token, getExportPath(resourceUrl), 404);
+  }
+
+  public static void exportOk(RestAssuredClient client, String token, String resourceUrl) {
+    withStatus(client, token, getExportPath(resourceUrl), 200);
+  }
+
+  private static void withStatus(RestAssuredClient client, String token, String path,
                                  int statusCode) {
-    get(client, token, resourceUrl).then().statusCode(statusCode);
+    get(client, token, path).then().statusCode(statusCode);
   }
 
-  private static Response get(RestAssuredClient client, String token, String resourceUrl) {
+  private static Response get(RestAssuredClient client, String token, String path) {
     return client
         .given()
         .header(HttpHeaders.AUTHORIZATION, token)
         .pathParam("id", UUID.randomUUID())
         .when()
-        .get(getAuditPath(resourceUrl));
+        .get(path);
   }
 
   private static String getAuditPath(String resourceUrl) {
     return resourceUrl + "/{id}/auditLog";
   }
 
+  private static String getExportPath(String resourceUrl) {
+    return getAuditPath(resourceUrl) + "/export";
+  }
+
 }
@@ -60,6 +60,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.openlmis.referencedata.domain.BaseEntity;
 import org.openlmis.referencedata.domain.User;
+import org.openlmis.referencedata.dto.UserPrincipal;
 import org.openlmis.referencedata.exception.UnauthorizedException;
 import org.openlmis.referencedata.repository.CommodityTypeRepository;
 import org.openlmis.referencedata.repository.FacilityOperatorRepository;
@@ -96,7 +97,9 @@ import org.openlmis.referencedata.service.FacilityService;
 import org.openlmis.referencedata.service.FacilityTypeService;
 import org.openlmis.referencedata.service.GeographicZoneService;
 import org.openlmis.referencedata.service.IdealStockAmountService;
+import org.openlmis.referencedata.service.OrderableCatalog;
 import org.openlmis.referencedata.service.OrderableService;
+import org.openlmis.referencedata.service.PermissionIndex;
 import org.openlmis.referencedata.service.RequisitionGroupProgramScheduleService;
 import org.openlmis.referencedata.service.RequisitionGroupService;
 import org.openlmis.referencedata.service.RightService;
@@ -309,6 +312,12 @@ public abstract class BaseWebIntegrationTest {
   @MockBean
   protected AuthenticationHelper authenticationHelper;
 
+  @MockBean
+  protected PermissionIndex permissionIndex;
+
+  @MockBean
+  protected OrderableCatalog orderableCatalog;
+
   @MockBean
   protected IdealStockAmountService idealStockAmountService;
 
@@ -408,6 +417,8 @@ public abstract class BaseWebIntegrationTest {
     user.setId(ADMIN_ID);
 
     given(authenticationHelper.getCurrentUser()).willReturn(user);
+    given(authenticationHelper.getCurrentUserPrincipal())
+        .willReturn(new UserPrincipal(ADMIN_ID, user.getHomeFacilityId(), user.isActive()));
   }
 
   protected void mockUserHasRight(String rightName) {
@@ -17,13 +17,16 @@ package org.openlmis.referencedata.web;
 
 import static java.util.Arrays.asList;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -42,6 +45,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import org.apache.commons.lang3.tuple.Pair;
 import org.assertj.core.util.Lists;
 import org.hamcrest.Matchers;
 import org.junit.Before;
@@ -364,6 +368,45 @@ public class FacilityControllerIntegrationTest extends BaseWebIntegrationTest {
     assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
   }
 
+  @Test
+  public void shouldFindKeysetPageOfApprovedProductsForFacility() {
+    Orderable orderable = new OrderableDataBuilder().build();
+    FacilityTypeApprovedProduct approvedProduct = new FacilityTypeApprovedProductsDataBuilder()
+        .withOrderableId(orderable.getId())
+        .build();
+    FacilityTypeApprovedProduct nextProduct = new FacilityTypeApprovedProductsDataBuilder()
+        .withOrderableId(orderable.getId())
+        .build();
+
+    given(facilityRepository.exists(facility.getId())).willReturn(true);
+    when(facilityTypeApprovedProductRepository.searchProductsAfter(eq(facility.getId()),
+        eq(program.getId()), eq(false), eq(null), eq(null), eq(null), eq(2)))
+        .thenReturn(Arrays.asList(
+            Pair.of(approvedProduct, orderable), Pair.of(nextProduct, orderable)));
+    when(facilityTypeApprovedProductRepository.countProducts(eq(facility.getId()),
+        eq(program.getId()), eq(false), eq(null), eq(null)))
+        .thenReturn(2L);
+
+    restAssured.given()
+        .queryParam(PROGRAM_ID, program.getId())
+        .queryParam(FULL_SUPPLY, false)
+        .queryParam("size", 1)
+        .queryParam("count", true)
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .when()
+        .get(RESOURCE_URL + "/" + facility.getId() + APPROVED_PRODUCTS + "/keyset")
+        .then()
+        .statusCode(200)
+        .body("content", hasSize(1))
+        .body("content[0].id", is(approvedProduct.getId().toString()))
+        .body("content[0].orderable.id", is(orderable.getId().toString()))
+        .body("size", is(1))
+        .body("nextAfter", is(approvedProduct.getId().toString()))
+        .body("totalElements", is(2));
+
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
   @Test
   public void getApprovedProductsShouldReturnUnauthorizedWithoutAuthorization() {
 
@@ -397,6 +440,26 @@ public class FacilityControllerIntegrationTest extends BaseWebIntegrationTest {
     assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
   }
 
+  @Test
+  public void shouldBadRequestWhenLookingForKeysetOfProductsInNonExistentFacility() {
+    given(facilityRepository.exists(any(UUID.class))).willReturn(false);
+
+    restAssured.given()
+        .queryParam(PROGRAM_ID, UUID.randomUUID())
+        .queryParam(FULL_SUPPLY, false)
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .when()
+        .get(RESOURCE_URL + "/" + UUID.randomUUID() + APPROVED_PRODUCTS + "/keyset")
+        .then()
+        .statusCode(400)
+        .body(MESSAGE_KEY, is(FacilityMessageKeys.ERROR_NOT_FOUND));
+
+    verify(facilityTypeApprovedProductRepository, never()).searchProductsAfter(any(UUID.class),
+        any(UUID.class), any(Boolean.class), any(List.class), any(Boolean.class), any(UUID.class),
+        anyInt());
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
   @Test
   public void shouldSearchWithEmptyParamsWhenNoParamsProvided() {
     List<Facility> storedFacilities = asList(facility, new FacilityDataBuilder()
@@ -840,8 +903,8 @@ public class FacilityControllerIntegrationTest extends BaseWebIntegrationTest {
   @Test
   public void findByBoundaryShouldFindFacilities() {
     Polygon boundary = gf.createPolygon(coords);
-    given(facilityRepository.findByBoundary(boundary))
-        .willReturn(Collections.singletonList(facility));
+    given(facilityRepository.findByBoundary(eq(boundary), any(Pageable.class)))
+        .willReturn(new PageImpl<>(Collections.singletonList(facility)));
 
     PageImplRepresentation response = restAssured.given()
         .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
@@ -912,6 +975,24 @@ public class FacilityControllerIntegrationTest extends BaseWebIntegrationTest {
     assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
   }
 
+  @Test
+  public void exportAuditLogShouldReturnNotFoundIfEntityDoesNotExist() {
+    given(facilityRepository.findOne(any(UUID.class))).willReturn(null);
+
+    AuditLogHelper.exportNotFound(restAssured, getTokenHeader(), RESOURCE_URL);
+
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void shouldExportAuditLog() {
+    given(facilityRepository.findOne(any(UUID.class))).willReturn(facility);
+
+    AuditLogHelper.exportOk(restAssured, getTokenHeader(), RESOURCE_URL);
+
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
   private List<SupplyLine> generateSupplyLines(int searchedFacilitiesAmt,
                                                SupervisoryNode searchedSupervisoryNode) {
     List<SupplyLine> searchedSupplyLines = new ArrayList<>();
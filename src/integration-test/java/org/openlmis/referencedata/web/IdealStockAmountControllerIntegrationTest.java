@@ -22,6 +22,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anySetOf;
 import static org.mockito.Matchers.refEq;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -38,8 +39,8 @@ import java.time.LocalDate;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 import org.apache.commons.lang3.StringUtils;
 import org.hamcrest.Matchers;
 import org.junit.Before;
@@ -51,6 +52,7 @@ import org.openlmis.referencedata.domain.IdealStockAmount;
 import org.openlmis.referencedata.domain.ProcessingPeriod;
 import org.openlmis.referencedata.domain.ProcessingSchedule;
 import org.openlmis.referencedata.domain.RightName;
+import org.openlmis.referencedata.dto.IdealStockAmountCsvModel;
 import org.openlmis.referencedata.dto.UploadResultDto;
 import org.openlmis.referencedata.service.IdealStockAmountSearchParams;
 import org.openlmis.referencedata.testbuilder.FacilityDataBuilder;
@@ -75,12 +77,12 @@ public class IdealStockAmountControllerIntegrationTest extends BaseWebIntegratio
   @Before
   @Override
   public void setUp() {
-    facility = new FacilityDataBuilder().build();
+    facility = new FacilityDataBuilder().withCode("facility-code").build();
 
-    commodityType = new CommodityType("Name", "cSys", "cId", null, new ArrayList<>());
+    commodityType = new CommodityType("Name", "system", "id", null, new ArrayList<>());
 
     schedule = new ProcessingSchedule();
-    schedule.setCode(Code.code("schedule-code"));
+    schedule.setCode(Code.code("schedule"));
     schedule.setDescription("desc");
     schedule.setId(UUID.randomUUID());
     schedule.setModifiedDate(ZonedDateTime.now());
@@ -97,13 +99,16 @@ public class IdealStockAmountControllerIntegrationTest extends BaseWebIntegratio
     when(idealStockAmountRepository.save(any(IdealStockAmount.class)))
         .thenAnswer(new SaveAnswer<IdealStockAmount>());
 
-    when(facilityRepository.findByCode(any(String.class))).thenReturn(Optional.of(facility));
-    when(periodRepository.findOneByNameAndProcessingSchedule(any(String.class),
-        any(ProcessingSchedule.class)))
-        .thenReturn(Optional.of(period));
-    when(scheduleRepository.findOneByCode(any(Code.class))).thenReturn(Optional.of(schedule));
-    when(commodityTypeRepository.findByClassificationIdAndClassificationSystem(any(String.class),
-        any(String.class))).thenReturn(Optional.of(commodityType));
+    when(facilityRepository.findByCodeIn(anySetOf(String.class)))
+        .thenReturn(singletonList(facility));
+    when(periodRepository.findByProcessingScheduleInAndNameIn(
+        anySetOf(ProcessingSchedule.class), anySetOf(String.class)))
+        .thenReturn(singletonList(period));
+    when(scheduleRepository.findByCodeIn(anySetOf(String.class)))
+        .thenReturn(singletonList(schedule));
+    when(commodityTypeRepository.findByClassificationSystemInAndClassificationIdIn(
+        anySetOf(String.class), anySetOf(String.class)))
+        .thenReturn(singletonList(commodityType));
 
     mockUserHasRight(RightName.SYSTEM_IDEAL_STOCK_AMOUNTS_MANAGE);
   }
@@ -134,14 +139,17 @@ public class IdealStockAmountControllerIntegrationTest extends BaseWebIntegratio
   @Test
   public void shouldDownloadCsvWithAllPossibleFields() {
 
-    when(idealStockAmountService.search()).thenReturn(singletonList(isa));
+    IdealStockAmountCsvModel csvModel = new IdealStockAmountCsvModel(facility.getCode(),
+        commodityType.getClassificationSystem(), commodityType.getClassificationId(),
+        schedule.getCode().toString(), period.getName(), isa.getAmount());
+    when(idealStockAmountService.streamCsvModels()).thenReturn(Stream.of(csvModel));
 
     String csvContent = download()
         .then()
         .statusCode(200)
         .extract().body().asString();
 
-    verify(idealStockAmountService).search();
+    verify(idealStockAmountService).streamCsvModels();
     assertEquals("Facility Code,Commodity Type,Period,Ideal Stock Amount\r\n"
         + joinWith(",", facility.getCode(),
         StringUtils.joinWith("|", commodityType.getClassificationSystem(),
@@ -154,15 +162,14 @@ public class IdealStockAmountControllerIntegrationTest extends BaseWebIntegratio
   @Test
   public void shouldDownloadCsvWithHeadersOnly() {
 
-    when(idealStockAmountService.search())
-        .thenReturn(Collections.emptyList());
+    when(idealStockAmountService.streamCsvModels()).thenReturn(Stream.empty());
 
     String csvContent = download()
         .then()
         .statusCode(200)
         .extract().body().asString();
 
-    verify(idealStockAmountService).search();
+    verify(idealStockAmountService).streamCsvModels();
     assertEquals("Facility Code,Commodity Type,Period,Ideal Stock Amount\r\n",
         csvContent);
     assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
@@ -828,6 +828,30 @@ public class OrderableControllerIntegrationTest extends BaseWebIntegrationTest {
     assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
   }
 
+  @Test
+  public void exportAuditLogShouldReturnNotFoundIfEntityDoesNotExist() {
+    doNothing()
+        .when(rightService)
+        .checkAdminRight(RightName.ORDERABLES_MANAGE);
+    given(orderableRepository.existsById(any(UUID.class))).willReturn(false);
+
+    AuditLogHelper.exportNotFound(restAssured, getTokenHeader(), RESOURCE_URL);
+
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void shouldExportAuditLog() {
+    doNothing()
+        .when(rightService)
+        .checkAdminRight(RightName.ORDERABLES_MANAGE);
+    given(orderableRepository.existsById(any(UUID.class))).willReturn(true);
+
+    AuditLogHelper.exportOk(restAssured, getTokenHeader(), RESOURCE_URL);
+
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
   private ProgramOrderableDto generateProgramOrderable() {
     return new ProgramOrderableDto(UUID.randomUUID(), UUID.randomUUID(),
         null, null, true, true, 0, 1, Money.of(CurrencyUnit.USD, 10.0));
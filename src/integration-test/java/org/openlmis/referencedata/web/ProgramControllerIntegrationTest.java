@@ -211,6 +211,7 @@ public class ProgramControllerIntegrationTest extends BaseWebIntegrationTest {
 
     assertEquals(program, response);
     assertEquals("OpenLMIS", response.getDescription());
+    verify(orderableCatalog).refreshAll();
     assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
   }
 
@@ -27,9 +27,9 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
-import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -42,7 +42,6 @@ import static org.openlmis.referencedata.web.SupervisoryNodeSearchParams.PROGRAM
 import static org.openlmis.referencedata.web.SupervisoryNodeSearchParams.ZONE_ID;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
 import com.jayway.restassured.response.ValidatableResponse;
 import guru.nidi.ramltester.junit.RamlMatchers;
 import java.util.Collections;
@@ -1084,10 +1083,11 @@ public class SupervisoryNodeControllerIntegrationTest extends BaseWebIntegration
 
   @Test
   public void shouldReturnSupervisingFacilities() {
-    SupervisoryNode spy = spy(supervisoryNode);
-    given(spy.getAllSupervisedFacilities(program)).willReturn(Sets.newHashSet(facility));
+    given(facilityRepository.findSupervisedFacilities(eq(supervisoryNodeId), eq(programId),
+        any(Pageable.class)))
+        .willReturn(new PageImpl<>(Collections.singletonList(facility)));
 
-    given(supervisoryNodeRepository.findOne(supervisoryNodeId)).willReturn(spy);
+    given(supervisoryNodeRepository.findOne(supervisoryNodeId)).willReturn(supervisoryNode);
     given(programRepository.findOne(programId)).willReturn(program);
     mockUserHasRight(RightName.SUPERVISORY_NODES_MANAGE);
 
@@ -33,6 +33,7 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -998,7 +999,7 @@ public class UserControllerIntegrationTest extends BaseWebIntegrationTest {
 
     given(userRepository.exists(userId)).willReturn(true);
     given(userRepository.findOne(userId)).willReturn(user1);
-    given(rightAssignmentRepository.findByUser(userId))
+    given(permissionIndex.getPermissionStrings(userId))
         .willReturn(Sets.newHashSet(ADMIN_RIGHT_NAME));
 
     String[] response = getUsersPermissionStrings()
@@ -1019,7 +1020,7 @@ public class UserControllerIntegrationTest extends BaseWebIntegrationTest {
 
     given(userRepository.exists(userId)).willReturn(true);
     given(userRepository.findOne(userId)).willReturn(user1);
-    given(rightAssignmentRepository.findByUser(userId))
+    given(permissionIndex.getPermissionStrings(userId))
         .willReturn(Sets.newHashSet(ADMIN_RIGHT_NAME));
 
     String[] response = getUsersPermissionStrings()
@@ -1061,12 +1062,56 @@ public class UserControllerIntegrationTest extends BaseWebIntegrationTest {
     assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
   }
 
+  @Test
+  public void getPermissionStringsShouldReturnNotModifiedIfVersionMatches() {
+    mockUserHasRight(RightName.USERS_MANAGE_RIGHT);
+
+    given(permissionIndex.getPermissionStringsVersion(userId)).willReturn("123");
+
+    restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .header(HttpHeaders.IF_NONE_MATCH, "\"123\"")
+        .pathParam("id", userId)
+        .when()
+        .get(PERMISSION_STRINGS_URL)
+        .then()
+        .statusCode(304)
+        .header(HttpHeaders.ETAG, "\"123\"");
+
+    verify(permissionIndex, never()).getPermissionStrings(any(UUID.class));
+    verify(userRepository, never()).exists(any(UUID.class));
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
+  @Test
+  public void getFacilitiesShouldReturnNotModifiedIfVersionMatches() {
+    mockUserHasRight(RightName.USERS_MANAGE_RIGHT);
+
+    given(permissionIndex.getSupervisionFacilitiesVersion(userId)).willReturn("123");
+
+    restAssured
+        .given()
+        .header(HttpHeaders.AUTHORIZATION, getTokenHeader())
+        .header(HttpHeaders.IF_NONE_MATCH, "\"123\"")
+        .pathParam("id", userId)
+        .when()
+        .get(FACILITIES_URL)
+        .then()
+        .statusCode(304)
+        .header(HttpHeaders.ETAG, "\"123\"");
+
+    verify(permissionIndex, never()).getSupervisionFacilities(any(UUID.class));
+    verify(userRepository, never()).exists(any(UUID.class));
+    assertThat(RAML_ASSERT_MESSAGE, restAssured.getLastReport(), RamlMatchers.hasNoViolations());
+  }
+
   @Test
   public void getFacilitiesShouldReturnOkIfServiceToken() {
     mockUserHasRight(RightName.USERS_MANAGE_RIGHT);
 
     given(userRepository.exists(userId)).willReturn(true);
-    given(facilityRepository.findSupervisionFacilitiesByUser(userId))
+    given(permissionIndex.getSupervisionFacilities(userId))
         .willReturn(Sets.newHashSet(new NamedResource(homeFacilityId, homeFacility.getName())));
 
     NamedResource[] response = getUserFacilities()
@@ -1088,7 +1133,7 @@ public class UserControllerIntegrationTest extends BaseWebIntegrationTest {
     mockUserHasNoRight(RightName.USERS_MANAGE_RIGHT, userId);
 
     given(userRepository.exists(userId)).willReturn(true);
-    given(facilityRepository.findSupervisionFacilitiesByUser(userId))
+    given(permissionIndex.getSupervisionFacilities(userId))
         .willReturn(Sets.newHashSet(new NamedResource(homeFacilityId, homeFacility.getName())));
 
     NamedResource[] response = getUserFacilities()
@@ -1213,7 +1258,7 @@ public class UserControllerIntegrationTest extends BaseWebIntegrationTest {
     given(rightRepository.findOne(supervisionRightId)).willReturn(supervisionRight);
     given(programRepository.exists(program1Id)).willReturn(true);
     given(programRepository.exists(program2Id)).willReturn(true);
-    given(rightAssignmentRepository.existsByUserIdAndAndRightNameAndFacilityIdAndProgramId(
+    given(permissionIndex.hasRight(
         userId, supervisionRight.getName(), homeFacilityId, program1Id)).willReturn(true);
 
     return restAssured
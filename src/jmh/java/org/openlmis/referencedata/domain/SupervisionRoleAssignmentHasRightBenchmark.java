@@ -0,0 +1,154 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.domain;
+
+import static org.openlmis.referencedata.domain.RightType.SUPERVISION;
+
+import com.google.common.collect.Sets;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openlmis.referencedata.testbuilder.SupervisoryNodeDataBuilder;
+import org.openlmis.referencedata.testbuilder.SupportedProgramDataBuilder;
+import org.openlmis.referencedata.testbuilder.UserDataBuilder;
+import org.openlmis.referencedata.util.HotPathTimer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.profiler.Profiler;
+
+/**
+ * Compares {@link SupervisionRoleAssignment#hasRight(RightQuery)} with the previous
+ * implementation, which created a {@link Profiler} on every call and checked the right against
+ * the rights of the role. The sample rate parameter is applied to hot path timers, 0 disabling
+ * them. Run with: gradle jmh -Pjmh.include=SupervisionRoleAssignmentHasRight
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SupervisionRoleAssignmentHasRightBenchmark {
+
+  private static final Logger LOGGER =
+      LoggerFactory.getLogger(SupervisionRoleAssignmentHasRightBenchmark.class);
+
+  @Param({"0", "100", "1"})
+  private int sampleRate;
+
+  private SupervisionRoleAssignment homeFacilityAssignment;
+  private SupervisionRoleAssignment supervisoryNodeAssignment;
+  private RightQuery homeFacilityQuery;
+  private RightQuery supervisedFacilityQuery;
+
+  /**
+   * Creates assignments for a home facility and a supervisory node with one facility.
+   */
+  @Setup
+  public void setUp() {
+    HotPathTimer.setSampleRate(sampleRate);
+
+    Right right = Right.newRight("right", SUPERVISION);
+    Role role = Role.newRole("role", right,
+        Right.newRight("otherRight", SUPERVISION), Right.newRight("thirdRight", SUPERVISION));
+    Program program = new Program("P1");
+
+    Facility homeFacility = new Facility("F1");
+    homeFacility.setId(UUID.randomUUID());
+    User user = new UserDataBuilder()
+        .withHomeFacilityId(homeFacility.getId())
+        .build();
+    homeFacilityAssignment = new SupervisionRoleAssignment(role, user, program);
+    homeFacilityQuery = new RightQuery(right, program, homeFacility);
+
+    Facility supervisedFacility = new Facility("F2");
+    supervisedFacility.setSupportedPrograms(Sets.newHashSet(new SupportedProgramDataBuilder()
+        .withFacility(supervisedFacility)
+        .withProgram(program)
+        .build()));
+    SupervisoryNode supervisoryNode = new SupervisoryNodeDataBuilder().build();
+    RequisitionGroup requisitionGroup = new RequisitionGroup("RG1", "RGN1", supervisoryNode);
+    requisitionGroup.setMemberFacilities(Sets.newHashSet(supervisedFacility));
+    requisitionGroup.setRequisitionGroupProgramSchedules(Collections.singletonList(
+        RequisitionGroupProgramSchedule.newRequisitionGroupProgramSchedule(requisitionGroup,
+            program, new ProcessingSchedule(Code.code("PS1"), "Schedule1"), false)));
+    supervisoryNode.setRequisitionGroup(requisitionGroup);
+    supervisoryNodeAssignment =
+        new SupervisionRoleAssignment(role, user, program, supervisoryNode);
+    supervisedFacilityQuery = new RightQuery(right, program, supervisedFacility);
+  }
+
+  @Benchmark
+  public boolean homeFacility() {
+    return homeFacilityAssignment.hasRight(homeFacilityQuery);
+  }
+
+  @Benchmark
+  public boolean homeFacilityWithProfiler() {
+    return hasRightWithProfiler(homeFacilityAssignment, homeFacilityQuery);
+  }
+
+  @Benchmark
+  public boolean supervisoryNode() {
+    return supervisoryNodeAssignment.hasRight(supervisedFacilityQuery);
+  }
+
+  @Benchmark
+  public boolean supervisoryNodeWithProfiler() {
+    return hasRightWithProfiler(supervisoryNodeAssignment, supervisedFacilityQuery);
+  }
+
+  private static boolean hasRightWithProfiler(SupervisionRoleAssignment assignment,
+      RightQuery rightQuery) {
+    Profiler profiler = new Profiler("HAS_RIGHT_FOR_RIGHT_QUERY");
+    profiler.setLogger(LOGGER);
+
+    profiler.start("SUPERVISES");
+    boolean facilityFound;
+    if (assignment.getSupervisoryNode() != null) {
+      profiler.start("CHECK_FOR_NODE");
+      facilityFound = assignment.getSupervisoryNode()
+          .supervises(rightQuery.getFacility(), rightQuery.getProgram());
+    } else if (assignment.user.getHomeFacilityId() != null && rightQuery.getFacility() != null) {
+      profiler.start("CHECK_FOR_HOME_FACILITY");
+      facilityFound = assignment.user.getHomeFacilityId()
+          .equals(rightQuery.getFacility().getId());
+    } else {
+      facilityFound = false;
+    }
+
+    profiler.start("CONTAINS_RIGHT_CHECK");
+    boolean roleContainsRight = assignment.getRole().getRights().contains(rightQuery.getRight());
+
+    profiler.start("CONTAINS_PROGRAM_CHECK");
+    boolean programMatches = assignment.getProgram().equals(rightQuery.getProgram());
+
+    profiler.stop().log();
+
+    return roleContainsRight && programMatches && facilityFound;
+  }
+}
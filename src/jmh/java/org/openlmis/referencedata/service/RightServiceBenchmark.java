@@ -0,0 +1,201 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.service;
+
+import com.google.common.collect.Sets;
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openlmis.referencedata.domain.User;
+import org.openlmis.referencedata.dto.UserPrincipal;
+import org.openlmis.referencedata.repository.RightAssignmentRepository;
+import org.openlmis.referencedata.repository.UserRepository;
+import org.openlmis.referencedata.testbuilder.OAuth2AuthenticationDataBuilder;
+import org.openlmis.referencedata.testbuilder.UserDataBuilder;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Compares an admin right check of a user token through {@link RightService}, which takes the
+ * user's principal from the {@link PermissionCache}, with the previous implementation, which
+ * loaded the user entity on every check. Repositories are stubs that wait queryMicros for each
+ * query. The queries and checks counters are totals of an iteration, so queries divided by checks
+ * is the number of queries per check.
+ * Run with: gradle jmh -Pjmh.include=RightServiceBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RightServiceBenchmark {
+
+  private static final String RIGHT_NAME = "USERS_MANAGE";
+
+  @Param({"0", "200"})
+  private long queryMicros;
+
+  private final AtomicLong queries = new AtomicLong();
+
+  private UserRepository userRepository;
+  private RightService rightService;
+  private AuthenticationHelper authenticationHelper;
+  private PermissionCache permissionCache;
+
+  /**
+   * Counts checks and the queries they run in a single benchmark thread.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class QueryCounter {
+    public long queries;
+    public long checks;
+
+    /**
+     * Resets the counters before each iteration.
+     */
+    @Setup(Level.Iteration)
+    public void reset() {
+      queries = 0;
+      checks = 0;
+    }
+
+    void add(long checkQueries) {
+      queries += checkQueries;
+      ++checks;
+    }
+  }
+
+  /**
+   * Wires the services with stub repositories and authenticates a user who has the right.
+   */
+  @Setup
+  public void setUp() {
+    User user = new UserDataBuilder().build();
+    UserPrincipal principal =
+        new UserPrincipal(user.getId(), user.getHomeFacilityId(), user.isActive());
+
+    userRepository = stub(UserRepository.class, method -> {
+      switch (method) {
+        case "findOne": return user;
+        case "findPrincipal": return principal;
+        case "exists": return true;
+        default: throw new UnsupportedOperationException(method);
+      }
+    });
+    RightAssignmentRepository rightAssignmentRepository = stub(RightAssignmentRepository.class,
+        method -> Sets.newHashSet(RIGHT_NAME));
+
+    permissionCache = new PermissionCache();
+    ReflectionTestUtils.setField(permissionCache, "userRepository", userRepository);
+    ReflectionTestUtils.setField(permissionCache, "rightAssignmentRepository",
+        rightAssignmentRepository);
+    ReflectionTestUtils.setField(permissionCache, "ttl", 60_000L);
+    ReflectionTestUtils.setField(permissionCache, "maxSize", 10_000);
+
+    authenticationHelper = new AuthenticationHelper();
+    ReflectionTestUtils.setField(authenticationHelper, "userRepository", userRepository);
+    ReflectionTestUtils.setField(authenticationHelper, "permissionCache", permissionCache);
+
+    rightService = new RightService();
+    ReflectionTestUtils.setField(rightService, "permissionCache", permissionCache);
+    ReflectionTestUtils.setField(rightService, "authenticationHelper", authenticationHelper);
+    ReflectionTestUtils.setField(rightService, "serviceTokenClientId", "trusted-client");
+    ReflectionTestUtils.setField(rightService, "apiKeyPrefix", "api-key-client-");
+
+    SecurityContextHolder.setStrategyName(SecurityContextHolder.MODE_GLOBAL);
+    SecurityContextHolder.getContext().setAuthentication(new OAuth2AuthenticationDataBuilder()
+        .withUserId(user.getId())
+        .buildUserAuthentication());
+  }
+
+  /**
+   * Checks the right with the principal of the user.
+   */
+  @Benchmark
+  public void checkAdminRight(QueryCounter counter) {
+    long before = queries.get();
+    rightService.checkAdminRight(RIGHT_NAME, false, null);
+    counter.add(queries.get() - before);
+  }
+
+  /**
+   * Checks the right after loading the user entity, like the previous implementation.
+   */
+  @Benchmark
+  public void checkAdminRightLoadingUser(QueryCounter counter) {
+    long before = queries.get();
+    UUID userId = authenticationHelper.getCurrentUser().getId();
+    if (!permissionCache.hasRight(userId, RIGHT_NAME)) {
+      throw new IllegalStateException("User should have the right");
+    }
+    counter.add(queries.get() - before);
+  }
+
+  /**
+   * Checks a user's own resource, which the previous implementation confirmed by loading the
+   * user entity and checking that the user exists.
+   */
+  @Benchmark
+  public void checkOwnResource(QueryCounter counter) {
+    long before = queries.get();
+    UUID userId = authenticationHelper.getCurrentUserPrincipal().getId();
+    rightService.checkAdminRight(RIGHT_NAME, false, userId);
+    counter.add(queries.get() - before);
+  }
+
+  /**
+   * Checks a user's own resource like the previous implementation.
+   */
+  @Benchmark
+  public void checkOwnResourceLoadingUser(QueryCounter counter) {
+    long before = queries.get();
+    UUID userId = authenticationHelper.getCurrentUser().getId();
+    if (!userRepository.exists(userId)) {
+      throw new IllegalStateException("User should exist");
+    }
+    counter.add(queries.get() - before);
+  }
+
+  private <T> T stub(Class<T> repositoryClass, Function<String, ?> answer) {
+    Object proxy = Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[] { repositoryClass }, (instance, method, args) -> {
+          queries.incrementAndGet();
+          if (queryMicros > 0) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(queryMicros));
+          }
+          return answer.apply(method.getName());
+        });
+    return repositoryClass.cast(proxy);
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.web.csv.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openlmis.referencedata.domain.IdealStockAmount;
+import org.openlmis.referencedata.dto.IdealStockAmountCsvModel;
+import org.openlmis.referencedata.validate.CsvHeaderValidator;
+import org.openlmis.referencedata.web.csv.model.ModelClass;
+import org.openlmis.referencedata.web.csv.processor.ParseCommodityType;
+import org.openlmis.referencedata.web.csv.processor.ParseProcessingPeriod;
+import org.openlmis.referencedata.web.csv.recordhandler.RecordProcessor;
+import org.openlmis.referencedata.web.csv.recordhandler.RecordWriter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+
+/**
+ * Uploads a file with a million ideal stock amounts through the {@link CsvParser} pipeline. The
+ * processor and writer sleep for the given number of milliseconds per chunk, standing in for the
+ * lookups and inserts, so that the pool size 1 shows the throughput of a serial upload.
+ * Run with: gradle jmh -Pjmh.include=CsvParser
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class CsvParserBenchmark {
+
+  private static final int ROWS = 1_000_000;
+  private static final int CHUNK_SIZE = 200;
+
+  @Param({"1", "4", "10"})
+  private int poolSize;
+
+  @Param({"0", "5"})
+  private int processMillis;
+
+  @Param({"2"})
+  private int writeMillis;
+
+  private byte[] file;
+  private CsvParser csvParser;
+  private ThreadPoolTaskExecutor readerExecutor;
+  private ThreadPoolTaskExecutor processorExecutor;
+
+  /**
+   * Generates the file and creates the parser with executors of the given pool size.
+   */
+  @Setup
+  public void setUp() {
+    ParseCommodityType.SEPARATOR = "|";
+    ParseProcessingPeriod.SEPARATOR = "|";
+
+    StringBuilder csv = new StringBuilder(
+        "Facility Code,Commodity Type,Period,Ideal Stock Amount\n");
+    for (int i = 1; i <= ROWS; ++i) {
+      csv.append("FAC").append(i % 1000).append(",WHO|CT").append(i % 500)
+          .append(",SCH001|Jan2017,").append(i).append('\n');
+    }
+    file = csv.toString().getBytes(StandardCharsets.UTF_8);
+
+    readerExecutor = newExecutor(1);
+    processorExecutor = newExecutor(poolSize);
+
+    csvParser = new CsvParser();
+    ReflectionTestUtils.setField(csvParser, "chunkSize", CHUNK_SIZE);
+    ReflectionTestUtils.setField(csvParser, "poolSize", poolSize);
+    ReflectionTestUtils.setField(csvParser, "readerExecutor", readerExecutor);
+    ReflectionTestUtils.setField(csvParser, "processorExecutor", processorExecutor);
+    ReflectionTestUtils.setField(csvParser, "transactionManager", new NoOpTransactionManager());
+    csvParser.init();
+  }
+
+  @TearDown
+  public void tearDown() {
+    readerExecutor.shutdown();
+    processorExecutor.shutdown();
+  }
+
+  /**
+   * Uploads the file with a processor and writer which only wait.
+   */
+  @Benchmark
+  public int upload() throws IOException {
+    RecordProcessor<IdealStockAmountCsvModel, IdealStockAmount> processor = records -> {
+      sleep(processMillis);
+      return convert(records);
+    };
+    RecordWriter<IdealStockAmount> writer = entities -> sleep(writeMillis);
+
+    return csvParser.parse(new ByteArrayInputStream(file),
+        new ModelClass<>(IdealStockAmountCsvModel.class), new CsvHeaderValidator(),
+        processor, writer);
+  }
+
+  private static List<IdealStockAmount> convert(List<IdealStockAmountCsvModel> records) {
+    return records.stream()
+        .map(record -> new IdealStockAmount(null, null, null, record.getAmount()))
+        .collect(Collectors.toList());
+  }
+
+  private static void sleep(int millis) {
+    if (millis == 0) {
+      return;
+    }
+
+    try {
+      TimeUnit.MILLISECONDS.sleep(millis);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static ThreadPoolTaskExecutor newExecutor(int poolSize) {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(poolSize);
+    executor.setMaxPoolSize(poolSize);
+    executor.initialize();
+    return executor;
+  }
+
+  private static final class NoOpTransactionManager extends AbstractPlatformTransactionManager {
+
+    @Override
+    protected Object doGetTransaction() {
+      return new Object();
+    }
+
+    @Override
+    protected void doBegin(Object transaction, TransactionDefinition definition) {
+      // nothing to begin
+    }
+
+    @Override
+    protected void doCommit(DefaultTransactionStatus status) {
+      // nothing to commit
+    }
+
+    @Override
+    protected void doRollback(DefaultTransactionStatus status) {
+      // nothing to roll back
+    }
+  }
+}
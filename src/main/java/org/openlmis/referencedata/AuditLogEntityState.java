@@ -0,0 +1,291 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+
+package org.openlmis.referencedata;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import org.apache.commons.lang3.SerializationUtils;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.hibernate.EntityMode;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.ComponentType;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+import org.springframework.stereotype.Component;
+
+/**
+ * Captures the state of audited entities when they are saved, so that their snapshots can be
+ * committed to JaVers later, as they were at that time. JaVers commits the whole object graph of
+ * an entity, so the state of every entity reachable from the saved one is captured with it. Each
+ * entity is disassembled the way the Hibernate second-level cache stores entities: references to
+ * other entities are kept as keys of their captured states, and collections as lists of their
+ * elements. A restored entity is a detached copy, and so are all entities it references.
+ */
+@Component
+public class AuditLogEntityState {
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  /**
+   * Captures the current state of the given entity, which must be persistent, together with the
+   * state of all entities it references, directly or indirectly.
+   *
+   * @param entity the saved entity
+   * @return the serialized state
+   */
+  public byte[] capture(Object entity) {
+    Capture capture = new Capture(entityManager.unwrap(SessionImplementor.class));
+    Key root = capture.reference(null, entity);
+    capture.run();
+
+    return SerializationUtils.serialize(new Object[]{ root, capture.states });
+  }
+
+  /**
+   * Restores an entity, and the entities it references, from its captured state.
+   *
+   * @param id the JPA identifier of the entity
+   * @param captured the state returned by {@link #capture(Object)}
+   * @return a detached entity with the captured state
+   */
+  @SuppressWarnings("unchecked")
+  public Object restore(Object id, byte[] captured) {
+    Object[] deserialized = SerializationUtils.deserialize(captured);
+    Key root = (Key) deserialized[0];
+    Map<Key, EntityState> states = (Map<Key, EntityState>) deserialized[1];
+    SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+
+    // all entities are instantiated first, so that references between them, including cyclic
+    // ones, can be set afterwards
+    Map<Key, Object> entities = new HashMap<>();
+    for (Map.Entry<Key, EntityState> entry : states.entrySet()) {
+      EntityPersister persister = session.getFactory()
+          .getEntityPersister(entry.getValue().entityName);
+      Serializable entityId = root.equals(entry.getKey())
+          ? (Serializable) id
+          : (Serializable) persister.getIdentifierType()
+              .assemble(entry.getKey().id, session, null);
+      entities.put(entry.getKey(), persister.instantiate(entityId, session));
+    }
+
+    Restore restore = new Restore(session, entities);
+    for (Map.Entry<Key, EntityState> entry : states.entrySet()) {
+      restore.restore(entities.get(entry.getKey()), entry.getValue());
+    }
+
+    return entities.get(root);
+  }
+
+  /**
+   * Identifies a captured entity by its root entity name and disassembled identifier.
+   */
+  @AllArgsConstructor
+  @EqualsAndHashCode
+  private static final class Key implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String entityName;
+    private final Serializable id;
+  }
+
+  @AllArgsConstructor
+  private static final class EntityState implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String entityName;
+    private final Serializable[] values;
+  }
+
+  /**
+   * Disassembles an entity and the entities reachable from it, breadth first, so that long
+   * chains of references do not recurse deeply.
+   */
+  private static final class Capture {
+    private final SessionImplementor session;
+    private final LinkedHashMap<Key, EntityState> states = new LinkedHashMap<>();
+    private final Deque<Pair<EntityPersister, Object>> pending = new ArrayDeque<>();
+
+    private Capture(SessionImplementor session) {
+      this.session = session;
+    }
+
+    private void run() {
+      while (!pending.isEmpty()) {
+        Pair<EntityPersister, Object> next = pending.poll();
+        EntityPersister persister = next.getLeft();
+        Object entity = next.getRight();
+        Type[] types = persister.getPropertyTypes();
+        Object[] values = persister.getPropertyValues(entity);
+
+        Serializable[] state = new Serializable[types.length];
+        for (int i = 0; i < types.length; ++i) {
+          state[i] = disassemble(types[i], values[i], entity);
+        }
+        states.put(key(persister, entity), new EntityState(persister.getEntityName(), state));
+      }
+    }
+
+    // the entity is captured later, unless it already is or it is waiting for it
+    private Key reference(String entityName, Object value) {
+      Object entity = value instanceof HibernateProxy
+          ? ((HibernateProxy) value).getHibernateLazyInitializer().getImplementation()
+          : value;
+      EntityPersister persister = session.getEntityPersister(entityName, entity);
+      Key key = key(persister, entity);
+
+      if (!states.containsKey(key)) {
+        states.put(key, null);
+        pending.add(ImmutablePair.of(persister, entity));
+      }
+      return key;
+    }
+
+    private Key key(EntityPersister persister, Object entity) {
+      Serializable id = persister.getIdentifier(entity, session);
+      return new Key(persister.getRootEntityName(),
+          persister.getIdentifierType().disassemble(id, session, null));
+    }
+
+    private Serializable disassemble(Type type, Object value, Object owner) {
+      if (null == value) {
+        return null;
+      }
+      if (type.isEntityType()) {
+        return reference(((EntityType) type).getAssociatedEntityName(), value);
+      }
+      if (type.isCollectionType()) {
+        return disassembleCollection((CollectionType) type, value, owner);
+      }
+      if (type.isComponentType()) {
+        // components may reference entities as well
+        ComponentType componentType = (ComponentType) type;
+        Type[] types = componentType.getSubtypes();
+        Object[] values = componentType.getPropertyValues(value, EntityMode.POJO);
+        Serializable[] state = new Serializable[types.length];
+        for (int i = 0; i < types.length; ++i) {
+          state[i] = disassemble(types[i], values[i], owner);
+        }
+        return state;
+      }
+      return type.disassemble(value, session, owner);
+    }
+
+    private Serializable disassembleCollection(CollectionType type, Object collection,
+        Object owner) {
+      CollectionPersister persister = session.getFactory().getCollectionPersister(type.getRole());
+      ArrayList<Serializable> elements = new ArrayList<>();
+      if (collection instanceof Map) {
+        // keys and values follow each other
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) collection).entrySet()) {
+          elements.add(disassemble(persister.getIndexType(), entry.getKey(), owner));
+          elements.add(disassemble(persister.getElementType(), entry.getValue(), owner));
+        }
+      } else {
+        for (Object element : (Collection<?>) collection) {
+          elements.add(disassemble(persister.getElementType(), element, owner));
+        }
+      }
+      return elements;
+    }
+  }
+
+  /**
+   * Assembles captured states into the instantiated entities.
+   */
+  private static final class Restore {
+    private final SessionImplementor session;
+    private final Map<Key, Object> entities;
+
+    private Restore(SessionImplementor session, Map<Key, Object> entities) {
+      this.session = session;
+      this.entities = entities;
+    }
+
+    private void restore(Object entity, EntityState state) {
+      EntityPersister persister = session.getFactory().getEntityPersister(state.entityName);
+      Type[] types = persister.getPropertyTypes();
+
+      Object[] values = new Object[types.length];
+      for (int i = 0; i < types.length; ++i) {
+        values[i] = assemble(types[i], state.values[i], entity);
+      }
+      persister.setPropertyValues(entity, values);
+    }
+
+    private Object assemble(Type type, Serializable cached, Object owner) {
+      if (null == cached) {
+        return null;
+      }
+      if (type.isEntityType()) {
+        return entities.get((Key) cached);
+      }
+      if (type.isCollectionType()) {
+        return assembleCollection((CollectionType) type, cached, owner);
+      }
+      if (type.isComponentType()) {
+        ComponentType componentType = (ComponentType) type;
+        Type[] types = componentType.getSubtypes();
+        Serializable[] state = (Serializable[]) cached;
+        Object[] values = new Object[types.length];
+        for (int i = 0; i < types.length; ++i) {
+          values[i] = assemble(types[i], state[i], owner);
+        }
+        Object component = componentType.instantiate(EntityMode.POJO);
+        componentType.setPropertyValues(component, values, EntityMode.POJO);
+        return component;
+      }
+      return type.assemble(cached, session, owner);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object assembleCollection(CollectionType type, Serializable cached, Object owner) {
+      CollectionPersister persister = session.getFactory().getCollectionPersister(type.getRole());
+      List<Serializable> elements = (List<Serializable>) cached;
+      Object collection = type.instantiate(elements.size());
+      if (collection instanceof Map) {
+        for (int i = 0; i < elements.size(); i += 2) {
+          ((Map<Object, Object>) collection).put(
+              assemble(persister.getIndexType(), elements.get(i), owner),
+              assemble(persister.getElementType(), elements.get(i + 1), owner));
+        }
+      } else {
+        for (Serializable element : elements) {
+          ((Collection<Object>) collection)
+              .add(assemble(persister.getElementType(), element, owner));
+        }
+      }
+      return collection;
+    }
+  }
+}
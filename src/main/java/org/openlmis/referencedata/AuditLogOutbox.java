@@ -0,0 +1,359 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import lombok.AllArgsConstructor;
+import org.javers.core.Javers;
+import org.javers.repository.jql.InstanceIdDTO;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Changes of audited entities waiting to be committed to JaVers. The {@link AuditLogRecorder}
+ * adds them within the transactions making the changes, together with the state of each saved
+ * entity, which only costs an insert per change. A background task commits them to JaVers in
+ * batches, one by one in the order they were added, each with its own author and with the date
+ * it was added. Only one instance of the service processes the outbox at a time. Entries are
+ * ordered by when they were added, not by when their transactions committed, so an entry of a
+ * transaction which commits late may be committed to JaVers after entries added later.
+ */
+@Component
+@SuppressWarnings("PMD.TooManyMethods")
+public class AuditLogOutbox implements PublicMetrics {
+
+  private static final XLogger XLOGGER = XLoggerFactory.getXLogger(AuditLogOutbox.class);
+
+  private static final String METRIC_PREFIX = "auditLog.";
+  private static final String UNKNOWN_AUTHOR = "unknown user";
+
+  static final String INSERT_SQL = "INSERT INTO referencedata.audit_log_outbox"
+      + " (entitytype, entityid, operation, author, state, createddate)"
+      + " VALUES (?, ?, ?, ?, ?, ?)";
+  static final String TRY_LOCK_SQL =
+      "SELECT pg_try_advisory_xact_lock(hashtext('referencedata.audit_log_outbox'))";
+  static final String SELECT_PENDING_SQL = "SELECT id, entitytype, entityid, operation, author,"
+      + " state, createddate"
+      + " FROM referencedata.audit_log_outbox"
+      + " WHERE failed IS FALSE"
+      + " ORDER BY id"
+      + " LIMIT ?"
+      + " FOR UPDATE SKIP LOCKED";
+  static final String DELETE_SQL = "DELETE FROM referencedata.audit_log_outbox WHERE id = ?";
+  static final String MARK_FAILED_SQL = "UPDATE referencedata.audit_log_outbox"
+      + " SET failed = TRUE"
+      + " WHERE id = ?";
+
+  private static final RowMapper<Entry> ENTRY_MAPPER = (rs, rowNum) -> new Entry(
+      rs.getLong("id"), rs.getString("entitytype"), rs.getString("entityid"),
+      Operation.valueOf(rs.getString("operation")), rs.getString("author"),
+      rs.getBytes("state"), rs.getTimestamp("createddate"));
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  @Autowired
+  private Javers javers;
+
+  @Autowired
+  private JdbcTemplate template;
+
+  @Autowired
+  private AuditLogEntityState entityState;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  @Autowired
+  @Qualifier("auditLogTaskScheduler")
+  private TaskScheduler taskScheduler;
+
+  @Value("${auditLog.async.interval}")
+  private long interval;
+
+  @Value("${auditLog.async.batchSize}")
+  private int batchSize;
+
+  private volatile long lag;
+
+  private final AtomicLong recorded = new AtomicLong();
+  private final AtomicLong committed = new AtomicLong();
+  private final AtomicLong batches = new AtomicLong();
+  private final AtomicLong batchMillis = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+
+  /**
+   * Schedules processing of the outbox. It runs even if changes are audited synchronously, so
+   * that entries recorded before switching modes are not lost.
+   */
+  @PostConstruct
+  public void scheduleProcessing() {
+    taskScheduler.scheduleWithFixedDelay(this::process, interval);
+  }
+
+  /**
+   * Adds saved entities of the given type to the outbox, with their current state, within the
+   * current transaction.
+   *
+   * @param type the class of the saved entities
+   * @param entities the saved entities
+   * @param author the user who saved them
+   */
+  public void recordSaved(Class<?> type, Collection<?> entities, String author) {
+    Timestamp now = new Timestamp(System.currentTimeMillis());
+    List<Object[]> rows = new ArrayList<>(entities.size());
+    for (Object entity : entities) {
+      Object id = entityManager.getEntityManagerFactory().getPersistenceUnitUtil()
+          .getIdentifier(entity);
+      rows.add(new Object[]{ type.getName(), writeId(id), Operation.SAVE.name(), author,
+          captureState(entity), now });
+    }
+
+    insert(rows);
+  }
+
+  /**
+   * Adds deleted entities of the given type to the outbox, within the current transaction.
+   *
+   * @param type the class of the deleted entities
+   * @param ids JPA identifiers of the deleted entities
+   * @param author the user who deleted them
+   */
+  public void recordDeleted(Class<?> type, Collection<?> ids, String author) {
+    Timestamp now = new Timestamp(System.currentTimeMillis());
+    List<Object[]> rows = new ArrayList<>(ids.size());
+    for (Object id : ids) {
+      rows.add(new Object[]{ type.getName(), writeId(id), Operation.DELETE.name(), author,
+          null, now });
+    }
+
+    insert(rows);
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    List<Metric<?>> metrics = new ArrayList<>();
+    metrics.add(new Metric<>(METRIC_PREFIX + "lagMillis", lag));
+    metrics.add(new Metric<>(METRIC_PREFIX + "recorded", recorded.get()));
+    metrics.add(new Metric<>(METRIC_PREFIX + "committed", committed.get()));
+    metrics.add(new Metric<>(METRIC_PREFIX + "batches", batches.get()));
+    metrics.add(new Metric<>(METRIC_PREFIX + "failures", failures.get()));
+    metrics.add(new Metric<>(METRIC_PREFIX + "failed", failed.get()));
+
+    long count = batches.get();
+    if (count > 0) {
+      metrics.add(new Metric<>(METRIC_PREFIX + "meanBatchMillis", batchMillis.get() / count));
+    }
+    return metrics;
+  }
+
+  /**
+   * Commits pending entries to JaVers, batch by batch, until the outbox is drained. If a batch
+   * fails, its entries are committed one by one, and those which still fail are marked as failed
+   * so they do not block the rest. The batches run in their own transactions, while a lock held
+   * by an outer one keeps other instances from processing the outbox at the same time.
+   */
+  void process() {
+    try {
+      newTransaction().execute(status -> {
+        if (Boolean.TRUE.equals(template.queryForObject(TRY_LOCK_SQL, Boolean.class))) {
+          drain();
+        }
+        return null;
+      });
+    } catch (RuntimeException ex) {
+      // keep the schedule; the next run tries again
+      XLOGGER.warn("Could not process the audit log outbox", ex);
+    }
+  }
+
+  private void drain() {
+    try {
+      int processed;
+      do {
+        processed = processBatch();
+      } while (processed >= batchSize);
+    } catch (RuntimeException ex) {
+      failures.incrementAndGet();
+      XLOGGER.warn("Could not commit a batch of audit log entries, retrying them one by one", ex);
+      processOneByOne();
+    }
+  }
+
+  private int processBatch() {
+    long start = System.currentTimeMillis();
+    Integer processed = newTransaction().execute(status -> {
+      List<Entry> entries = template.query(SELECT_PENDING_SQL, ENTRY_MAPPER, batchSize);
+      updateLag(entries, start);
+
+      // every change is committed, so that each save keeps its own author, date and state
+      entries.forEach(this::commit);
+
+      List<Object[]> ids = new ArrayList<>(entries.size());
+      entries.forEach(entry -> ids.add(new Object[]{ entry.outboxId }));
+      template.batchUpdate(DELETE_SQL, ids);
+      entityManager.clear();
+      return entries.size();
+    });
+
+    if (processed > 0) {
+      batches.incrementAndGet();
+      batchMillis.addAndGet(System.currentTimeMillis() - start);
+      committed.addAndGet(processed);
+    }
+    return processed;
+  }
+
+  private void processOneByOne() {
+    List<Entry> entries = newTransaction().execute(status ->
+        template.query(SELECT_PENDING_SQL, ENTRY_MAPPER, batchSize));
+
+    for (Entry entry : entries) {
+      try {
+        newTransaction().execute(status -> {
+          commit(entry);
+          template.update(DELETE_SQL, entry.outboxId);
+          return null;
+        });
+        committed.incrementAndGet();
+      } catch (RuntimeException ex) {
+        XLOGGER.error("Could not commit the audit log entry of {} {}, marking it as failed",
+            entry.type, entry.id, ex);
+        // the outer transaction only holds the lock, so the mark is committed on its own
+        newTransaction().execute(status -> template.update(MARK_FAILED_SQL, entry.outboxId));
+        failed.incrementAndGet();
+      }
+    }
+  }
+
+  private void commit(Entry entry) {
+    Class<?> type = loadClass(entry.type);
+    Object id = readId(type, entry.id);
+    String author = null == entry.author ? UNKNOWN_AUTHOR : entry.author;
+
+    JaVersDateProvider.withCommitDate(entry.createdDate, () -> {
+      if (Operation.DELETE == entry.operation) {
+        javers.commitShallowDeleteById(author, InstanceIdDTO.instanceId(id, type));
+        return;
+      }
+
+      // without a captured state, the entity is committed as it is now
+      Object entity = null == entry.state
+          ? entityManager.find(type, id)
+          : entityState.restore(id, entry.state);
+      if (null != entity) {
+        javers.commit(author, entity);
+      }
+      // otherwise it was deleted since, and the delete has its own entry
+    });
+  }
+
+  private byte[] captureState(Object entity) {
+    try {
+      return entityState.capture(entity);
+    } catch (RuntimeException ex) {
+      XLOGGER.warn("Could not capture the state of {}, it will be committed as it is then",
+          entity.getClass().getName(), ex);
+      return null;
+    }
+  }
+
+  private void insert(List<Object[]> rows) {
+    template.batchUpdate(INSERT_SQL, rows);
+    recorded.addAndGet(rows.size());
+  }
+
+  private void updateLag(List<Entry> entries, long now) {
+    lag = entries.isEmpty() ? 0 : Math.max(0, now - entries.get(0).createdDate.getTime());
+  }
+
+  private TransactionTemplate newTransaction() {
+    TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+    transaction.setPropagationBehavior(TransactionTemplate.PROPAGATION_REQUIRES_NEW);
+    return transaction;
+  }
+
+  private String writeId(Object id) {
+    try {
+      return mapper.writeValueAsString(id);
+    } catch (IOException ex) {
+      throw new IllegalStateException("Could not serialize the entity ID " + id, ex);
+    }
+  }
+
+  private Object readId(Class<?> type, String id) {
+    Class<?> idType = entityManager
+        .getMetamodel()
+        .entity(type)
+        .getIdType()
+        .getJavaType();
+
+    try {
+      return mapper.readValue(id, idType);
+    } catch (IOException ex) {
+      throw new IllegalStateException("Could not deserialize the entity ID " + id, ex);
+    }
+  }
+
+  private static Class<?> loadClass(String name) {
+    try {
+      return Class.forName(name);
+    } catch (ClassNotFoundException ex) {
+      throw new IllegalStateException("Unknown audited entity type " + name, ex);
+    }
+  }
+
+  /**
+   * The kind of change of an audited entity.
+   */
+  public enum Operation {
+    SAVE, DELETE
+  }
+
+  @AllArgsConstructor
+  static final class Entry {
+    private final long outboxId;
+    private final String type;
+    private final String id;
+    private final Operation operation;
+    private final String author;
+    private final byte[] state;
+    private final Timestamp createdDate;
+  }
+}
@@ -0,0 +1,293 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata;
+
+import static org.openlmis.referencedata.util.Pagination.getPageNumber;
+import static org.openlmis.referencedata.util.Pagination.getPageSize;
+
+import com.google.common.collect.Lists;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import org.apache.commons.lang3.StringUtils;
+import org.javers.core.Javers;
+import org.javers.core.commit.CommitId;
+import org.javers.core.diff.Change;
+import org.javers.core.json.JsonConverter;
+import org.javers.core.metamodel.type.ManagedType;
+import org.javers.repository.jql.JqlQuery;
+import org.javers.repository.jql.QueryBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Reads changes from the JaVers audit log a page at a time. The page of snapshots is selected in
+ * the database, sorted by commit date, and JaVers only loads and compares the snapshots on the
+ * page with their previous versions.
+ */
+@Component
+public class AuditLogReader {
+
+  static final int CHUNK_SIZE = 500;
+
+  static final String SELECT_SNAPSHOTS_SQL = "SELECT c.commit_id, g.local_id, c.commit_date,"
+      + " s.snapshot_pk"
+      + " FROM referencedata.jv_snapshot AS s"
+      + " INNER JOIN referencedata.jv_global_id AS g ON g.global_id_pk = s.global_id_fk"
+      + " INNER JOIN referencedata.jv_commit AS c ON c.commit_pk = s.commit_fk";
+  static final String ORDER_BY_COMMIT_DATE = " ORDER BY c.commit_date DESC, s.snapshot_pk DESC";
+
+  // the same indexes are created by a migration for JaVers tables which existed before it ran
+  static final String[] INDEXES_SQL = {
+      "CREATE INDEX IF NOT EXISTS jv_global_id_type_name_local_id_idx"
+          + " ON referencedata.jv_global_id (type_name, local_id)",
+      "CREATE INDEX IF NOT EXISTS jv_commit_commit_date_idx"
+          + " ON referencedata.jv_commit (commit_date DESC, commit_pk)"
+  };
+
+  // instances starting at the same time on a new database would race to create the indexes
+  static final String LOCK_INDEXES_SQL =
+      "SELECT pg_advisory_xact_lock(hashtext('referencedata.jv_audit_log_indexes'))";
+
+  private static final RowMapper<SnapshotKey> SNAPSHOT_KEY_MAPPER = (rs, rowNum) ->
+      new SnapshotKey(CommitId.valueOf(rs.getBigDecimal("commit_id")), rs.getString("local_id"),
+          rs.getTimestamp("commit_date"), rs.getLong("snapshot_pk"));
+
+  @Autowired
+  private Javers javers;
+
+  @Autowired
+  private JdbcTemplate template;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  /**
+   * Creates the indexes of JaVers tables used by the audit log queries, if they do not exist.
+   * JaVers creates its tables when it starts, after the migrations have run, so on a new database
+   * the migration creating them is skipped and the tables are still empty here. The indexes are
+   * created under a lock, so that only one instance at a time creates them.
+   */
+  @PostConstruct
+  public void createIndexes() {
+    new TransactionTemplate(transactionManager).execute(status -> {
+      template.queryForObject(LOCK_INDEXES_SQL, Object.class);
+      for (String sql : INDEXES_SQL) {
+        template.execute(sql);
+      }
+      return null;
+    });
+  }
+
+  /**
+   * Finds a page of changes of the given type, newest first.
+   *
+   * @param type the audited class
+   * @param id the ID of the instance, or null for changes of all instances
+   * @param author the author of the changes, or blank for changes by anyone
+   * @param changedPropertyName the changed property, or blank for changes of any property
+   * @param pageable the page of snapshots to compare
+   * @return the changes made by the snapshots on the page
+   */
+  public List<Change> findChanges(Class<?> type, Object id, String author,
+      String changedPropertyName, Pageable pageable) {
+    SnapshotQuery query = new SnapshotQuery(type, id, author, changedPropertyName);
+    long offset = (long) getPageNumber(pageable) * getPageSize(pageable);
+
+    List<Object> params = new ArrayList<>(query.params);
+    params.add(getPageSize(pageable));
+    params.add(offset);
+    List<SnapshotKey> keys = template.query(
+        SELECT_SNAPSHOTS_SQL + query.where + ORDER_BY_COMMIT_DATE + " LIMIT ? OFFSET ?",
+        SNAPSHOT_KEY_MAPPER, params.toArray());
+
+    List<Change> changes = new ArrayList<>();
+    Lists.partition(keys, CHUNK_SIZE).forEach(chunk -> changes.addAll(compare(query, chunk)));
+    return changes;
+  }
+
+  /**
+   * Writes all changes of the given type, newest first, as a JSON array. Snapshots are read
+   * and compared in chunks, so the whole audit log is never held in memory.
+   *
+   * @param type the audited class
+   * @param id the ID of the instance, or null for changes of all instances
+   * @param author the author of the changes, or blank for changes by anyone
+   * @param changedPropertyName the changed property, or blank for changes of any property
+   * @param writer where the JSON array is written to
+   */
+  public void writeJson(Class<?> type, Object id, String author, String changedPropertyName,
+      Writer writer) throws IOException {
+    SnapshotQuery query = new SnapshotQuery(type, id, author, changedPropertyName);
+    JsonConverter jsonConverter = javers.getJsonConverter();
+
+    writer.write('[');
+    boolean first = true;
+    List<SnapshotKey> keys;
+    SnapshotKey last = null;
+    do {
+      keys = findChunk(query, last);
+      for (Change change : compare(query, keys)) {
+        if (!first) {
+          writer.write(',');
+        }
+        writer.write(jsonConverter.toJson(change));
+        first = false;
+      }
+
+      if (!keys.isEmpty()) {
+        last = keys.get(keys.size() - 1);
+      }
+    } while (keys.size() >= CHUNK_SIZE);
+    writer.write(']');
+    writer.flush();
+  }
+
+  private List<SnapshotKey> findChunk(SnapshotQuery query, SnapshotKey after) {
+    StringBuilder sql = new StringBuilder(SELECT_SNAPSHOTS_SQL).append(query.where);
+    List<Object> params = new ArrayList<>(query.params);
+    if (null != after) {
+      sql.append(" AND (c.commit_date, s.snapshot_pk) < (?, ?)");
+      params.add(after.commitDate);
+      params.add(after.snapshotId);
+    }
+    sql.append(ORDER_BY_COMMIT_DATE).append(" LIMIT ?");
+    params.add(CHUNK_SIZE);
+
+    return template.query(sql.toString(), SNAPSHOT_KEY_MAPPER, params.toArray());
+  }
+
+  private List<Change> compare(SnapshotQuery query, List<SnapshotKey> keys) {
+    if (keys.isEmpty()) {
+      return new ArrayList<>();
+    }
+
+    Map<SnapshotKey, Integer> positions = new HashMap<>(keys.size() * 4 / 3 + 1);
+    for (SnapshotKey key : keys) {
+      positions.put(key, positions.size());
+    }
+    Set<BigDecimal> commitIds = keys
+        .stream()
+        .map(key -> key.commitId.valueAsNumber())
+        .collect(Collectors.toSet());
+
+    QueryBuilder queryBuilder = null == query.id
+        ? QueryBuilder.byClass(query.type)
+        : QueryBuilder.byInstanceId(query.id, query.type);
+    queryBuilder = queryBuilder
+        .withNewObjectChanges(true)
+        .withCommitIds(commitIds)
+        .limit(Integer.MAX_VALUE);
+    if (StringUtils.isNotBlank(query.author)) {
+      queryBuilder = queryBuilder.byAuthor(query.author);
+    }
+    if (StringUtils.isNotBlank(query.changedPropertyName)) {
+      queryBuilder = queryBuilder.andProperty(query.changedPropertyName);
+    }
+
+    // changes are grouped by their snapshot, in the order of the snapshots on the page; those of
+    // snapshots from the same commits which fall on other pages are left out
+    JsonConverter jsonConverter = javers.getJsonConverter();
+    List<List<Change>> bySnapshot = new ArrayList<>(keys.size());
+    keys.forEach(key -> bySnapshot.add(new ArrayList<>()));
+    for (Change change : queryChanges(queryBuilder.build())) {
+      Integer position = positions.get(new SnapshotKey(getCommitId(change),
+          jsonConverter.toJson(change.getAffectedLocalId()), null, 0));
+      if (null != position) {
+        bySnapshot.get(position).add(change);
+      }
+    }
+
+    List<Change> changes = new ArrayList<>();
+    bySnapshot.forEach(changes::addAll);
+    return changes;
+  }
+
+  // JaVers 2.x returns a List and its own Optional here, and 3.x returns Changes and
+  // java.util.Optional; both are only used through the methods they have in common
+  List<Change> queryChanges(JqlQuery query) {
+    return new ArrayList<>(javers.findChanges(query));
+  }
+
+  CommitId getCommitId(Change change) {
+    return change.getCommitMetadata().get().getId();
+  }
+
+  private final class SnapshotQuery {
+    private final Class<?> type;
+    private final Object id;
+    private final String author;
+    private final String changedPropertyName;
+    private final String where;
+    private final List<Object> params = new ArrayList<>();
+
+    SnapshotQuery(Class<?> type, Object id, String author, String changedPropertyName) {
+      this.type = type;
+      this.id = id;
+      this.author = author;
+      this.changedPropertyName = changedPropertyName;
+
+      ManagedType javersType = javers.getTypeMapping(type);
+      List<String> conditions = new ArrayList<>();
+      if (null == id) {
+        conditions.add("s.managed_type = ?");
+        params.add(javersType.getName());
+      } else {
+        conditions.add("g.type_name = ? AND g.local_id = ?");
+        params.add(javersType.getName());
+        params.add(javers.getJsonConverter().toJson(id));
+      }
+      if (StringUtils.isNotBlank(author)) {
+        conditions.add("c.author = ?");
+        params.add(author);
+      }
+      if (StringUtils.isNotBlank(changedPropertyName)) {
+        conditions.add("s.changed_properties LIKE ? ESCAPE '\\'");
+        params.add("%\"" + escapeLike(changedPropertyName) + "\"%");
+      }
+      this.where = " WHERE " + String.join(" AND ", conditions);
+    }
+  }
+
+  private static String escapeLike(String value) {
+    return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+  }
+
+  @AllArgsConstructor
+  @EqualsAndHashCode(of = {"commitId", "localId"})
+  @SuppressWarnings("PMD.UnusedPrivateField")
+  private static final class SnapshotKey {
+    private final CommitId commitId;
+    private final String localId;
+    private final Timestamp commitDate;
+    private final long snapshotId;
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnitUtil;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Aspect;
+import org.javers.core.Javers;
+import org.javers.repository.jql.InstanceIdDTO;
+import org.javers.spring.auditable.AuthorProvider;
+import org.openlmis.referencedata.repository.BaseAuditableRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.repository.core.support.AbstractRepositoryMetadata;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Records changes made through the {@link BaseAuditableRepository} repositories in the audit
+ * log. It replaces the JaVers aspect, which commits a snapshot of each saved entity within the
+ * saving transaction. With {@code auditLog.async.enabled} set, the changes are written to the
+ * {@link AuditLogOutbox} instead, together with the state of each saved entity, and committed to
+ * JaVers later in batches.
+ */
+@Aspect
+@Component
+public class AuditLogRecorder {
+
+  private static final String AUDITABLE_REPOSITORY =
+      "this(org.openlmis.referencedata.repository.BaseAuditableRepository)";
+
+  @Autowired
+  private Javers javers;
+
+  @Autowired
+  private AuthorProvider authorProvider;
+
+  @Autowired
+  private AuditLogOutbox outbox;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Value("${auditLog.async.enabled}")
+  private boolean async;
+
+  private final Map<Class<?>, Class<?>> domainTypes = new ConcurrentHashMap<>();
+
+  /**
+   * Records the entities returned by the save methods of an auditable repository.
+   */
+  @AfterReturning(pointcut = "(execution(public * save(..))"
+      + " || execution(public * saveAndFlush(..))) && " + AUDITABLE_REPOSITORY,
+      returning = "result")
+  public void onSave(JoinPoint joinPoint, Object result) {
+    List<Object> entities = toList(result);
+    if (entities.isEmpty()) {
+      return;
+    }
+
+    String author = authorProvider.provide();
+    if (!async) {
+      entities.forEach(entity -> javers.commit(author, entity));
+      return;
+    }
+
+    Class<?> domainType = getDomainType(joinPoint.getThis());
+    outbox.recordSaved(domainType, entities, author);
+  }
+
+  /**
+   * Records the entities, or the entity IDs, passed to the delete methods of an auditable
+   * repository.
+   */
+  @AfterReturning("execution(public * delete(..)) && " + AUDITABLE_REPOSITORY)
+  public void onDelete(JoinPoint joinPoint) {
+    Object[] args = joinPoint.getArgs();
+    List<Object> deleted = 1 == args.length ? toList(args[0]) : Collections.emptyList();
+    if (deleted.isEmpty()) {
+      return;
+    }
+
+    Class<?> domainType = getDomainType(joinPoint.getThis());
+    String author = authorProvider.provide();
+    List<Object> ids = new ArrayList<>(deleted.size());
+    for (Object item : deleted) {
+      if (domainType.isInstance(item)) {
+        if (async) {
+          ids.add(getId(item));
+        } else {
+          javers.commitShallowDelete(author, item);
+        }
+      } else if (async) {
+        ids.add(item);
+      } else {
+        javers.commitShallowDeleteById(author, InstanceIdDTO.instanceId(item, domainType));
+      }
+    }
+
+    if (!ids.isEmpty()) {
+      outbox.recordDeleted(domainType, ids, author);
+    }
+  }
+
+  private Class<?> getDomainType(Object repository) {
+    return domainTypes.computeIfAbsent(repository.getClass(), this::resolveDomainType);
+  }
+
+  private Class<?> resolveDomainType(Class<?> repositoryClass) {
+    for (Class<?> type : ClassUtils.getAllInterfacesForClassAsSet(repositoryClass)) {
+      if (BaseAuditableRepository.class.isAssignableFrom(type)
+          && BaseAuditableRepository.class != type) {
+        return AbstractRepositoryMetadata.getMetadata(type).getDomainType();
+      }
+    }
+    throw new IllegalStateException("Could not find the domain type of " + repositoryClass);
+  }
+
+  private Object getId(Object entity) {
+    PersistenceUnitUtil util = entityManagerFactory.getPersistenceUnitUtil();
+    return util.getIdentifier(entity);
+  }
+
+  private static List<Object> toList(Object value) {
+    if (null == value) {
+      return Collections.emptyList();
+    }
+
+    if (value instanceof Iterable) {
+      List<Object> list = new ArrayList<>();
+      ((Iterable<?>) value).forEach(item -> {
+        if (null != item) {
+          list.add(item);
+        }
+      });
+      return list;
+    }
+
+    return Collections.singletonList(value);
+  }
+}
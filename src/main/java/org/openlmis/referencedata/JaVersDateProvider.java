@@ -19,6 +19,7 @@ import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.Date;
 import org.javers.common.date.DateProvider;
 import org.joda.time.DateTimeZone;
 import org.joda.time.LocalDateTime;
@@ -27,14 +28,34 @@ import org.joda.time.LocalDateTime;
  * This class may be used by JaVers to retrieve the LocalDateTime that it associates with commits.
  * It is intended to be used, rather than JaVers' default DateProvider, so as to be explicit and
  * consistent with the use of UTC within JaVers' domain. (Otherwise, JaVers uses the default
- * system timezone, which may change, when constructing a LocalDateTime.)
+ * system timezone, which may change, when constructing a LocalDateTime.) Commits made by
+ * {@link #withCommitDate(Date, Runnable)} are dated at the given time instead of now.
  */
 public class JaVersDateProvider implements DateProvider {
   public static final DateTimeZone DATE_TIME_ZONE = DateTimeZone.UTC;
   public static final ZoneId ZONE_ID = ZoneId.of(DATE_TIME_ZONE.getID());
 
+  private static final ThreadLocal<LocalDateTime> COMMIT_DATE = new ThreadLocal<>();
+
+  /**
+   * Returns the date of commits made by the current thread.
+   */
   public LocalDateTime now() {
-    return LocalDateTime.now(DATE_TIME_ZONE);
+    LocalDateTime commitDate = COMMIT_DATE.get();
+    return null == commitDate ? LocalDateTime.now(DATE_TIME_ZONE) : commitDate;
+  }
+
+  /**
+   * Runs the given task with the JaVers commits it makes in the current thread dated at the given
+   * time, like changes which are committed some time after they were made.
+   */
+  public static void withCommitDate(Date date, Runnable task) {
+    COMMIT_DATE.set(new LocalDateTime(date.getTime(), DATE_TIME_ZONE));
+    try {
+      task.run();
+    } finally {
+      COMMIT_DATE.remove();
+    }
   }
 
   /**
@@ -326,9 +326,12 @@ public class Facility extends BaseEntity implements FhirLocation {
    * Check to see if this facility supports the specified program.
    */
   public boolean supports(Program program) {
-    return supportedPrograms
-        .stream()
-        .anyMatch(supported -> supported.isActiveFor(program));
+    for (SupportedProgram supported : supportedPrograms) {
+      if (supported.isActiveFor(program)) {
+        return true;
+      }
+    }
+    return false;
   }
 
   public void setExtraData(Map<String, Object> extraData) {
@@ -34,19 +34,21 @@ import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 import lombok.ToString;
+import org.javers.core.metamodel.annotation.DiffIgnore;
 import org.javers.core.metamodel.annotation.TypeName;
 import org.openlmis.referencedata.domain.BaseEntity.BaseExporter;
 import org.openlmis.referencedata.domain.BaseEntity.BaseImporter;
 import org.openlmis.referencedata.domain.VersionIdentity.VersionExporter;
 import org.openlmis.referencedata.domain.VersionIdentity.VersionImporter;
 
+@SuppressWarnings({"PMD.UnusedPrivateField"})
 @Entity
 @Table(name = "facility_type_approved_products", schema = "referencedata",
     uniqueConstraints = @UniqueConstraint(name = "unq_ftap",
         columnNames = {"orderableId", "programId", "facilityTypeId"}))
 @NoArgsConstructor
 @AllArgsConstructor
-@EqualsAndHashCode
+@EqualsAndHashCode(exclude = "latest")
 @TypeName("FacilityTypeApprovedProduct")
 @ToString
 public class FacilityTypeApprovedProduct implements Versionable {
@@ -93,6 +95,11 @@ public class FacilityTypeApprovedProduct implements Versionable {
   @Setter
   private ZonedDateTime lastUpdated;
 
+  // set by a database trigger for the highest version of each FTAP, used only in queries
+  @Column(name = "isLatest", insertable = false, updatable = false)
+  @DiffIgnore
+  private boolean latest;
+
   /**
    * A minimal constructor with only required fields.
    *
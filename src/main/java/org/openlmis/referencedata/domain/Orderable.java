@@ -67,6 +67,7 @@ import org.openlmis.referencedata.dto.ProgramOrderableDto;
  * Products that are Orderable by Program.  An Orderable represent any medical commodities that may
  * be ordered/requisitioned, typically by a {@link Program}.
  */
+@SuppressWarnings({"PMD.UnusedPrivateField"})
 @Entity
 @TypeName("Orderable")
 @Table(name = "orderables", schema = "referencedata",
@@ -149,6 +150,11 @@ public class Orderable implements Versionable {
   @EmbeddedId
   private VersionIdentity identity;
 
+  // set by a database trigger for the highest version of each orderable, used only in queries
+  @Column(name = "isLatest", insertable = false, updatable = false)
+  @DiffIgnore
+  private boolean latest;
+
   @Getter
   @Setter
   private ZonedDateTime lastUpdated;
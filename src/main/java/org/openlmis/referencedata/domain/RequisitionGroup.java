@@ -150,8 +150,12 @@ public class RequisitionGroup extends BaseEntity {
    * Check to see if this requisition group supports the specified program.
    */
   public boolean supports(Program program) {
-    return requisitionGroupProgramSchedules.stream().anyMatch(
-        rgps -> rgps.getProgram().equals(program));
+    for (RequisitionGroupProgramSchedule schedule : requisitionGroupProgramSchedules) {
+      if (schedule.getProgram().equals(program)) {
+        return true;
+      }
+    }
+    return false;
   }
 
   /**
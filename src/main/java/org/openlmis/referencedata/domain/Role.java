@@ -32,7 +32,9 @@ import javax.persistence.FetchType;
 import javax.persistence.JoinColumn;
 import javax.persistence.JoinTable;
 import javax.persistence.ManyToMany;
+import javax.persistence.PreUpdate;
 import javax.persistence.Table;
+import javax.persistence.Transient;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
@@ -68,6 +70,10 @@ public class Role extends BaseEntity {
   @DiffIgnore
   private Set<Right> rights;
 
+  @Transient
+  @DiffIgnore
+  private transient Set<String> rightNames;
+
   private Role(String name, Right... rights) {
     this.name = name;
     group(rights);
@@ -118,6 +124,7 @@ public class Role extends BaseEntity {
     }
     if (checkRightTypesMatch(rightsList)) {
       this.rights = rightsList;
+      this.rightNames = null;
     } else {
       throw new ValidationMessageException(
           new Message(ERROR_RIGHTS_ARE_DIFFERENT_TYPES));
@@ -149,6 +156,7 @@ public class Role extends BaseEntity {
 
     if (checkRightTypesMatch(allRights)) {
       rights.addAll(Arrays.asList(additionalRights));
+      rightNames = null;
     } else {
       throw new ValidationMessageException(
           new Message(ERROR_RIGHTS_ARE_DIFFERENT_TYPES));
@@ -163,7 +171,25 @@ public class Role extends BaseEntity {
    * @return true if the role contains the right, false otherwise
    */
   public boolean contains(Right right) {
-    return rights.contains(right);
+    return null != right && getRightNames().contains(right.getName());
+  }
+
+  @PreUpdate
+  private void resetRightNames() {
+    rightNames = null;
+  }
+
+  /**
+   * Rights are equal by name, so membership checks only need the precomputed names. The set is
+   * rebuilt lazily after the rights of this role change.
+   */
+  private Set<String> getRightNames() {
+    Set<String> names = rightNames;
+    if (null == names) {
+      names = rights.stream().map(Right::getName).collect(toSet());
+      rightNames = names;
+    }
+    return names;
   }
 
   /**
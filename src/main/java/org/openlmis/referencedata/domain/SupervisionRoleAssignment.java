@@ -21,7 +21,6 @@ import static org.openlmis.referencedata.domain.RightType.SUPERVISION;
 import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
-import java.util.stream.Collectors;
 import javax.persistence.DiscriminatorValue;
 import javax.persistence.Entity;
 import javax.persistence.JoinColumn;
@@ -29,9 +28,7 @@ import javax.persistence.ManyToOne;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import org.javers.core.metamodel.annotation.TypeName;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.slf4j.profiler.Profiler;
+import org.openlmis.referencedata.util.HotPathTimer;
 
 @Entity
 @DiscriminatorValue("supervision")
@@ -39,7 +36,10 @@ import org.slf4j.profiler.Profiler;
 @TypeName("SupervisionRoleAssignment")
 public class SupervisionRoleAssignment extends RoleAssignment {
 
-  private static final Logger LOGGER = LoggerFactory.getLogger(SupervisionRoleAssignment.class);
+  private static final HotPathTimer HAS_RIGHT_TIMER =
+      HotPathTimer.get("supervisionRoleAssignment.hasRight");
+  private static final HotPathTimer SUPERVISED_FACILITIES_TIMER =
+      HotPathTimer.get("supervisionRoleAssignment.getSupervisedFacilities");
 
   @ManyToOne
   @JoinColumn(name = "programid")
@@ -101,30 +101,23 @@ public class SupervisionRoleAssignment extends RoleAssignment {
    */
   @Override
   public boolean hasRight(RightQuery rightQuery) {
-    Profiler profiler = new Profiler("HAS_RIGHT_FOR_RIGHT_QUERY");
-    profiler.setLogger(LOGGER);
+    long start = HAS_RIGHT_TIMER.start();
 
-    profiler.start("SUPERVISES");
-    boolean facilityFound;
-    if (supervisoryNode != null) {
-      profiler.start("CHECK_FOR_NODE");
-      facilityFound = supervisoryNode.supervises(rightQuery.getFacility(), rightQuery.getProgram());
-    } else if (user.getHomeFacilityId() != null && rightQuery.getFacility() != null) {
-      profiler.start("CHECK_FOR_HOME_FACILITY");
-      facilityFound = user.getHomeFacilityId().equals(rightQuery.getFacility().getId());
-    } else {
-      facilityFound = false;
-    }
+    // the facility is checked last, as it may walk the supervisory node hierarchy
+    boolean hasRight = role.contains(rightQuery.getRight())
+        && program.equals(rightQuery.getProgram())
+        && isFacilityFound(rightQuery.getFacility());
 
-    profiler.start("CONTAINS_RIGHT_CHECK");
-    boolean roleContainsRight = role.contains(rightQuery.getRight());
-
-    profiler.start("CONTAINS_PROGRAM_CHECK");
-    boolean programMatches = program.equals(rightQuery.getProgram());
-
-    profiler.stop().log();
+    HAS_RIGHT_TIMER.stop(start);
+    return hasRight;
+  }
 
-    return roleContainsRight && programMatches && facilityFound;
+  private boolean isFacilityFound(Facility facility) {
+    if (supervisoryNode != null) {
+      return supervisoryNode.supervises(facility, program);
+    }
+    return user.getHomeFacilityId() != null && facility != null
+        && user.getHomeFacilityId().equals(facility.getId());
   }
 
   private void addRightAssignments() {
@@ -150,25 +143,18 @@ public class SupervisionRoleAssignment extends RoleAssignment {
    * @return set of supervised facilities
    */
   public Set<Facility> getSupervisedFacilities(Right right, Program program) {
-    Profiler profiler = new Profiler("GET_SUPERVISED_FACILITIES_FOR_RIGHT_AND_PROGRAM");
-    profiler.setLogger(LOGGER);
+    long start = SUPERVISED_FACILITIES_TIMER.start();
 
-    Set<Facility> possibleFacilities = new HashSet<>();
-    
-    if (supervisoryNode == null) {
-      return possibleFacilities;
+    // every facility of the node would be checked for the same right and program, so check them
+    // once instead of asking the node whether it supervises each of its own facilities
+    Set<Facility> facilities;
+    if (supervisoryNode == null || !role.contains(right) || !this.program.equals(program)) {
+      facilities = new HashSet<>();
+    } else {
+      facilities = supervisoryNode.getAllSupervisedFacilities(program);
     }
 
-    profiler.start("GET_ALL_SUPERVISED_FACILITIES_FROM_NODE");
-    possibleFacilities = supervisoryNode.getAllSupervisedFacilities(program);
-
-    profiler.start("HAS_RIGHT_CHECK");
-    Set<Facility> facilities = possibleFacilities.stream()
-        .filter(possibleFacility -> hasRight(new RightQuery(right, program, possibleFacility)))
-        .collect(Collectors.toSet());
-
-    profiler.stop().log();
-
+    SUPERVISED_FACILITIES_TIMER.stop(start);
     return facilities;
   }
 
@@ -15,14 +15,18 @@
 
 package org.openlmis.referencedata.domain;
 
+import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.persistence.Column;
 import javax.persistence.Embedded;
 import javax.persistence.Entity;
@@ -40,9 +44,7 @@ import org.javers.core.metamodel.annotation.DiffIgnore;
 import org.javers.core.metamodel.annotation.TypeName;
 import org.openlmis.referencedata.domain.ExtraDataEntity.ExtraDataExporter;
 import org.openlmis.referencedata.domain.ExtraDataEntity.ExtraDataImporter;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.slf4j.profiler.Profiler;
+import org.openlmis.referencedata.util.HotPathTimer;
 
 @Entity
 @Table(name = "supervisory_nodes", schema = "referencedata")
@@ -52,7 +54,8 @@ import org.slf4j.profiler.Profiler;
 @SuppressWarnings("PMD.TooManyMethods")
 public class SupervisoryNode extends BaseEntity {
 
-  private static final Logger LOGGER = LoggerFactory.getLogger(SupervisoryNode.class);
+  private static final HotPathTimer ALL_SUPERVISED_FACILITIES_TIMER =
+      HotPathTimer.get("supervisoryNode.getAllSupervisedFacilities");
 
   @Column(nullable = false, unique = true, columnDefinition = "text")
   @Getter
@@ -234,46 +237,82 @@ public class SupervisoryNode extends BaseEntity {
    * <p/>
    * Note, this does not get the facility attached to this supervisory node. "All supervised
    * facilities" means all facilities supervised by this node and all recursive child nodes.
+   * Services which only need the supervised facilities, not the loaded hierarchy, should query
+   * them from the supervisory node closure table instead.
    *
    * @param program program to check, can be null.
    * @return all supervised facilities
    */
   public Set<Facility> getAllSupervisedFacilities(Program program) {
-    Profiler profiler = new Profiler("SUPERVISORY_NODE_GET_FACILITIES_FOR_PROGRAM");
-    profiler.setLogger(LOGGER);
+    long start = ALL_SUPERVISED_FACILITIES_TIMER.start();
 
-    Set<Facility> supervisedFacilities = new HashSet<>();
+    Set<Facility> supervisedFacilities = getNodeAndDescendants()
+        .stream()
+        .flatMap(node -> node.getDirectlySupervisedFacilities(program))
+        .collect(Collectors.toSet());
 
-    profiler.start("CHECK_IF_REQ_GROUP_SUPPORTS_PROGRAM");
+    ALL_SUPERVISED_FACILITIES_TIMER.stop(start);
 
-    if (requisitionGroup != null && (null == program || requisitionGroup.supports(program))) {
-      profiler.start("REQ_GROUP_GET_MEMBER_FACILITIES");
-      Set<Facility> facilities = requisitionGroup
-          .getMemberFacilities()
-          .stream()
-          .filter(member -> null == program || member.supports(program))
-          .collect(Collectors.toSet());
-      supervisedFacilities.addAll(facilities);
+    return supervisedFacilities;
+  }
+
+  /**
+   * Check to see if this supervisory node supervises the specified facility, by program. Stops at
+   * the first node which supervises it directly.
+   */
+  public boolean supervises(Facility facility, Program program) {
+    // most nodes supervise the facility directly or have no child nodes, so they are checked
+    // without collecting the hierarchy
+    if (directlySupervises(facility, program)) {
+      return true;
+    }
+    if (null == childNodes || childNodes.isEmpty()) {
+      return false;
+    }
+
+    return getNodeAndDescendants()
+        .stream()
+        .anyMatch(node -> node.directlySupervises(facility, program));
+  }
+
+  private boolean directlySupervises(Facility facility, Program program) {
+    if (requisitionGroup == null || (null != program && !requisitionGroup.supports(program))) {
+      return false;
     }
 
-    profiler.start("GET_FACILITIES_FROM_CHILD_NODES");
-    if (childNodes != null) {
-      for (SupervisoryNode childNode : childNodes) {
-        profiler.start("GET_SUPERVISED_FACILITIES_FROM_NODE");
-        supervisedFacilities.addAll(childNode.getAllSupervisedFacilities(program));
+    for (Facility member : requisitionGroup.getMemberFacilities()) {
+      if (member.equals(facility)) {
+        return null == program || member.supports(program);
       }
     }
+    return false;
+  }
 
-    profiler.stop().log();
+  private Stream<Facility> getDirectlySupervisedFacilities(Program program) {
+    if (requisitionGroup == null || (null != program && !requisitionGroup.supports(program))) {
+      return Stream.empty();
+    }
 
-    return supervisedFacilities;
+    return requisitionGroup
+        .getMemberFacilities()
+        .stream()
+        .filter(member -> null == program || member.supports(program));
   }
 
-  /**
-   * Check to see if this supervisory node supervises the specified facility, by program.
-   */
-  public boolean supervises(Facility facility, Program program) {
-    return getAllSupervisedFacilities(program).contains(facility);
+  // nodes are compared by identity, so that each of them is visited once
+  private Set<SupervisoryNode> getNodeAndDescendants() {
+    Set<SupervisoryNode> nodes = Collections.newSetFromMap(new IdentityHashMap<>());
+    Deque<SupervisoryNode> pending = new ArrayDeque<>();
+    pending.push(this);
+
+    while (!pending.isEmpty()) {
+      SupervisoryNode node = pending.pop();
+      if (nodes.add(node) && null != node.childNodes) {
+        node.childNodes.forEach(pending::push);
+      }
+    }
+
+    return nodes;
   }
 
   /**
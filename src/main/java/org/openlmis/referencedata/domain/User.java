@@ -36,10 +36,8 @@ import org.javers.core.metamodel.annotation.DiffIgnore;
 import org.javers.core.metamodel.annotation.TypeName;
 import org.openlmis.referencedata.domain.ExtraDataEntity.ExtraDataExporter;
 import org.openlmis.referencedata.domain.ExtraDataEntity.ExtraDataImporter;
+import org.openlmis.referencedata.util.HotPathTimer;
 import org.openlmis.util.View;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.slf4j.profiler.Profiler;
 
 @SuppressWarnings({"PMD.UnusedPrivateField", "PMD.TooManyMethods"})
 @Entity
@@ -49,7 +47,10 @@ import org.slf4j.profiler.Profiler;
 @AllArgsConstructor
 public class User extends BaseEntity {
 
-  private static final Logger LOGGER = LoggerFactory.getLogger(User.class);
+  private static final HotPathTimer SUPERVISED_FACILITIES_TIMER =
+      HotPathTimer.get("user.getSupervisedFacilities");
+  private static final HotPathTimer FULFILLMENT_FACILITIES_TIMER =
+      HotPathTimer.get("user.getFulfillmentFacilities");
 
   @JsonView(View.BasicInformation.class)
   @Column(nullable = false, unique = true, columnDefinition = "text")
@@ -139,22 +140,17 @@ public class User extends BaseEntity {
    * @return set of supervised facilities
    */
   public Set<Facility> getSupervisedFacilities(Right right, Program program) {
-    Profiler profiler = new Profiler("GET_SUPERVISED_FACILITIES_FOR_USER");
-    profiler.setLogger(LOGGER);
+    long start = SUPERVISED_FACILITIES_TIMER.start();
 
     Set<Facility> supervisedFacilities = new HashSet<>();
-
-    profiler.start("FOR_EACH_ROLE_ASSIGNMENT");
     for (RoleAssignment roleAssignment : roleAssignments) {
       if (roleAssignment instanceof SupervisionRoleAssignment) {
-        profiler.start("GET_FACILITIES_FOR_RIGHT");
         supervisedFacilities.addAll((
             (SupervisionRoleAssignment) roleAssignment).getSupervisedFacilities(right, program));
       }
     }
 
-    profiler.stop().log();
-
+    SUPERVISED_FACILITIES_TIMER.stop(start);
     return supervisedFacilities;
   }
 
@@ -177,29 +173,19 @@ public class User extends BaseEntity {
    * @return set of facilities
    */
   public Set<Facility> getFulfillmentFacilities(Right right) {
-    Profiler profiler = new Profiler("GET_USER_FULFILLMENT_FACILITIES_BY_RIGHT");
-    profiler.setLogger(LOGGER);
+    long start = FULFILLMENT_FACILITIES_TIMER.start();
 
     Set<Facility> fulfillmentFacilities = new HashSet<>();
-
-    profiler.start("FOR_EACH_ROLE_ASSIGNMENT");
     for (RoleAssignment roleAssignment : roleAssignments) {
       if (roleAssignment instanceof FulfillmentRoleAssignment) {
-        profiler.start("GET_WAREHOUSE");
         Facility warehouse = ((FulfillmentRoleAssignment) roleAssignment).getWarehouse();
-
-        profiler.start("NEW_RIGHT_QUERY");
-        RightQuery rightQuery = new RightQuery(right, warehouse);
-
-        profiler.start("HAS_RIGHT");
-        if (roleAssignment.hasRight(rightQuery)) {
+        if (roleAssignment.hasRight(new RightQuery(right, warehouse))) {
           fulfillmentFacilities.add(warehouse);
         }
       }
     }
 
-    profiler.stop().log();
-
+    FULFILLMENT_FACILITIES_TIMER.stop(start);
     return fulfillmentFacilities;
   }
 
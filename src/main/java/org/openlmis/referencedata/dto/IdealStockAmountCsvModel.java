@@ -57,6 +57,28 @@ public class IdealStockAmountCsvModel extends BaseDto
   @ImportField(name = IDEAL_STOCK_AMOUNT, type = POSITIVE_INT)
   private Integer amount;
 
+  /**
+   * Creates a model of an ideal stock amount with only the codes and names written to CSV files.
+   * It is used to create models directly from query results.
+   */
+  public IdealStockAmountCsvModel(String facilityCode, String classificationSystem,
+      String classificationId, String scheduleCode, String periodName, Integer amount) {
+    facility = new BasicFacilityDto();
+    facility.setCode(facilityCode);
+
+    commodityType = new CommodityTypeDto();
+    commodityType.setClassificationSystem(classificationSystem);
+    commodityType.setClassificationId(classificationId);
+
+    ProcessingScheduleDto schedule = new ProcessingScheduleDto();
+    schedule.setCode(scheduleCode);
+    processingPeriod = new IsaProcessingPeriodDto();
+    processingPeriod.setName(periodName);
+    processingPeriod.setProcessingSchedule(schedule);
+
+    this.amount = amount;
+  }
+
   public void setFacility(BasicFacilityDto facility) {
     this.facility = facility;
   }
@@ -15,7 +15,7 @@
 
 package org.openlmis.referencedata.repository;
 
-import com.vividsolutions.jts.geom.Polygon;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -33,17 +33,12 @@ public interface FacilityRepository
     extends JpaRepository<Facility, UUID>, FacilityRepositoryCustom,
     BaseAuditableRepository<Facility, UUID> {
 
-  @Query(value = "SELECT f.*"
-      + " FROM referencedata.facilities f"
-      + " WHERE ST_Covers(:boundary, f.location)",
-      nativeQuery = true
-  )
-  List<Facility> findByBoundary(@Param("boundary") Polygon boundary);
-
   Facility findFirstByCode(String code);
 
   Optional<Facility> findByCode(String code);
 
+  List<Facility> findByCodeIn(Collection<String> codes);
+
   @Query(name = "Facility.findSupervisionFacilitiesByUser",
       nativeQuery = true)
   Set<NamedResource> findSupervisionFacilitiesByUser(@Param("userId") UUID userId);
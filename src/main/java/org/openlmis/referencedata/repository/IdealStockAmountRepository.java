@@ -15,11 +15,32 @@
 
 package org.openlmis.referencedata.repository;
 
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+
 import java.util.UUID;
+import java.util.stream.Stream;
+import javax.persistence.QueryHint;
 import org.openlmis.referencedata.domain.IdealStockAmount;
+import org.openlmis.referencedata.dto.IdealStockAmountCsvModel;
 import org.openlmis.referencedata.repository.custom.IdealStockAmountRepositoryCustom;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.PagingAndSortingRepository;
 
 public interface IdealStockAmountRepository extends
     PagingAndSortingRepository<IdealStockAmount, UUID>, IdealStockAmountRepositoryCustom {
+
+  /**
+   * Streams CSV models of all ideal stock amounts, read through a cursor in batches of 1000 rows.
+   * Must be called and consumed in a transaction, and closed afterwards.
+   */
+  @Query("SELECT new org.openlmis.referencedata.dto.IdealStockAmountCsvModel("
+      + "f.code, ct.classificationSystem, ct.classificationId, s.code.code, pp.name, isa.amount)"
+      + " FROM IdealStockAmount isa"
+      + " JOIN isa.facility f"
+      + " JOIN isa.commodityType ct"
+      + " JOIN isa.processingPeriod pp"
+      + " JOIN pp.processingSchedule s")
+  @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+  Stream<IdealStockAmountCsvModel> streamAllCsvModels();
 }
@@ -17,11 +17,11 @@ package org.openlmis.referencedata.repository;
 
 import static org.openlmis.referencedata.repository.RepositoryConstants.FROM_ORDERABLES_CLAUSE;
 import static org.openlmis.referencedata.repository.RepositoryConstants.FROM_REFERENCEDATA_ORDERABLES_CLAUSE;
-import static org.openlmis.referencedata.repository.RepositoryConstants.JOIN_WITH_LATEST_ORDERABLE;
 import static org.openlmis.referencedata.repository.RepositoryConstants.ORDER_BY_LAST_UPDATED_DESC_LIMIT_1;
 import static org.openlmis.referencedata.repository.RepositoryConstants.ORDER_BY_PAGEABLE;
 import static org.openlmis.referencedata.repository.RepositoryConstants.SELECT_LAST_UPDATED;
 import static org.openlmis.referencedata.repository.RepositoryConstants.SELECT_ORDERABLE;
+import static org.openlmis.referencedata.repository.RepositoryConstants.WHERE_LATEST_NATIVE_ORDERABLE;
 import static org.openlmis.referencedata.repository.RepositoryConstants.WHERE_LATEST_ORDERABLE;
 
 import java.sql.Timestamp;
@@ -124,7 +124,7 @@ public interface OrderableRepository extends
 
   @Query(value = SELECT_LAST_UPDATED
       + FROM_REFERENCEDATA_ORDERABLES_CLAUSE
-      + JOIN_WITH_LATEST_ORDERABLE
+      + WHERE_LATEST_NATIVE_ORDERABLE
       + ORDER_BY_LAST_UPDATED_DESC_LIMIT_1,
       nativeQuery = true
   )
@@ -132,8 +132,8 @@ public interface OrderableRepository extends
 
   @Query(value = SELECT_LAST_UPDATED
       + FROM_REFERENCEDATA_ORDERABLES_CLAUSE
-      + JOIN_WITH_LATEST_ORDERABLE
-      + " WHERE o.id IN :ids"
+      + WHERE_LATEST_NATIVE_ORDERABLE
+      + " AND o.id IN :ids"
       + ORDER_BY_LAST_UPDATED_DESC_LIMIT_1,
       nativeQuery = true
   )
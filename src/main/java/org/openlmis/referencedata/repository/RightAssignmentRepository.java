@@ -35,6 +35,12 @@ public interface RightAssignmentRepository extends
       nativeQuery = true)
   Set<String> findByUser(@Param("userId") UUID userId);
 
+  @Query(value = "SELECT DISTINCT ra.rightname"
+      + " FROM referencedata.right_assignments ra"
+      + " WHERE ra.userid = :userId",
+      nativeQuery = true)
+  Set<String> findRightNamesByUser(@Param("userId") UUID userId);
+
   boolean existsByUserIdAndRightName(UUID user, String rightName);
   
   boolean existsByUserIdAndAndRightNameAndFacilityId(UUID user, String rightName, UUID facilityId);
@@ -21,6 +21,7 @@ import java.util.UUID;
 import org.openlmis.referencedata.domain.Facility;
 import org.openlmis.referencedata.domain.Right;
 import org.openlmis.referencedata.domain.User;
+import org.openlmis.referencedata.dto.UserPrincipal;
 import org.openlmis.referencedata.repository.custom.UserRepositoryCustom;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -36,6 +37,12 @@ public interface UserRepository extends
 
   User findOneByUsernameIgnoreCase(@Param("username") String username);
 
+  @Query("SELECT new org.openlmis.referencedata.dto.UserPrincipal("
+      + "u.id, u.homeFacilityId, u.active)"
+      + " FROM User u"
+      + " WHERE u.id = :userId")
+  UserPrincipal findPrincipal(@Param("userId") UUID userId);
+
   @Query(value = "SELECT u.*"
       + " FROM referencedata.users u"
       + " WHERE u.extradata @> (:extraData)\\:\\:jsonb",
@@ -15,6 +15,7 @@
 
 package org.openlmis.referencedata.repository.custom;
 
+import com.vividsolutions.jts.geom.Polygon;
 import java.util.Set;
 import java.util.UUID;
 import org.openlmis.referencedata.domain.Facility;
@@ -26,6 +27,13 @@ public interface FacilityRepositoryCustom {
   Page<Facility> search(SearchParams params, Set<UUID> geographicZoneIds, String extraData,
       Pageable pageable);
 
+  Page<Facility> findByBoundary(Polygon boundary, Pageable pageable);
+
+  Page<Facility> findSupervisedFacilities(UUID supervisoryNodeId, UUID programId,
+      Pageable pageable);
+
+  Set<Facility> findSupervisedFacilities(UUID supervisoryNodeId, UUID programId);
+
   interface SearchParams {
 
     String getCode();
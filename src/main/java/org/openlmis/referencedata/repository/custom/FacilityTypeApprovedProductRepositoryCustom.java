@@ -20,6 +20,7 @@ import java.util.Set;
 import java.util.UUID;
 import org.apache.commons.lang3.tuple.Pair;
 import org.openlmis.referencedata.domain.FacilityTypeApprovedProduct;
+import org.openlmis.referencedata.domain.Orderable;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
@@ -30,6 +31,13 @@ public interface FacilityTypeApprovedProductRepositoryCustom {
 
   Page<FacilityTypeApprovedProduct> searchProducts(SearchParams searchParams, Pageable pageable);
 
+  List<Pair<FacilityTypeApprovedProduct, Orderable>> searchProductsAfter(UUID facilityId,
+      UUID programId, Boolean fullSupply, List<UUID> orderableIds, Boolean active, UUID after,
+      int limit);
+
+  long countProducts(UUID facilityId, UUID programId, Boolean fullSupply,
+      List<UUID> orderableIds, Boolean active);
+
   interface SearchParams {
 
     Set<String> getFacilityTypeCodes();
@@ -15,14 +15,16 @@
 
 package org.openlmis.referencedata.repository.custom.impl;
 
-import static org.apache.commons.collections4.CollectionUtils.isEmpty;
 import static org.apache.commons.collections4.CollectionUtils.isNotEmpty;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.vividsolutions.jts.geom.Polygon;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -30,17 +32,26 @@ import java.util.UUID;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
-import org.hibernate.SQLQuery;
-import org.hibernate.type.PostgresUUIDType;
 import org.openlmis.referencedata.domain.Facility;
+import org.openlmis.referencedata.exception.ValidationMessageException;
 import org.openlmis.referencedata.repository.custom.FacilityRepositoryCustom;
+import org.openlmis.referencedata.util.Message;
 import org.openlmis.referencedata.util.Pagination;
+import org.openlmis.referencedata.util.messagekeys.PageableMessageKeys;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 
 public class FacilityRepositoryImpl implements FacilityRepositoryCustom {
 
-  private static final String NATIVE_SELECT_BY_PARAMS = "SELECT DISTINCT f.id AS ID"
+  private static final String NATIVE_COUNT_BY_PARAMS = "SELECT COUNT(*)"
+      + " FROM referencedata.facilities AS f"
+      + " INNER JOIN referencedata.geographic_zones AS g ON f.geographiczoneid = g.id"
+      + " INNER JOIN referencedata.facility_types AS t ON f.typeid = t.id";
+
+  private static final String NATIVE_SELECT_BY_PARAMS = "SELECT f.*"
       + " FROM referencedata.facilities AS f"
       + " INNER JOIN referencedata.geographic_zones AS g ON f.geographiczoneid = g.id"
       + " INNER JOIN referencedata.facility_types AS t ON f.typeid = t.id";
@@ -50,7 +61,9 @@ public class FacilityRepositoryImpl implements FacilityRepositoryCustom {
       + " INNER JOIN f.geographicZone AS g"
       + " INNER JOIN f.type AS t";
 
-  private static final String HQL_SELECT = "SELECT DISTINCT f"
+  // facilities join their zone and type many-to-one, so rows are distinct anyway; DISTINCT would
+  // also reject ordering by similarity, which is not a selected column
+  private static final String HQL_SELECT = "SELECT f"
       + " FROM Facility AS f"
       + " INNER JOIN f.geographicZone AS g"
       + " INNER JOIN f.type AS t";
@@ -67,9 +80,78 @@ public class FacilityRepositoryImpl implements FacilityRepositoryCustom {
   private static final String WITH_TYPE = "t.code = :typeCode";
   private static final String WITH_EXTRA_DATA = "f.extradata @> (:extraData)\\:\\:jsonb";
 
+  private static final String BY_NAME_SIMILARITY = "similarity(UPPER(f.name), :nameText) DESC";
+  private static final String BY_CODE_SIMILARITY = "similarity(UPPER(f.code), :codeText) DESC";
+
+  // the columns native queries sort by, for the properties the HQL search can sort by; the zone
+  // and the type are joined as g and t, other associations would have to be joined first
+  private static final Map<String, String> NATIVE_SORT_COLUMNS = ImmutableMap
+      .<String, String>builder()
+      .put("id", "f.id")
+      .put("code", "f.code")
+      .put("name", "f.name")
+      .put("description", "f.description")
+      .put("active", "f.active")
+      .put("enabled", "f.enabled")
+      .put("openLmisAccessible", "f.openlmisaccessible")
+      .put("goLiveDate", "f.golivedate")
+      .put("goDownDate", "f.godowndate")
+      .put("comment", "f.comment")
+      .put("operator", "f.operatedbyid")
+      .put("geographicZone", "f.geographiczoneid")
+      .put("geographicZone.id", "g.id")
+      .put("geographicZone.code", "g.code")
+      .put("geographicZone.name", "g.name")
+      .put("geographicZone.catchmentPopulation", "g.catchmentpopulation")
+      .put("geographicZone.latitude", "g.latitude")
+      .put("geographicZone.longitude", "g.longitude")
+      .put("type", "f.typeid")
+      .put("type.id", "t.id")
+      .put("type.code", "t.code")
+      .put("type.name", "t.name")
+      .put("type.description", "t.description")
+      .put("type.displayOrder", "t.displayorder")
+      .put("type.active", "t.active")
+      .build();
+
+  private static final String NATIVE_COUNT = "SELECT COUNT(*)";
+  private static final String NATIVE_SELECT = "SELECT f.*";
+  private static final String NATIVE_ORDER_BY_NAME = " ORDER BY f.name, f.id";
+
+  private static final String NATIVE_FROM_BOUNDARY = " FROM referencedata.facilities f"
+      + " WHERE ST_Covers(:boundary, f.location)";
+
+  private static final String NATIVE_FROM_SUPERVISED = " FROM referencedata.facilities f"
+      + " WHERE f.id IN ("
+      + "   SELECT rgm.facilityid"
+      + "   FROM referencedata.supervisory_node_closure snc"
+      + "     JOIN referencedata.requisition_groups rg ON rg.supervisorynodeid = snc.descendantid"
+      + "     JOIN referencedata.requisition_group_members rgm"
+      + "       ON rgm.requisitiongroupid = rg.id"
+      + "   WHERE snc.ancestorid = :supervisoryNodeId)";
+
+  private static final String NATIVE_FROM_SUPERVISED_FOR_PROGRAM =
+      " FROM referencedata.facilities f"
+      + " WHERE f.id IN ("
+      + "   SELECT rgm.facilityid"
+      + "   FROM referencedata.supervisory_node_closure snc"
+      + "     JOIN referencedata.requisition_groups rg ON rg.supervisorynodeid = snc.descendantid"
+      + "     JOIN referencedata.requisition_group_members rgm"
+      + "       ON rgm.requisitiongroupid = rg.id"
+      + "     JOIN referencedata.requisition_group_program_schedules rgps"
+      + "       ON rgps.requisitiongroupid = rg.id"
+      + "     JOIN referencedata.supported_programs sp ON sp.facilityid = rgm.facilityid"
+      + "       AND sp.programid = rgps.programid"
+      + "       AND sp.active = TRUE"
+      + "   WHERE snc.ancestorid = :supervisoryNodeId"
+      + "     AND rgps.programid = :programId)";
+
   @PersistenceContext
   private EntityManager entityManager;
 
+  @Value("${search.rankBySimilarity}")
+  private boolean rankBySimilarity;
+
   /**
    * This method is supposed to retrieve all facilities with matched parameters.
    * Method is ignoring case for facility code and name.
@@ -88,38 +170,120 @@ public class FacilityRepositoryImpl implements FacilityRepositoryCustom {
     return searchWithoutExtraData(searchParams, geographicZoneIds, pageable);
   }
 
-  private Page<Facility> searchWithExtraData(FacilityRepositoryCustom.SearchParams searchParams,
-      Set<UUID> geographicZoneIds, String extraData, Pageable pageable) {
+  /**
+   * Retrieves a page of facilities located within the given boundary, sorted by name. Only the
+   * facilities of the page are loaded, the total is counted separately.
+   *
+   * @param boundary the boundary to search facilities in
+   * @param pageable page number and size; its sort is ignored
+   * @return Page of Facilities within the boundary.
+   */
+  @Override
+  public Page<Facility> findByBoundary(Polygon boundary, Pageable pageable) {
+    Map<String, Object> params = Maps.newHashMap();
+    params.put("boundary", boundary);
+
+    return findPage(NATIVE_FROM_BOUNDARY, params, pageable);
+  }
 
+  /**
+   * Retrieves a page of facilities supervised by the given supervisory node or its descendants,
+   * sorted by name. If a program is given, only facilities supporting it in requisition groups
+   * with a schedule for it are returned.
+   *
+   * @param supervisoryNodeId ID of the supervisory node
+   * @param programId         ID of the program, optional
+   * @param pageable          page number and size; its sort is ignored
+   * @return Page of supervised Facilities.
+   */
+  @Override
+  public Page<Facility> findSupervisedFacilities(UUID supervisoryNodeId, UUID programId,
+      Pageable pageable) {
     Map<String, Object> params = Maps.newHashMap();
-    String query =
-        prepareQuery(NATIVE_SELECT_BY_PARAMS, searchParams, geographicZoneIds, extraData, params);
+    params.put("supervisoryNodeId", supervisoryNodeId);
 
-    Query nativeQuery = entityManager.createNativeQuery(query);
-    params.forEach(nativeQuery::setParameter);
+    if (null == programId) {
+      return findPage(NATIVE_FROM_SUPERVISED, params, pageable);
+    }
 
-    SQLQuery sqlQuery = nativeQuery.unwrap(SQLQuery.class);
-    sqlQuery.addScalar("ID", PostgresUUIDType.INSTANCE);
+    params.put("programId", programId);
+    return findPage(NATIVE_FROM_SUPERVISED_FOR_PROGRAM, params, pageable);
+  }
 
-    // appropriate scalar is added to native query
+  /**
+   * Retrieves all facilities supervised by the given supervisory node or its descendants, which
+   * support the given program in requisition groups with a schedule for it.
+   *
+   * @param supervisoryNodeId ID of the supervisory node
+   * @param programId         ID of the program
+   * @return Set of supervised Facilities.
+   */
+  @Override
+  public Set<Facility> findSupervisedFacilities(UUID supervisoryNodeId, UUID programId) {
+    Query query = entityManager
+        .createNativeQuery(NATIVE_SELECT + NATIVE_FROM_SUPERVISED_FOR_PROGRAM, Facility.class)
+        .setParameter("supervisoryNodeId", supervisoryNodeId)
+        .setParameter("programId", programId);
+
+    // the query is created for the Facility class
     @SuppressWarnings("unchecked")
-    List<UUID> ids = nativeQuery.getResultList();
+    List<Facility> facilities = query.getResultList();
 
-    if (isEmpty(ids)) {
-      return Pagination.getPage(Collections.emptyList(), pageable, 0);
+    return new HashSet<>(facilities);
+  }
+
+  private Page<Facility> findPage(String from, Map<String, Object> params, Pageable pageable) {
+    Query countQuery = entityManager.createNativeQuery(NATIVE_COUNT + from);
+    params.forEach(countQuery::setParameter);
+    long count = ((Number) countQuery.getSingleResult()).longValue();
+
+    if (count <= pageable.getOffset()) {
+      return Pagination.getPage(Collections.emptyList(), pageable, count);
     }
 
-    String hqlWithSort = Joiner.on(' ').join(Lists.newArrayList(HQL_SELECT, WHERE, WITH_IDS,
-        ORDER_BY, PageableUtil.getOrderPredicate(pageable, "f.", DEFAULT_SORT)));
+    Query searchQuery = entityManager
+        .createNativeQuery(NATIVE_SELECT + from + NATIVE_ORDER_BY_NAME, Facility.class);
+    params.forEach(searchQuery::setParameter);
 
-    List<Facility> facilities =  entityManager
-        .createQuery(hqlWithSort, Facility.class)
-        .setParameter("ids", ids)
+    // the query is created for the Facility class
+    @SuppressWarnings("unchecked")
+    List<Facility> facilities = searchQuery
         .setMaxResults(pageable.getPageSize())
         .setFirstResult(pageable.getOffset())
         .getResultList();
 
-    return Pagination.getPage(facilities, pageable, ids.size());
+    return Pagination.getPage(facilities, pageable, count);
+  }
+
+  private Page<Facility> searchWithExtraData(FacilityRepositoryCustom.SearchParams searchParams,
+      Set<UUID> geographicZoneIds, String extraData, Pageable pageable) {
+
+    Map<String, Object> params = Maps.newHashMap();
+    Query countQuery = entityManager.createNativeQuery(prepareQuery(
+        NATIVE_COUNT_BY_PARAMS, searchParams, geographicZoneIds, extraData, params));
+    params.forEach(countQuery::setParameter);
+    long count = ((Number) countQuery.getSingleResult()).longValue();
+
+    if (count <= pageable.getOffset()) {
+      return Pagination.getPage(Collections.emptyList(), pageable, count);
+    }
+
+    params = Maps.newHashMap();
+    String sqlWithSort = Joiner.on(' ').join(Lists.newArrayList(
+        prepareQuery(NATIVE_SELECT_BY_PARAMS, searchParams, geographicZoneIds, extraData, params),
+        ORDER_BY, getOrderPredicate(searchParams, toNativeSort(pageable), "", params)));
+
+    Query searchQuery = entityManager.createNativeQuery(sqlWithSort, Facility.class);
+    params.forEach(searchQuery::setParameter);
+
+    // the query is created for the Facility class
+    @SuppressWarnings("unchecked")
+    List<Facility> facilities = searchQuery
+        .setMaxResults(pageable.getPageSize())
+        .setFirstResult(pageable.getOffset())
+        .getResultList();
+
+    return Pagination.getPage(facilities, pageable, count);
   }
 
   private Page<Facility> searchWithoutExtraData(FacilityRepositoryCustom.SearchParams searchParams,
@@ -138,7 +302,7 @@ public class FacilityRepositoryImpl implements FacilityRepositoryCustom {
     params = Maps.newHashMap();
     String hqlWithSort = Joiner.on(' ').join(Lists.newArrayList(
         prepareQuery(HQL_SELECT, searchParams, geographicZoneIds, null, params),
-        ORDER_BY, PageableUtil.getOrderPredicate(pageable, "f.", DEFAULT_SORT)));
+        ORDER_BY, getOrderPredicate(searchParams, pageable, "f.", params)));
 
     Query searchQuery = entityManager.createQuery(hqlWithSort, Facility.class);
     params.forEach(searchQuery::setParameter);
@@ -150,6 +314,54 @@ public class FacilityRepositoryImpl implements FacilityRepositoryCustom {
     return Pagination.getPage(facilities, pageable, count);
   }
 
+  /**
+   * Ranks facilities by similarity of their name, or code if only a code is searched for, to the
+   * searched value, ahead of the default sort. Ranking is only applied if it is enabled
+   * (search.rankBySimilarity) and the page is not explicitly sorted.
+   */
+  private String getOrderPredicate(FacilityRepositoryCustom.SearchParams searchParams,
+      Pageable pageable, String alias, Map<String, Object> params) {
+    String orderPredicate = PageableUtil.getOrderPredicate(pageable, alias, DEFAULT_SORT);
+
+    if (!rankBySimilarity || null != pageable.getSort()) {
+      return orderPredicate;
+    }
+
+    if (isNotBlank(searchParams.getName())) {
+      params.put("nameText", searchParams.getName().toUpperCase());
+      return Joiner.on(", ").join(BY_NAME_SIMILARITY, orderPredicate);
+    }
+
+    if (isNotBlank(searchParams.getCode())) {
+      params.put("codeText", searchParams.getCode().toUpperCase());
+      return Joiner.on(", ").join(BY_CODE_SIMILARITY, orderPredicate);
+    }
+
+    return orderPredicate;
+  }
+
+  /**
+   * Replaces the sort properties of the pageable with the columns they are stored in, so that
+   * native queries sort the same way as the HQL ones.
+   */
+  private Pageable toNativeSort(Pageable pageable) {
+    if (null == pageable.getSort()) {
+      return pageable;
+    }
+
+    List<Sort.Order> orders = Lists.newArrayList();
+    for (Sort.Order order : pageable.getSort()) {
+      String column = NATIVE_SORT_COLUMNS.get(order.getProperty());
+      if (null == column) {
+        throw new ValidationMessageException(new Message(
+            PageableMessageKeys.ERROR_SORT_INVALID, order.getProperty()));
+      }
+      orders.add(new Sort.Order(order.getDirection(), column));
+    }
+
+    return new PageRequest(pageable.getPageNumber(), pageable.getPageSize(), new Sort(orders));
+  }
+
   private String prepareQuery(String baseSql, FacilityRepositoryCustom.SearchParams searchParams,
       Set<UUID> geographicZoneIds, String extraData, Map<String, Object> params) {
 
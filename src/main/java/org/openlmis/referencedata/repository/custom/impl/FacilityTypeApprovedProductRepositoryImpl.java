@@ -37,7 +37,6 @@ import javax.persistence.criteria.Join;
 import javax.persistence.criteria.JoinType;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
-import javax.persistence.criteria.Subquery;
 import org.apache.commons.collections4.ListUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.hibernate.SQLQuery;
@@ -47,6 +46,7 @@ import org.hibernate.type.PostgresUUIDType;
 import org.openlmis.referencedata.domain.Code;
 import org.openlmis.referencedata.domain.FacilityType;
 import org.openlmis.referencedata.domain.FacilityTypeApprovedProduct;
+import org.openlmis.referencedata.domain.Orderable;
 import org.openlmis.referencedata.domain.Program;
 import org.openlmis.referencedata.domain.VersionIdentity;
 import org.openlmis.referencedata.exception.ValidationMessageException;
@@ -70,7 +70,7 @@ public class FacilityTypeApprovedProductRepositoryImpl
 
   private static final String NATIVE_SELECT_FACILITY_TYPE_ID = "SELECT ft.id AS type_id"
       + " FROM referencedata.facility_types AS ft"
-      + " INNER JOIN referencedata.facilities f ON f.typeId = ft.id AND f.id = '%s'";
+      + " INNER JOIN referencedata.facilities f ON f.typeId = ft.id AND f.id = :facilityId";
 
   private static final String FROM_FTAP_TABLE =
       " FROM referencedata.facility_type_approved_products AS ftap";
@@ -84,9 +84,8 @@ public class FacilityTypeApprovedProductRepositoryImpl
   private static final String NATIVE_PROGRAM_INNER_JOIN =
       " INNER JOIN referencedata.programs AS p ON p.id = ftap.programId";
   private static final String NATIVE_ORDERABLE_INNER_JOIN =
-      " INNER JOIN (SELECT id, MAX(versionNumber) AS versionNumber"
-          + "   FROM referencedata.orderables GROUP BY id) AS o"
-          + "   ON o.id = ftap.orderableId";
+      " INNER JOIN referencedata.orderables AS o"
+          + "   ON o.id = ftap.orderableId AND o.isLatest IS TRUE";
   private static final String NATIVE_PROGRAM_ORDERABLE_INNER_JOIN =
       " INNER JOIN referencedata.program_orderables AS po"
           + " ON o.id = po.orderableId"
@@ -95,19 +94,43 @@ public class FacilityTypeApprovedProductRepositoryImpl
           + " AND po.active IS TRUE";
   private static final String NATIVE_FACILITY_TYPE_INNER_JOIN =
       " INNER JOIN referencedata.facility_types AS ft ON ft.id = ftap.facilityTypeId";
-  private static final String NATIVE_LATEST_FTAPS_INNER_JOIN =
-      " INNER JOIN (SELECT id, MAX(versionNumber) AS versionNumber"
-          + "   FROM referencedata.facility_type_approved_products GROUP BY id) AS latest"
-          + "   ON ftap.id = latest.id AND ftap.versionNumber = latest.versionNumber";
-  private static final String NATIVE_FTAP_ACTIVE_FLAG = " ftap.active = :active";
+  private static final String NATIVE_FTAP_LATEST_FLAG = " ftap.isLatest IS TRUE";
+  private static final String NATIVE_FTAP_ACTIVE_FLAG = " AND ftap.active = :active";
 
   private static final String NATIVE_PAGEABLE = " LIMIT :limit OFFSET :offset";
 
+  // latest approved products of the facility's type joined with the latest versions of their
+  // orderables; the facility type lookup is folded in, and %s is FETCH for the select
+  private static final String HQL_FROM_PRODUCTS = " FROM FacilityTypeApprovedProduct AS ftap"
+      + " INNER JOIN %s ftap.program AS p"
+      + " INNER JOIN %<s ftap.facilityType AS ft,"
+      + " Orderable AS o,"
+      + " Facility AS f"
+      + " WHERE f.id = :facilityId"
+      + " AND ft.id = f.type.id"
+      + " AND ftap.latest = true"
+      + " AND ftap.active = :active"
+      + " AND o.identity.id = ftap.orderableId"
+      + " AND o.latest = true"
+      + " AND EXISTS (SELECT po.id FROM ProgramOrderable AS po"
+      + "   WHERE po.product.identity.id = o.identity.id"
+      + "   AND po.product.identity.versionNumber = o.identity.versionNumber"
+      + "   AND po.program.id = p.id"
+      + "   AND po.active = true";
+  private static final String HQL_SELECT_PRODUCTS = "SELECT ftap, o";
+  private static final String HQL_COUNT_PRODUCTS = "SELECT COUNT(ftap)";
+  private static final String HQL_WITH_FULL_SUPPLY = " AND po.fullSupply = :fullSupply";
+  private static final String HQL_WITH_PROGRAM = " AND p.id = :programId";
+  private static final String HQL_WITH_ORDERABLES = " AND o.identity.id IN (:orderableIds)";
+  private static final String HQL_AFTER = " AND ftap.identity.id > :after";
+  private static final String HQL_ORDER_BY_ID = " ORDER BY ftap.identity.id";
+
   private static final String WHERE = " WHERE ";
   private static final String IDENTITY = "identity";
   private static final String ID = "id";
   private static final String VERSION_NUMBER = "versionNumber";
   private static final String ACTIVE = "active";
+  private static final String LATEST = "latest";
   private static final String FTAP_ALIAS = "ftap";
   private static final String PROGRAM = "program";
   private static final String CODE = "code";
@@ -186,9 +209,83 @@ public class FacilityTypeApprovedProductRepositoryImpl
     return Pagination.getPage(ftaps, pageable, total);
   }
 
+  /**
+   * Finds a page of the latest approved products of the given facility together with the latest
+   * versions of their orderables, with a single query. Pages are ordered by the approved product
+   * ID and start after the given ID (keyset pagination), so that a page costs the same however
+   * far into the list it is.
+   *
+   * @param after ID of the last approved product of the previous page, or null for the first page
+   * @param limit maximum number of approved products to return
+   * @return pairs of approved products and their orderables
+   */
+  @Override
+  public List<Pair<FacilityTypeApprovedProduct, Orderable>> searchProductsAfter(UUID facilityId,
+      UUID programId, Boolean fullSupply, List<UUID> orderableIds, Boolean active, UUID after,
+      int limit) {
+    Map<String, Object> params = Maps.newHashMap();
+    StringBuilder builder = new StringBuilder(HQL_SELECT_PRODUCTS)
+        .append(prepareProductsQuery(true, facilityId, programId, fullSupply, orderableIds, active,
+            params));
+
+    if (null != after) {
+      builder.append(HQL_AFTER);
+      params.put("after", after);
+    }
+    builder.append(HQL_ORDER_BY_ID);
+
+    TypedQuery<Object[]> query = entityManager.createQuery(builder.toString(), Object[].class);
+    params.forEach(query::setParameter);
+
+    return query
+        .setMaxResults(limit)
+        .getResultList()
+        .stream()
+        .map(row -> Pair.of((FacilityTypeApprovedProduct) row[0], (Orderable) row[1]))
+        .collect(Collectors.toList());
+  }
+
+  @Override
+  public long countProducts(UUID facilityId, UUID programId, Boolean fullSupply,
+      List<UUID> orderableIds, Boolean active) {
+    Map<String, Object> params = Maps.newHashMap();
+    String hql = HQL_COUNT_PRODUCTS + prepareProductsQuery(false, facilityId, programId,
+        fullSupply, orderableIds, active, params);
+
+    TypedQuery<Long> query = entityManager.createQuery(hql, Long.class);
+    params.forEach(query::setParameter);
+    return query.getSingleResult();
+  }
+
+  private String prepareProductsQuery(boolean fetch, UUID facilityId, UUID programId,
+      Boolean fullSupply, List<UUID> orderableIds, Boolean active, Map<String, Object> params) {
+    StringBuilder builder = new StringBuilder(
+        String.format(HQL_FROM_PRODUCTS, fetch ? "FETCH" : ""));
+    params.put("facilityId", facilityId);
+    params.put(ACTIVE, null == active || active);
+
+    if (null != fullSupply) {
+      builder.append(HQL_WITH_FULL_SUPPLY);
+      params.put("fullSupply", fullSupply);
+    }
+    builder.append(')');
+
+    if (null != programId) {
+      builder.append(HQL_WITH_PROGRAM);
+      params.put("programId", programId);
+    }
+
+    if (!isEmpty(orderableIds)) {
+      builder.append(HQL_WITH_ORDERABLES);
+      params.put("orderableIds", orderableIds);
+    }
+
+    return builder.toString();
+  }
+
   private UUID getFacilityTypeId(UUID facilityId, Profiler profiler) {
-    String queryString = String.format(NATIVE_SELECT_FACILITY_TYPE_ID, facilityId);
-    Query query = entityManager.createNativeQuery(queryString);
+    Query query = entityManager.createNativeQuery(NATIVE_SELECT_FACILITY_TYPE_ID)
+        .setParameter("facilityId", facilityId);
 
     SQLQuery sql = query.unwrap(SQLQuery.class);
     sql.addScalar("type_id", PostgresUUIDType.INSTANCE);
@@ -246,11 +343,7 @@ public class FacilityTypeApprovedProductRepositoryImpl
     if (!isEmpty(identities)) {
       predicate = builder.and(predicate, builder.in(root.get(IDENTITY)).value(identities));
     } else {
-      Subquery<String> latestFtapQuery = createFtapSubQuery(newQuery, builder);
-      predicate = builder.and(predicate, builder.in(builder.concat(
-          root.get(IDENTITY).get(ID).as(String.class),
-          root.get(IDENTITY).get(VERSION_NUMBER).as(String.class)))
-          .value(latestFtapQuery));
+      predicate = builder.and(predicate, builder.isTrue(root.get(LATEST)));
     }
 
     Boolean isActive = searchParams.getActive();
@@ -301,8 +394,8 @@ public class FacilityTypeApprovedProductRepositoryImpl
     }
 
     builder
-        .append(NATIVE_LATEST_FTAPS_INNER_JOIN)
         .append(WHERE)
+        .append(NATIVE_FTAP_LATEST_FLAG)
         .append(NATIVE_FTAP_ACTIVE_FLAG);
     params.put(ACTIVE, null == active || active);
 
@@ -354,21 +447,6 @@ public class FacilityTypeApprovedProductRepositoryImpl
         .collect(Collectors.toList());
   }
 
-  private Subquery<String> createFtapSubQuery(CriteriaQuery query, CriteriaBuilder builder) {
-    Subquery<String> latestFtapsQuery = query.subquery(String.class);
-    Root<FacilityTypeApprovedProduct> latestFtapsRoot =
-        latestFtapsQuery.from(FacilityTypeApprovedProduct.class);
-    latestFtapsRoot.alias("latestFtap");
-
-    latestFtapsQuery.select(
-        builder.concat(
-            latestFtapsRoot.get(IDENTITY).get(ID).as(String.class),
-            builder.max(latestFtapsRoot.get(IDENTITY).get(VERSION_NUMBER)).as(String.class)));
-    latestFtapsQuery.groupBy(latestFtapsRoot.get(IDENTITY).get(ID));
-
-    return latestFtapsQuery;
-  }
-
   // appropriate class has been passed in the EntityManager.createNativeQuery method
   @SuppressWarnings("unchecked")
   private List<FacilityTypeApprovedProduct> retrieveFtaps(Collection<VersionIdentity> identities) {
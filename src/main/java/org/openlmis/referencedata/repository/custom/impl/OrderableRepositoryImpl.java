@@ -19,6 +19,7 @@ import static org.apache.commons.collections.CollectionUtils.isEmpty;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import java.sql.Timestamp;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
@@ -26,6 +27,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import javax.persistence.EntityManager;
@@ -38,7 +40,6 @@ import javax.persistence.criteria.Join;
 import javax.persistence.criteria.JoinType;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
-import javax.persistence.criteria.Subquery;
 import org.apache.commons.collections4.ListUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.hibernate.transform.DistinctRootEntityResultTransformer;
@@ -76,19 +77,14 @@ public class OrderableRepositoryImpl extends IdentitiesSearchableRepository<Sear
   private static final String NATIVE_PROGRAM_INNER_JOIN =
       " INNER" + NATIVE_PROGRAM_JOIN;
 
-  private static final String NATIVE_LATEST_ORDERABLE_INNER_JOIN =
-      " INNER JOIN (SELECT id, MAX (versionNumber) AS versionNumber"
-          + "  FROM referencedata.orderables GROUP BY id) AS latest"
-          + "  ON o.id = latest.id AND o.versionNumber = latest.versionNumber";
+  private static final String NATIVE_LATEST_ORDERABLE = "o.isLatest IS TRUE";
 
-  private static final String NATIVE_SELECT_LAST_UPDATED = "SELECT o.lastupdated "
-      + FROM_ORDERABLES_TABLE + NATIVE_LATEST_ORDERABLE_INNER_JOIN;
+  private static final String NATIVE_SELECT_MAX_LAST_UPDATED = "SELECT MAX(o.lastupdated)"
+      + FROM_ORDERABLES_TABLE;
 
-  private static final String NATIVE_COUNT_LAST_UPDATED = "SELECT COUNT(*) "
-      + FROM_ORDERABLES_TABLE + NATIVE_LATEST_ORDERABLE_INNER_JOIN;
-
-  private static final String ORDER_BY_LAST_UPDATED_DESC_LIMIT_1 = " ORDER BY o.lastupdated"
-      + " DESC LIMIT 1";
+  private static final String NATIVE_WITH_PROGRAM_CODE = "LOWER(p.code) LIKE :programCode";
+  private static final String NATIVE_WITH_CODE = "LOWER(o.code) LIKE :code";
+  private static final String NATIVE_WITH_NAME = "LOWER(o.fullproductname) LIKE :name";
 
   private static final String WHERE = " WHERE ";
   private static final String AND = " AND ";
@@ -102,7 +98,10 @@ public class OrderableRepositoryImpl extends IdentitiesSearchableRepository<Sear
   private static final String ORDERABLE = "orderable";
   private static final String PROGRAM_ORDERABLES = "programOrderables";
   private static final String PRODUCT_CODE = "productCode";
-  private static final String LATEST_ORDERABLE_ALIAS = "latest";
+  private static final String LATEST = "latest";
+  private static final String PROGRAM_CODE_PARAM = "programCode";
+  private static final String CODE_PARAM = "code";
+  private static final String NAME_PARAM = "name";
 
   @PersistenceContext
   private EntityManager entityManager;
@@ -154,19 +153,14 @@ public class OrderableRepositoryImpl extends IdentitiesSearchableRepository<Sear
     Profiler profiler = new Profiler("GET_ZONED_DATE_TIME_FROM_PARAMS");
     profiler.setLogger(XLOGGER);
 
-    profiler.start("CALCULATE_FULL_LIST_SIZE_LAST_UPDATED");
-    Query countNativeQuery = getLastUpdatedQuery(searchParams, true);
-    int total = ((Number) countNativeQuery.getSingleResult()).intValue();
+    profiler.start("GET_MAX_LAST_UPDATED_QUERY");
+    Query query = getLastUpdatedQuery(searchParams);
+    Timestamp timestamp = (Timestamp) query.getSingleResult();
+    profiler.stop().log();
 
-    if (total <= 0) {
-      profiler.stop().log();
+    if (null == timestamp) {
       return null;
     }
-
-    profiler.start("GET_ZONED_DATE_TIME_QUERY");
-    Query query = getLastUpdatedQuery(searchParams, false);
-    Timestamp timestamp = (Timestamp) query.getSingleResult();
-    profiler.stop().log();
     return ZonedDateTime.of(timestamp.toLocalDateTime(), ZoneId.of(GMT));
   }
 
@@ -199,11 +193,7 @@ public class OrderableRepositoryImpl extends IdentitiesSearchableRepository<Sear
       }
 
       if (isEmpty(identities)) {
-        Subquery<String> latestOrderablesQuery = createSubQuery(newQuery, builder);
-        where = builder.and(where, builder.in(builder.concat(
-            root.get(IDENTITY).get(ID).as(String.class),
-            root.get(IDENTITY).get(VERSION_NUMBER)).as(String.class))
-            .value(latestOrderablesQuery));
+        where = builder.and(where, builder.isTrue(root.get(LATEST)));
       } else {
         where = builder.and(where, builder.in(root.get(IDENTITY)).value(identities));
       }
@@ -218,11 +208,7 @@ public class OrderableRepositoryImpl extends IdentitiesSearchableRepository<Sear
             "%" + searchParams.getName().toLowerCase() + "%"));
       }
     } else {
-      Subquery<String> latestOrderablesQuery = createSubQuery(newQuery, builder);
-      where = builder.and(where, builder.in(builder.concat(
-          root.get(IDENTITY).get(ID).as(String.class),
-          root.get(IDENTITY).get(VERSION_NUMBER)).as(String.class))
-          .value(latestOrderablesQuery));
+      where = builder.and(where, builder.isTrue(root.get(LATEST)));
     }
 
     newQuery.where(where);
@@ -242,56 +228,41 @@ public class OrderableRepositoryImpl extends IdentitiesSearchableRepository<Sear
     return entityManager.createQuery(newQuery);
   }
 
-  private Subquery<String> createSubQuery(CriteriaQuery query, CriteriaBuilder builder) {
-    Subquery<String> latestOrderablesQuery = query.subquery(String.class);
-    Root<Orderable> latestOrderablesRoot = latestOrderablesQuery.from(Orderable.class);
-    latestOrderablesRoot.alias(LATEST_ORDERABLE_ALIAS);
-
-    latestOrderablesQuery.select(
-        builder.concat(
-            latestOrderablesRoot.get(IDENTITY).get(ID).as(String.class),
-            builder.max(latestOrderablesRoot.get(IDENTITY).get(VERSION_NUMBER)).as(String.class)));
-    latestOrderablesQuery.groupBy(latestOrderablesRoot.get(IDENTITY).get(ID));
-
-    return latestOrderablesQuery;
-  }
-
-  private Query getLastUpdatedQuery(SearchParams searchParams, boolean count) {
-    String startNativeQuery = count ? NATIVE_COUNT_LAST_UPDATED : NATIVE_SELECT_LAST_UPDATED;
-    StringBuilder builder = new StringBuilder(startNativeQuery);
-    List<String> wheres = Lists.newArrayList();
-    String queryCondition;
+  // search values are bound as parameters, so that every search with the same set of params
+  // has the same statement text, which PostgreSQL and the driver can plan once and reuse
+  private Query getLastUpdatedQuery(SearchParams searchParams) {
+    StringBuilder builder = new StringBuilder(NATIVE_SELECT_MAX_LAST_UPDATED);
+    List<String> wheres = Lists.newArrayList(NATIVE_LATEST_ORDERABLE);
+    Map<String, Object> params = Maps.newHashMap();
 
     if (null != searchParams) {
       if (null != searchParams.getProgramCode()) {
         builder.append(NATIVE_PROGRAM_ORDERABLE_INNER_JOIN + NATIVE_PROGRAM_INNER_JOIN);
-        queryCondition = "LOWER (p.code) LIKE '%"
-            + searchParams.getProgramCode().toLowerCase() + "%'";
-        wheres.add(queryCondition);
+        wheres.add(NATIVE_WITH_PROGRAM_CODE);
+        params.put(PROGRAM_CODE_PARAM, toLikeFragment(searchParams.getProgramCode()));
       }
 
       if (null != searchParams.getCode()) {
-        queryCondition = "LOWER (o.code) LIKE '%"
-            + searchParams.getCode().toLowerCase() + "%'";
-        wheres.add(queryCondition);
+        wheres.add(NATIVE_WITH_CODE);
+        params.put(CODE_PARAM, toLikeFragment(searchParams.getCode()));
       }
 
       if (null != searchParams.getName()) {
-        queryCondition = "LOWER (o.fullproductname) LIKE '%"
-            + searchParams.getName().toLowerCase() + "%'";
-        wheres.add(queryCondition);
-      }
-
-      if (!wheres.isEmpty()) {
-        builder.append(WHERE).append(String.join(AND, wheres));
+        wheres.add(NATIVE_WITH_NAME);
+        params.put(NAME_PARAM, toLikeFragment(searchParams.getName()));
       }
     }
 
-    if (!count) {
-      builder.append(ORDER_BY_LAST_UPDATED_DESC_LIMIT_1);
-    }
-    XLOGGER.info("QueryParamString: " + builder.toString());
-    return entityManager.createNativeQuery(builder.toString());
+    builder.append(WHERE).append(String.join(AND, wheres));
+    XLOGGER.debug("Last updated query: {}, params: {}", builder, params);
+
+    Query query = entityManager.createNativeQuery(builder.toString());
+    params.forEach(query::setParameter);
+    return query;
+  }
+
+  private String toLikeFragment(String value) {
+    return "%" + value.toLowerCase() + "%";
   }
 
   // appropriate class has been passed in the EntityManager.createQuery method
@@ -15,7 +15,6 @@
 
 package org.openlmis.referencedata.repository.custom.impl;
 
-import static org.apache.commons.collections.CollectionUtils.isEmpty;
 import static org.apache.commons.collections4.CollectionUtils.isNotEmpty;
 
 import com.google.common.base.Joiner;
@@ -29,9 +28,7 @@ import java.util.Map;
 import java.util.UUID;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
-import javax.persistence.Query;
-import org.hibernate.SQLQuery;
-import org.hibernate.type.PostgresUUIDType;
+import javax.persistence.TypedQuery;
 import org.openlmis.referencedata.domain.ProcessingPeriod;
 import org.openlmis.referencedata.repository.custom.ProcessingPeriodRepositoryCustom;
 import org.openlmis.referencedata.util.Pagination;
@@ -40,19 +37,18 @@ import org.springframework.data.domain.Pageable;
 
 public class ProcessingPeriodRepositoryImpl implements ProcessingPeriodRepositoryCustom {
 
-  private static final String SELECT_PERIODS = "SELECT DISTINCT pp"
+  private static final String SELECT_PERIODS = "SELECT pp"
       + " FROM ProcessingPeriod AS pp";
 
-  private static final String COUNT_PERIODS = "SELECT DISTINCT pp.id AS ID"
-      + " FROM referencedata.processing_periods AS pp";
+  private static final String COUNT_PERIODS = "SELECT COUNT(pp)"
+      + " FROM ProcessingPeriod AS pp";
 
-  private static final String SELECT_SCHEDULES = "pp.processingscheduleid IN (SELECT ps.id"
-      + " FROM referencedata.processing_schedules AS ps"
-      + " JOIN referencedata.requisition_group_program_schedules"
-      + " ON referencedata.requisition_group_program_schedules.processingscheduleid = ps.id"
-      + " JOIN referencedata.requisition_group_members"
-      + " ON referencedata.requisition_group_members.requisitiongroupid"
-      + " = referencedata.requisition_group_program_schedules.requisitiongroupid";
+  private static final String SELECT_SCHEDULES = "pp.processingSchedule.id IN ("
+      + "SELECT rgps.processingSchedule.id"
+      + " FROM RequisitionGroupProgramSchedule AS rgps"
+      + " JOIN rgps.requisitionGroup AS rg"
+      + " JOIN rg.memberFacilities AS f"
+      + " WHERE rgps.program.id = :programId";
 
   private static final String WHERE = "WHERE";
   private static final String AND = " AND ";
@@ -60,21 +56,20 @@ public class ProcessingPeriodRepositoryImpl implements ProcessingPeriodRepositor
 
   private static final String ORDER_BY = "ORDER BY";
 
-  private static final String WITH_SCHEDULE_ID = "pp.processingscheduleid IN (:scheduleId)";
-  private static final String WITH_START_DATE = "pp.startdate <= :endDate";
-  private static final String WITH_END_DATE = "pp.enddate >= :startDate";
+  private static final String WITH_SCHEDULE_ID = "pp.processingSchedule.id = :scheduleId";
+  private static final String WITH_START_DATE = "pp.startDate <= :endDate";
+  private static final String WITH_END_DATE = "pp.endDate >= :startDate";
   private static final String WITH_IDS = "pp.id IN (:ids)";
-  private static final String WITH_FACILITY =
-      "referencedata.requisition_group_members.facilityid = :facilityId";
-  private static final String WITH_PROGRAM =
-      "referencedata.requisition_group_program_schedules.programid = :programId)";
+  private static final String WITH_FACILITY = " AND f.id = :facilityId";
+  private static final String END_SELECT_SCHEDULES = ")";
 
   @PersistenceContext
   private EntityManager entityManager;
 
   /**
    * This method is supposed to retrieve all Processing Periods with matched parameters.
-   * Method is searching
+   * Matching periods are counted and a single page of them is loaded, so that neither query
+   * transfers more than the count and the page.
    *
    * @param scheduleId  UUID of processing schedule
    * @param programId  UUID of program
@@ -88,38 +83,35 @@ public class ProcessingPeriodRepositoryImpl implements ProcessingPeriodRepositor
       LocalDate startDate, LocalDate endDate, Collection<UUID> ids, Pageable pageable) {
 
     Map<String, Object> params = Maps.newHashMap();
-    Query nativeQuery = entityManager.createNativeQuery(prepareQuery(
-        scheduleId, programId, facilityId, startDate, endDate, ids, params));
-    params.forEach(nativeQuery::setParameter);
-
-    SQLQuery countQuery = nativeQuery.unwrap(SQLQuery.class);
-    countQuery.addScalar("ID", PostgresUUIDType.INSTANCE);
+    String where = prepareWhere(scheduleId, programId, facilityId, startDate, endDate, ids,
+        params);
 
-    // appropriate scalar is added to native query
-    @SuppressWarnings("unchecked")
-    List<UUID> periodIds = nativeQuery.getResultList();
+    TypedQuery<Long> countQuery = entityManager
+        .createQuery(Joiner.on(' ').join(COUNT_PERIODS, where), Long.class);
+    params.forEach(countQuery::setParameter);
+    long count = countQuery.getSingleResult();
 
-    if (isEmpty(periodIds)) {
-      return Pagination.getPage(Collections.emptyList(), pageable, 0);
+    if (count <= pageable.getOffset()) {
+      return Pagination.getPage(Collections.emptyList(), pageable, count);
     }
 
-    String hqlWithSort = Joiner.on(' ').join(Lists.newArrayList(SELECT_PERIODS, WHERE, WITH_IDS,
-        ORDER_BY, PageableUtil.getOrderPredicate(pageable, "pp.", DEFAULT_SORT)));
+    String hqlWithSort = Joiner.on(' ').join(SELECT_PERIODS, where,
+        ORDER_BY, PageableUtil.getOrderPredicate(pageable, "pp.", DEFAULT_SORT));
 
-    List<ProcessingPeriod> periods = entityManager
-        .createQuery(hqlWithSort, ProcessingPeriod.class)
-        .setParameter("ids", periodIds)
+    TypedQuery<ProcessingPeriod> searchQuery = entityManager
+        .createQuery(hqlWithSort, ProcessingPeriod.class);
+    params.forEach(searchQuery::setParameter);
+    List<ProcessingPeriod> periods = searchQuery
         .setMaxResults(pageable.getPageSize())
         .setFirstResult(pageable.getOffset())
         .getResultList();
 
-    return Pagination.getPage(periods, pageable, periodIds.size());
+    return Pagination.getPage(periods, pageable, count);
   }
 
-  private String prepareQuery(UUID scheduleId, UUID programId, UUID facilityId,
+  private String prepareWhere(UUID scheduleId, UUID programId, UUID facilityId,
       LocalDate startDate, LocalDate endDate, Collection<UUID> ids, Map<String, Object> params) {
 
-    List<String> sql = Lists.newArrayList(COUNT_PERIODS);
     List<String> where = Lists.newArrayList();
 
     if (null != endDate) {
@@ -143,22 +135,21 @@ public class ProcessingPeriodRepositoryImpl implements ProcessingPeriodRepositor
     }
 
     if (null != programId && null == scheduleId) {
-      where.add(SELECT_SCHEDULES);
+      StringBuilder selectSchedules = new StringBuilder(SELECT_SCHEDULES);
+      params.put("programId", programId);
 
       if (null != facilityId) {
-        where.add(WITH_FACILITY);
+        selectSchedules.append(WITH_FACILITY);
         params.put("facilityId", facilityId);
       }
 
-      where.add(WITH_PROGRAM);
-      params.put("programId", programId);
+      where.add(selectSchedules.append(END_SELECT_SCHEDULES).toString());
     }
 
-    if (!where.isEmpty()) {
-      sql.add(WHERE);
-      sql.add(Joiner.on(AND).join(where));
+    if (where.isEmpty()) {
+      return "";
     }
 
-    return Joiner.on(' ').join(sql);
+    return Joiner.on(' ').join(WHERE, Joiner.on(AND).join(where));
   }
 }
@@ -28,6 +28,7 @@ import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
 import javax.persistence.criteria.Order;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
@@ -37,6 +38,7 @@ import org.openlmis.referencedata.domain.User;
 import org.openlmis.referencedata.repository.UserSearchParams;
 import org.openlmis.referencedata.repository.custom.UserRepositoryCustom;
 import org.openlmis.referencedata.util.Pagination;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
@@ -53,6 +55,9 @@ public class UserRepositoryImpl implements UserRepositoryCustom {
   @PersistenceContext
   private EntityManager entityManager;
 
+  @Value("${search.rankBySimilarity}")
+  private boolean rankBySimilarity;
+
   /**
    * Method returns all matching users sorted by username in alphabetically descending order.
    * If all parameters are null, returns all users.
@@ -122,6 +127,8 @@ public class UserRepositoryImpl implements UserRepositoryCustom {
 
     if (!count && pageable != null && pageable.getSort() != null) {
       query = addSortProperties(query, root, pageable);
+    } else if (!count && rankBySimilarity) {
+      query = addSimilarityOrder(query, builder, root, searchParams);
     }
 
     return query;
@@ -145,6 +152,35 @@ public class UserRepositoryImpl implements UserRepositoryCustom {
     return query.orderBy(orders);
   }
 
+  /**
+   * Ranks users by the sum of similarities of their username, first and last name to the searched
+   * values, so that the closest matches of a type-ahead search come first.
+   */
+  private <T> CriteriaQuery<T> addSimilarityOrder(CriteriaQuery<T> query, CriteriaBuilder builder,
+      Root<User> root, UserSearchParams searchParams) {
+    Expression<Float> similarity = null;
+    similarity = addSimilarity(similarity, builder, root, USERNAME, searchParams.getUsername());
+    similarity = addSimilarity(similarity, builder, root, FIRST_NAME, searchParams.getFirstName());
+    similarity = addSimilarity(similarity, builder, root, LAST_NAME, searchParams.getLastName());
+
+    if (null == similarity) {
+      return query;
+    }
+
+    return query.orderBy(builder.desc(similarity), builder.asc(root.get(USERNAME)));
+  }
+
+  private Expression<Float> addSimilarity(Expression<Float> similarity, CriteriaBuilder builder,
+      Root<User> root, String filterKey, String filterValue) {
+    if (filterValue == null) {
+      return similarity;
+    }
+
+    Expression<Float> fieldSimilarity = builder.function("similarity", Float.class,
+        builder.upper(root.get(filterKey)), builder.literal(filterValue.toUpperCase()));
+    return null == similarity ? fieldSimilarity : builder.sum(similarity, fieldSimilarity);
+  }
+
   private Predicate addEqualsFilter(Predicate predicate, CriteriaBuilder builder, Root<User> root,
                               String filterKey, Object filterValue) {
     if (filterValue != null) {
@@ -0,0 +1,276 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.security;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.hash.Hashing;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.AllArgsConstructor;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.token.AccessTokenConverter;
+import org.springframework.security.oauth2.provider.token.RemoteTokenServices;
+import org.springframework.security.oauth2.provider.token.ResourceServerTokenServices;
+
+/**
+ * Checks access tokens against the auth service and caches the results, so that a request with
+ * a recently checked token does not wait for a round trip to check_token. The cache is local to
+ * this instance:
+ * <ul>
+ *   <li>it is keyed by the SHA-256 hash of the token, so tokens are not kept in memory,</li>
+ *   <li>it holds at most tokenCache.maxSize tokens, evicting the least recently used,</li>
+ *   <li>a token is cached until its exp claim or for tokenCache.ttl milliseconds, whichever comes
+ *   first, which bounds how long a revoked token is still accepted,</li>
+ *   <li>tokens rejected by the auth service are not cached.</li>
+ * </ul>
+ * Concurrent checks of the same token wait for a single call to check_token. Hits, misses,
+ * coalesced checks and check_token latency are published as tokenCache.* metrics.
+ */
+public class CachingTokenServices implements ResourceServerTokenServices, PublicMetrics {
+
+  private static final XLogger XLOGGER = XLoggerFactory.getXLogger(CachingTokenServices.class);
+
+  private static final String METRIC_PREFIX = "tokenCache.";
+
+  private final RemoteTokenServices remoteTokenServices = new RemoteTokenServices();
+  private final long ttl;
+  private final int maxSize;
+
+  // guarded by itself
+  private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+      if (size() > maxSize) {
+        evictions.incrementAndGet();
+        return true;
+      }
+      return false;
+    }
+  };
+
+  private final ConcurrentMap<String, CompletableFuture<Entry>> pending =
+      new ConcurrentHashMap<>();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong remoteChecks = new AtomicLong();
+  private final AtomicLong remoteMillis = new AtomicLong();
+  private final AtomicLong remoteMaxMillis = new AtomicLong();
+
+  /**
+   * Creates token services checking tokens at the given check_token endpoint.
+   *
+   * @param checkTokenUrl url to check tokens against
+   * @param clientId      client's id
+   * @param clientSecret  client's secret
+   * @param converter     converter of check_token responses to authentications
+   * @param ttl           how long, in milliseconds, a token is cached at most
+   * @param maxSize       how many tokens are cached at most
+   */
+  public CachingTokenServices(String checkTokenUrl, String clientId, String clientSecret,
+      AccessTokenConverter converter, long ttl, int maxSize) {
+    remoteTokenServices.setCheckTokenEndpointUrl(checkTokenUrl);
+    remoteTokenServices.setClientId(clientId);
+    remoteTokenServices.setClientSecret(clientSecret);
+    remoteTokenServices.setAccessTokenConverter(new ExpiryRecordingConverter(converter));
+    this.ttl = ttl;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Returns the authentication of the given token, checking it at the auth service unless it
+   * has been checked recently. Every call returns a new authentication, as the caller sets its
+   * request details.
+   *
+   * @param accessToken the token value
+   * @return authentication of the token
+   * @throws InvalidTokenException if the auth service rejects the token
+   */
+  @Override
+  public OAuth2Authentication loadAuthentication(String accessToken)
+      throws AuthenticationException, InvalidTokenException {
+    String key = Hashing.sha256().hashString(accessToken, UTF_8).toString();
+    Entry entry;
+    synchronized (entries) {
+      entry = entries.get(key);
+    }
+
+    if (null != entry && System.currentTimeMillis() < entry.expiresAt) {
+      hits.incrementAndGet();
+      return copy(entry.authentication);
+    }
+
+    misses.incrementAndGet();
+    CompletableFuture<Entry> check = new CompletableFuture<>();
+    CompletableFuture<Entry> running = pending.putIfAbsent(key, check);
+
+    if (null != running) {
+      coalesced.incrementAndGet();
+      return copy(await(running).authentication);
+    }
+
+    try {
+      entry = check(accessToken);
+
+      if (System.currentTimeMillis() < entry.expiresAt) {
+        synchronized (entries) {
+          entries.put(key, entry);
+        }
+      }
+
+      check.complete(entry);
+      return copy(entry.authentication);
+    } catch (RuntimeException ex) {
+      check.completeExceptionally(ex);
+      throw ex;
+    } finally {
+      pending.remove(key, check);
+      check.cancel(false);
+    }
+  }
+
+  /**
+   * Reads the access token through the remote token services, without caching it.
+   */
+  @Override
+  public OAuth2AccessToken readAccessToken(String accessToken) {
+    return remoteTokenServices.readAccessToken(accessToken);
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    List<Metric<?>> metrics = new ArrayList<>();
+    synchronized (entries) {
+      metrics.add(new Metric<>(METRIC_PREFIX + "size", entries.size()));
+    }
+    long checks = remoteChecks.get();
+    metrics.add(new Metric<>(METRIC_PREFIX + "hits", hits.get()));
+    metrics.add(new Metric<>(METRIC_PREFIX + "misses", misses.get()));
+    metrics.add(new Metric<>(METRIC_PREFIX + "evictions", evictions.get()));
+    metrics.add(new Metric<>(METRIC_PREFIX + "coalesced", coalesced.get()));
+    metrics.add(new Metric<>(METRIC_PREFIX + "remote.checks", checks));
+    metrics.add(new Metric<>(METRIC_PREFIX + "remote.meanMillis",
+        checks > 0 ? (double) remoteMillis.get() / checks : 0.0));
+    metrics.add(new Metric<>(METRIC_PREFIX + "remote.maxMillis", remoteMaxMillis.get()));
+    return metrics;
+  }
+
+  private Entry check(String accessToken) {
+    long start = System.currentTimeMillis();
+    try {
+      OAuth2Authentication authentication = remoteTokenServices.loadAuthentication(accessToken);
+      long expiresAt = start + ttl;
+      Serializable exp = authentication.getOAuth2Request().getExtensions()
+          .get(AccessTokenConverter.EXP);
+
+      if (exp instanceof Number) {
+        expiresAt = Math.min(expiresAt, ((Number) exp).longValue() * 1000);
+      }
+
+      return new Entry(authentication, expiresAt);
+    } finally {
+      long millis = System.currentTimeMillis() - start;
+      remoteChecks.incrementAndGet();
+      remoteMillis.addAndGet(millis);
+      remoteMaxMillis.accumulateAndGet(millis, Math::max);
+      XLOGGER.debug("Checked access token in {} ms", millis);
+    }
+  }
+
+  private Entry await(CompletableFuture<Entry> check) {
+    try {
+      return check.join();
+    } catch (CompletionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+
+  private OAuth2Authentication copy(OAuth2Authentication authentication) {
+    return new OAuth2Authentication(authentication.getOAuth2Request(),
+        authentication.getUserAuthentication());
+  }
+
+  @AllArgsConstructor
+  private static final class Entry {
+    private final OAuth2Authentication authentication;
+    private final long expiresAt;
+  }
+
+  /**
+   * Keeps the exp claim of check_token responses as an extension of the OAuth2 request, as the
+   * authentication otherwise does not tell when the token expires.
+   */
+  @AllArgsConstructor
+  private static final class ExpiryRecordingConverter implements AccessTokenConverter {
+    private final AccessTokenConverter delegate;
+
+    @Override
+    public Map<String, ?> convertAccessToken(OAuth2AccessToken token,
+        OAuth2Authentication authentication) {
+      return delegate.convertAccessToken(token, authentication);
+    }
+
+    @Override
+    public OAuth2AccessToken extractAccessToken(String value, Map<String, ?> map) {
+      return delegate.extractAccessToken(value, map);
+    }
+
+    @Override
+    public OAuth2Authentication extractAuthentication(Map<String, ?> map) {
+      OAuth2Authentication authentication = delegate.extractAuthentication(map);
+      Object exp = map.get(EXP);
+
+      if (!(exp instanceof Number)) {
+        return authentication;
+      }
+
+      OAuth2Request request = authentication.getOAuth2Request();
+      Map<String, Serializable> extensions = new HashMap<>(request.getExtensions());
+      extensions.put(EXP, ((Number) exp).longValue());
+
+      OAuth2Request requestWithExpiry = new OAuth2Request(request.getRequestParameters(),
+          request.getClientId(), request.getAuthorities(), request.isApproved(),
+          request.getScope(), request.getResourceIds(), request.getRedirectUri(),
+          request.getResponseTypes(), extensions);
+      return new OAuth2Authentication(requestWithExpiry,
+          authentication.getUserAuthentication());
+    }
+  }
+}
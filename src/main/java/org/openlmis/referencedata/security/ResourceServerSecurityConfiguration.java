@@ -36,7 +36,6 @@ import org.springframework.security.oauth2.provider.authentication.BearerTokenEx
 import org.springframework.security.oauth2.provider.authentication.TokenExtractor;
 import org.springframework.security.oauth2.provider.token.AccessTokenConverter;
 import org.springframework.security.oauth2.provider.token.DefaultAccessTokenConverter;
-import org.springframework.security.oauth2.provider.token.RemoteTokenServices;
 import org.springframework.security.web.authentication.preauth.AbstractPreAuthenticatedProcessingFilter;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.CorsConfigurationSource;
@@ -110,25 +109,26 @@ public class ResourceServerSecurityConfiguration implements ResourceServerConfig
   }
 
   /**
-   * RemoteTokenServices bean initializer.
+   * Token services bean initializer. Tokens are checked against the auth service and the results
+   * are cached for a short while.
    *
    * @param checkTokenUrl url to check tokens against
    * @param clientId      client's id
    * @param clientSecret  client's secret
+   * @param ttl           how long, in milliseconds, a checked token is cached at most
+   * @param maxSize       how many checked tokens are cached at most
    * @return token services
    */
   @Bean
   @Autowired
-  public RemoteTokenServices remoteTokenServices(@Value("${auth.server.url}") String checkTokenUrl,
-                                                 @Value("${auth.server.clientId}") String clientId,
-                                                 @Value("${auth.server.clientSecret}")
-                                                     String clientSecret) {
-    final RemoteTokenServices remoteTokenServices = new RemoteTokenServices();
-    remoteTokenServices.setCheckTokenEndpointUrl(checkTokenUrl);
-    remoteTokenServices.setClientId(clientId);
-    remoteTokenServices.setClientSecret(clientSecret);
-    remoteTokenServices.setAccessTokenConverter(accessTokenConverter());
-    return remoteTokenServices;
+  public CachingTokenServices tokenServices(@Value("${auth.server.url}") String checkTokenUrl,
+                                            @Value("${auth.server.clientId}") String clientId,
+                                            @Value("${auth.server.clientSecret}")
+                                                String clientSecret,
+                                            @Value("${tokenCache.ttl}") long ttl,
+                                            @Value("${tokenCache.maxSize}") int maxSize) {
+    return new CachingTokenServices(checkTokenUrl, clientId, clientSecret,
+        accessTokenConverter(), ttl, maxSize);
   }
 
   /**
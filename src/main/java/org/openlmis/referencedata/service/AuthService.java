@@ -17,9 +17,24 @@ package org.openlmis.referencedata.service;
 
 import static org.openlmis.referencedata.service.RequestHelper.createUri;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.AllArgsConstructor;
 import org.apache.commons.codec.binary.Base64;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
@@ -28,9 +43,25 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestOperations;
 import org.springframework.web.client.RestTemplate;
 
+/**
+ * Obtains access tokens of this service from the auth service. A token is reused until shortly
+ * before it expires:
+ * <ul>
+ *   <li>once it is within serviceToken.refreshAhead milliseconds of its expiry, a new token is
+ *   requested in the background and the current one is returned meanwhile,</li>
+ *   <li>once it is within a few seconds of its expiry, callers wait for a new token.</li>
+ * </ul>
+ * Concurrent callers share a single pending token request. Tokens without expires_in are not
+ * reused. Reuses, token requests and failed requests are published as serviceToken.* metrics.
+ */
 @Service
-public class AuthService {
+public class AuthService implements PublicMetrics {
+  private static final XLogger XLOGGER = XLoggerFactory.getXLogger(AuthService.class);
+
   private static final String ACCESS_TOKEN = "access_token";
+  private static final String EXPIRES_IN = "expires_in";
+  private static final long EXPIRY_MARGIN = 5000;
+  private static final String METRIC_PREFIX = "serviceToken.";
 
   @Value("${auth.server.clientId}")
   private String clientId;
@@ -41,14 +72,128 @@ public class AuthService {
   @Value("${auth.server.authorizationUrl}")
   private String authorizationUrl;
 
+  @Value("${serviceToken.refreshAhead}")
+  private long refreshAhead;
+
+  @Autowired
+  @Qualifier("serviceTokenTaskExecutor")
+  private TaskExecutor taskExecutor;
+
   private RestOperations restTemplate = new RestTemplate();
 
+  private volatile Token token;
+  private final AtomicReference<CompletableFuture<Token>> pendingRequest =
+      new AtomicReference<>();
+
+  private final AtomicLong reuses = new AtomicLong();
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong backgroundRequests = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+
   /**
-   * Retrieves access token from the auth service.
+   * Retrieves access token from the auth service, or the previously retrieved one if it does not
+   * expire soon.
    *
    * @return token.
    */
   public String obtainAccessToken() {
+    Token current = token;
+    long now = System.currentTimeMillis();
+
+    if (null != current && now < current.expiresAt) {
+      reuses.incrementAndGet();
+
+      if (now >= current.refreshAt) {
+        requestInBackground();
+      }
+
+      return current.value;
+    }
+
+    return await(request());
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    List<Metric<?>> metrics = new ArrayList<>();
+    metrics.add(new Metric<>(METRIC_PREFIX + "reuses", reuses.get()));
+    metrics.add(new Metric<>(METRIC_PREFIX + "requests", requests.get()));
+    metrics.add(new Metric<>(METRIC_PREFIX + "backgroundRequests", backgroundRequests.get()));
+    metrics.add(new Metric<>(METRIC_PREFIX + "failures", failures.get()));
+    return metrics;
+  }
+
+  void setRestTemplate(RestOperations restTemplate) {
+    this.restTemplate = restTemplate;
+  }
+
+  private CompletableFuture<Token> request() {
+    CompletableFuture<Token> created = new CompletableFuture<>();
+
+    if (!pendingRequest.compareAndSet(null, created)) {
+      CompletableFuture<Token> running = pendingRequest.get();
+      if (null != running) {
+        return running;
+      }
+      return request();
+    }
+
+    requestToken(created);
+    return created;
+  }
+
+  private void requestInBackground() {
+    CompletableFuture<Token> created = new CompletableFuture<>();
+
+    if (pendingRequest.compareAndSet(null, created)) {
+      backgroundRequests.incrementAndGet();
+      try {
+        taskExecutor.execute(() -> requestToken(created));
+      } catch (RuntimeException ex) {
+        fail(created, ex);
+      }
+    }
+  }
+
+  private void requestToken(CompletableFuture<Token> request) {
+    requests.incrementAndGet();
+    try {
+      long start = System.currentTimeMillis();
+      Map<String, ?> body = requestTokenBody();
+      Object expiresIn = body.get(EXPIRES_IN);
+      long expiresAt = expiresIn instanceof Number
+          ? start + ((Number) expiresIn).longValue() * 1000
+          : start;
+
+      Token requested = new Token((String) body.get(ACCESS_TOKEN),
+          expiresAt - Math.max(refreshAhead, EXPIRY_MARGIN), expiresAt - EXPIRY_MARGIN);
+      token = requested;
+      pendingRequest.compareAndSet(request, null);
+      request.complete(requested);
+    } catch (RuntimeException ex) {
+      fail(request, ex);
+    }
+  }
+
+  private void fail(CompletableFuture<Token> request, RuntimeException ex) {
+    failures.incrementAndGet();
+    XLOGGER.warn("Could not obtain access token", ex);
+    pendingRequest.compareAndSet(request, null);
+    request.completeExceptionally(ex);
+  }
+
+  private String await(CompletableFuture<Token> request) {
+    try {
+      return request.join().value;
+    } catch (CompletionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+
+  private Map<String, ?> requestTokenBody() {
     String plainCreds = clientId + ":" + clientSecret;
     byte[] plainCredsBytes = plainCreds.getBytes();
     byte[] base64CredsBytes = Base64.encodeBase64(plainCredsBytes);
@@ -67,11 +212,13 @@ public class AuthService {
         createUri(authorizationUrl, params), HttpMethod.POST, request, Object.class
     );
 
-    return ((Map<String, String>) response.getBody()).get(ACCESS_TOKEN);
+    return (Map<String, ?>) response.getBody();
   }
 
-  void setRestTemplate(RestOperations restTemplate) {
-    this.restTemplate = restTemplate;
+  @AllArgsConstructor
+  private static final class Token {
+    private final String value;
+    private final long refreshAt;
+    private final long expiresAt;
   }
-  
 }
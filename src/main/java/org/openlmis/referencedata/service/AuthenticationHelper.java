@@ -17,19 +17,28 @@ package org.openlmis.referencedata.service;
 
 import java.util.UUID;
 import org.openlmis.referencedata.domain.User;
+import org.openlmis.referencedata.dto.UserPrincipal;
 import org.openlmis.referencedata.exception.NotFoundException;
 import org.openlmis.referencedata.repository.UserRepository;
 import org.openlmis.referencedata.util.messagekeys.UserMessageKeys;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 
 @Component
 public class AuthenticationHelper {
 
+  private static final String PRINCIPAL_ATTRIBUTE =
+      AuthenticationHelper.class.getName() + ".principal";
+
   @Autowired
   private UserRepository userRepository;
 
+  @Autowired
+  private PermissionCache permissionCache;
+
   /**
    * Method returns current user based on Spring context.
    *
@@ -47,4 +56,38 @@ public class AuthenticationHelper {
     return user;
   }
 
+  /**
+   * Method returns the principal of current user based on Spring context. The principal is taken
+   * from the {@link PermissionCache} and kept for the rest of the request, so unlike
+   * {@link #getCurrentUser()} it does not load the user entity.
+   *
+   * @return principal of current user.
+   * @throws NotFoundException if user cannot be found.
+   */
+  public UserPrincipal getCurrentUserPrincipal() {
+    UUID userId = (UUID) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+    RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+
+    if (null != requestAttributes) {
+      UserPrincipal principal = (UserPrincipal) requestAttributes
+          .getAttribute(PRINCIPAL_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+
+      if (null != principal && principal.getId().equals(userId)) {
+        return principal;
+      }
+    }
+
+    UserPrincipal principal = permissionCache.getPrincipal(userId);
+
+    if (principal == null) {
+      throw new NotFoundException(UserMessageKeys.ERROR_NOT_FOUND);
+    }
+
+    if (null != requestAttributes) {
+      requestAttributes.setAttribute(PRINCIPAL_ATTRIBUTE, principal,
+          RequestAttributes.SCOPE_REQUEST);
+    }
+
+    return principal;
+  }
 }
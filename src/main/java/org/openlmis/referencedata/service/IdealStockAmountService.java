@@ -18,7 +18,9 @@ package org.openlmis.referencedata.service;
 import com.google.common.collect.Lists;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
 import org.openlmis.referencedata.domain.IdealStockAmount;
+import org.openlmis.referencedata.dto.IdealStockAmountCsvModel;
 import org.openlmis.referencedata.repository.IdealStockAmountRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
@@ -31,10 +33,6 @@ public class IdealStockAmountService {
   @Autowired
   private IdealStockAmountRepository repository;
 
-  public List<IdealStockAmount> search() {
-    return search(null);
-  }
-
   public List<IdealStockAmount> search(List<IdealStockAmount> idealStockAmounts) {
     List<UUID> uuids = repository.search(idealStockAmounts);
     return Lists.newArrayList(repository.findAll(uuids));
@@ -45,4 +43,12 @@ public class IdealStockAmountService {
     return repository.search(requestParams.getFacilityId(), requestParams.getCommodityTypeId(),
         requestParams.getProcessingPeriodId(), pageable);
   }
+
+  /**
+   * Streams CSV models of all ideal stock amounts without loading the entities. The stream must
+   * be consumed in a transaction and closed.
+   */
+  public Stream<IdealStockAmountCsvModel> streamCsvModels() {
+    return repository.streamAllCsvModels();
+  }
 }
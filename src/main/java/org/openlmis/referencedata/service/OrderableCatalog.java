@@ -0,0 +1,439 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.service;
+
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import org.openlmis.referencedata.domain.Orderable;
+import org.openlmis.referencedata.dto.OrderableDto;
+import org.openlmis.referencedata.dto.ProgramOrderableDto;
+import org.openlmis.referencedata.repository.OrderableRepository;
+import org.openlmis.referencedata.repository.custom.OrderableRepositoryCustom.SearchParams;
+import org.openlmis.referencedata.util.Pagination;
+import org.openlmis.referencedata.util.TransactionUtil;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.slf4j.profiler.Profiler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * In-memory catalog of the latest versions of all orderables, which serves orderable searches
+ * and their Last-Modified dates without querying the database.
+ *
+ * <p>The catalog is an immutable snapshot of orderables already exported to DTOs, indexed by ID
+ * and by program code, and sorted by name in the order the database sorts them, so that its pages
+ * match the ones of the database search. It is replaced as a whole on every change, so reads
+ * never lock. Orderables saved by this instance are reloaded right after they commit. Other
+ * changes are detected by comparing a version stamp of the snapshot, the number of latest
+ * orderables and their highest last updated date, with the same stamp read from the database
+ * every orderableCatalog.checkInterval milliseconds. Changes which do not touch orderables,
+ * like display categories renamed by other instances, are picked up by a full reload every
+ * orderableCatalog.reloadInterval milliseconds.
+ *
+ * <p>Until the first load, when the catalog is disabled (orderableCatalog.enabled) and for
+ * searches it cannot answer, like ones for specific versions or with a sort order, callers fall
+ * back to the database.
+ */
+@Component
+@SuppressWarnings("PMD.TooManyMethods")
+public class OrderableCatalog implements PublicMetrics {
+
+  private static final XLogger XLOGGER = XLoggerFactory.getXLogger(OrderableCatalog.class);
+
+  private static final String METRIC_PREFIX = "orderableCatalog.";
+
+  static final String SELECT_STAMP_SQL = "SELECT COUNT(*) AS count, MAX(lastupdated) AS lastupdated"
+      + " FROM referencedata.orderables"
+      + " WHERE isLatest IS TRUE";
+  static final String SELECT_PROGRAM_CODES_SQL = "SELECT id, code FROM referencedata.programs";
+  // names are compared by the collation of the database, which Java does not reproduce
+  static final String SELECT_NAME_ORDER_SQL = "SELECT id FROM referencedata.orderables"
+      + " WHERE isLatest IS TRUE"
+      + " ORDER BY fullProductName, id";
+
+  @Autowired
+  private OrderableRepository orderableRepository;
+
+  @Autowired
+  private JdbcTemplate template;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Autowired
+  @Qualifier("orderableCatalogTaskScheduler")
+  private TaskScheduler taskScheduler;
+
+  @Value("${orderableCatalog.enabled}")
+  private boolean enabled;
+
+  @Value("${orderableCatalog.checkInterval}")
+  private long checkInterval;
+
+  @Value("${orderableCatalog.reloadInterval}")
+  private long reloadInterval;
+
+  // null until the catalog is loaded; written under this
+  private volatile Snapshot snapshot;
+  private volatile long lastReloadTime;
+  private volatile long lastRebuildDuration = -1;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong rebuilds = new AtomicLong();
+
+  /**
+   * Schedules loading of the catalog, right away, and then checks for changes periodically.
+   */
+  @PostConstruct
+  public void scheduleChecks() {
+    if (enabled) {
+      taskScheduler.scheduleWithFixedDelay(this::check, checkInterval);
+    }
+  }
+
+  /**
+   * Searches the latest orderables like {@link OrderableService#searchOrderables}: by IDs if any
+   * are given, otherwise by code and name fragments and by program code.
+   *
+   * @param searchParams code, name and program code to search for
+   * @param ids IDs of orderables to find, or an empty set
+   * @param pageable the page to get; it must not be sorted
+   * @return the matching orderables, or null if the search has to run against the database
+   */
+  public Result search(SearchParams searchParams, Set<UUID> ids, Pageable pageable) {
+    Snapshot current = snapshot;
+    if (null == current || (null != pageable && null != pageable.getSort())
+        || !searchParams.getIdentityPairs().isEmpty()) {
+      misses.incrementAndGet();
+      return null;
+    }
+
+    hits.incrementAndGet();
+    if (!ids.isEmpty()) {
+      return new Result(current.findByIds(ids));
+    }
+    return new Result(current.search(searchParams.getCode(), searchParams.getName(),
+        searchParams.getProgramCode()));
+  }
+
+  /**
+   * Reloads the given orderables after the current transaction commits.
+   */
+  public void refresh(Collection<UUID> orderableIds) {
+    if (enabled && !orderableIds.isEmpty()) {
+      TransactionUtil.afterCommit(() -> refreshOrderables(orderableIds));
+    }
+  }
+
+  /**
+   * Reloads the whole catalog after the current transaction commits, for changes of data which
+   * is a part of many orderables, like display categories.
+   */
+  public void refreshAll() {
+    if (enabled) {
+      TransactionUtil.afterCommit(this::reload);
+    }
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    List<Metric<?>> metrics = new ArrayList<>();
+    Snapshot current = snapshot;
+    if (null != current) {
+      metrics.add(new Metric<>(METRIC_PREFIX + "size", current.sorted.size()));
+    }
+    metrics.add(new Metric<>(METRIC_PREFIX + "hits", hits.get()));
+    metrics.add(new Metric<>(METRIC_PREFIX + "misses", misses.get()));
+    metrics.add(new Metric<>(METRIC_PREFIX + "rebuilds", rebuilds.get()));
+    if (lastRebuildDuration >= 0) {
+      metrics.add(new Metric<>(METRIC_PREFIX + "lastRebuildDuration", lastRebuildDuration));
+    }
+    return metrics;
+  }
+
+  void check() {
+    try {
+      Snapshot current = snapshot;
+      if (null == current || System.currentTimeMillis() - lastReloadTime >= reloadInterval
+          || !current.stamp.equals(readStamp())) {
+        reload();
+      }
+    } catch (RuntimeException ex) {
+      // keep the schedule; the next check tries again
+      XLOGGER.warn("Could not check the orderable catalog for changes", ex);
+    }
+  }
+
+  void reload() {
+    Profiler profiler = new Profiler("RELOAD_ORDERABLE_CATALOG");
+    profiler.setLogger(XLOGGER);
+    long start = System.currentTimeMillis();
+
+    synchronized (this) {
+      profiler.start("LOAD_PROGRAM_CODES");
+      Map<UUID, String> programCodes = readProgramCodes();
+
+      profiler.start("LOAD_ORDERABLES");
+      List<Entry> entries = inTransaction(() -> toEntries(
+          orderableRepository.findAllLatest(null).getContent(), programCodes));
+
+      profiler.start("LOAD_NAME_ORDER");
+      Map<UUID, Integer> nameOrder = readNameOrder();
+
+      profiler.start("BUILD_SNAPSHOT");
+      snapshot = new Snapshot(entries, nameOrder);
+      lastReloadTime = start;
+
+      XLOGGER.info("Loaded {} orderable(s) into the orderable catalog", entries.size());
+    }
+
+    rebuilt(start);
+    profiler.stop().log();
+  }
+
+  private synchronized void refreshOrderables(Collection<UUID> orderableIds) {
+    Snapshot current = snapshot;
+    if (null == current) {
+      // the first load reads them anyway
+      return;
+    }
+
+    final long start = System.currentTimeMillis();
+    Map<UUID, String> programCodes = readProgramCodes();
+    List<Entry> refreshed = inTransaction(() -> toEntries(
+        orderableRepository.findAllLatestByIds(orderableIds, null).getContent(), programCodes));
+
+    Map<UUID, Entry> entries = new HashMap<>(current.byId);
+    orderableIds.forEach(entries::remove);
+    refreshed.forEach(entry -> entries.put(entry.id, entry));
+    snapshot = new Snapshot(entries.values(), readNameOrder());
+
+    rebuilt(start);
+  }
+
+  private void rebuilt(long start) {
+    rebuilds.incrementAndGet();
+    lastRebuildDuration = System.currentTimeMillis() - start;
+  }
+
+  private <T> T inTransaction(Supplier<T> action) {
+    TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+    transaction.setReadOnly(true);
+    return transaction.execute(status -> action.get());
+  }
+
+  private Stamp readStamp() {
+    return template.queryForObject(SELECT_STAMP_SQL, (rs, rowNum) ->
+        new Stamp(rs.getLong("count"), toInstant(rs.getTimestamp("lastupdated"))));
+  }
+
+  private Map<UUID, String> readProgramCodes() {
+    Map<UUID, String> programCodes = new HashMap<>();
+    template.query(SELECT_PROGRAM_CODES_SQL, (RowCallbackHandler) rs -> programCodes.put(
+        UUID.fromString(rs.getString("id")), toLowerCase(rs.getString("code"))));
+    return programCodes;
+  }
+
+  private Map<UUID, Integer> readNameOrder() {
+    Map<UUID, Integer> nameOrder = new HashMap<>();
+    template.query(SELECT_NAME_ORDER_SQL, (RowCallbackHandler) rs ->
+        nameOrder.put(UUID.fromString(rs.getString("id")), nameOrder.size()));
+    return nameOrder;
+  }
+
+  private static List<Entry> toEntries(List<Orderable> orderables,
+      Map<UUID, String> programCodes) {
+    return orderables
+        .stream()
+        .map(orderable -> new Entry(OrderableDto.newInstance(orderable), programCodes))
+        .collect(Collectors.toList());
+  }
+
+  private static Instant toInstant(Timestamp timestamp) {
+    return null == timestamp ? null : timestamp.toInstant();
+  }
+
+  private static Instant toInstant(ZonedDateTime dateTime) {
+    return null == dateTime ? null : dateTime.toInstant();
+  }
+
+  private static String toLowerCase(String value) {
+    return null == value ? null : value.toLowerCase(Locale.ENGLISH);
+  }
+
+  /**
+   * Orderables matching a search, with the Last-Modified date of the result.
+   */
+  public static final class Result {
+    private final List<OrderableDto> orderables;
+    private final ZonedDateTime lastUpdated;
+
+    Result(List<Entry> entries) {
+      this.orderables = entries
+          .stream()
+          .map(entry -> entry.orderable)
+          .collect(Collectors.toList());
+      this.lastUpdated = entries
+          .stream()
+          .map(entry -> entry.lastUpdated)
+          .filter(Objects::nonNull)
+          .max(Comparator.comparing(ZonedDateTime::toInstant))
+          .orElse(null);
+    }
+
+    /**
+     * Gets the highest last updated date of the matching orderables, or null if none match.
+     */
+    public ZonedDateTime getLastUpdated() {
+      return lastUpdated;
+    }
+
+    public Page<OrderableDto> getPage(Pageable pageable) {
+      return Pagination.getPage(orderables, pageable);
+    }
+  }
+
+  @AllArgsConstructor
+  @EqualsAndHashCode
+  @SuppressWarnings("PMD.UnusedPrivateField")
+  private static final class Stamp {
+    private final long count;
+    private final Instant lastUpdated;
+  }
+
+  private static final class Entry {
+    private final UUID id;
+    private final OrderableDto orderable;
+    private final String code;
+    private final String name;
+    private final Set<String> programCodes;
+    private final ZonedDateTime lastUpdated;
+
+    Entry(OrderableDto orderable, Map<UUID, String> programCodes) {
+      this.id = orderable.getId();
+      this.orderable = orderable;
+      this.code = toLowerCase(orderable.getProductCode());
+      this.name = toLowerCase(orderable.getFullProductName());
+      this.programCodes = null == orderable.getPrograms()
+          ? Collections.emptySet()
+          : orderable.getPrograms()
+              .stream()
+              .map(ProgramOrderableDto::getProgramId)
+              .map(programCodes::get)
+              .filter(Objects::nonNull)
+              .collect(Collectors.toSet());
+      this.lastUpdated = orderable.getMeta().getLastUpdated();
+    }
+
+    boolean matches(String codeFragment, String nameFragment) {
+      return (null == codeFragment || (null != code && code.contains(codeFragment)))
+          && (null == nameFragment || (null != name && name.contains(nameFragment)));
+    }
+  }
+
+  private static final class Snapshot {
+    private final Map<UUID, Entry> byId;
+    private final List<Entry> sorted;
+    private final Map<String, List<Entry>> byProgramCode;
+    private final Comparator<Entry> byName;
+    private final Stamp stamp;
+
+    // orderables saved after the name order was read go last, until the next reload
+    Snapshot(Collection<Entry> entries, Map<UUID, Integer> nameOrder) {
+      byId = new HashMap<>(entries.size() * 4 / 3 + 1);
+      entries.forEach(entry -> byId.put(entry.id, entry));
+
+      byName = Comparator
+          .comparing((Entry entry) -> nameOrder.getOrDefault(entry.id, Integer.MAX_VALUE))
+          .thenComparing(entry -> entry.id);
+      List<Entry> list = new ArrayList<>(entries);
+      list.sort(byName);
+      sorted = Collections.unmodifiableList(list);
+
+      Map<String, List<Entry>> programs = new HashMap<>();
+      sorted.forEach(entry -> entry.programCodes.forEach(programCode -> programs
+          .computeIfAbsent(programCode, key -> new ArrayList<>())
+          .add(entry)));
+      byProgramCode = programs;
+
+      stamp = new Stamp(entries.size(), entries
+          .stream()
+          .map(entry -> toInstant(entry.lastUpdated))
+          .filter(Objects::nonNull)
+          .max(Comparator.naturalOrder())
+          .orElse(null));
+    }
+
+    List<Entry> findByIds(Set<UUID> ids) {
+      return ids
+          .stream()
+          .map(byId::get)
+          .filter(Objects::nonNull)
+          .sorted(byName)
+          .collect(Collectors.toList());
+    }
+
+    // blank code and name fragments match everything, like in the database search
+    List<Entry> search(String code, String name, String programCode) {
+      List<Entry> candidates = null == programCode
+          ? sorted
+          : byProgramCode.getOrDefault(toLowerCase(programCode), Collections.emptyList());
+      String codeFragment = isNotBlank(code) ? toLowerCase(code) : null;
+      String nameFragment = isNotBlank(name) ? toLowerCase(name) : null;
+      if (null == codeFragment && null == nameFragment) {
+        return candidates;
+      }
+
+      return candidates
+          .stream()
+          .filter(entry -> entry.matches(codeFragment, nameFragment))
+          .collect(Collectors.toList());
+    }
+  }
+}
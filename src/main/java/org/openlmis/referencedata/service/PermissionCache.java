@@ -0,0 +1,188 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.AllArgsConstructor;
+import org.openlmis.referencedata.dto.UserPrincipal;
+import org.openlmis.referencedata.repository.RightAssignmentRepository;
+import org.openlmis.referencedata.repository.UserRepository;
+import org.openlmis.referencedata.util.TransactionUtil;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Caches the principal of each user and the names of rights they have in any right assignment,
+ * so that admin right checks do not need a database round trip per request. The cache is local
+ * to this instance:
+ * <ul>
+ *   <li>it holds at most permissionCache.maxSize users, evicting the least recently used,</li>
+ *   <li>entries expire after permissionCache.ttl milliseconds, which bounds how long changes
+ *   made by other instances can go unnoticed,</li>
+ *   <li>entries are invalidated after the transaction regenerating right assignments or saving
+ *   the user commits.</li>
+ * </ul>
+ * Every invalidation bumps a version stamp. Rights loaded before an invalidation are returned
+ * but not cached, so a concurrent load cannot put stale rights back. Hits, misses and evictions
+ * are published as permissionCache.* metrics.
+ */
+@Component
+public class PermissionCache implements PublicMetrics {
+
+  private static final XLogger XLOGGER = XLoggerFactory.getXLogger(PermissionCache.class);
+
+  private static final String METRIC_PREFIX = "permissionCache.";
+
+  @Autowired
+  private RightAssignmentRepository rightAssignmentRepository;
+
+  @Autowired
+  private UserRepository userRepository;
+
+  @Value("${permissionCache.ttl}")
+  private long ttl;
+
+  @Value("${permissionCache.maxSize}")
+  private int maxSize;
+
+  // guarded by itself
+  private final Map<UUID, Entry> entries = new LinkedHashMap<UUID, Entry>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<UUID, Entry> eldest) {
+      if (size() > maxSize) {
+        evictions.incrementAndGet();
+        return true;
+      }
+      return false;
+    }
+  };
+
+  private final AtomicLong version = new AtomicLong();
+  private volatile long validSinceVersion;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Checks whether the user has the given right in any of their right assignments.
+   *
+   * @param userId id of the user
+   * @param rightName name of the right, null is never granted
+   * @return true if the user has the right
+   */
+  public boolean hasRight(UUID userId, String rightName) {
+    return null != rightName && getEntry(userId).rightNames.contains(rightName);
+  }
+
+  /**
+   * Returns the principal of the user.
+   *
+   * @param userId id of the user
+   * @return principal of the user, null if there is no such user
+   */
+  public UserPrincipal getPrincipal(UUID userId) {
+    return getEntry(userId).principal;
+  }
+
+  /**
+   * Drops cached rights of the given users once the current transaction commits.
+   *
+   * @param userIds ids of the users whose right assignments have changed
+   */
+  public void invalidate(Collection<UUID> userIds) {
+    if (!userIds.isEmpty()) {
+      TransactionUtil.afterCommit(() -> {
+        synchronized (entries) {
+          version.incrementAndGet();
+          userIds.forEach(entries::remove);
+        }
+        XLOGGER.debug("Invalidated permissions of {} user(s)", userIds.size());
+      });
+    }
+  }
+
+  /**
+   * Drops cached rights of all users once the current transaction commits. Entries are not
+   * removed, they become stale by bumping the version stamp.
+   */
+  public void invalidateAll() {
+    TransactionUtil.afterCommit(() -> {
+      validSinceVersion = version.incrementAndGet();
+      XLOGGER.debug("Invalidated permissions of all users");
+    });
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    List<Metric<?>> metrics = new ArrayList<>();
+    synchronized (entries) {
+      metrics.add(new Metric<>(METRIC_PREFIX + "size", entries.size()));
+    }
+    metrics.add(new Metric<>(METRIC_PREFIX + "hits", hits.get()));
+    metrics.add(new Metric<>(METRIC_PREFIX + "misses", misses.get()));
+    metrics.add(new Metric<>(METRIC_PREFIX + "evictions", evictions.get()));
+    return metrics;
+  }
+
+  private Entry getEntry(UUID userId) {
+    long now = System.currentTimeMillis();
+    Entry entry;
+    synchronized (entries) {
+      entry = entries.get(userId);
+    }
+
+    if (null != entry && entry.version >= validSinceVersion && now - entry.loadedAt < ttl) {
+      hits.incrementAndGet();
+      return entry;
+    }
+
+    misses.incrementAndGet();
+    long loadVersion = version.get();
+    entry = new Entry(userRepository.findPrincipal(userId),
+        Collections.unmodifiableSet(rightAssignmentRepository.findRightNamesByUser(userId)),
+        now, loadVersion);
+
+    synchronized (entries) {
+      if (version.get() == loadVersion) {
+        entries.put(userId, entry);
+      }
+    }
+
+    return entry;
+  }
+
+  @AllArgsConstructor
+  private static final class Entry {
+    private final UserPrincipal principal;
+    private final Set<String> rightNames;
+    private final long loadedAt;
+    private final long version;
+  }
+}
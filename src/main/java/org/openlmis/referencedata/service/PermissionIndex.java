@@ -0,0 +1,609 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.service;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.PostConstruct;
+import lombok.AllArgsConstructor;
+import org.openlmis.referencedata.dto.NamedResource;
+import org.openlmis.referencedata.repository.FacilityRepository;
+import org.openlmis.referencedata.repository.RightAssignmentRepository;
+import org.openlmis.referencedata.util.ContentVersion;
+import org.openlmis.referencedata.util.TransactionUtil;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.slf4j.profiler.Profiler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory index of right assignments, which serves permission strings, right checks and
+ * supervised facilities of users without querying the database.
+ *
+ * <p>Right names, facility IDs and program IDs are dictionary-encoded into ints, and every right
+ * assignment is packed into one long: 15 bits for the right, 24 bits for the facility and 24
+ * bits for the program, with 0 standing for no facility or program. The right assignments of a
+ * user are kept as a sorted array of those longs, so that a right check is a binary search and
+ * all assignments of a right, or of a right and facility, are one contiguous range. Names of
+ * supervised facilities are kept as well.
+ *
+ * <p>Every user also has a version of their permission strings and of their supervised
+ * facilities, computed when their entry is built. A version is the {@link ContentVersion} of the
+ * response body, so it is the same on every instance, and it changes whenever the body does.
+ * Controllers can use it as an ETag without building the body.
+ *
+ * <p>The index is an immutable snapshot, replaced as a whole on every change, so reads never
+ * lock. It is loaded on start up and every permissionIndex.reloadInterval milliseconds, which
+ * bounds how long changes made by other instances can go unnoticed. Changes made by this
+ * instance are applied after they commit: for the affected users only after an incremental
+ * regeneration, or by a reload after a full one. Until the first load, and when the index is
+ * disabled (permissionIndex.enabled), queries fall back to the database.
+ */
+@Component
+@SuppressWarnings("PMD.TooManyMethods")
+public class PermissionIndex implements PublicMetrics {
+
+  private static final XLogger XLOGGER = XLoggerFactory.getXLogger(PermissionIndex.class);
+
+  private static final String METRIC_PREFIX = "permissionIndex.";
+
+  static final String SELECT_ALL_SQL = "SELECT userid, rightname, facilityid, programid"
+      + " FROM referencedata.right_assignments";
+  static final String SELECT_BY_USERS_SQL = SELECT_ALL_SQL
+      + " WHERE userid = ANY(CAST(? AS uuid[]))";
+  static final String SELECT_FACILITY_NAMES_SQL = "SELECT id, name"
+      + " FROM referencedata.facilities"
+      + " WHERE id = ANY(CAST(? AS uuid[]))";
+
+  private static final int RIGHT_BITS = 15;
+  private static final int FACILITY_BITS = 24;
+  private static final int PROGRAM_BITS = 24;
+  private static final long PROGRAM_MASK = (1L << PROGRAM_BITS) - 1;
+  private static final long FACILITY_MASK = (1L << FACILITY_BITS) - 1;
+
+  @Autowired
+  private JdbcTemplate template;
+
+  @Autowired
+  private RightAssignmentRepository rightAssignmentRepository;
+
+  @Autowired
+  private FacilityRepository facilityRepository;
+
+  @Autowired
+  @Qualifier("rightAssignmentTaskScheduler")
+  private TaskScheduler taskScheduler;
+
+  @Value("${permissionIndex.enabled}")
+  private boolean enabled;
+
+  @Value("${permissionIndex.reloadInterval}")
+  private long reloadInterval;
+
+  // dictionaries only grow, so codes in older snapshots stay valid; written under this
+  private final Dictionary<String> rights = new Dictionary<>(RIGHT_BITS);
+  private final Dictionary<UUID> facilities = new Dictionary<>(FACILITY_BITS);
+  private final Dictionary<UUID> programs = new Dictionary<>(PROGRAM_BITS);
+
+  // null until the index is loaded; written under this
+  private volatile Snapshot snapshot;
+  private volatile long lastReloadDuration = -1;
+
+  /**
+   * Schedules loading of the index, right away and then periodically.
+   */
+  @PostConstruct
+  public void scheduleReloads() {
+    if (enabled) {
+      taskScheduler.scheduleWithFixedDelay(this::reload, reloadInterval);
+    }
+  }
+
+  /**
+   * Gets permission strings of the user: RIGHT, RIGHT|FACILITY or RIGHT|FACILITY|PROGRAM.
+   *
+   * @param userId id of the user
+   * @return permission strings of the user
+   */
+  public Set<String> getPermissionStrings(UUID userId) {
+    Snapshot current = snapshot;
+    if (null == current) {
+      return rightAssignmentRepository.findByUser(userId);
+    }
+
+    return toPermissionStrings(current.getRightAssignments(userId));
+  }
+
+  /**
+   * Gets the version of permission strings of the user, which is the {@link ContentVersion} of
+   * {@link #getPermissionStrings(UUID)}.
+   *
+   * @param userId id of the user
+   * @return the version, or null if the index is not loaded or the user has no right assignments
+   */
+  public String getPermissionStringsVersion(UUID userId) {
+    UserPermissions permissions = getUserPermissions(userId);
+    return null == permissions ? null : permissions.permissionStringsVersion;
+  }
+
+  /**
+   * Checks whether the user has the right, for any facility and program.
+   */
+  public boolean hasRight(UUID userId, String rightName) {
+    Snapshot current = snapshot;
+    if (null == current) {
+      return rightAssignmentRepository.existsByUserIdAndRightName(userId, rightName);
+    }
+
+    int right = rights.find(rightName);
+    return right > 0 && containsAny(current.getRightAssignments(userId),
+        pack(right, 0, 0), pack(right + 1, 0, 0));
+  }
+
+  /**
+   * Checks whether the user has the right at the facility, for any program.
+   */
+  public boolean hasRight(UUID userId, String rightName, UUID facilityId) {
+    Snapshot current = snapshot;
+    if (null == current) {
+      return rightAssignmentRepository.existsByUserIdAndAndRightNameAndFacilityId(
+          userId, rightName, facilityId);
+    }
+
+    int right = rights.find(rightName);
+    int facility = facilities.find(facilityId);
+    return right > 0 && facility > 0 && containsAny(current.getRightAssignments(userId),
+        pack(right, facility, 0), pack(right, facility + 1, 0));
+  }
+
+  /**
+   * Checks whether the user has the right at the facility, for the program.
+   */
+  public boolean hasRight(UUID userId, String rightName, UUID facilityId, UUID programId) {
+    Snapshot current = snapshot;
+    if (null == current) {
+      return rightAssignmentRepository.existsByUserIdAndAndRightNameAndFacilityIdAndProgramId(
+          userId, rightName, facilityId, programId);
+    }
+
+    int right = rights.find(rightName);
+    int facility = facilities.find(facilityId);
+    int program = programs.find(programId);
+    long rightAssignment = pack(right, facility, program);
+    return right > 0 && facility > 0 && program > 0
+        && containsAny(current.getRightAssignments(userId), rightAssignment, rightAssignment + 1);
+  }
+
+  /**
+   * Gets facilities where the user has supervision rights, that is right assignments with a
+   * program.
+   *
+   * @param userId id of the user
+   * @return facilities with supervision rights of the user
+   */
+  public Set<NamedResource> getSupervisionFacilities(UUID userId) {
+    Snapshot current = snapshot;
+    if (null == current) {
+      return facilityRepository.findSupervisionFacilitiesByUser(userId);
+    }
+
+    return toSupervisionFacilities(current.getRightAssignments(userId), current.facilityNames);
+  }
+
+  /**
+   * Gets the version of supervision facilities of the user, which is the {@link ContentVersion}
+   * of {@link #getSupervisionFacilities(UUID)}.
+   *
+   * @param userId id of the user
+   * @return the version, or null if the index is not loaded or the user has no right assignments
+   */
+  public String getSupervisionFacilitiesVersion(UUID userId) {
+    UserPermissions permissions = getUserPermissions(userId);
+    return null == permissions ? null : permissions.supervisionFacilitiesVersion;
+  }
+
+  /**
+   * Reloads right assignments of the given users once the current transaction commits.
+   *
+   * @param userIds ids of the users whose right assignments have changed
+   */
+  public void refresh(Collection<UUID> userIds) {
+    if (enabled && !userIds.isEmpty()) {
+      TransactionUtil.afterCommit(() -> refreshUsers(userIds));
+    }
+  }
+
+  /**
+   * Reloads names of the given facilities once the current transaction commits.
+   *
+   * @param facilityIds ids of the facilities which have changed
+   */
+  public void refreshFacilities(Collection<UUID> facilityIds) {
+    if (enabled && !facilityIds.isEmpty()) {
+      TransactionUtil.afterCommit(() -> refreshFacilityNames(facilityIds));
+    }
+  }
+
+  /**
+   * Reloads the whole index once the current transaction commits.
+   */
+  public void refreshAll() {
+    if (enabled) {
+      TransactionUtil.afterCommit(this::reload);
+    }
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    List<Metric<?>> metrics = new ArrayList<>();
+    Snapshot current = snapshot;
+    if (null != current) {
+      metrics.add(new Metric<>(METRIC_PREFIX + "users", current.users.size()));
+      metrics.add(new Metric<>(METRIC_PREFIX + "rightAssignments", current.users
+          .values()
+          .stream()
+          .mapToLong(permissions -> permissions.rightAssignments.length)
+          .sum()));
+    }
+    if (lastReloadDuration >= 0) {
+      metrics.add(new Metric<>(METRIC_PREFIX + "lastReloadDuration", lastReloadDuration));
+    }
+    return metrics;
+  }
+
+  void reload() {
+    Profiler profiler = new Profiler("RELOAD_PERMISSION_INDEX");
+    profiler.setLogger(XLOGGER);
+    long start = System.currentTimeMillis();
+
+    synchronized (this) {
+      profiler.start("LOAD_RIGHT_ASSIGNMENTS");
+      Map<UUID, LongList> loaded = new HashMap<>();
+      template.query(SELECT_ALL_SQL, (RowCallbackHandler) rs -> addRow(loaded, rs));
+
+      profiler.start("LOAD_FACILITY_NAMES");
+      Map<UUID, long[]> rightAssignments = toSortedArrays(loaded);
+      Map<UUID, String> facilityNames = new HashMap<>();
+      updateFacilityNames(facilityNames, getSupervisionFacilityIds(rightAssignments.values()));
+
+      profiler.start("BUILD_SNAPSHOT");
+      Map<UUID, UserPermissions> users = new HashMap<>(rightAssignments.size() * 4 / 3 + 1);
+      rightAssignments.forEach((userId, userRightAssignments) -> users.put(userId,
+          toUserPermissions(userRightAssignments, facilityNames)));
+      snapshot = new Snapshot(users, facilityNames);
+
+      XLOGGER.info("Loaded right assignments of {} user(s) into the permission index",
+          users.size());
+    }
+
+    lastReloadDuration = System.currentTimeMillis() - start;
+    profiler.stop().log();
+  }
+
+  private synchronized void refreshUsers(Collection<UUID> userIds) {
+    Snapshot current = snapshot;
+    if (null == current) {
+      // the first load reads them anyway
+      return;
+    }
+
+    Map<UUID, LongList> loaded = new HashMap<>();
+    template.query(SELECT_BY_USERS_SQL, new UuidArraySetter(userIds),
+        (RowCallbackHandler) rs -> addRow(loaded, rs));
+    Map<UUID, long[]> rightAssignments = toSortedArrays(loaded);
+
+    Map<UUID, String> facilityNames = new HashMap<>(current.facilityNames);
+    Set<UUID> renamed = updateFacilityNames(facilityNames,
+        getSupervisionFacilityIds(rightAssignments.values()));
+
+    Map<UUID, UserPermissions> users = new HashMap<>(current.users);
+    updateVersions(users, facilityNames, renamed);
+    for (UUID userId : userIds) {
+      long[] userRightAssignments = rightAssignments.get(userId);
+      if (null == userRightAssignments) {
+        users.remove(userId);
+      } else {
+        users.put(userId, toUserPermissions(userRightAssignments, facilityNames));
+      }
+    }
+    snapshot = new Snapshot(users, facilityNames);
+
+    XLOGGER.debug("Refreshed right assignments of {} user(s) in the permission index",
+        userIds.size());
+  }
+
+  private synchronized void refreshFacilityNames(Collection<UUID> facilityIds) {
+    Snapshot current = snapshot;
+    if (null == current) {
+      return;
+    }
+
+    Map<UUID, String> facilityNames = new HashMap<>(current.facilityNames);
+    Set<UUID> renamed = updateFacilityNames(facilityNames, facilityIds);
+    if (!renamed.isEmpty()) {
+      Map<UUID, UserPermissions> users = new HashMap<>(current.users);
+      updateVersions(users, facilityNames, renamed);
+      snapshot = new Snapshot(users, facilityNames);
+    }
+  }
+
+  // loads names of the given facilities, returns IDs of those which have changed
+  private Set<UUID> updateFacilityNames(Map<UUID, String> facilityNames,
+      Collection<UUID> facilityIds) {
+    if (facilityIds.isEmpty()) {
+      return Collections.emptySet();
+    }
+
+    Map<UUID, String> loaded = new HashMap<>();
+    template.query(SELECT_FACILITY_NAMES_SQL, new UuidArraySetter(facilityIds),
+        (RowCallbackHandler) rs -> loaded.put(UUID.fromString(rs.getString("id")),
+            rs.getString("name")));
+
+    Set<UUID> renamed = new HashSet<>();
+    for (UUID facilityId : facilityIds) {
+      boolean exists = loaded.containsKey(facilityId);
+      if (exists != facilityNames.containsKey(facilityId)
+          || !Objects.equals(loaded.get(facilityId), facilityNames.get(facilityId))) {
+        renamed.add(facilityId);
+        if (exists) {
+          facilityNames.put(facilityId, loaded.get(facilityId));
+        } else {
+          facilityNames.remove(facilityId);
+        }
+      }
+    }
+
+    return renamed;
+  }
+
+  // rebuilds versions of users who supervise any of the renamed facilities
+  private void updateVersions(Map<UUID, UserPermissions> users,
+      Map<UUID, String> facilityNames, Set<UUID> renamed) {
+    if (renamed.isEmpty()) {
+      return;
+    }
+
+    users.replaceAll((userId, permissions) -> getSupervisionFacilityIds(
+        Collections.singleton(permissions.rightAssignments)).stream().anyMatch(renamed::contains)
+        ? toUserPermissions(permissions.rightAssignments, facilityNames)
+        : permissions);
+  }
+
+  private UserPermissions getUserPermissions(UUID userId) {
+    Snapshot current = snapshot;
+    return null == current ? null : current.users.get(userId);
+  }
+
+  private UserPermissions toUserPermissions(long[] rightAssignments,
+      Map<UUID, String> facilityNames) {
+    return new UserPermissions(rightAssignments,
+        ContentVersion.ofStrings(toPermissionStrings(rightAssignments)),
+        ContentVersion.ofNamedResources(toSupervisionFacilities(rightAssignments, facilityNames)));
+  }
+
+  private Set<String> toPermissionStrings(long[] rightAssignments) {
+    Set<String> permissionStrings = new HashSet<>(rightAssignments.length * 4 / 3 + 1);
+    for (long rightAssignment : rightAssignments) {
+      permissionStrings.add(toPermissionString(rightAssignment));
+    }
+    return permissionStrings;
+  }
+
+  private String toPermissionString(long rightAssignment) {
+    int facility = getFacility(rightAssignment);
+    int program = getProgram(rightAssignment);
+
+    StringBuilder permissionString = new StringBuilder(
+        rights.decode((int) (rightAssignment >>> (FACILITY_BITS + PROGRAM_BITS))));
+    if (facility != 0) {
+      permissionString.append('|').append(facilities.decode(facility));
+    }
+    if (program != 0) {
+      permissionString.append('|').append(programs.decode(program));
+    }
+
+    return permissionString.toString();
+  }
+
+  private Set<NamedResource> toSupervisionFacilities(long[] rightAssignments,
+      Map<UUID, String> facilityNames) {
+    Set<NamedResource> supervisionFacilities = new HashSet<>();
+    for (UUID facilityId : getSupervisionFacilityIds(Collections.singleton(rightAssignments))) {
+      // facilities which no longer exist are skipped, like a join would
+      if (facilityNames.containsKey(facilityId)) {
+        supervisionFacilities.add(new NamedResource(facilityId, facilityNames.get(facilityId)));
+      }
+    }
+    return supervisionFacilities;
+  }
+
+  private Set<UUID> getSupervisionFacilityIds(Collection<long[]> rightAssignments) {
+    Set<UUID> facilityIds = new HashSet<>();
+    for (long[] userRightAssignments : rightAssignments) {
+      for (long rightAssignment : userRightAssignments) {
+        if (getProgram(rightAssignment) != 0) {
+          facilityIds.add(facilities.decode(getFacility(rightAssignment)));
+        }
+      }
+    }
+    return facilityIds;
+  }
+
+  private void addRow(Map<UUID, LongList> loaded, ResultSet rs) throws SQLException {
+    long rightAssignment = pack(
+        rights.encode(rs.getString("rightname")),
+        facilities.encode(toUuid(rs.getString("facilityid"))),
+        programs.encode(toUuid(rs.getString("programid"))));
+
+    loaded
+        .computeIfAbsent(UUID.fromString(rs.getString("userid")), userId -> new LongList())
+        .add(rightAssignment);
+  }
+
+  private static Map<UUID, long[]> toSortedArrays(Map<UUID, LongList> loaded) {
+    Map<UUID, long[]> rightAssignments = new HashMap<>(loaded.size() * 4 / 3 + 1);
+    loaded.forEach((userId, userRightAssignments) -> rightAssignments.put(userId,
+        userRightAssignments.toSortedArray()));
+    return rightAssignments;
+  }
+
+  private static long pack(int right, int facility, int program) {
+    return ((long) right << (FACILITY_BITS + PROGRAM_BITS))
+        + ((long) facility << PROGRAM_BITS)
+        + program;
+  }
+
+  private static int getFacility(long rightAssignment) {
+    return (int) ((rightAssignment >>> PROGRAM_BITS) & FACILITY_MASK);
+  }
+
+  private static int getProgram(long rightAssignment) {
+    return (int) (rightAssignment & PROGRAM_MASK);
+  }
+
+  // whether the sorted array contains any value from the range [from, to)
+  private static boolean containsAny(long[] rightAssignments, long from, long to) {
+    int index = Arrays.binarySearch(rightAssignments, from);
+    if (index >= 0) {
+      return true;
+    }
+
+    int insertionPoint = -index - 1;
+    return insertionPoint < rightAssignments.length && rightAssignments[insertionPoint] < to;
+  }
+
+  private static UUID toUuid(String value) {
+    return null == value ? null : UUID.fromString(value);
+  }
+
+  private static final class Snapshot {
+    private static final long[] NO_RIGHT_ASSIGNMENTS = new long[0];
+
+    private final Map<UUID, UserPermissions> users;
+    private final Map<UUID, String> facilityNames;
+
+    Snapshot(Map<UUID, UserPermissions> users, Map<UUID, String> facilityNames) {
+      this.users = Collections.unmodifiableMap(users);
+      this.facilityNames = Collections.unmodifiableMap(facilityNames);
+    }
+
+    long[] getRightAssignments(UUID userId) {
+      UserPermissions permissions = users.get(userId);
+      return null == permissions ? NO_RIGHT_ASSIGNMENTS : permissions.rightAssignments;
+    }
+  }
+
+  @AllArgsConstructor
+  private static final class UserPermissions {
+    private final long[] rightAssignments;
+    private final String permissionStringsVersion;
+    private final String supervisionFacilitiesVersion;
+  }
+
+  /**
+   * Maps values to consecutive int codes, starting from 1; 0 is reserved for null. Codes are
+   * added by one thread at a time, and can be looked up and decoded by any thread.
+   */
+  private static final class Dictionary<T> {
+    private final int maxCode;
+    private final Map<T, Integer> codes = new ConcurrentHashMap<>();
+    private volatile Object[] values = new Object[16];
+    private int size = 1;
+
+    Dictionary(int bits) {
+      this.maxCode = (1 << bits) - 1;
+    }
+
+    // returns -1 for values which have no code
+    int find(T value) {
+      if (null == value) {
+        return 0;
+      }
+      return codes.getOrDefault(value, -1);
+    }
+
+    int encode(T value) {
+      int code = find(value);
+      if (code >= 0) {
+        return code;
+      }
+      if (size > maxCode) {
+        throw new IllegalStateException("Permission index dictionary is full: " + maxCode);
+      }
+
+      Object[] array = size == values.length ? Arrays.copyOf(values, size * 2) : values;
+      array[size] = value;
+      // the volatile write publishes the new value together with the array
+      values = array;
+      codes.put(value, size);
+      return size++;
+    }
+
+    @SuppressWarnings("unchecked")
+    T decode(int code) {
+      return (T) values[code];
+    }
+  }
+
+  /**
+   * Growable array of primitive longs, used while right assignments are being loaded.
+   */
+  private static final class LongList {
+    private long[] values = new long[8];
+    private int size;
+
+    void add(long value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    // duplicate right assignments are kept only once
+    long[] toSortedArray() {
+      long[] sorted = Arrays.copyOf(values, size);
+      Arrays.sort(sorted);
+
+      int distinct = 0;
+      for (int index = 0; index < sorted.length; ++index) {
+        if (index == 0 || sorted[index] != sorted[distinct - 1]) {
+          sorted[distinct++] = sorted[index];
+        }
+      }
+      return distinct == sorted.length ? sorted : Arrays.copyOf(sorted, distinct);
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.service;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Describes what has changed in the database, so that {@link RightAssignmentService} can
+ * determine which users are affected and regenerate right assignments only for them. Each type
+ * of change has a SQL resource in db/right-assignments that turns the changed IDs into the IDs
+ * of the affected users.
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+public final class RightAssignmentChange {
+
+  public enum Type {
+    ROLE("get_users_affected_by_roles.sql"),
+    FACILITY("get_users_affected_by_facilities.sql"),
+    SUPERVISORY_NODE("get_users_affected_by_supervisory_nodes.sql");
+
+    @Getter
+    private final String affectedUsersResource;
+
+    Type(String affectedUsersResource) {
+      this.affectedUsersResource = affectedUsersResource;
+    }
+  }
+
+  private final Type type;
+  private final Set<UUID> ids;
+
+  private RightAssignmentChange(Type type, Collection<UUID> ids) {
+    this.type = type;
+
+    Set<UUID> nonNullIds = new LinkedHashSet<>(ids);
+    nonNullIds.removeIf(Objects::isNull);
+    this.ids = Collections.unmodifiableSet(nonNullIds);
+  }
+
+  /**
+   * Change of the given type, e.g. one merged from several changes of that type.
+   */
+  public static RightAssignmentChange of(Type type, Collection<UUID> ids) {
+    return new RightAssignmentChange(type, ids);
+  }
+
+  /**
+   * Change of rights of the given roles. Affects every user who has any of the roles.
+   */
+  public static RightAssignmentChange forRoles(UUID... roleIds) {
+    return new RightAssignmentChange(Type.ROLE, Arrays.asList(roleIds));
+  }
+
+  /**
+   * Change of the given facilities, e.g. their supported programs. Affects users with the facility
+   * as home facility or warehouse, and users supervising the facility through any supervisory node
+   * above one of its requisition groups.
+   */
+  public static RightAssignmentChange forFacilities(UUID... facilityIds) {
+    return new RightAssignmentChange(Type.FACILITY, Arrays.asList(facilityIds));
+  }
+
+  /**
+   * Change of the subtree of the given supervisory nodes (child nodes, requisition groups or
+   * their members). Affects users with supervision roles at the nodes or any of their ancestors.
+   */
+  public static RightAssignmentChange forSupervisoryNodes(Collection<UUID> supervisoryNodeIds) {
+    return new RightAssignmentChange(Type.SUPERVISORY_NODE, supervisoryNodeIds);
+  }
+
+  /**
+   * Change of the subtree of the given supervisory nodes.
+   *
+   * @see #forSupervisoryNodes(Collection)
+   */
+  public static RightAssignmentChange forSupervisoryNodes(UUID... supervisoryNodeIds) {
+    return forSupervisoryNodes(Arrays.asList(supervisoryNodeIds));
+  }
+
+  public boolean isEmpty() {
+    return ids.isEmpty();
+  }
+}
@@ -15,48 +15,25 @@
 
 package org.openlmis.referencedata.service;
 
-import org.slf4j.ext.XLogger;
-import org.slf4j.ext.XLoggerFactory;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.scheduling.annotation.EnableAsync;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 @Configuration
-@EnableAsync
 public class RightAssignmentExecutor {
 
-  private static final XLogger XLOGGER = XLoggerFactory.getXLogger(RightAssignmentService.class);
-
-  @Value("${rightAssignments.thread.corePool}")
-  private int corePoolSize;
-
-  @Value("${rightAssignments.thread.maxPool}")
-  private int maxPoolSize;
-
-  @Value("${rightAssignments.queue.capacity}")
-  private int queueCapacity;
-
-  @Value("${rightAssignments.thread.timeout}")
-  private int threadTimeout;
-
   /**
-   * Executor for right assignment regeneration task.
-   * Restricts async parameters such as thread pool size. queue capacity or thread timeout.
+   * Scheduler for right assignment regeneration runs, see {@link RightAssignmentScheduler}.
+   * It has a single thread, so that runs never overlap.
    */
   @Bean
-  @Qualifier("rightAssignmentTaskExecutor")
-  public ThreadPoolTaskExecutor rightAssignmentTaskExecutor() {
-    ThreadPoolTaskExecutor threadPoolTaskExecutor = new ThreadPoolTaskExecutor();
-    threadPoolTaskExecutor.setCorePoolSize(corePoolSize);
-    threadPoolTaskExecutor.setRejectedExecutionHandler((runnable, executor) ->
-        XLOGGER.error("Thread pool for Right Assignment Regeneration exceeded"));
-    threadPoolTaskExecutor.setMaxPoolSize(maxPoolSize);
-    threadPoolTaskExecutor.setQueueCapacity(queueCapacity);
-    threadPoolTaskExecutor.setKeepAliveSeconds(threadTimeout);
+  @Qualifier("rightAssignmentTaskScheduler")
+  public ThreadPoolTaskScheduler rightAssignmentTaskScheduler() {
+    ThreadPoolTaskScheduler threadPoolTaskScheduler = new ThreadPoolTaskScheduler();
+    threadPoolTaskScheduler.setPoolSize(1);
+    threadPoolTaskScheduler.setThreadNamePrefix("right-assignments-");
 
-    return threadPoolTaskExecutor;
+    return threadPoolTaskScheduler;
   }
 }
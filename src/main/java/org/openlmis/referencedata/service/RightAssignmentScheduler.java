@@ -0,0 +1,217 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openlmis.referencedata.service.RightAssignmentChange.Type;
+import org.openlmis.referencedata.util.TransactionUtil;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+
+/**
+ * Coalesces right assignment regeneration requests. Requests are not run one by one; they are
+ * merged and run together, at most once per rightAssignments.regeneration.delay milliseconds:
+ * <ul>
+ *   <li>requests arriving within the delay after the first one are merged into one run,</li>
+ *   <li>requests arriving during a run are merged into exactly one follow-up run.</li>
+ * </ul>
+ * Requests made in a transaction are only accepted after it commits, so that a run never reads
+ * the state from before the change it was requested for. Each type of change is regenerated on
+ * its own, unless incremental regeneration is disabled, in which case all changes of a run are
+ * covered by a single regeneration of all right assignments. Changes that fail are merged into
+ * the next run, which is delayed twice as long after each consecutive failed run. Statistics
+ * of the runs are published as rightAssignments.regeneration.* metrics.
+ */
+@Component
+public class RightAssignmentScheduler implements PublicMetrics {
+
+  private static final XLogger XLOGGER = XLoggerFactory.getXLogger(
+      RightAssignmentScheduler.class);
+
+  private static final String METRIC_PREFIX = "rightAssignments.regeneration.";
+
+  private static final int MAX_BACKOFF_EXPONENT = 6;
+
+  @Autowired
+  private RightAssignmentService rightAssignmentService;
+
+  @Autowired
+  @Qualifier("rightAssignmentTaskScheduler")
+  private TaskScheduler taskScheduler;
+
+  @Value("${rightAssignments.regeneration.delay}")
+  private long delay;
+
+  // guarded by this
+  private Map<Type, Set<UUID>> pendingChanges = new EnumMap<>(Type.class);
+  private int pendingRequests;
+  private boolean runScheduled;
+  private boolean running;
+  private int consecutiveFailures;
+
+  private final AtomicLong runs = new AtomicLong();
+  private final AtomicLong failedRuns = new AtomicLong();
+  private final AtomicLong coalescedRequests = new AtomicLong();
+  private volatile long lastRunDuration = -1;
+  private volatile long lastSuccessfulRun = -1;
+
+  /**
+   * Requests regeneration of right assignments affected by the given change.
+   */
+  public void schedule(RightAssignmentChange change) {
+    if (!change.isEmpty()) {
+      TransactionUtil.afterCommit(() -> request(change));
+    }
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    List<Metric<?>> metrics = new ArrayList<>();
+    synchronized (this) {
+      metrics.add(new Metric<>(METRIC_PREFIX + "pending", pendingRequests));
+    }
+    metrics.add(new Metric<>(METRIC_PREFIX + "runs", runs.get()));
+    metrics.add(new Metric<>(METRIC_PREFIX + "failedRuns", failedRuns.get()));
+    metrics.add(new Metric<>(METRIC_PREFIX + "coalescedRequests", coalescedRequests.get()));
+    if (lastRunDuration >= 0) {
+      metrics.add(new Metric<>(METRIC_PREFIX + "lastRunDuration", lastRunDuration));
+    }
+    if (lastSuccessfulRun >= 0) {
+      metrics.add(new Metric<>(METRIC_PREFIX + "timeSinceLastSuccessfulRun",
+          System.currentTimeMillis() - lastSuccessfulRun));
+    }
+    return metrics;
+  }
+
+  private synchronized void request(RightAssignmentChange change) {
+    XLOGGER.entry(change);
+
+    pendingChanges
+        .computeIfAbsent(change.getType(), type -> new LinkedHashSet<>())
+        .addAll(change.getIds());
+
+    if (pendingRequests++ > 0) {
+      coalescedRequests.incrementAndGet();
+    }
+
+    // a run in progress schedules the follow-up run itself when it finishes
+    if (!runScheduled && !running) {
+      scheduleRun();
+    }
+
+    XLOGGER.exit();
+  }
+
+  private void scheduleRun() {
+    runScheduled = true;
+    long runDelay = delay << Math.min(consecutiveFailures, MAX_BACKOFF_EXPONENT);
+    taskScheduler.schedule(this::run, new Date(System.currentTimeMillis() + runDelay));
+  }
+
+  void run() {
+    final Map<Type, Set<UUID>> changes;
+    synchronized (this) {
+      changes = pendingChanges;
+      XLOGGER.info("Regenerating right assignments for {} coalesced request(s)", pendingRequests);
+
+      pendingChanges = new EnumMap<>(Type.class);
+      pendingRequests = 0;
+      runScheduled = false;
+      running = true;
+    }
+
+    // changes are removed once regenerated, so the failed and unprocessed ones are retried
+    final Map<Type, Set<UUID>> remaining = new EnumMap<>(changes);
+    long start = System.currentTimeMillis();
+    try {
+      if (rightAssignmentService.isIncrementalEnabled()) {
+        regenerateEachType(changes, remaining);
+      } else {
+        regenerateAll(remaining);
+      }
+    } finally {
+      lastRunDuration = System.currentTimeMillis() - start;
+      runs.incrementAndGet();
+
+      if (remaining.isEmpty()) {
+        lastSuccessfulRun = System.currentTimeMillis();
+      } else {
+        failedRuns.incrementAndGet();
+      }
+
+      synchronized (this) {
+        running = false;
+        retry(remaining);
+        if (pendingRequests > 0) {
+          scheduleRun();
+        }
+      }
+    }
+  }
+
+  // each type of change is regenerated in its own transaction
+  private void regenerateEachType(Map<Type, Set<UUID>> changes, Map<Type, Set<UUID>> remaining) {
+    for (Map.Entry<Type, Set<UUID>> change : changes.entrySet()) {
+      try {
+        rightAssignmentService.regenerateRightAssignments(
+            RightAssignmentChange.of(change.getKey(), change.getValue()));
+        remaining.remove(change.getKey());
+      } catch (RuntimeException ex) {
+        XLOGGER.error("Error when regenerating right assignments for type {}",
+            change.getKey(), ex);
+      }
+    }
+  }
+
+  // every change would rebuild all right assignments, so one rebuild covers all of them
+  private void regenerateAll(Map<Type, Set<UUID>> remaining) {
+    try {
+      rightAssignmentService.regenerateRightAssignments();
+      remaining.clear();
+    } catch (RuntimeException ex) {
+      XLOGGER.error("Error when regenerating all right assignments", ex);
+    }
+  }
+
+  private void retry(Map<Type, Set<UUID>> changes) {
+    if (changes.isEmpty()) {
+      consecutiveFailures = 0;
+      return;
+    }
+
+    changes.forEach((type, ids) -> pendingChanges
+        .computeIfAbsent(type, key -> new LinkedHashSet<>())
+        .addAll(ids));
+    pendingRequests++;
+    consecutiveFailures++;
+  }
+}
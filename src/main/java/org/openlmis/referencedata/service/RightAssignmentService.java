@@ -15,32 +15,36 @@
 
 package org.openlmis.referencedata.service;
 
-import com.google.common.collect.Iterables;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.Future;
 import java.util.stream.Collectors;
-import org.apache.commons.lang3.tuple.MutablePair;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
 import org.openlmis.referencedata.dto.RightAssignmentDto;
 import org.openlmis.referencedata.util.Resource2Db;
+import org.openlmis.referencedata.util.ShadowTable;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
 import org.slf4j.profiler.Profiler;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.scheduling.annotation.Async;
-import org.springframework.scheduling.annotation.AsyncResult;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StreamUtils;
@@ -51,25 +55,65 @@ import org.springframework.util.StreamUtils;
  * right assignments. This component only runs when the "refresh-db" Spring profile is set.
  */
 @Service
+@SuppressWarnings("PMD.TooManyMethods")
 public class RightAssignmentService {
 
   private static final XLogger XLOGGER = XLoggerFactory.getXLogger(RightAssignmentService.class);
 
   private static final String USER_ID = "userid";
   private static final String RIGHT_NAME = "rightname";
+  private static final String FACILITY_ID = "facilityid";
+  private static final String PROGRAM_ID = "programid";
   private static final String RIGHT_ASSIGNMENTS_PATH = "classpath:db/right-assignments/";
+  private static final String RIGHT_ASSIGNMENTS_TABLE = "referencedata.right_assignments";
 
   static final String DELETE_SQL = "DELETE FROM referencedata.right_assignments;";
 
+  static final String SELECT_BY_USERS_SQL = "SELECT id, userid, rightname, facilityid, programid"
+      + " FROM referencedata.right_assignments"
+      + " WHERE userid = ANY(CAST(? AS uuid[]))";
+
+  static final String DELETE_BY_IDS_SQL = "DELETE FROM referencedata.right_assignments"
+      + " WHERE id = ANY(CAST(? AS uuid[]))";
+
+  static final String SELECT_PARENT_NODES_SQL = "SELECT sn.parentid"
+      + " FROM referencedata.supervisory_nodes sn"
+      + " WHERE sn.id = ANY(CAST(? AS uuid[])) AND sn.parentid IS NOT NULL"
+      + " UNION"
+      + " SELECT rg.supervisorynodeid"
+      + " FROM referencedata.requisition_groups rg"
+      + " WHERE rg.id = ANY(CAST(? AS uuid[]))";
+
   @Value(value = RIGHT_ASSIGNMENTS_PATH + "get_right_assignments.sql")
   private Resource rightAssignmentsResource;
 
-  @Value(value = RIGHT_ASSIGNMENTS_PATH + "get_all_supervised_facilities_from_node.sql")
-  private Resource supervisedFacilitiesResource;
+  @Value(value = RIGHT_ASSIGNMENTS_PATH + "get_right_assignments_for_users.sql")
+  private Resource userRightAssignmentsResource;
+
+  @Value("${rightAssignments.incremental.enabled}")
+  private boolean incrementalEnabled;
+
+  @Value("${rightAssignments.shadowTable.enabled}")
+  private boolean shadowTableEnabled;
 
   @Autowired
   private JdbcTemplate template;
 
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Autowired
+  private ResourceLoader resourceLoader;
+
+  @Autowired
+  private SupervisedFacilityExpander supervisedFacilityExpander;
+
+  @Autowired
+  private PermissionCache permissionCache;
+
+  @Autowired
+  private PermissionIndex permissionIndex;
+
   /**
    * Re-generates right assignments. This operation needs to be transactional so that dropping 
    * and re-generating is one transaction. The isolation level is specified to READ_COMMITTED, 
@@ -77,95 +121,237 @@ public class RightAssignmentService {
    * do not have to wait for this re-generation to finish, but can use the "old" right 
    * assignments. This is acceptable since the right assignments table is not expected to change 
    * very often, and the re-generation could take several seconds to finish.
+   *
+   * <p>If rightAssignments.shadowTable.enabled is set, right assignments are written to a shadow
+   * table instead, which is indexed and then swapped in place of the right assignments table.
+   * The table is then only locked for the swap, and it does not bloat from deleting all rows.
+   * This is disabled by default.
    */
-  @Async("rightAssignmentTaskExecutor")
   @Transactional(isolation = Isolation.READ_COMMITTED)
-  public Future<Void> regenerateRightAssignments() {
+  public void regenerateRightAssignments() {
     Profiler profiler = new Profiler("REGENERATE_RIGHT_ASSIGNMENTS");
     profiler.setLogger(XLOGGER);
     XLOGGER.entry();
 
-    // Drop existing rows; we are regenerating from scratch
-    profiler.start("DROP_RIGHT_ASSIGNMENTS");
-    template.update(DELETE_SQL);
+    rebuildRightAssignments(profiler);
 
-    // Get a right assignment matrix from database
-    profiler.start("GET_INTERMEDIATE_RIGHT_ASSIGNMENTS");
-    List<RightAssignmentDto> dbRightAssignments = new ArrayList<>();
+    XLOGGER.exit();
+    profiler.stop().log();
+  }
+
+  /**
+   * Re-generates right assignments only for the users affected by the given change. The right
+   * assignments those users should have are computed and compared with the ones they have, and
+   * only the differences are deleted and inserted, in one transaction. If incremental
+   * regeneration is disabled (rightAssignments.incremental.enabled), or the affected users cannot
+   * be determined, all right assignments are re-generated from scratch, like
+   * {@link #regenerateRightAssignments()} does.
+   *
+   * @param change what has changed, used to find the affected users
+   */
+  @Transactional(isolation = Isolation.READ_COMMITTED)
+  public void regenerateRightAssignments(RightAssignmentChange change) {
+    Profiler profiler = new Profiler("REGENERATE_RIGHT_ASSIGNMENTS_FOR_CHANGE");
+    profiler.setLogger(XLOGGER);
+    XLOGGER.entry(change);
+
+    if (!incrementalEnabled) {
+      rebuildRightAssignments(profiler);
+    } else if (!change.isEmpty()) {
+      try {
+        updateRightAssignments(change, profiler);
+      } catch (IOException ioe) {
+        XLOGGER.warn("Error when updating right assignments, regenerating all of them", ioe);
+        rebuildRightAssignments(profiler);
+      }
+    }
+
+    XLOGGER.exit();
+    profiler.stop().log();
+  }
+
+  /**
+   * Whether changes regenerate right assignments of the affected users only. If not, each change
+   * regenerates all right assignments.
+   */
+  public boolean isIncrementalEnabled() {
+    return incrementalEnabled;
+  }
+
+  /**
+   * Finds the supervisory nodes which are currently parents of the given nodes or hold the given
+   * requisition groups. This has to be called before such a node or group is saved, so that the
+   * nodes losing part of their subtree can be included in the {@link RightAssignmentChange}.
+   *
+   * @param supervisoryNodeIds IDs of supervisory nodes about to be changed
+   * @param requisitionGroupIds IDs of requisition groups about to be changed
+   * @return IDs of the current parent supervisory nodes
+   */
+  public Set<UUID> findCurrentParentNodeIds(Collection<UUID> supervisoryNodeIds,
+      Collection<UUID> requisitionGroupIds) {
+    return new HashSet<>(template.query(SELECT_PARENT_NODES_SQL,
+        new UuidArraySetter(supervisoryNodeIds, requisitionGroupIds),
+        (ResultSet rs, int rowNum) -> UUID.fromString(rs.getString(1))));
+  }
+
+  private void rebuildRightAssignments(Profiler profiler) {
+    Set<RightAssignmentDto> rightAssignmentsToInsert;
     try {
-      dbRightAssignments = getRightAssignmentsFromDbResource(rightAssignmentsResource);
+      // Get a right assignment matrix from database
+      profiler.start("GET_INTERMEDIATE_RIGHT_ASSIGNMENTS");
+      List<RightAssignmentDto> dbRightAssignments =
+          getRightAssignmentsFromDbResource(rightAssignmentsResource);
+
+      profiler.start("CHANGE_SUPERVISORY_NODES_TO_FACILITIES_IN_RIGHT_ASSIGNMENTS");
+      rightAssignmentsToInsert = convertForInsert(dbRightAssignments);
     } catch (IOException ioe) {
       XLOGGER.warn("Error when getting right assignments: " + ioe.getMessage());
+      return;
     }
 
-    profiler.start("RESOURCE_2_DB");
-    Resource2Db r2db = new Resource2Db(template);
-    try {
-      profiler.start("CHANGE_SUPERVISORY_NODES_TO_FACILITIES_IN_RIGHT_ASSIGNMENTS");
-      Set<RightAssignmentDto> rightAssignmentsToInsert = convertForInsert(dbRightAssignments,
-          supervisedFacilitiesResource);
+    if (shadowTableEnabled) {
+      // The new rows are written to a shadow table, which replaces the live table at the end,
+      // so that readers keep using the complete old table in the meantime.
+      ShadowTable shadowTable = new ShadowTable(template, transactionManager,
+          "referencedata", "right_assignments");
+
+      profiler.start("CREATE_SHADOW_TABLE");
+      shadowTable.create();
+
+      profiler.start("INSERT_INTO_SHADOW_TABLE");
+      insertRightAssignments(shadowTable.getShadowTableName(), rightAssignmentsToInsert);
+
+      profiler.start("BUILD_SHADOW_TABLE");
+      shadowTable.build();
+
+      profiler.start("SWAP_SHADOW_TABLE");
+      shadowTable.swap();
+    } else {
+      // Drop existing rows; we are regenerating from scratch
+      profiler.start("DROP_RIGHT_ASSIGNMENTS");
+      template.update(DELETE_SQL);
 
       profiler.start("INSERT_INTO_DB");
-      for (List partialRightAssignments : Iterables.partition(rightAssignmentsToInsert, 100)) {
-        insertFromDbRightAssignmentList(r2db, partialRightAssignments);
+      insertRightAssignments(RIGHT_ASSIGNMENTS_TABLE, rightAssignmentsToInsert);
+    }
+
+    permissionCache.invalidateAll();
+    permissionIndex.refreshAll();
+  }
+
+  private void updateRightAssignments(RightAssignmentChange change, Profiler profiler)
+      throws IOException {
+    profiler.start("GET_AFFECTED_USERS");
+    Resource affectedUsersResource = resourceLoader.getResource(
+        RIGHT_ASSIGNMENTS_PATH + change.getType().getAffectedUsersResource());
+    String affectedUsersSql = resourceToString(affectedUsersResource);
+    List<UUID> userIds = template.query(affectedUsersSql,
+        UuidArraySetter.forEachParameter(affectedUsersSql, change.getIds()),
+        (ResultSet rs, int rowNum) -> UUID.fromString(rs.getString(USER_ID)));
+
+    if (userIds.isEmpty()) {
+      XLOGGER.debug("No users affected by {}", change);
+      return;
+    }
+
+    profiler.start("GET_INTERMEDIATE_RIGHT_ASSIGNMENTS");
+    String userRightAssignmentsSql = resourceToString(userRightAssignmentsResource);
+    List<RightAssignmentDto> dbRightAssignments = template.query(userRightAssignmentsSql,
+        UuidArraySetter.forEachParameter(userRightAssignmentsSql, userIds),
+        this::mapIntermediateRightAssignment);
+
+    profiler.start("CHANGE_SUPERVISORY_NODES_TO_FACILITIES_IN_RIGHT_ASSIGNMENTS");
+    Set<RightAssignmentDto> expected = convertForInsert(dbRightAssignments);
+
+    profiler.start("GET_EXISTING_RIGHT_ASSIGNMENTS");
+    List<Pair<RightAssignmentDto, UUID>> existing = getExistingRightAssignments(userIds);
+
+    profiler.start("COMPUTE_DELTA");
+    // Existing rows that are no longer expected (or are duplicates) are deleted; the expected
+    // ones which are left after removing the existing rows are inserted.
+    List<UUID> idsToDelete = new ArrayList<>();
+    Set<RightAssignmentDto> kept = new HashSet<>();
+    for (Pair<RightAssignmentDto, UUID> row : existing) {
+      if (!expected.contains(row.getLeft()) || !kept.add(row.getLeft())) {
+        idsToDelete.add(row.getRight());
       }
-    } catch (IOException ioe) {
-      XLOGGER.warn("Error when getting inserting right assignments: " + ioe.getMessage());
     }
+    expected.removeAll(kept);
 
-    XLOGGER.exit();
-    profiler.stop().log();
-    return new AsyncResult<>(null);
+    XLOGGER.info("Right assignments of {} user(s) affected by {}: {} to delete, {} to insert",
+        userIds.size(), change, idsToDelete.size(), expected.size());
+
+    profiler.start("DELETE_FROM_DB");
+    if (!idsToDelete.isEmpty()) {
+      template.update(DELETE_BY_IDS_SQL, new UuidArraySetter(idsToDelete));
+    }
+
+    profiler.start("INSERT_INTO_DB");
+    insertRightAssignments(RIGHT_ASSIGNMENTS_TABLE, expected);
+
+    if (!idsToDelete.isEmpty() || !expected.isEmpty()) {
+      permissionCache.invalidate(userIds);
+      permissionIndex.refresh(userIds);
+    }
+  }
+
+  private List<Pair<RightAssignmentDto, UUID>> getExistingRightAssignments(List<UUID> userIds) {
+    return template.query(SELECT_BY_USERS_SQL, new UuidArraySetter(userIds),
+        (ResultSet rs, int rowNum) -> ImmutablePair.of(
+            new RightAssignmentDto(
+                UUID.fromString(rs.getString(USER_ID)),
+                rs.getString(RIGHT_NAME),
+                toUuid(rs.getString(FACILITY_ID)),
+                toUuid(rs.getString(PROGRAM_ID))),
+            UUID.fromString(rs.getString("id"))));
   }
 
-  private void insertFromDbRightAssignmentList(Resource2Db resource2Db,
-      List<RightAssignmentDto> rightAssignmentDtos) {
-    // Convert set of right assignments to insert to a set of SQL inserts
-    XLOGGER.debug("Convert right assignments to SQL inserts");
-    MutablePair dataWithHeader = new MutablePair<List<String>, List<Object[]>>();
-    dataWithHeader.setRight(rightAssignmentDtos.stream()
-        .map(rad -> rad.toColumnArray())
-        .collect(Collectors.toList()));
-
-    // set column headers
-    dataWithHeader.setLeft(Arrays.asList("id",
-        USER_ID,
-        RIGHT_NAME,
-        "facilityid",
-        "programid"));
-
-    // insert into right_assignments
-    XLOGGER.debug("Perform SQL inserts");
-    resource2Db.insertToDbFromBatchedPair("referencedata.right_assignments", dataWithHeader);
+  private void insertRightAssignments(String tableName,
+      Set<RightAssignmentDto> rightAssignments) {
+    // Right assignments are converted to rows while they are being written, so that a full
+    // rebuild does not need another copy of the whole table in memory.
+    XLOGGER.debug("Perform bulk insert");
+    new Resource2Db(template).insertToDbFromIterator(tableName,
+        Arrays.asList("id", USER_ID, RIGHT_NAME, FACILITY_ID, PROGRAM_ID),
+        rightAssignments
+            .stream()
+            .map(rad -> (Object[]) rad.toColumnArray())
+            .iterator());
   }
 
   List<RightAssignmentDto> getRightAssignmentsFromDbResource(Resource resource)
       throws IOException {
-    return template.query(
-        resourceToString(resource),
-        (ResultSet rs, int rowNum) -> {
-
-          RightAssignmentDto rightAssignmentMap = new RightAssignmentDto();
-          rightAssignmentMap.setUserId(UUID.fromString(rs.getString(USER_ID)));
-          rightAssignmentMap.setRightName(rs.getString(RIGHT_NAME));
-          if (null != rs.getString("facilityid")) {
-            rightAssignmentMap.setFacilityId(UUID.fromString(rs.getString("facilityid")));
-          }
-          if (null != rs.getString("programid")) {
-            rightAssignmentMap.setProgramId(UUID.fromString(rs.getString("programid")));
-          }
-          if (null != rs.getString("supervisorynodeid")) {
-            rightAssignmentMap.setSupervisoryNodeId(
-                UUID.fromString(rs.getString("supervisorynodeid")));
-          }
-          return rightAssignmentMap;
-        }
-    );
+    return template.query(resourceToString(resource), this::mapIntermediateRightAssignment);
+  }
+
+  private RightAssignmentDto mapIntermediateRightAssignment(ResultSet rs, int rowNum)
+      throws SQLException {
+    RightAssignmentDto rightAssignmentMap = new RightAssignmentDto();
+    rightAssignmentMap.setUserId(UUID.fromString(rs.getString(USER_ID)));
+    rightAssignmentMap.setRightName(rs.getString(RIGHT_NAME));
+    rightAssignmentMap.setFacilityId(toUuid(rs.getString(FACILITY_ID)));
+    rightAssignmentMap.setProgramId(toUuid(rs.getString(PROGRAM_ID)));
+    rightAssignmentMap.setSupervisoryNodeId(toUuid(rs.getString("supervisorynodeid")));
+    return rightAssignmentMap;
+  }
+
+  private static UUID toUuid(String value) {
+    return null == value ? null : UUID.fromString(value);
   }
 
-  Set<RightAssignmentDto> convertForInsert(List<RightAssignmentDto> rightAssignments,
-      Resource supervisedFacilitiesResource)
+  Set<RightAssignmentDto> convertForInsert(List<RightAssignmentDto> rightAssignments)
       throws IOException {
+    // Supervisory nodes of all rows are expanded at once, instead of running a recursive query
+    // for every row.
+    Set<Pair<UUID, UUID>> nodePrograms = rightAssignments
+        .stream()
+        .filter(rightAssignment -> null != rightAssignment.getSupervisoryNodeId())
+        .map(rightAssignment -> ImmutablePair.of(rightAssignment.getSupervisoryNodeId(),
+            rightAssignment.getProgramId()))
+        .collect(Collectors.toSet());
+    Map<Pair<UUID, UUID>, Set<UUID>> supervisedFacilities = supervisedFacilityExpander
+        .expand(nodePrograms);
+
     Set<RightAssignmentDto> rightAssignmentsToInsert = new HashSet<>();
     for (RightAssignmentDto rightAssignment : rightAssignments) {
 
@@ -175,9 +361,10 @@ public class RightAssignmentService {
         // turn it into a list of all facility IDs being supervised by this node.
 
         // Get all supervised facilities. Add each facility to the set.
-        List<UUID> facilityIds = getSupervisedFacilityIds(supervisedFacilitiesResource,
-            rightAssignment.getSupervisoryNodeId(),
-            rightAssignment.getProgramId());
+        Set<UUID> facilityIds = supervisedFacilities.getOrDefault(
+            ImmutablePair.of(rightAssignment.getSupervisoryNodeId(),
+                rightAssignment.getProgramId()),
+            Collections.emptySet());
 
         for (UUID facilityId : facilityIds) {
 
@@ -202,17 +389,6 @@ public class RightAssignmentService {
     return rightAssignmentsToInsert;
   }
 
-  private List<UUID> getSupervisedFacilityIds(Resource supervisedFacilitiesResource,
-      UUID supervisoryNodeId, UUID programId)
-      throws IOException {
-
-    return template.queryForList(
-        resourceToString(supervisedFacilitiesResource),
-        UUID.class,
-        supervisoryNodeId,
-        programId);
-  }
-
   private String resourceToString(final Resource resource) throws IOException {
     XLOGGER.entry(resource.getDescription());
     String str;
@@ -222,4 +398,4 @@ public class RightAssignmentService {
     XLOGGER.exit();
     return str;
   }
-}
\ No newline at end of file
+}
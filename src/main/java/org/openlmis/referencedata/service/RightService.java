@@ -20,8 +20,6 @@ import static org.apache.commons.lang3.StringUtils.startsWith;
 
 import java.util.UUID;
 import org.openlmis.referencedata.exception.UnauthorizedException;
-import org.openlmis.referencedata.repository.RightAssignmentRepository;
-import org.openlmis.referencedata.repository.UserRepository;
 import org.openlmis.referencedata.util.Message;
 import org.openlmis.referencedata.util.messagekeys.SystemMessageKeys;
 import org.slf4j.ext.XLogger;
@@ -41,10 +39,7 @@ public class RightService {
       SystemMessageKeys.ERROR_UNAUTHORIZED_GENERIC;
 
   @Autowired
-  private UserRepository userRepository;
-
-  @Autowired
-  private RightAssignmentRepository rightAssignmentRepository;
+  private PermissionCache permissionCache;
 
   @Autowired
   private AuthenticationHelper authenticationHelper;
@@ -142,16 +137,15 @@ public class RightService {
       return false;
     }
 
-    UUID userId = authenticationHelper.getCurrentUser().getId();
+    // the principal is only found if the user exists
+    UUID userId = authenticationHelper.getCurrentUserPrincipal().getId();
 
-    if (null != expectedUserId
-        && userId.equals(expectedUserId)
-        && userRepository.exists(userId)) {
+    if (userId.equals(expectedUserId)) {
       XLOGGER.exit("user id allowed to bypass right check");
       return true;
     }
 
-    if (rightAssignmentRepository.existsByUserIdAndRightName(userId, rightName)) {
+    if (permissionCache.hasRight(userId, rightName)) {
       XLOGGER.exit("User has right");
       return true;
     }
@@ -0,0 +1,233 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Expands (supervisory node, program) pairs of intermediate right assignments into the facilities
+ * supervised by the node, directly or indirectly, for the program. How it is done depends on
+ * the rightAssignments.supervisoryNodeExpansion setting, see {@link Strategy}.
+ */
+@Component
+public class SupervisedFacilityExpander {
+
+  private static final XLogger XLOGGER = XLoggerFactory.getXLogger(
+      SupervisedFacilityExpander.class);
+
+  private static final String RIGHT_ASSIGNMENTS_PATH = "classpath:db/right-assignments/";
+  private static final String SUPERVISORY_NODE_ID = "supervisorynodeid";
+  private static final String PROGRAM_ID = "programid";
+  private static final String FACILITY_ID = "facilityid";
+
+  static final String SELECT_NODE_PARENTS_SQL = "SELECT sn.id, sn.parentid"
+      + " FROM referencedata.supervisory_nodes sn"
+      + " WHERE sn.parentid IS NOT NULL";
+
+  public enum Strategy {
+
+    /**
+     * Runs get_all_supervised_facilities_from_node.sql (a recursive query) once for every pair.
+     */
+    PER_ROW,
+
+    /**
+     * Runs get_all_supervised_facilities_from_nodes.sql (a join with the supervisory node
+     * closure table) once for all pairs.
+     */
+    SINGLE_QUERY,
+
+    /**
+     * Loads the node hierarchy and the facilities supervised directly by each node (two flat
+     * queries), then computes the closure of every requested node in memory.
+     */
+    IN_MEMORY
+  }
+
+  @Value(value = RIGHT_ASSIGNMENTS_PATH + "get_all_supervised_facilities_from_node.sql")
+  private Resource supervisedFacilitiesResource;
+
+  @Value(value = RIGHT_ASSIGNMENTS_PATH + "get_all_supervised_facilities_from_nodes.sql")
+  private Resource allSupervisedFacilitiesResource;
+
+  @Value(value = RIGHT_ASSIGNMENTS_PATH + "get_directly_supervised_facilities.sql")
+  private Resource directlySupervisedFacilitiesResource;
+
+  @Value("${rightAssignments.supervisoryNodeExpansion}")
+  private Strategy strategy;
+
+  @Autowired
+  private JdbcTemplate template;
+
+  /**
+   * Expands the given pairs with the configured strategy.
+   *
+   * @param nodePrograms pairs of supervisory node ID (left) and program ID (right)
+   * @return supervised facility IDs by pair; pairs without supervised facilities may be missing
+   */
+  public Map<Pair<UUID, UUID>, Set<UUID>> expand(Collection<Pair<UUID, UUID>> nodePrograms)
+      throws IOException {
+    return expand(nodePrograms, strategy);
+  }
+
+  Map<Pair<UUID, UUID>, Set<UUID>> expand(Collection<Pair<UUID, UUID>> nodePrograms,
+      Strategy strategy) throws IOException {
+    XLOGGER.entry(nodePrograms.size(), strategy);
+    Map<Pair<UUID, UUID>, Set<UUID>> supervisedFacilities;
+
+    if (nodePrograms.isEmpty()) {
+      supervisedFacilities = Collections.emptyMap();
+    } else if (Strategy.PER_ROW == strategy) {
+      supervisedFacilities = expandPerRow(nodePrograms);
+    } else if (Strategy.IN_MEMORY == strategy) {
+      supervisedFacilities = expandInMemory(new HashSet<>(nodePrograms));
+    } else {
+      supervisedFacilities = expandWithSingleQuery(new HashSet<>(nodePrograms));
+    }
+
+    XLOGGER.exit(supervisedFacilities.size());
+    return supervisedFacilities;
+  }
+
+  private Map<Pair<UUID, UUID>, Set<UUID>> expandPerRow(
+      Collection<Pair<UUID, UUID>> nodePrograms) throws IOException {
+    Map<Pair<UUID, UUID>, Set<UUID>> supervisedFacilities = new HashMap<>();
+
+    for (Pair<UUID, UUID> nodeProgram : nodePrograms) {
+      List<UUID> facilityIds = template.queryForList(
+          resourceToString(supervisedFacilitiesResource),
+          UUID.class,
+          nodeProgram.getLeft(),
+          nodeProgram.getRight());
+      supervisedFacilities.put(nodeProgram, new HashSet<>(facilityIds));
+    }
+
+    return supervisedFacilities;
+  }
+
+  private Map<Pair<UUID, UUID>, Set<UUID>> expandWithSingleQuery(
+      Set<Pair<UUID, UUID>> nodePrograms) throws IOException {
+    // The pairs are passed as two parallel arrays, which the query zips back together, so that
+    // only the requested pairs are expanded. Pairs with a missing ID cannot supervise anything.
+    List<UUID> nodeIds = new ArrayList<>(nodePrograms.size());
+    List<UUID> programIds = new ArrayList<>(nodePrograms.size());
+    for (Pair<UUID, UUID> nodeProgram : nodePrograms) {
+      if (null != nodeProgram.getLeft() && null != nodeProgram.getRight()) {
+        nodeIds.add(nodeProgram.getLeft());
+        programIds.add(nodeProgram.getRight());
+      }
+    }
+
+    Map<Pair<UUID, UUID>, Set<UUID>> supervisedFacilities = new HashMap<>();
+    if (nodeIds.isEmpty()) {
+      return supervisedFacilities;
+    }
+
+    template.query(resourceToString(allSupervisedFacilitiesResource),
+        new UuidArraySetter(nodeIds, programIds),
+        (ResultSet rs) -> {
+          supervisedFacilities
+              .computeIfAbsent(ImmutablePair.of(
+                  UUID.fromString(rs.getString(SUPERVISORY_NODE_ID)),
+                  UUID.fromString(rs.getString(PROGRAM_ID))), key -> new HashSet<>())
+              .add(UUID.fromString(rs.getString(FACILITY_ID)));
+        });
+
+    return supervisedFacilities;
+  }
+
+  private Map<Pair<UUID, UUID>, Set<UUID>> expandInMemory(Set<Pair<UUID, UUID>> nodePrograms)
+      throws IOException {
+    Map<UUID, List<UUID>> childNodes = new HashMap<>();
+    template.query(SELECT_NODE_PARENTS_SQL, (ResultSet rs) -> {
+      childNodes
+          .computeIfAbsent(UUID.fromString(rs.getString("parentid")), key -> new ArrayList<>())
+          .add(UUID.fromString(rs.getString("id")));
+    });
+
+    Map<Pair<UUID, UUID>, Set<UUID>> directlySupervised = new HashMap<>();
+    template.query(resourceToString(directlySupervisedFacilitiesResource), (ResultSet rs) -> {
+      directlySupervised
+          .computeIfAbsent(ImmutablePair.of(
+              UUID.fromString(rs.getString(SUPERVISORY_NODE_ID)),
+              UUID.fromString(rs.getString(PROGRAM_ID))), key -> new HashSet<>())
+          .add(UUID.fromString(rs.getString(FACILITY_ID)));
+    });
+
+    Map<Pair<UUID, UUID>, Set<UUID>> closure = new HashMap<>();
+    Map<Pair<UUID, UUID>, Set<UUID>> supervisedFacilities = new HashMap<>();
+    for (Pair<UUID, UUID> nodeProgram : nodePrograms) {
+      supervisedFacilities.put(nodeProgram, getClosure(nodeProgram.getLeft(),
+          nodeProgram.getRight(), childNodes, directlySupervised, closure));
+    }
+
+    return supervisedFacilities;
+  }
+
+  /*
+   Facilities supervised by a node for a program are the ones supervised directly by the node and
+   the ones supervised by its child nodes. Results are memoized, so that every node is expanded
+   only once per program, however many requested nodes it descends from.
+   */
+  private Set<UUID> getClosure(UUID nodeId, UUID programId, Map<UUID, List<UUID>> childNodes,
+      Map<Pair<UUID, UUID>, Set<UUID>> directlySupervised,
+      Map<Pair<UUID, UUID>, Set<UUID>> closure) {
+    Pair<UUID, UUID> nodeProgram = ImmutablePair.of(nodeId, programId);
+    Set<UUID> facilityIds = closure.get(nodeProgram);
+
+    if (null == facilityIds) {
+      facilityIds = new HashSet<>(
+          directlySupervised.getOrDefault(nodeProgram, Collections.emptySet()));
+      // put before visiting children, so that a cycle in the hierarchy cannot recurse forever
+      closure.put(nodeProgram, facilityIds);
+
+      for (UUID childNodeId : childNodes.getOrDefault(nodeId, Collections.emptyList())) {
+        facilityIds.addAll(
+            getClosure(childNodeId, programId, childNodes, directlySupervised, closure));
+      }
+    }
+
+    return facilityIds;
+  }
+
+  private String resourceToString(final Resource resource) throws IOException {
+    try (InputStream is = resource.getInputStream()) {
+      return StreamUtils.copyToString(is, Charset.defaultCharset());
+    }
+  }
+}
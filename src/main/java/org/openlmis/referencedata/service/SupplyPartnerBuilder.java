@@ -157,7 +157,8 @@ public class SupplyPartnerBuilder
         .orElseThrow(() -> new ValidationMessageException(
             new Message(ERROR_INVALID_SUPERVISORY_NODE, supervisoryNode.getCode())));
 
-    Set<Facility> supervisedFacilities = regularNode.getAllSupervisedFacilities(program);
+    Set<Facility> supervisedFacilities = facilityRepository
+        .findSupervisedFacilities(regularNode.getId(), program.getId());
 
     for (Facility facility : facilities) {
       if (!supervisedFacilities.contains(facility)) {
@@ -0,0 +1,65 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.service;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+
+/**
+ * Binds UUID collections as uuid[] parameters, one collection per parameter. Used with SQL which
+ * filters by many IDs at once with {@code = ANY(CAST(? AS uuid[]))}, so that the statement stays
+ * the same regardless of the number of IDs.
+ */
+final class UuidArraySetter implements PreparedStatementSetter {
+
+  private final List<Collection<UUID>> parameters;
+
+  @SafeVarargs
+  UuidArraySetter(Collection<UUID>... parameters) {
+    this(Arrays.asList(parameters));
+  }
+
+  private UuidArraySetter(List<Collection<UUID>> parameters) {
+    this.parameters = parameters;
+  }
+
+  /**
+   * Binds the same values to every parameter of the given SQL, since the SQL resources may
+   * refer to their input more than once.
+   */
+  static UuidArraySetter forEachParameter(String sql, Collection<UUID> values) {
+    return new UuidArraySetter(
+        Collections.nCopies(StringUtils.countMatches(sql, '?'), values));
+  }
+
+  @Override
+  public void setValues(PreparedStatement ps) throws SQLException {
+    for (int index = 0; index < parameters.size(); ++index) {
+      Object[] values = parameters.get(index).stream().filter(Objects::nonNull).toArray();
+      Array array = ps.getConnection().createArrayOf("uuid", values);
+      ps.setArray(index + 1, array);
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.openlmis.referencedata.dto.NamedResource;
+
+/**
+ * Versions of response bodies that are sets, to be used as ETags. A version is the SHA-256
+ * digest of the sorted elements, so it is the same on every instance and for every order of the
+ * set, and unlike a hash code it practically never stays the same when the set changes.
+ */
+public final class ContentVersion {
+
+  private static final String ALGORITHM = "SHA-256";
+
+  private ContentVersion() {}
+
+  /**
+   * Gets the version of a set of strings, like permission strings.
+   *
+   * @param values the set
+   * @return the Base64 encoded digest of the sorted strings
+   */
+  public static String ofStrings(Set<String> values) {
+    return digest(values);
+  }
+
+  /**
+   * Gets the version of a set of named resources, from their IDs and names.
+   *
+   * @param resources the set
+   * @return the Base64 encoded digest of the sorted resources
+   */
+  public static String ofNamedResources(Set<NamedResource> resources) {
+    List<String> values = new ArrayList<>(resources.size());
+    for (NamedResource resource : resources) {
+      values.add(resource.getId() + "|" + resource.getName());
+    }
+    return digest(values);
+  }
+
+  private static String digest(Collection<String> values) {
+    List<String> sorted = new ArrayList<>(values);
+    Collections.sort(sorted);
+
+    MessageDigest digest = getDigest();
+    for (String value : sorted) {
+      byte[] bytes = value.getBytes(UTF_8);
+      // the length keeps the boundaries between values unambiguous
+      digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+      digest.update(bytes);
+    }
+
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest());
+  }
+
+  private static MessageDigest getDigest() {
+    try {
+      return MessageDigest.getInstance(ALGORITHM);
+    } catch (NoSuchAlgorithmException ex) {
+      // every Java platform is required to support SHA-256
+      throw new IllegalStateException(ex);
+    }
+  }
+}
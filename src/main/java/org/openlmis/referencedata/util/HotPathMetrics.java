@@ -0,0 +1,60 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import javax.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Applies the configured sample rate to all {@link HotPathTimer}s and publishes the timers which
+ * timed any call as hotPath.* metrics.
+ */
+@Component
+public class HotPathMetrics implements PublicMetrics {
+
+  private static final String METRIC_PREFIX = "hotPath.";
+
+  @Value("${hotPath.sampleRate}")
+  private int sampleRate;
+
+  @PostConstruct
+  public void init() {
+    HotPathTimer.setSampleRate(sampleRate);
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    List<Metric<?>> metrics = new ArrayList<>();
+    for (HotPathTimer timer : HotPathTimer.getAll()) {
+      if (timer.getCount() == 0) {
+        continue;
+      }
+
+      String prefix = METRIC_PREFIX + timer.getName() + '.';
+      metrics.add(new Metric<>(prefix + "count", timer.getCount()));
+      metrics.add(new Metric<>(prefix + "meanNanos", timer.getMeanNanos()));
+      metrics.add(new Metric<>(prefix + "p50Nanos", timer.getPercentileNanos(50)));
+      metrics.add(new Metric<>(prefix + "p99Nanos", timer.getPercentileNanos(99)));
+    }
+    return metrics;
+  }
+}
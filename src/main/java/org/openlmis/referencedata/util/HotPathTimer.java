@@ -0,0 +1,172 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Sampling timer for hot paths of domain objects, which are called too often to create a
+ * {@link org.slf4j.profiler.Profiler} on every call. Usage:
+ * <pre>
+ *   long start = TIMER.start();
+ *   ...
+ *   TIMER.stop(start);
+ * </pre>
+ * Timers are disabled until a sample rate is set. A disabled timer does not allocate or read the
+ * clock; an enabled one times one in sampleRate calls and counts them into a histogram of
+ * power-of-two nanosecond buckets, without allocating either. Timers are published as metrics
+ * by {@link HotPathMetrics}.
+ */
+public final class HotPathTimer {
+
+  // bucket 0 counts durations of 0 nanoseconds, bucket i from 2^(i - 1) to 2^i - 1 nanoseconds
+  static final int BUCKETS = Long.SIZE;
+
+  private static final Map<String, HotPathTimer> TIMERS = new ConcurrentHashMap<>();
+
+  // 0 disables all timers
+  private static volatile int sampleRate;
+
+  private final String name;
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+  private HotPathTimer(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Gets the timer with the given name, creating it if needed. Timers should be kept in static
+   * fields, rather than looked up on every call.
+   */
+  public static HotPathTimer get(String name) {
+    return TIMERS.computeIfAbsent(name, HotPathTimer::new);
+  }
+
+  public static Collection<HotPathTimer> getAll() {
+    return Collections.unmodifiableCollection(TIMERS.values());
+  }
+
+  /**
+   * Sets how many calls there are for every timed call: 1 times all calls, 100 times one call
+   * in a hundred, and 0 disables timers.
+   */
+  public static void setSampleRate(int sampleRate) {
+    Validate.isTrue(sampleRate >= 0, "Sample rate must not be negative: %d", sampleRate);
+    HotPathTimer.sampleRate = sampleRate;
+  }
+
+  public static int getSampleRate() {
+    return sampleRate;
+  }
+
+  /**
+   * Starts timing a call, if it is sampled.
+   *
+   * @return the start time to pass to {@link #stop(long)}, or 0 if the call is not timed
+   */
+  public long start() {
+    int rate = sampleRate;
+    if (rate == 0 || (rate > 1 && ThreadLocalRandom.current().nextInt(rate) != 0)) {
+      return 0;
+    }
+    // 0 stands for calls which are not timed
+    return System.nanoTime() | 1;
+  }
+
+  /**
+   * Stops timing a call and counts its duration.
+   *
+   * @param start the value returned by {@link #start()}
+   */
+  public void stop(long start) {
+    if (start == 0) {
+      return;
+    }
+
+    long duration = Math.max(System.nanoTime() - start, 0);
+    count.incrementAndGet();
+    totalNanos.addAndGet(duration);
+    buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(duration));
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Gets the number of timed calls.
+   */
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * Gets the mean duration of timed calls in nanoseconds, or 0 if there were none.
+   */
+  public long getMeanNanos() {
+    long calls = count.get();
+    return calls == 0 ? 0 : totalNanos.get() / calls;
+  }
+
+  /**
+   * Estimates a percentile of durations of timed calls as the upper bound of the histogram bucket
+   * it falls into, so it is at most twice the actual value.
+   *
+   * @param percentile percentile from 0 to 100
+   * @return the estimated duration in nanoseconds, or 0 if there were no timed calls
+   */
+  public long getPercentileNanos(double percentile) {
+    long[] counts = new long[BUCKETS];
+    long calls = 0;
+    for (int bucket = 0; bucket < BUCKETS; ++bucket) {
+      counts[bucket] = buckets.get(bucket);
+      calls += counts[bucket];
+    }
+    if (calls == 0) {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil(calls * percentile / 100);
+    long seen = 0;
+    for (int bucket = 0; bucket < BUCKETS - 1; ++bucket) {
+      seen += counts[bucket];
+      if (seen >= rank) {
+        return (1L << bucket) - 1;
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * Clears all counts of this timer.
+   */
+  public void reset() {
+    count.set(0);
+    totalNanos.set(0);
+    for (int bucket = 0; bucket < BUCKETS; ++bucket) {
+      buckets.set(bucket, 0);
+    }
+  }
+}
@@ -20,8 +20,11 @@ import static java.util.stream.Collectors.joining;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Collectors;
 import org.apache.commons.collections.CollectionUtils;
@@ -31,12 +34,16 @@ import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 import org.apache.commons.io.ByteOrderMark;
 import org.apache.commons.io.input.BOMInputStream;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.tuple.MutablePair;
 import org.apache.commons.lang3.tuple.Pair;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
 import org.springframework.core.io.Resource;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 /**
@@ -45,9 +52,14 @@ import org.springframework.jdbc.core.JdbcTemplate;
  * attached datasource. It knows what SQL to run, or what data to load, based on Spring
  * {@link Resource}'s passed in.
  */
+@SuppressWarnings("PMD.TooManyMethods")
 public class Resource2Db {
   private static final XLogger XLOGGER = XLoggerFactory.getXLogger(Resource2Db.class);
 
+  static final int BATCH_SIZE = 1000;
+  static final int LOG_SAMPLE_INTERVAL = 1000;
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
   private final JdbcTemplate template;
 
   /**
@@ -86,7 +98,18 @@ public class Resource2Db {
     XLOGGER.entry(tableName, resource);
     Validate.notBlank(tableName);
     Validate.notNull(resource);
-    insertToDbFromBatchedPair(tableName, resourceCsvToBatchedPair(resource));
+
+    // records are streamed from the parser to the database, without reading them all first
+    try (InputStreamReader isReader = new InputStreamReader(
+        new BOMInputStream(resource.getInputStream(), ByteOrderMark.UTF_8))) {
+      CSVParser parser = CSVFormat.DEFAULT.withHeader().withNullString("").parse(isReader);
+      List<String> header = new ArrayList<>(parser.getHeaderMap().keySet());
+      XLOGGER.info("Read header: " + header);
+
+      Iterator<Object[]> rows = IteratorUtils.transformedIterator(parser.iterator(), this::toRow);
+      insertToDbFromIterator(tableName, header, rows);
+    }
+
     XLOGGER.exit();
   }
 
@@ -128,12 +151,7 @@ public class Resource2Db {
       // read data rows
       List<Object[]> rows = new ArrayList<>();
       for (CSVRecord record : parser.getRecords()) {
-        if (!record.isConsistent()) {
-          throw new IllegalArgumentException("CSV record inconsistent: " + record);
-        }
-
-        List theRow = IteratorUtils.toList(record.iterator());
-        rows.add(theRow.toArray());
+        rows.add(toRow(record));
       }
       readData.setRight(rows);
 
@@ -142,6 +160,15 @@ public class Resource2Db {
     }
   }
 
+  private Object[] toRow(CSVRecord record) {
+    if (!record.isConsistent()) {
+      throw new IllegalArgumentException("CSV record inconsistent: " + record);
+    }
+
+    List theRow = IteratorUtils.toList(record.iterator());
+    return theRow.toArray();
+  }
+
   /*
    runs the list of SQL strings directly on the database - could be insert / update
    */
@@ -168,10 +195,130 @@ public class Resource2Db {
                                         Pair<List<String>, List<Object[]>> dataWithHeader) {
     XLOGGER.entry(tableName);
 
-    String columnDesc = dataWithHeader.getLeft()
+    String insertSql = getInsertSql(tableName, dataWithHeader.getLeft());
+    int updateCount = batchUpdate(tableName, insertSql, dataWithHeader.getRight(), 0);
+
+    XLOGGER.exit("Total " + tableName + " inserts: " + updateCount);
+  }
+
+  /**
+   * Inserts data into a single table, reading the rows from the given iterator as they are
+   * written. On PostgreSQL the rows are streamed with COPY FROM STDIN, so that neither the rows
+   * nor their insert statements have to be held in memory. On other databases, the rows are
+   * inserted with batch updates of {@value #BATCH_SIZE} rows.
+   * @param tableName the name of the table (including schema) to insert into.
+   * @param columns an ordered list of column names.
+   * @param rows rows to insert, each ordered as the columns. Values are written as text, so they
+   *             need to be in a format accepted by the column types.
+   * @return the number of inserted rows.
+   */
+  public long insertToDbFromIterator(String tableName, List<String> columns,
+      Iterator<Object[]> rows) {
+    XLOGGER.entry(tableName, columns);
+
+    Long insertCount = template.execute((ConnectionCallback<Long>) connection ->
+        connection.isWrapperFor(PGConnection.class)
+            ? copy(connection.unwrap(PGConnection.class), tableName, columns, rows)
+            : null);
+
+    if (null == insertCount) {
+      XLOGGER.info("COPY not supported by the connection, using batch inserts");
+      insertCount = batchInsert(tableName, columns, rows);
+    }
+
+    XLOGGER.exit("Total " + tableName + " inserts: " + insertCount);
+    return insertCount;
+  }
+
+  private long copy(PGConnection connection, String tableName, List<String> columns,
+      Iterator<Object[]> rows) throws SQLException {
+    String copySql = String.format("COPY %s (%s) FROM STDIN WITH (FORMAT csv)",
+        tableName, String.join(",", columns));
+    XLOGGER.info("Copy SQL: " + copySql);
+
+    CopyIn copyIn = connection.getCopyAPI().copyIn(copySql);
+    try {
+      StringBuilder buffer = new StringBuilder(COPY_BUFFER_SIZE);
+      long rowNumber = 0;
+
+      while (rows.hasNext()) {
+        Object[] row = rows.next();
+        logSampledRow(tableName, rowNumber++, row);
+        appendCsvRow(buffer, row);
+
+        if (buffer.length() >= COPY_BUFFER_SIZE) {
+          writeToCopy(copyIn, buffer);
+        }
+      }
+
+      writeToCopy(copyIn, buffer);
+      return copyIn.endCopy();
+    } finally {
+      if (copyIn.isActive()) {
+        copyIn.cancelCopy();
+      }
+    }
+  }
+
+  private void writeToCopy(CopyIn copyIn, StringBuilder buffer) throws SQLException {
+    byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+    copyIn.writeToCopy(bytes, 0, bytes.length);
+    buffer.setLength(0);
+  }
+
+  /*
+   appends the row in the CSV format of COPY: nulls are left empty, other values are quoted, so
+   that empty strings and values with separators, quotes or line breaks are kept as they are
+   */
+  private void appendCsvRow(StringBuilder buffer, Object[] row) {
+    for (int i = 0; i < row.length; ++i) {
+      if (i > 0) {
+        buffer.append(',');
+      }
+
+      if (null != row[i]) {
+        buffer
+            .append('"')
+            .append(StringUtils.replace(String.valueOf(row[i]), "\"", "\"\""))
+            .append('"');
+      }
+    }
+
+    buffer.append('\n');
+  }
+
+  private long batchInsert(String tableName, List<String> columns, Iterator<Object[]> rows) {
+    String insertSql = getInsertSql(tableName, columns);
+    List<Object[]> batch = new ArrayList<>(BATCH_SIZE);
+    long insertCount = 0;
+
+    while (rows.hasNext()) {
+      batch.add(rows.next());
+
+      if (batch.size() == BATCH_SIZE || !rows.hasNext()) {
+        insertCount += batchUpdate(tableName, insertSql, batch, insertCount);
+        batch = new ArrayList<>(BATCH_SIZE);
+      }
+    }
+
+    return insertCount;
+  }
+
+  private int batchUpdate(String tableName, String insertSql, List<Object[]> data,
+      long firstRowNumber) {
+    long rowNumber = firstRowNumber;
+    for (Object[] row : data) {
+      logSampledRow(tableName, rowNumber++, row);
+    }
+
+    return Arrays.stream(template.batchUpdate(insertSql, data)).sum();
+  }
+
+  private String getInsertSql(String tableName, List<String> columns) {
+    String columnDesc = columns
         .stream()
         .collect(joining(","));
-    String valueDesc = dataWithHeader.getLeft()
+    String valueDesc = columns
         .stream()
         .map(s -> "?")
         .collect((joining(",")));
@@ -180,11 +327,16 @@ public class Resource2Db {
         columnDesc,
         valueDesc);
     XLOGGER.info("Insert SQL: " + insertSql);
+    return insertSql;
+  }
 
-    List<Object[]> data = dataWithHeader.getRight();
-    data.forEach(e -> XLOGGER.info(tableName + ": " + Arrays.toString(e)));
-    int[] updateCount = template.batchUpdate(insertSql, data);
-
-    XLOGGER.exit("Total " + tableName + " inserts: " + Arrays.stream(updateCount).sum());
+  /*
+   logging every row slows down loading big tables considerably, so only every
+   LOG_SAMPLE_INTERVAL-th row is logged
+   */
+  private void logSampledRow(String tableName, long rowNumber, Object[] row) {
+    if (rowNumber % LOG_SAMPLE_INTERVAL == 0) {
+      XLOGGER.info(tableName + " #" + rowNumber + ": " + Arrays.toString(row));
+    }
   }
 }
@@ -0,0 +1,216 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.util;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Rebuilds a PostgreSQL table in a shadow copy and swaps the copy in place of the table, so that
+ * readers never see a half-built table and the table does not bloat from mass deletes. Usage:
+ * <ol>
+ *   <li>{@link #create()} creates an empty shadow table with the columns of the table,</li>
+ *   <li>the caller fills the table returned by {@link #getShadowTableName()},</li>
+ *   <li>{@link #build()} copies constraints and indexes of the table to the shadow table,</li>
+ *   <li>{@link #swap()} drops the table, renames the shadow table, its constraints and indexes
+ *   to the original names and grants it the privileges of the table.</li>
+ * </ol>
+ * All steps should be run in one transaction. The table is only locked by {@link #swap()}, until
+ * the transaction is committed. The table must not be referenced by foreign keys or views of
+ * other tables, as it is dropped.
+ */
+public class ShadowTable {
+  private static final XLogger XLOGGER = XLoggerFactory.getXLogger(ShadowTable.class);
+
+  private static final String SHADOW_SUFFIX = "_shadow";
+  private static final int MAX_IDENTIFIER_LENGTH = 63;
+
+  static final String SELECT_CONSTRAINTS_SQL = "SELECT c.conname AS name"
+      + ", pg_get_constraintdef(c.oid) AS definition"
+      + " FROM pg_constraint c"
+      + " WHERE c.conrelid = CAST(? AS regclass)"
+      + " AND c.contype IN ('p', 'u', 'f', 'c', 'x')"
+      + " ORDER BY c.conname";
+
+  // indexes which back constraints are created together with the constraints
+  static final String SELECT_INDEXES_SQL = "SELECT i.relname AS name"
+      + ", CASE WHEN x.indisunique THEN 'UNIQUE ' ELSE '' END AS uniqueness"
+      + ", substring(pg_get_indexdef(i.oid) FROM ' USING .*$') AS definition"
+      + " FROM pg_index x"
+      + " JOIN pg_class i ON i.oid = x.indexrelid"
+      + " WHERE x.indrelid = CAST(? AS regclass)"
+      + " AND NOT EXISTS (SELECT 1 FROM pg_constraint c"
+      + "   WHERE c.conindid = x.indexrelid AND c.conrelid = x.indrelid)"
+      + " ORDER BY i.relname";
+
+  // privileges of the owner are implied, the shadow table is owned by whoever creates it
+  static final String SELECT_GRANTS_SQL = "SELECT CASE WHEN a.grantee = 0 THEN 'PUBLIC'"
+      + " ELSE quote_ident(pg_get_userbyid(a.grantee)) END AS grantee"
+      + ", a.privilege_type AS privilege"
+      + ", a.is_grantable AS grantable"
+      + " FROM pg_class c"
+      + " CROSS JOIN LATERAL aclexplode(c.relacl) a"
+      + " WHERE c.oid = CAST(? AS regclass)"
+      + " AND a.grantee <> c.relowner"
+      + " ORDER BY 1, 2";
+
+  private final JdbcTemplate template;
+  private final PlatformTransactionManager transactionManager;
+  private final String schema;
+  private final String table;
+
+  private final List<String> constraintNames = new ArrayList<>();
+  private final List<String> indexNames = new ArrayList<>();
+
+  /**
+   * New shadow table of the given table.
+   * @param template the active {@link JdbcTemplate} to run SQL updates against.
+   * @param transactionManager the transaction manager of the template, used by {@link #swap()}.
+   * @param schema the schema of the table.
+   * @param table the name of the table, without schema.
+   * @throws NullPointerException if any of the arguments are null.
+   * @throws IllegalArgumentException if schema or table is blank.
+   */
+  public ShadowTable(JdbcTemplate template, PlatformTransactionManager transactionManager,
+      String schema, String table) {
+    Validate.notNull(template);
+    Validate.notNull(transactionManager);
+    Validate.notBlank(schema);
+    Validate.notBlank(table);
+    this.template = template;
+    this.transactionManager = transactionManager;
+    this.schema = schema;
+    this.table = table;
+  }
+
+  public String getTableName() {
+    return schema + '.' + table;
+  }
+
+  public String getShadowTableName() {
+    return schema + '.' + toShadowName(table);
+  }
+
+  /**
+   * Creates the shadow table, with the columns, defaults and not-null constraints of the table,
+   * but without other constraints and indexes, so that it can be filled quickly. A shadow table
+   * left by an earlier rebuild is dropped first.
+   */
+  public void create() {
+    XLOGGER.entry(getTableName());
+
+    template.execute("DROP TABLE IF EXISTS " + getShadowTableName());
+    template.execute("CREATE TABLE " + getShadowTableName()
+        + " (LIKE " + getTableName() + " INCLUDING DEFAULTS)");
+
+    XLOGGER.exit(getShadowTableName());
+  }
+
+  /**
+   * Copies constraints and indexes of the table to the filled shadow table, with temporary names,
+   * and updates planner statistics of the shadow table.
+   */
+  public void build() {
+    XLOGGER.entry(getShadowTableName());
+    constraintNames.clear();
+    indexNames.clear();
+
+    List<Pair<String, String>> constraints = template.query(SELECT_CONSTRAINTS_SQL,
+        (ResultSet rs, int rowNum) -> ImmutablePair.of(rs.getString("name"),
+            rs.getString("definition")),
+        getTableName());
+    for (Pair<String, String> constraint : constraints) {
+      template.execute("ALTER TABLE " + getShadowTableName()
+          + " ADD CONSTRAINT " + quote(toShadowName(constraint.getLeft()))
+          + ' ' + constraint.getRight());
+      constraintNames.add(constraint.getLeft());
+    }
+
+    List<Pair<String, String>> indexes = template.query(SELECT_INDEXES_SQL,
+        (ResultSet rs, int rowNum) -> ImmutablePair.of(rs.getString("name"),
+            rs.getString("uniqueness") + "INDEX %s ON %s" + rs.getString("definition")),
+        getTableName());
+    for (Pair<String, String> index : indexes) {
+      template.execute("CREATE " + String.format(index.getRight(),
+          quote(toShadowName(index.getLeft())), getShadowTableName()));
+      indexNames.add(index.getLeft());
+    }
+
+    template.execute("ANALYZE " + getShadowTableName());
+    XLOGGER.exit("Constraints: " + constraintNames + ", indexes: " + indexNames);
+  }
+
+  /**
+   * Replaces the table with the shadow table, in one transaction. The transaction of the caller
+   * is joined if there is one, otherwise a new one is started. The table is locked in ACCESS
+   * EXCLUSIVE mode before anything else is done, and the lock is held until the transaction ends,
+   * so that no other transaction can use the table while it is replaced.
+   */
+  public void swap() {
+    XLOGGER.entry(getTableName());
+
+    new TransactionTemplate(transactionManager).execute(status -> {
+      template.execute("LOCK TABLE " + getTableName() + " IN ACCESS EXCLUSIVE MODE");
+
+      final List<String> grants = template.query(SELECT_GRANTS_SQL,
+          (ResultSet rs, int rowNum) -> "GRANT " + rs.getString("privilege") + " ON %s TO "
+              + rs.getString("grantee")
+              + (rs.getBoolean("grantable") ? " WITH GRANT OPTION" : ""),
+          getTableName());
+
+      template.execute("DROP TABLE " + getTableName());
+      template.execute("ALTER TABLE " + getShadowTableName() + " RENAME TO " + quote(table));
+
+      // renaming a primary key or unique constraint renames its index as well
+      for (String constraintName : constraintNames) {
+        template.execute("ALTER TABLE " + getTableName() + " RENAME CONSTRAINT "
+            + quote(toShadowName(constraintName)) + " TO " + quote(constraintName));
+      }
+
+      for (String indexName : indexNames) {
+        template.execute("ALTER INDEX " + schema + '.' + quote(toShadowName(indexName))
+            + " RENAME TO " + quote(indexName));
+      }
+
+      // the shadow table was created without the privileges of the table
+      for (String grant : grants) {
+        template.execute(String.format(grant, getTableName()));
+      }
+
+      return null;
+    });
+
+    XLOGGER.exit();
+  }
+
+  private String toShadowName(String name) {
+    return StringUtils.left(name, MAX_IDENTIFIER_LENGTH - SHADOW_SUFFIX.length()) + SHADOW_SUFFIX;
+  }
+
+  private String quote(String identifier) {
+    return '"' + identifier + '"';
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.util;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Counts the distinct SQL statement texts, or shapes, that Hibernate prepares. Statements which
+ * bind their values as parameters keep a single shape, so that PostgreSQL and the prepared
+ * statement cache of the JDBC driver can reuse their plans, while statements with values
+ * concatenated into them produce a new shape for every request. A steadily growing number of
+ * shapes points at such a statement.
+ *
+ * <p>The inspector is created by Hibernate (hibernate.session_factory.statement_inspector), so the
+ * counts are kept statically and published by {@link SqlShapeMetrics}. At most
+ * {@link #MAX_SHAPES} shapes are remembered; statements with further new shapes are only counted
+ * as untracked.
+ */
+public class SqlShapeInspector implements StatementInspector {
+
+  static final int MAX_SHAPES = 10_000;
+
+  private static final Set<String> SHAPES = ConcurrentHashMap.newKeySet();
+  private static final AtomicLong STATEMENTS = new AtomicLong();
+  private static final AtomicLong UNTRACKED = new AtomicLong();
+
+  @Override
+  public String inspect(String sql) {
+    STATEMENTS.incrementAndGet();
+    if (SHAPES.size() < MAX_SHAPES) {
+      SHAPES.add(sql);
+    } else if (!SHAPES.contains(sql)) {
+      UNTRACKED.incrementAndGet();
+    }
+
+    // null keeps the statement unchanged
+    return null;
+  }
+
+  public static int getShapeCount() {
+    return SHAPES.size();
+  }
+
+  public static long getStatementCount() {
+    return STATEMENTS.get();
+  }
+
+  public static long getUntrackedCount() {
+    return UNTRACKED.get();
+  }
+
+  static void reset() {
+    SHAPES.clear();
+    STATEMENTS.set(0);
+    UNTRACKED.set(0);
+  }
+}
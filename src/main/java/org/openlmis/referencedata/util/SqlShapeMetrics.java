@@ -0,0 +1,39 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes the counts of {@link SqlShapeInspector} as sqlShapes.* metrics.
+ */
+@Component
+public class SqlShapeMetrics implements PublicMetrics {
+
+  private static final String METRIC_PREFIX = "sqlShapes.";
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    return Arrays.asList(
+        new Metric<>(METRIC_PREFIX + "distinct", SqlShapeInspector.getShapeCount()),
+        new Metric<>(METRIC_PREFIX + "statements", SqlShapeInspector.getStatementCount()),
+        new Metric<>(METRIC_PREFIX + "untracked", SqlShapeInspector.getUntrackedCount()));
+  }
+}
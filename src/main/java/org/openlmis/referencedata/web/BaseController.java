@@ -19,6 +19,10 @@ import static org.openlmis.referencedata.util.messagekeys.CsvUploadMessageKeys.E
 import static org.openlmis.referencedata.util.messagekeys.CsvUploadMessageKeys.ERROR_INCORRECT_FILE_FORMAT;
 import static org.openlmis.referencedata.web.BaseController.API_PATH;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
@@ -26,12 +30,13 @@ import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.lang3.StringUtils;
 import org.javers.core.Javers;
 import org.javers.core.changelog.SimpleTextChangeLog;
 import org.javers.core.diff.Change;
 import org.javers.core.json.JsonConverter;
-import org.javers.repository.jql.QueryBuilder;
+import org.openlmis.referencedata.AuditLogReader;
 import org.openlmis.referencedata.domain.BaseEntity;
 import org.openlmis.referencedata.exception.ValidationMessageException;
 import org.openlmis.referencedata.service.ObjectReferenceExpander;
@@ -51,6 +56,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.multipart.MultipartFile;
 
 @RequestMapping(API_PATH)
+@SuppressWarnings("PMD.TooManyMethods")
 public abstract class BaseController {
 
   public static final DateTimeFormatter RFC_7231_FORMAT =
@@ -66,6 +72,9 @@ public abstract class BaseController {
   @Autowired
   private ObjectReferenceExpander objectReferenceExpander;
 
+  @Autowired
+  private AuditLogReader auditLogReader;
+
   protected void checkAdminRight(String rightName, Profiler profiler) {
     checkAdminRight(rightName, true, null, profiler);
   }
@@ -183,6 +192,20 @@ public abstract class BaseController {
     return javers.processChangeList(changes, new SimpleTextChangeLog());
   }
 
+  /**
+   * Writes all changes of the given instance to the response as a JSON array, newest first. The
+   * changes are written as they are read, so this suits exports of long audit logs.
+   * The available parameters and their means are the same as for the getAuditLogJson() method.
+   * Once writing has started the response is committed, so a failure to write, like a client
+   * closing the connection, is left to abort the response rather than reported as an error.
+   */
+  protected void writeAuditLog(Class type, UUID id, String author, String changedPropertyName,
+                               HttpServletResponse response) throws IOException {
+    response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+    Writer writer = new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8);
+    auditLogReader.writeJson(type, id, author, changedPropertyName, writer);
+  }
+
   protected void expandDto(Object dto, BaseEntity entity, Set<String> expands) {
     objectReferenceExpander.expandDto(dto, entity, expands);
   }
@@ -191,6 +214,28 @@ public abstract class BaseController {
     return ZonedDateTime.parse(httpDate, RFC_7231_FORMAT);
   }
 
+  /**
+   * Checks whether an If-None-Match header matches the given entity tag. Weak comparison is
+   * used, as for GET requests.
+   *
+   * @param ifNoneMatch value of the If-None-Match header, may be null
+   * @param etag        current entity tag, without quotes
+   * @return true if the client already has the current representation
+   */
+  protected boolean matchesEtag(String ifNoneMatch, String etag) {
+    if (null == ifNoneMatch || null == etag) {
+      return false;
+    }
+
+    for (String tag : ifNoneMatch.split(",")) {
+      String value = StringUtils.removeStart(tag.trim(), "W/");
+      if ("*".equals(value) || etag.equals(StringUtils.strip(value, "\""))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   void validateCsvFile(MultipartFile csvFile) {
     if (csvFile == null || csvFile.isEmpty()) {
       throw new ValidationMessageException(ERROR_FILE_IS_EMPTY);
@@ -207,37 +252,11 @@ public abstract class BaseController {
   }
 
   /*
-    Return JaVers changes for the specified type, optionally filtered by id, author, and property.
+    Return JaVers changes for the specified type, optionally filtered by id, author, and property,
+    newest first.
   */
   private List<Change> getChangesByType(Class type, UUID id, String author,
                                         String changedPropertyName, Pageable page) {
-    QueryBuilder queryBuilder;
-
-    if (id != null) {
-      queryBuilder = QueryBuilder.byInstanceId(id, type);
-    } else {
-      queryBuilder = QueryBuilder.byClass(type);
-    }
-
-    int skip = Pagination.getPageNumber(page);
-    int limit = Pagination.getPageSize(page);
-
-    queryBuilder = queryBuilder.withNewObjectChanges(true).skip(skip).limit(limit);
-
-    if (StringUtils.isNotBlank(author)) {
-      queryBuilder = queryBuilder.byAuthor(author);
-    }
-    if (StringUtils.isNotBlank(changedPropertyName)) {
-      queryBuilder = queryBuilder.andProperty(changedPropertyName);
-    }
-
-    /* Depending on the business' preference, we can either use findSnapshots() or findChanges().
-       Whereas the former returns the entire state of the object as it was at each commit, the later
-       returns only the property and values which changed. */
-    List<Change> changes = javers.findChanges(queryBuilder.build());
-
-    changes.sort((o1, o2) -> -1 * o1.getCommitMetadata().get().getCommitDate()
-                                  .compareTo(o2.getCommitMetadata().get().getCommitDate()));
-    return changes;
+    return auditLogReader.findChanges(type, id, author, changedPropertyName, page);
   }
 }
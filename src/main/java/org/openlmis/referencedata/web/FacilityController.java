@@ -15,8 +15,12 @@
 
 package org.openlmis.referencedata.web;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.vividsolutions.jts.geom.Polygon;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -24,7 +28,9 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import javax.servlet.http.HttpServletResponse;
 import lombok.NoArgsConstructor;
+import org.apache.commons.lang3.tuple.Pair;
 import org.openlmis.referencedata.domain.Facility;
 import org.openlmis.referencedata.domain.FacilityTypeApprovedProduct;
 import org.openlmis.referencedata.domain.Orderable;
@@ -41,8 +47,12 @@ import org.openlmis.referencedata.repository.FacilityTypeApprovedProductReposito
 import org.openlmis.referencedata.repository.OrderableRepository;
 import org.openlmis.referencedata.service.FacilityBuilder;
 import org.openlmis.referencedata.service.FacilityService;
-import org.openlmis.referencedata.service.RightAssignmentService;
+import org.openlmis.referencedata.service.PermissionIndex;
+import org.openlmis.referencedata.service.RightAssignmentChange;
+import org.openlmis.referencedata.service.RightAssignmentScheduler;
 import org.openlmis.referencedata.util.messagekeys.FacilityMessageKeys;
+import org.openlmis.referencedata.util.messagekeys.MessageKeys;
+import org.openlmis.referencedata.util.messagekeys.PageableMessageKeys;
 import org.openlmis.referencedata.validate.FacilityValidator;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
@@ -53,6 +63,7 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.web.PageableDefault;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.transaction.annotation.Transactional;
@@ -78,6 +89,8 @@ public class FacilityController extends BaseController {
 
   public static final String RESOURCE_PATH = "/facilities";
 
+  private static final String KEYSET_PAGE_SIZE = "1000";
+
   @Autowired
   private FacilityRepository facilityRepository;
 
@@ -94,7 +107,10 @@ public class FacilityController extends BaseController {
   private FacilityValidator facilityValidator;
 
   @Autowired
-  private RightAssignmentService rightAssignmentService;
+  private RightAssignmentScheduler rightAssignmentScheduler;
+
+  @Autowired
+  private PermissionIndex permissionIndex;
 
   @Autowired
   private FhirClient fhirClient;
@@ -102,6 +118,9 @@ public class FacilityController extends BaseController {
   @Autowired
   private FacilityBuilder facilityBuilder;
 
+  @Autowired
+  private ObjectMapper objectMapper;
+
   /**
    * Allows creating new facilities. If the id is specified, it will be ignored.
    *
@@ -212,6 +231,34 @@ public class FacilityController extends BaseController {
     return response;
   }
 
+  /**
+   * Exports the whole audit log of a facility as a JSON array, written as it is read.
+   *  @param author The author of the changes which should be returned.
+   *               If null or empty, changes are returned regardless of author.
+   * @param changedPropertyName The name of the property about which changes should be returned.
+   *               If null or empty, changes associated with any and all properties are returned.
+   */
+  @GetMapping(RESOURCE_PATH + "/{id}/auditLog/export")
+  public void exportFacilityAuditLog(
+          @PathVariable("id") UUID id,
+          @RequestParam(name = "author", required = false, defaultValue = "") String author,
+          @RequestParam(name = "changedPropertyName", required = false, defaultValue = "")
+                        String changedPropertyName,
+          HttpServletResponse response) throws IOException {
+    Profiler profiler = new Profiler("EXPORT_AUDIT_LOG");
+    profiler.setLogger(XLOGGER);
+
+    checkAdminRight(RightName.FACILITIES_MANAGE_RIGHT, profiler);
+
+    //Return a 404 if the specified facility can't be found
+    findFacility(id, profiler);
+
+    profiler.start("WRITE_AUDIT_LOG");
+    writeAuditLog(Facility.class, id, author, changedPropertyName, response);
+
+    profiler.stop().log();
+  }
+
 
   /**
    * Allows updating facilities.
@@ -250,8 +297,10 @@ public class FacilityController extends BaseController {
     profiler.start("SYNC_FHIR_RESOURCE");
     fhirClient.synchronizeFacility(facilityToSave);
 
-    profiler.start("REGENERATE_RIGHT_ASSIGNMENTS");
-    rightAssignmentService.regenerateRightAssignments();
+    profiler.start("SCHEDULE_RIGHT_ASSIGNMENTS_REGENERATION");
+    rightAssignmentScheduler.schedule(
+        RightAssignmentChange.forFacilities(facilityToSave.getId()));
+    permissionIndex.refreshFacilities(Collections.singleton(facilityToSave.getId()));
 
     XLOGGER.info("Saved facility with id: {}", facilityToSave.getId());
     FacilityDto dto = toDto(facilityToSave, profiler);
@@ -313,6 +362,91 @@ public class FacilityController extends BaseController {
     return list;
   }
 
+  /**
+   * Get a keyset page of approved products for the specified facility, with their orderables
+   * loaded by the same query. Pages are ordered by approved product ID; the next page starts after
+   * the ID returned as nextAfter, which is null on the last page. The response is written as it is
+   * exported, without building a whole page in memory first.
+   *
+   * @param facilityId ID of the facility
+   * @param programId  ID of the program
+   * @param fullSupply true to retrieve full-supply products, false to retrieve non-full supply
+   *                   products
+   * @param after      ID of the last approved product of the previous page
+   * @param size       maximum number of approved products on the page
+   * @param count      true to also return the total number of approved products as totalElements
+   */
+  @GetMapping(RESOURCE_PATH + "/{id}/approvedProducts/keyset")
+  public void getApprovedProductsKeyset(
+      @PathVariable("id") UUID facilityId,
+      @RequestParam(required = false, value = "programId") UUID programId,
+      @RequestParam(required = false, value = "fullSupply") Boolean fullSupply,
+      @RequestParam(required = false, value = "orderableId") List<UUID> orderablesId,
+      @RequestParam(required = false, value = "active") Boolean active,
+      @RequestParam(required = false, value = "after") UUID after,
+      @RequestParam(value = "size", defaultValue = KEYSET_PAGE_SIZE) int size,
+      @RequestParam(value = "count", defaultValue = "false") boolean count,
+      HttpServletResponse response) {
+
+    Profiler profiler = new Profiler("GET_FACILITY_APPROVED_PRODUCTS_KEYSET");
+    profiler.setLogger(XLOGGER);
+
+    if (size < 1) {
+      throw new ValidationMessageException(PageableMessageKeys.ERROR_SIZE_NOT_POSITIVE);
+    }
+
+    // the same error as the search of a page of approved products
+    profiler.start("CHECK_FACILITY_EXISTS");
+    if (!facilityRepository.exists(facilityId)) {
+      throw new ValidationMessageException(FacilityMessageKeys.ERROR_NOT_FOUND);
+    }
+
+    profiler.start("FIND_APPROVED_PRODUCTS");
+    // one more than requested tells whether there is a next page
+    List<Pair<FacilityTypeApprovedProduct, Orderable>> products =
+        facilityTypeApprovedProductRepository.searchProductsAfter(facilityId, programId,
+            fullSupply, orderablesId, active, after, size + 1);
+    boolean hasNext = products.size() > size;
+    if (hasNext) {
+      products = products.subList(0, size);
+    }
+
+    Long total = null;
+    if (count) {
+      profiler.start("COUNT_APPROVED_PRODUCTS");
+      total = facilityTypeApprovedProductRepository
+          .countProducts(facilityId, programId, fullSupply, orderablesId, active);
+    }
+
+    profiler.start("WRITE_APPROVED_PRODUCTS");
+    response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+    try (JsonGenerator generator = objectMapper.getFactory()
+        .createGenerator(response.getOutputStream())) {
+      generator.writeStartObject();
+      generator.writeArrayFieldStart("content");
+      for (Pair<FacilityTypeApprovedProduct, Orderable> product : products) {
+        ApprovedProductDto productDto = new ApprovedProductDto();
+        product.getLeft().export(productDto);
+        productDto.setOrderable(product.getRight());
+        generator.writeObject(productDto);
+      }
+      generator.writeEndArray();
+
+      generator.writeNumberField("size", products.size());
+      generator.writeStringField("nextAfter", hasNext
+          ? products.get(products.size() - 1).getLeft().getId().toString()
+          : null);
+      if (null != total) {
+        generator.writeNumberField("totalElements", total);
+      }
+      generator.writeEndObject();
+    } catch (IOException ex) {
+      throw new ValidationMessageException(ex, MessageKeys.ERROR_IO, ex.getMessage());
+    } finally {
+      profiler.stop().log();
+    }
+  }
+
   /**
    * Retrieves all facilities within a boundary.
    *
@@ -331,10 +465,11 @@ public class FacilityController extends BaseController {
     checkAdminRight(RightName.FACILITIES_MANAGE_RIGHT, profiler);
 
     profiler.start("DB_CALL");
-    List<Facility> foundFacilities = facilityRepository.findByBoundary(boundary);
+    Page<Facility> foundFacilities = facilityRepository.findByBoundary(boundary, pageable);
 
-    List<FacilityDto> facilityDtos = toDto(foundFacilities, profiler);
-    Page<FacilityDto> page = toPage(facilityDtos, pageable, profiler);
+    List<FacilityDto> facilityDtos = toDto(foundFacilities.getContent(), profiler);
+    Page<FacilityDto> page = toPage(facilityDtos, pageable, foundFacilities.getTotalElements(),
+        profiler);
 
     profiler.stop().log();
     return page;
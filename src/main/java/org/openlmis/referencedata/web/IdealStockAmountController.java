@@ -20,6 +20,7 @@ import static org.openlmis.referencedata.util.messagekeys.IdealStockAmountMessag
 import java.io.IOException;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 import javax.servlet.http.HttpServletResponse;
 import org.openlmis.referencedata.domain.IdealStockAmount;
@@ -141,20 +142,14 @@ public class IdealStockAmountController extends BaseController {
       return;
     }
 
-    profiler.start("FIND_ALL_IDEAL_STOCK_AMOUNTS");
-    Iterable<IdealStockAmount> list = service.search();
-
-    profiler.start("CONVERT_IDEAL_STOCK_AMOUNTS_TO_DTO");
-    List<IdealStockAmountCsvModel> items = toCsvDto(list);
-
     response.setContentType("text/csv");
     response.addHeader(HttpHeaders.CONTENT_DISPOSITION,
         DISPOSITION_BASE + "ideal_stock_amounts.csv");
 
-    profiler.start("PARSE_IDEAL_STOCK_AMOUNTS_TO_CSV");
-    try {
+    profiler.start("STREAM_IDEAL_STOCK_AMOUNTS_TO_CSV");
+    try (Stream<IdealStockAmountCsvModel> items = service.streamCsvModels()) {
       csvFormatter.process(
-          response.getOutputStream(), new ModelClass(IdealStockAmountCsvModel.class), items);
+          response.getOutputStream(), new ModelClass<>(IdealStockAmountCsvModel.class), items);
     } catch (IOException ex) {
       throw new ValidationMessageException(ex, MessageKeys.ERROR_IO, ex.getMessage());
     } finally {
@@ -191,7 +186,7 @@ public class IdealStockAmountController extends BaseController {
     profiler.start("PARSE_FILE");
     try {
       int result = csvParser.parse(file.getInputStream(), modelClass, csvHeaderValidator,
-          idealStockAmountProcessor, idealStockAmountWriter);
+          idealStockAmountProcessor.forUpload(), idealStockAmountWriter.forUpload());
       profiler.start("UPLOAD_RESULT_DTO");
       UploadResultDto dto = new UploadResultDto(result);
       return dto;
@@ -202,19 +197,6 @@ public class IdealStockAmountController extends BaseController {
     }
   }
 
-  private IdealStockAmountCsvModel toCsvDto(IdealStockAmount isa) {
-    IdealStockAmountCsvModel dto = new IdealStockAmountCsvModel();
-    isa.export(dto);
-    return dto;
-  }
-
-  private List<IdealStockAmountCsvModel> toCsvDto(Iterable<IdealStockAmount> items) {
-    return StreamSupport
-        .stream(items.spliterator(), false)
-        .map(this::toCsvDto)
-        .collect(Collectors.toList());
-  }
-
   private List<IdealStockAmountDto> toDto(Iterable<IdealStockAmount> items) {
     return StreamSupport
         .stream(items.spliterator(), false)
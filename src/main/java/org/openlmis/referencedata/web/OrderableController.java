@@ -17,11 +17,13 @@ package org.openlmis.referencedata.web;
 
 import static org.openlmis.referencedata.domain.RightName.ORDERABLES_MANAGE;
 
+import java.io.IOException;
 import java.time.ZonedDateTime;
 import java.util.Collections;
 import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.openlmis.referencedata.domain.Orderable;
@@ -29,6 +31,7 @@ import org.openlmis.referencedata.dto.OrderableDto;
 import org.openlmis.referencedata.exception.NotFoundException;
 import org.openlmis.referencedata.exception.ValidationMessageException;
 import org.openlmis.referencedata.repository.OrderableRepository;
+import org.openlmis.referencedata.service.OrderableCatalog;
 import org.openlmis.referencedata.service.OrderableService;
 import org.openlmis.referencedata.util.OrderableBuilder;
 import org.openlmis.referencedata.util.Pagination;
@@ -80,6 +83,9 @@ public class OrderableController extends BaseController {
   @Autowired
   private OrderableValidator validator;
 
+  @Autowired
+  private OrderableCatalog orderableCatalog;
+
   /**
    * Create an orderable.
    *
@@ -105,6 +111,7 @@ public class OrderableController extends BaseController {
 
     profiler.start("SAVE_ORDERABLE");
     repository.save(orderable);
+    orderableCatalog.refresh(Collections.singleton(orderable.getId()));
 
     profiler.stop().log();
 
@@ -144,6 +151,7 @@ public class OrderableController extends BaseController {
 
     Orderable savedOrderable = repository
         .save(orderableBuilder.newOrderable(orderableDto, foundOrderable));
+    orderableCatalog.refresh(Collections.singleton(savedOrderable.getId()));
     XLOGGER.warn("Orderable updated: down stream services may not support versioned orderables: {}",
         id);
 
@@ -171,6 +179,14 @@ public class OrderableController extends BaseController {
     profiler.setLogger(XLOGGER);
 
     QueryOrderableSearchParams searchParams = new QueryOrderableSearchParams(queryParams);
+
+    profiler.start("SEARCH_ORDERABLE_CATALOG");
+    OrderableCatalog.Result cached = orderableCatalog
+        .search(searchParams, searchParams.getIds(), pageable);
+    if (null != cached) {
+      return getCatalogResponse(cached, ifModifiedDate, pageable, profiler);
+    }
+
     ZonedDateTime lastUpdated = orderableService.getLatestLastUpdatedDate(searchParams, profiler);
 
     if (lastUpdated == null) {
@@ -222,6 +238,13 @@ public class OrderableController extends BaseController {
 
     Pageable pageable = body.getPageable();
 
+    profiler.start("SEARCH_ORDERABLE_CATALOG");
+    OrderableCatalog.Result cached = orderableCatalog
+        .search(body, Collections.emptySet(), pageable);
+    if (null != cached) {
+      return getCatalogResponse(cached, ifModifiedDate, pageable, profiler);
+    }
+
     profiler.start("GET_LATEST_LAST_UPDATED_DATE");
     ZonedDateTime lastUpdated = orderableService
             .getLatestLastUpdatedDate(getQueryOrderableSearchParams(body), profiler);
@@ -327,6 +350,58 @@ public class OrderableController extends BaseController {
     return getAuditLogResponse(Orderable.class, id, author, changedPropertyName, page, returnJson);
   }
 
+  /**
+   * Exports the whole audit log of an orderable as a JSON array, written as it is read.
+   *  @param author The author of the changes which should be returned.
+   *               If null or empty, changes are returned regardless of author.
+   * @param changedPropertyName The name of the property about which changes should be returned.
+   *               If null or empty, changes associated with any and all properties are returned.
+   */
+  @GetMapping(RESOURCE_PATH + "/{id}/auditLog/export")
+  public void exportOrderableAuditLog(
+      @PathVariable("id") UUID id,
+      @RequestParam(name = "author", required = false, defaultValue = "") String author,
+      @RequestParam(name = "changedPropertyName", required = false, defaultValue = "")
+          String changedPropertyName,
+      HttpServletResponse response) throws IOException {
+
+    rightService.checkAdminRight(ORDERABLES_MANAGE);
+
+    //Return a 404 if the specified instance can't be found
+    if (!repository.existsById(id)) {
+      throw new NotFoundException(OrderableMessageKeys.ERROR_NOT_FOUND);
+    }
+
+    writeAuditLog(Orderable.class, id, author, changedPropertyName, response);
+  }
+
+  private ResponseEntity<Page<OrderableDto>> getCatalogResponse(OrderableCatalog.Result cached,
+      String ifModifiedDate, Pageable pageable, Profiler profiler) {
+    ZonedDateTime lastUpdated = cached.getLastUpdated();
+
+    if (lastUpdated == null) {
+      profiler.stop().log();
+      return ResponseEntity.ok()
+          .body(Pagination.getPage(Collections.emptyList(), pageable));
+    }
+
+    if (ifModifiedDate == null
+        || wasModifiedSince(lastUpdated, parseHttpDateToZonedDateTime(ifModifiedDate))) {
+      profiler.start("ORDERABLE_PAGINATION");
+      Page<OrderableDto> page = cached.getPage(pageable);
+
+      profiler.stop().log();
+      return ResponseEntity.ok()
+          .headers(buildLastModifiedHeader(lastUpdated))
+          .body(page);
+    }
+
+    profiler.stop().log();
+    return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+        .headers(buildLastModifiedHeader(lastUpdated))
+        .build();
+  }
+
   private HttpHeaders buildLastModifiedHeader(ZonedDateTime lastUpdated) {
     HttpHeaders headers = new HttpHeaders();
     headers.setLastModified(lastUpdated.toInstant().toEpochMilli());
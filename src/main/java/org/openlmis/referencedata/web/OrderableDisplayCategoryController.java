@@ -27,6 +27,7 @@ import org.openlmis.referencedata.exception.IntegrityViolationException;
 import org.openlmis.referencedata.exception.NotFoundException;
 import org.openlmis.referencedata.exception.ValidationMessageException;
 import org.openlmis.referencedata.repository.OrderableDisplayCategoryRepository;
+import org.openlmis.referencedata.service.OrderableCatalog;
 import org.openlmis.referencedata.util.Message;
 import org.openlmis.referencedata.util.messagekeys.OrderableDisplayCategoryMessageKeys;
 import org.slf4j.Logger;
@@ -56,6 +57,9 @@ public class OrderableDisplayCategoryController extends BaseController {
   @Autowired
   private OrderableDisplayCategoryRepository orderableDisplayCategoryRepository;
 
+  @Autowired
+  private OrderableCatalog orderableCatalog;
+
   /**
    * Get all OrderableDisplayCategories.
    *
@@ -93,6 +97,7 @@ public class OrderableDisplayCategoryController extends BaseController {
     }
 
     orderableDisplayCategoryRepository.save(found);
+    orderableCatalog.refreshAll();
     return newInstance(found);
   }
 
@@ -124,6 +129,7 @@ public class OrderableDisplayCategoryController extends BaseController {
         OrderableDisplayCategory.newInstance(orderableDisplayCategoryDto);
     orderableDisplayCategoryToUpdate.updateFrom(orderableDisplayCategory);
     orderableDisplayCategoryRepository.save(orderableDisplayCategoryToUpdate);
+    orderableCatalog.refreshAll();
 
     LOGGER.debug("Updated orderableDisplayCategory with id: %s", orderableDisplayCategoryId);
     return newInstance(orderableDisplayCategoryToUpdate);
@@ -31,6 +31,7 @@ import org.openlmis.referencedata.exception.NotFoundException;
 import org.openlmis.referencedata.exception.ValidationMessageException;
 import org.openlmis.referencedata.repository.ProgramRepository;
 import org.openlmis.referencedata.repository.custom.impl.ProgramRedisRepository;
+import org.openlmis.referencedata.service.OrderableCatalog;
 import org.openlmis.referencedata.util.Message;
 import org.openlmis.referencedata.util.messagekeys.ProgramMessageKeys;
 import org.openlmis.referencedata.validate.ProgramValidator;
@@ -73,6 +74,9 @@ public class ProgramController extends BaseController {
   @Autowired
   private ProgramValidator validator;
 
+  @Autowired
+  private OrderableCatalog orderableCatalog;
+
   /**
    * Allows creating a new programs.
    *
@@ -96,6 +100,7 @@ public class ProgramController extends BaseController {
     // Ignore provided id
     Program newProgram = Program.newProgram(program);
     programRepository.save(newProgram);
+    orderableCatalog.refreshAll();
     return newProgram;
   }
 
@@ -186,6 +191,7 @@ public class ProgramController extends BaseController {
       throw new NotFoundException(ProgramMessageKeys.ERROR_NOT_FOUND);
     } else {
       programRepository.delete(program);
+      orderableCatalog.refreshAll();
     }
   }
 
@@ -226,6 +232,7 @@ public class ProgramController extends BaseController {
     Program updatedProgram = Program.newProgram(program);
 
     programRepository.save(updatedProgram);
+    orderableCatalog.refreshAll();
 
     if (AvailableFeatures.REDIS_CACHING.isActive()) {
       deleteProgramFromCache(id);
@@ -30,7 +30,8 @@ import org.openlmis.referencedata.exception.ValidationMessageException;
 import org.openlmis.referencedata.repository.RequisitionGroupRepository;
 import org.openlmis.referencedata.repository.SupervisoryNodeRepository;
 import org.openlmis.referencedata.service.RequisitionGroupService;
-import org.openlmis.referencedata.service.RightAssignmentService;
+import org.openlmis.referencedata.service.RightAssignmentChange;
+import org.openlmis.referencedata.service.RightAssignmentScheduler;
 import org.openlmis.referencedata.util.Pagination;
 import org.openlmis.referencedata.util.messagekeys.RequisitionGroupMessageKeys;
 import org.openlmis.referencedata.validate.RequisitionGroupValidator;
@@ -78,7 +79,7 @@ public class RequisitionGroupController extends BaseController {
   private RequisitionGroupService requisitionGroupService;
 
   @Autowired
-  private RightAssignmentService rightAssignmentService;
+  private RightAssignmentScheduler rightAssignmentScheduler;
 
   @Autowired
   private SupervisoryNodeRepository supervisoryNodeRepository;
@@ -111,8 +112,9 @@ public class RequisitionGroupController extends BaseController {
       profiler.start("SAVE_REQUISITION_GROUP");
       requisitionGroupRepository.saveAndFlush(requisitionGroup);
 
-      profiler.start("REGENERATE_RIGHT_ASSIGNMENTS");
-      rightAssignmentService.regenerateRightAssignments();
+      profiler.start("SCHEDULE_RIGHT_ASSIGNMENTS_REGENERATION");
+      rightAssignmentScheduler.schedule(
+          RightAssignmentChange.forSupervisoryNodes(getSupervisoryNodeId(requisitionGroup)));
 
       LOGGER.info("Created new requisitionGroup with id: {}", requisitionGroup.getId());
       profiler.start("EXPORT_REQUISITION_GROUP_TO_DTO");
@@ -199,6 +201,8 @@ public class RequisitionGroupController extends BaseController {
         LOGGER.info("Updating requisitionGroup with id: {}", requisitionGroupId);
       }
 
+      final UUID previousSupervisoryNodeId = getSupervisoryNodeId(requisitionGroupToUpdate);
+
       profiler.start("IMPORT_REQUISITION_GROUP_FROM_DTO");
       requisitionGroupToUpdate.updateFrom(
               RequisitionGroup.newRequisitionGroup(requisitionGroupDto));
@@ -210,8 +214,9 @@ public class RequisitionGroupController extends BaseController {
       profiler.start("SAVE_REQUISITION_GROUP");
       requisitionGroupToUpdate = requisitionGroupRepository.saveAndFlush(requisitionGroupToUpdate);
 
-      profiler.start("REGENERATE_RIGHT_ASSIGNMENTS");
-      rightAssignmentService.regenerateRightAssignments();
+      profiler.start("SCHEDULE_RIGHT_ASSIGNMENTS_REGENERATION");
+      rightAssignmentScheduler.schedule(RightAssignmentChange.forSupervisoryNodes(
+          previousSupervisoryNodeId, getSupervisoryNodeId(requisitionGroupToUpdate)));
 
       LOGGER.info("Saved requisitionGroup with id: {}", requisitionGroupToUpdate.getId());
       profiler.start("EXPORT_REQUISITION_GROUP_TO_DTO");
@@ -249,8 +254,9 @@ public class RequisitionGroupController extends BaseController {
       requisitionGroupRepository.delete(requisitionGroup);
       requisitionGroupRepository.flush();
 
-      profiler.start("REGENERATE_RIGHT_ASSIGNMENTS");
-      rightAssignmentService.regenerateRightAssignments();
+      profiler.start("SCHEDULE_RIGHT_ASSIGNMENTS_REGENERATION");
+      rightAssignmentScheduler.schedule(
+          RightAssignmentChange.forSupervisoryNodes(getSupervisoryNodeId(requisitionGroup)));
 
       profiler.stop().log();
     }
@@ -337,4 +343,10 @@ public class RequisitionGroupController extends BaseController {
     }
     return supervisoryNode;
   }
+
+  private UUID getSupervisoryNodeId(RequisitionGroup requisitionGroup) {
+    return null == requisitionGroup.getSupervisoryNode()
+        ? null
+        : requisitionGroup.getSupervisoryNode().getId();
+  }
 }
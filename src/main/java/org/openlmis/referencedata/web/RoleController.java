@@ -34,7 +34,8 @@ import org.openlmis.referencedata.repository.CountResource;
 import org.openlmis.referencedata.repository.RightRepository;
 import org.openlmis.referencedata.repository.RoleAssignmentRepository;
 import org.openlmis.referencedata.repository.RoleRepository;
-import org.openlmis.referencedata.service.RightAssignmentService;
+import org.openlmis.referencedata.service.RightAssignmentChange;
+import org.openlmis.referencedata.service.RightAssignmentScheduler;
 import org.openlmis.referencedata.util.messagekeys.RoleMessageKeys;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -71,7 +72,7 @@ public class RoleController extends BaseController {
   private RightRepository rightRepository;
   
   @Autowired
-  private RightAssignmentService rightAssignmentService;
+  private RightAssignmentScheduler rightAssignmentScheduler;
 
   /**
    * Get all roles in the system.
@@ -207,8 +208,9 @@ public class RoleController extends BaseController {
     profiler.start("SAVE_ROLE");
     roleRepository.saveAndFlush(roleToSave);
 
-    profiler.start("REGENERATE_RIGHT_ASSIGNMENTS");
-    rightAssignmentService.regenerateRightAssignments();
+    profiler.start("SCHEDULE_RIGHT_ASSIGNMENTS_REGENERATION");
+    rightAssignmentScheduler.schedule(
+        RightAssignmentChange.forRoles(roleToSave.getId()));
     
     LOGGER.info("Saved role with id: {}", roleToSave.getId());
 
@@ -18,6 +18,8 @@ package org.openlmis.referencedata.web;
 import static java.util.stream.Collectors.toSet;
 import static org.openlmis.referencedata.domain.RightName.SUPERVISORY_NODES_MANAGE;
 
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -35,12 +37,15 @@ import org.openlmis.referencedata.dto.SupervisoryNodeDto;
 import org.openlmis.referencedata.dto.UserDto;
 import org.openlmis.referencedata.exception.NotFoundException;
 import org.openlmis.referencedata.exception.ValidationMessageException;
+import org.openlmis.referencedata.repository.FacilityRepository;
 import org.openlmis.referencedata.repository.ProgramRepository;
 import org.openlmis.referencedata.repository.RequisitionGroupRepository;
 import org.openlmis.referencedata.repository.RightRepository;
 import org.openlmis.referencedata.repository.SupervisoryNodeRepository;
 import org.openlmis.referencedata.repository.UserRepository;
 import org.openlmis.referencedata.repository.custom.impl.SupervisoryNodeDtoRedisRepository;
+import org.openlmis.referencedata.service.RightAssignmentChange;
+import org.openlmis.referencedata.service.RightAssignmentScheduler;
 import org.openlmis.referencedata.service.RightAssignmentService;
 import org.openlmis.referencedata.service.SupervisoryNodeBuilder;
 import org.openlmis.referencedata.util.Pagination;
@@ -86,6 +91,9 @@ public class SupervisoryNodeController extends BaseController {
 
   @Autowired
   private ProgramRepository programRepository;
+
+  @Autowired
+  private FacilityRepository facilityRepository;
   
   @Autowired
   private RightRepository rightRepository;
@@ -96,6 +104,9 @@ public class SupervisoryNodeController extends BaseController {
   @Autowired
   private RightAssignmentService rightAssignmentService;
 
+  @Autowired
+  private RightAssignmentScheduler rightAssignmentScheduler;
+
   @Autowired
   private SupervisoryNodeValidator validator;
 
@@ -204,6 +215,13 @@ public class SupervisoryNodeController extends BaseController {
     validator.validate(supervisoryNodeDto, bindingResult);
     throwValidationMessageExceptionIfErrors(bindingResult);
 
+    profiler.start("FIND_CURRENT_PARENT_NODES");
+    Set<UUID> changedNodeIds = new HashSet<>(supervisoryNodeDto.getChildNodeIds());
+    changedNodeIds.add(supervisoryNodeId);
+    changedNodeIds.add(supervisoryNodeDto.getParentNodeId());
+    changedNodeIds.addAll(rightAssignmentService.findCurrentParentNodeIds(changedNodeIds,
+        Collections.singleton(supervisoryNodeDto.getRequisitionGroupId())));
+
     profiler.start("BUILD_DOMAIN_OBJ_FROM_DTO");
     SupervisoryNode supervisoryNodeToUpdate = builder.build(supervisoryNodeDto);
 
@@ -223,8 +241,9 @@ public class SupervisoryNodeController extends BaseController {
       deleteSupervisoryNodeDtoFromCache(supervisoryNodeId);
     }
 
-    profiler.start("REGENERATE_RIGHT_ASSIGNMENTS");
-    rightAssignmentService.regenerateRightAssignments();
+    profiler.start("SCHEDULE_RIGHT_ASSIGNMENTS_REGENERATION");
+    rightAssignmentScheduler.schedule(
+        RightAssignmentChange.forSupervisoryNodes(changedNodeIds));
 
     LOGGER.info("Updated supervisoryNode with id: {}", supervisoryNodeId);
     profiler.start("EXPORT_SUPERVISORY_NODE_TO_DTO");
@@ -319,25 +338,24 @@ public class SupervisoryNodeController extends BaseController {
         .ofNullable(supervisoryNodeRepository.findOne(supervisoryNodeId))
         .orElseThrow(() -> new NotFoundException(SupervisoryNodeMessageKeys.ERROR_NOT_FOUND));
 
-    Program program;
+    UUID supervisedProgramId = null;
 
-    if (null == programId) {
-      program = null;
-    } else {
-      program = Optional
+    if (null != programId) {
+      Program program = Optional
           .ofNullable(programRepository.findOne(programId))
           .orElseThrow(() -> new NotFoundException(ProgramMessageKeys.ERROR_NOT_FOUND));
+      supervisedProgramId = program.getId();
     }
 
-    Set<Facility> facilities = supervisoryNode.getAllSupervisedFacilities(program);
-    Page<Facility> facilityPage = Pagination.getPage(facilities, pageable);
+    Page<Facility> facilityPage = facilityRepository
+        .findSupervisedFacilities(supervisoryNode.getId(), supervisedProgramId, pageable);
     List<FacilityDto> facilityDtos = facilityPage
         .getContent()
         .stream()
         .map(FacilityDto::newInstance)
         .collect(Collectors.toList());
 
-    return Pagination.getPage(facilityDtos, pageable, facilities.size());
+    return Pagination.getPage(facilityDtos, pageable, facilityPage.getTotalElements());
   }
 
   /**
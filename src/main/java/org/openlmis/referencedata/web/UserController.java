@@ -50,14 +50,16 @@ import org.openlmis.referencedata.exception.NotFoundException;
 import org.openlmis.referencedata.exception.ValidationMessageException;
 import org.openlmis.referencedata.repository.FacilityRepository;
 import org.openlmis.referencedata.repository.ProgramRepository;
-import org.openlmis.referencedata.repository.RightAssignmentRepository;
 import org.openlmis.referencedata.repository.RightRepository;
 import org.openlmis.referencedata.repository.RoleAssignmentRepository;
 import org.openlmis.referencedata.repository.RoleRepository;
 import org.openlmis.referencedata.repository.SupervisoryNodeRepository;
 import org.openlmis.referencedata.repository.UserRepository;
 import org.openlmis.referencedata.repository.UserSearchParams;
+import org.openlmis.referencedata.service.PermissionCache;
+import org.openlmis.referencedata.service.PermissionIndex;
 import org.openlmis.referencedata.service.UserService;
+import org.openlmis.referencedata.util.ContentVersion;
 import org.openlmis.referencedata.util.Message;
 import org.openlmis.referencedata.util.Pagination;
 import org.openlmis.referencedata.util.messagekeys.FacilityMessageKeys;
@@ -74,6 +76,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
@@ -84,6 +87,7 @@ import org.springframework.web.bind.WebDataBinder;
 import org.springframework.web.bind.annotation.InitBinder;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -129,12 +133,15 @@ public class UserController extends BaseController {
   @Autowired
   private UserValidator userValidator;
   
-  @Autowired
-  private RightAssignmentRepository rightAssignmentRepository;
-  
   @Autowired
   private RoleAssignmentRepository roleAssignmentRepository;
 
+  @Autowired
+  private PermissionCache permissionCache;
+
+  @Autowired
+  private PermissionIndex permissionIndex;
+
   /**
    * Constructor for controller unit testing.
    */
@@ -211,6 +218,8 @@ public class UserController extends BaseController {
 
     profiler.start("SAVE_USER");
     user = userRepository.save(user);
+    permissionCache.invalidate(Collections.singleton(user.getId()));
+    permissionIndex.refresh(Collections.singleton(user.getId()));
 
     profiler.start(PROFILER_TO_DTO);
     UserDto responseDto = exportUserToDto(user);
@@ -351,6 +360,8 @@ public class UserController extends BaseController {
     } else {
       profiler.start("DELETE_USER_FROM_DB");
       userRepository.delete(userId);
+      permissionCache.invalidate(Collections.singleton(userId));
+      permissionIndex.refresh(Collections.singleton(userId));
     }
     profiler.stop().log();
   }
@@ -439,8 +450,7 @@ public class UserController extends BaseController {
         }
 
         profiler.start("CHECK_HAS_RIGHT_BY_USER_RIGHT_FACILITY_PROGRAM");
-        hasRight = rightAssignmentRepository.existsByUserIdAndAndRightNameAndFacilityIdAndProgramId(
-            userId, right.getName(), facilityId, programId);
+        hasRight = permissionIndex.hasRight(userId, right.getName(), facilityId, programId);
 
       } else {
         throw new ValidationMessageException(UserMessageKeys.ERROR_PROGRAM_WITHOUT_FACILITY);
@@ -455,12 +465,11 @@ public class UserController extends BaseController {
       }
 
       profiler.start("CHECK_HAS_RIGHT_BY_USER_RIGHT_WAREHOUSE");
-      hasRight = rightAssignmentRepository.existsByUserIdAndAndRightNameAndFacilityId(
-          userId, right.getName(), warehouseId);
+      hasRight = permissionIndex.hasRight(userId, right.getName(), warehouseId);
 
     } else {
       profiler.start("CHECK_HAS_RIGHT_BY_USER_RIGHT");
-      hasRight = rightAssignmentRepository.existsByUserIdAndRightName(userId, right.getName());
+      hasRight = permissionIndex.hasRight(userId, right.getName());
     }
 
     profiler.stop().log();
@@ -640,26 +649,37 @@ public class UserController extends BaseController {
   /**
    * Get permissions (in string format) of the specified user.
    *
-   * @param userId UUID of the user to retrieve.
-   * @return a set of user permission strings.
+   * @param userId      UUID of the user to retrieve.
+   * @param ifNoneMatch ETag of permission strings the client already has, if any.
+   * @return a set of user permission strings, or 304 if they have not changed.
    */
   @RequestMapping(value = "/users/{id}/permissionStrings", method = RequestMethod.GET)
-  public ResponseEntity<Set<String>> getUserPermissionStrings(@PathVariable("id") UUID userId) {
+  public ResponseEntity<Set<String>> getUserPermissionStrings(@PathVariable("id") UUID userId,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
     XLOGGER.entry(userId);
     Profiler profiler = new Profiler("GET_USER_PERM_STRINGS");
     profiler.setLogger(LOGGER);
 
     checkAdminRight(RightName.USERS_MANAGE_RIGHT, true, userId, profiler);
+
+    profiler.start("CHECK_PERMISSION_STRINGS_VERSION");
+    String version = permissionIndex.getPermissionStringsVersion(userId);
+    if (matchesEtag(ifNoneMatch, version)) {
+      profiler.stop().log();
+      XLOGGER.exit(version);
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(version).build();
+    }
+
     checkUserExists(userId, profiler);
 
-    profiler.start("GET_PERM_STRINGS_FROM_RIGHT_ASSIGNMENTS");
-    Set<String> permissionStrings = rightAssignmentRepository.findByUser(userId);
+    profiler.start("GET_PERM_STRINGS_FROM_PERMISSION_INDEX");
+    Set<String> permissionStrings = permissionIndex.getPermissionStrings(userId);
 
     profiler.stop().log();
     XLOGGER.exit(permissionStrings);
     return ResponseEntity
         .ok()
-        .eTag(Integer.toString(permissionStrings.hashCode()))
+        .eTag(ContentVersion.ofStrings(permissionStrings))
         .body(permissionStrings);
   }
 
@@ -667,31 +687,40 @@ public class UserController extends BaseController {
    * Get all the facilities that the user has supervision rights (home facility and supervised 
    * facilities).
    *
-   * @param userId id of user to get supervised facilities
-   * @return a set of facilities
+   * @param userId      id of user to get supervised facilities
+   * @param ifNoneMatch ETag of facilities the client already has, if any.
+   * @return a set of facilities, or 304 if they have not changed.
    */
   @RequestMapping(value = "/users/{userId}/facilities", method = RequestMethod.GET)
   public ResponseEntity<Set<NamedResource>> getUserFacilities(
-      @PathVariable(USER_ID) UUID userId) {
+      @PathVariable(USER_ID) UUID userId,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
     XLOGGER.entry(userId);
     Profiler profiler = new Profiler("GET_USER_FACILITIES");
     profiler.setLogger(LOGGER);
 
     checkAdminRight(RightName.USERS_MANAGE_RIGHT, true, userId, profiler);
 
+    profiler.start("CHECK_SUPERVISION_FACILITIES_VERSION");
+    String version = permissionIndex.getSupervisionFacilitiesVersion(userId);
+    if (matchesEtag(ifNoneMatch, version)) {
+      profiler.stop().log();
+      XLOGGER.exit(version);
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(version).build();
+    }
+
     if (!userRepository.exists(userId)) {
       throw new NotFoundException(UserMessageKeys.ERROR_NOT_FOUND);
     }
 
     profiler.start("GET_SUPERVISION_FACILITIES_BY_USER");
-    Set<NamedResource> userFacilityDtos = facilityRepository
-        .findSupervisionFacilitiesByUser(userId);
+    Set<NamedResource> userFacilityDtos = permissionIndex.getSupervisionFacilities(userId);
 
     profiler.stop().log();
     XLOGGER.exit(userFacilityDtos);
     return ResponseEntity
         .ok()
-        .eTag(Integer.toString(userFacilityDtos.hashCode()))
+        .eTag(ContentVersion.ofNamedResources(userFacilityDtos))
         .body(userFacilityDtos);
   }
 
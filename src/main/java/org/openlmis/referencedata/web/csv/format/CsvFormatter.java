@@ -20,6 +20,7 @@ import static org.openlmis.referencedata.util.messagekeys.CsvExportMessageKeys.E
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.List;
+import java.util.stream.Stream;
 import lombok.NoArgsConstructor;
 import org.openlmis.referencedata.dto.BaseDto;
 import org.openlmis.referencedata.exception.ValidationMessageException;
@@ -51,6 +52,20 @@ public class CsvFormatter {
   public <T extends BaseDto> void process(OutputStream outputStream,
                                           ModelClass<T> modelClass,
                                           List<T> dtos) throws IOException {
+    process(outputStream, modelClass, dtos.stream());
+  }
+
+  /**
+   * Writes the given models to the output stream as they are taken from the stream, so that they
+   * do not have to be loaded into memory first.
+   *
+   * @param outputStream output stream of csv file
+   * @param modelClass   java model from which the csv rows will be mapped
+   * @param dtos         stream of models
+   */
+  public <T extends BaseDto> void process(OutputStream outputStream,
+                                          ModelClass<T> modelClass,
+                                          Stream<T> dtos) throws IOException {
 
     Profiler profiler = new Profiler("CSV_PROCESS");
     profiler.setLogger(LOGGER);
@@ -60,7 +75,7 @@ public class CsvFormatter {
 
     profiler.start("WRITE_CSV");
     try {
-      csvBeanWriter.writeWithCellProcessors(dtos);
+      csvBeanWriter.writeWithCellProcessors(dtos.iterator());
     } catch (SuperCsvException err) {
       Message message = getCsvRowErrorMessage(err);
       throw new ValidationMessageException(err, message);
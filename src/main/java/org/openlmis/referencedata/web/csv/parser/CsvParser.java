@@ -20,7 +20,18 @@ import static org.openlmis.referencedata.util.messagekeys.CsvUploadMessageKeys.E
 import com.google.common.collect.Lists;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
 import lombok.NoArgsConstructor;
 import org.openlmis.referencedata.domain.BaseEntity;
 import org.openlmis.referencedata.dto.BaseDto;
@@ -33,26 +44,74 @@ import org.openlmis.referencedata.web.csv.recordhandler.RecordWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.profiler.Profiler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.supercsv.exception.SuperCsvException;
 import org.supercsv.util.CsvContext;
 
 /**
  * This class has logic to invoke corresponding respective record handler to parse data from input
  * stream into the corresponding model. To speed up the process for huge files the stream is divided
- * into smaller chunks. The chunk size is set by {@code csvParser.chunkSize} property. Each chunk is
- * executed asynchronously in the thread pool with size set by {@code csvParser.poolSize}.
+ * into smaller chunks. The chunk size is set by {@code csvParser.chunkSize} property.
+ *
+ * <p>Chunks go through a pipeline: a reader thread reads them and hands them to the record
+ * processor, which runs in a read-only transaction on the thread pool with size set by
+ * {@code csvParser.poolSize}. The calling thread waits for processed chunks in the order in which
+ * they were read and passes them to the record writer, so that they are saved in its transaction.
+ * At most twice as many chunks as there are processor threads are read ahead of the writer, after
+ * which the reader waits. The first failure, in the order of the file, is rethrown and stops the
+ * upload.
  */
 @Component
 @NoArgsConstructor
-public class CsvParser {
+@SuppressWarnings("PMD.TooManyMethods")
+public class CsvParser implements PublicMetrics {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(CsvParser.class);
 
+  private static final String METRIC_PREFIX = "csvParser.";
+  private static final String INTERRUPTED = "CSV upload interrupted";
+
   @Value("${csvParser.chunkSize}")
   private int chunkSize;
 
+  @Value("${csvParser.poolSize}")
+  private int poolSize;
+
+  @Autowired
+  @Qualifier("csvReaderTaskExecutor")
+  private ThreadPoolTaskExecutor readerExecutor;
+
+  @Autowired
+  @Qualifier("csvProcessorTaskExecutor")
+  private ThreadPoolTaskExecutor processorExecutor;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  private TransactionTemplate readOnlyTransaction;
+
+  private final StageStatistics readStage = new StageStatistics("read");
+  private final StageStatistics processStage = new StageStatistics("process");
+  private final StageStatistics writeStage = new StageStatistics("write");
+  private final AtomicLong writerWaitNanos = new AtomicLong();
+
+  /**
+   * Prepares the read-only transaction in which record processors run.
+   */
+  @PostConstruct
+  public void init() {
+    readOnlyTransaction = new TransactionTemplate(transactionManager);
+    readOnlyTransaction.setReadOnly(true);
+  }
+
   /**
    * Parses data from input stream into the corresponding model.
    *
@@ -76,21 +135,59 @@ public class CsvParser {
     csvBeanReader.validateHeaders();
 
     profiler.start("PROCESS_CSV");
-    while (true) {
-      List<D> imported = doRead(csvBeanReader);
+    BlockingQueue<Future<List<E>>> processed = new ArrayBlockingQueue<>(2 * poolSize);
+    Future<Integer> reading = readerExecutor.submit(
+        () -> doRead(csvBeanReader, processor, processed));
 
-      if (imported.isEmpty()) {
-        break;
-      }
+    try {
+      doWrite(writer, processed);
+      return await(reading);
+    } finally {
+      reading.cancel(true);
+      cancelAll(processed);
+      profiler.stop().log();
+    }
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    List<Metric<?>> metrics = new ArrayList<>();
+    metrics.addAll(readStage.metrics(METRIC_PREFIX));
+    metrics.addAll(processStage.metrics(METRIC_PREFIX));
+    metrics.addAll(writeStage.metrics(METRIC_PREFIX));
+    metrics.add(new Metric<>(METRIC_PREFIX + "write.waitMillis",
+        TimeUnit.NANOSECONDS.toMillis(writerWaitNanos.get())));
+    return metrics;
+  }
+
+  private <D extends BaseDto, E extends BaseEntity> int doRead(CsvBeanReader<D> csvBeanReader,
+      RecordProcessor<D, E> processor, BlockingQueue<Future<List<E>>> processed)
+      throws IOException, InterruptedException {
+    try {
+      while (true) {
+        long start = System.nanoTime();
+        List<D> imported = readChunk(csvBeanReader);
+        readStage.record(imported.size(), System.nanoTime() - start);
+
+        if (imported.isEmpty()) {
+          break;
+        }
 
-      doWrite(processor, writer, imported);
+        processed.put(processorExecutor.submit(() -> doProcess(processor, imported)));
+      }
+    } catch (IOException | RuntimeException ex) {
+      CompletableFuture<List<E>> failure = new CompletableFuture<>();
+      failure.completeExceptionally(ex);
+      processed.put(failure);
+      throw ex;
     }
 
-    profiler.stop().log();
+    processed.put(CompletableFuture.completedFuture(null));
     return csvBeanReader.getRowNumber() - 1;
   }
 
-  private <D extends BaseDto> List<D> doRead(CsvBeanReader<D> csvBeanReader) throws IOException {
+  private <D extends BaseDto> List<D> readChunk(CsvBeanReader<D> csvBeanReader)
+      throws IOException {
     try {
       List<D> list = Lists.newArrayList();
 
@@ -111,19 +208,68 @@ public class CsvParser {
     }
   }
 
-  private <D extends BaseDto, E extends BaseEntity> void doWrite(RecordProcessor<D, E> processor,
-                                                                 RecordWriter<E> writer,
-                                                                 List<D> imported) {
-    Profiler profiler = new Profiler("WRITE_CSV_CHUNK");
-    profiler.setLogger(LOGGER);
+  private <D extends BaseDto, E extends BaseEntity> List<E> doProcess(
+      RecordProcessor<D, E> processor, List<D> imported) {
+    long start = System.nanoTime();
+    List<E> entities = readOnlyTransaction.execute(status -> processor.process(imported));
+    processStage.record(imported.size(), System.nanoTime() - start);
+
+    return entities;
+  }
+
+  private <E extends BaseEntity> void doWrite(RecordWriter<E> writer,
+      BlockingQueue<Future<List<E>>> processed) throws IOException {
+    while (true) {
+      long waitStart = System.nanoTime();
+      List<E> entities = await(take(processed));
+      writerWaitNanos.addAndGet(System.nanoTime() - waitStart);
+
+      if (null == entities) {
+        break;
+      }
+
+      long start = System.nanoTime();
+      writer.write(entities);
+      writeStage.record(entities.size(), System.nanoTime() - start);
+    }
+  }
+
+  private <T> T take(BlockingQueue<T> queue) throws InterruptedIOException {
+    try {
+      return queue.take();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw (InterruptedIOException) new InterruptedIOException(INTERRUPTED).initCause(ex);
+    }
+  }
+
+  private <T> T await(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw (InterruptedIOException) new InterruptedIOException(INTERRUPTED).initCause(ex);
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
 
-    profiler.start("PROCESS");
-    List<E> entities = processor.process(imported);
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
 
-    profiler.start("WRITE_TO_DB");
-    writer.write(entities);
+      throw new IllegalStateException(ex);
+    }
+  }
 
-    profiler.stop().log();
+  private void cancelAll(BlockingQueue<? extends Future<?>> processed) {
+    List<Future<?>> pending = new ArrayList<>();
+    processed.drainTo(pending);
+    pending.forEach(future -> future.cancel(true));
   }
 
   private Message getCsvRowErrorMessage(SuperCsvException err) {
@@ -0,0 +1,58 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.web.csv.parser;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class CsvParserExecutor {
+
+  @Value("${csvParser.poolSize}")
+  private int poolSize;
+
+  /**
+   * Executor reading chunks of uploaded files, one thread per upload. Uploads above the pool size
+   * wait for a free reader.
+   */
+  @Bean
+  @Qualifier("csvReaderTaskExecutor")
+  public ThreadPoolTaskExecutor csvReaderTaskExecutor() {
+    return newExecutor("csv-reader-");
+  }
+
+  /**
+   * Executor running record processors on chunks read from uploaded files. It is shared by all
+   * uploads, so the pool size limits the number of chunks processed at once.
+   */
+  @Bean
+  @Qualifier("csvProcessorTaskExecutor")
+  public ThreadPoolTaskExecutor csvProcessorTaskExecutor() {
+    return newExecutor("csv-processor-");
+  }
+
+  private ThreadPoolTaskExecutor newExecutor(String threadNamePrefix) {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(poolSize);
+    executor.setMaxPoolSize(poolSize);
+    executor.setThreadNamePrefix(threadNamePrefix);
+
+    return executor;
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.web.csv.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import lombok.Getter;
+import org.springframework.boot.actuate.metrics.Metric;
+
+/**
+ * Counts chunks and rows passed through one stage of the {@link CsvParser} pipeline and the time
+ * spent on them, from which throughput and per chunk latency are published.
+ */
+class StageStatistics {
+
+  @Getter
+  private final String name;
+
+  private final AtomicLong chunks = new AtomicLong();
+  private final AtomicLong rows = new AtomicLong();
+  private final AtomicLong nanos = new AtomicLong();
+  private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+  StageStatistics(String name) {
+    this.name = name;
+  }
+
+  void record(int chunkRows, long chunkNanos) {
+    chunks.incrementAndGet();
+    rows.addAndGet(chunkRows);
+    nanos.addAndGet(chunkNanos);
+    maxNanos.accumulate(chunkNanos);
+  }
+
+  long getChunks() {
+    return chunks.get();
+  }
+
+  long getRows() {
+    return rows.get();
+  }
+
+  List<Metric<?>> metrics(String prefix) {
+    long chunkCount = chunks.get();
+    long rowCount = rows.get();
+    long totalNanos = nanos.get();
+
+    String stagePrefix = prefix + name + '.';
+    List<Metric<?>> metrics = new ArrayList<>();
+    metrics.add(new Metric<>(stagePrefix + "chunks", chunkCount));
+    metrics.add(new Metric<>(stagePrefix + "rows", rowCount));
+    metrics.add(new Metric<>(stagePrefix + "meanMillis",
+        chunkCount == 0 ? 0.0 : toMillis(totalNanos) / chunkCount));
+    metrics.add(new Metric<>(stagePrefix + "maxMillis", toMillis(maxNanos.get())));
+    metrics.add(new Metric<>(stagePrefix + "rowsPerSecond",
+        totalNanos == 0 ? 0.0 : rowCount * (double) TimeUnit.SECONDS.toNanos(1) / totalNanos));
+    return metrics;
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.web.csv.recordhandler;
+
+import lombok.EqualsAndHashCode;
+import org.openlmis.referencedata.domain.Code;
+import org.openlmis.referencedata.domain.IdealStockAmount;
+
+/**
+ * Identifies an ideal stock amount by the codes and names used in uploaded files.
+ */
+@EqualsAndHashCode
+@SuppressWarnings("PMD.UnusedPrivateField")
+final class IdealStockAmountKey {
+  private final String facilityCode;
+  private final String classificationId;
+  private final String classificationSystem;
+  private final String periodName;
+  private final Code scheduleCode;
+
+  IdealStockAmountKey(IdealStockAmount isa) {
+    facilityCode = isa.getFacility().getCode();
+    classificationId = isa.getCommodityType().getClassificationId();
+    classificationSystem = isa.getCommodityType().getClassificationSystem();
+    periodName = isa.getProcessingPeriod().getName();
+    scheduleCode = isa.getProcessingPeriod().getProcessingSchedule().getCode();
+  }
+}
@@ -15,6 +15,8 @@
 
 package org.openlmis.referencedata.web.csv.recordhandler;
 
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
 import static org.openlmis.referencedata.util.messagekeys.IdealStockAmountMessageKeys.ERROR_COMMODITY_TYPE_NOT_FOUND;
 import static org.openlmis.referencedata.util.messagekeys.IdealStockAmountMessageKeys.ERROR_FACILITY_NOT_FOUND;
 import static org.openlmis.referencedata.util.messagekeys.IdealStockAmountMessageKeys.ERROR_PROCESSING_PERIOD_NOT_FOUND;
@@ -23,7 +25,11 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
 import org.openlmis.referencedata.domain.Code;
 import org.openlmis.referencedata.domain.CommodityType;
 import org.openlmis.referencedata.domain.Facility;
@@ -47,7 +53,10 @@ import org.springframework.stereotype.Component;
 
 /**
  * IdealStockAmountProcessor is used for uploads of Ideal Stock Amount.
- * It uploads each ideal stock amount by record.
+ * It uploads each ideal stock amount by record. Facilities, processing schedules, processing
+ * periods and commodity types of new amounts are resolved with one query per type for the whole
+ * chunk, and kept in a dictionary shared by all chunks of an upload processed by
+ * {@link #forUpload()}.
  */
 @Component
 public class IdealStockAmountProcessor
@@ -72,23 +81,42 @@ public class IdealStockAmountProcessor
 
   @Override
   public List<IdealStockAmount> process(List<IdealStockAmountCsvModel> records) {
+    return processChunk(records, new Dictionary());
+  }
+
+  /**
+   * Returns a processor for chunks of a single upload. References resolved for a chunk are
+   * reused by the following ones, which may be processed concurrently.
+   */
+  public RecordProcessor<IdealStockAmountCsvModel, IdealStockAmount> forUpload() {
+    Dictionary dictionary = new Dictionary();
+    return records -> processChunk(records, dictionary);
+  }
+
+  private List<IdealStockAmount> processChunk(List<IdealStockAmountCsvModel> records,
+      Dictionary dictionary) {
     Profiler profiler = new Profiler("PROCESS_DTO_CHUNK");
     profiler.setLogger(LOGGER);
 
     profiler.start("SEARCH_EXISTING_ISA");
     List<IdealStockAmount> idealStockAmounts = convert(records);
-    Map<Integer, IdealStockAmount> isaMap = new HashMap<>();
+    Map<IdealStockAmountKey, IdealStockAmount> isaMap = new HashMap<>();
     for (IdealStockAmount isa : idealStockAmountService.search(idealStockAmounts)) {
-      isaMap.put(hash(isa), isa);
+      isaMap.put(new IdealStockAmountKey(isa), isa);
     }
 
+    profiler.start("RESOLVE_REFERENCES");
+    resolveReferences(idealStockAmounts.stream()
+        .filter(isa -> !isaMap.containsKey(new IdealStockAmountKey(isa)))
+        .collect(toList()), dictionary);
+
     List<IdealStockAmount> resultList = new ArrayList<>();
 
     profiler.start("PROCESS_RECORDS");
     for (IdealStockAmount isa : idealStockAmounts) {
-      IdealStockAmount result = isaMap.getOrDefault(hash(isa), null);
+      IdealStockAmount result = isaMap.get(new IdealStockAmountKey(isa));
       if (null == result) {
-        resultList.add(prepareNewIdealStockAmountObject(isa));
+        resultList.add(prepareNewIdealStockAmountObject(isa, dictionary));
       } else {
         result.setAmount(isa.getAmount());
         resultList.add(result);
@@ -100,28 +128,71 @@ public class IdealStockAmountProcessor
     return resultList;
   }
 
-  private IdealStockAmount prepareNewIdealStockAmountObject(IdealStockAmount isa) {
-    Facility facility = facilityRepository.findByCode(isa.getFacility().getCode())
+  private void resolveReferences(List<IdealStockAmount> idealStockAmounts,
+      Dictionary dictionary) {
+    Set<String> facilityCodes = idealStockAmounts.stream()
+        .map(isa -> isa.getFacility().getCode())
+        .filter(code -> !dictionary.facilities.containsKey(code))
+        .collect(toSet());
+    if (!facilityCodes.isEmpty()) {
+      facilityRepository.findByCodeIn(facilityCodes)
+          .forEach(facility -> dictionary.facilities.put(facility.getCode(), facility));
+    }
+
+    Set<String> scheduleCodes = idealStockAmounts.stream()
+        .map(isa -> getScheduleCode(isa.getProcessingPeriod()))
+        .filter(code -> !dictionary.schedules.containsKey(code))
+        .collect(toSet());
+    if (!scheduleCodes.isEmpty()) {
+      processingScheduleRepository.findByCodeIn(scheduleCodes)
+          .forEach(schedule -> dictionary.schedules.put(schedule.getCode().toString(), schedule));
+    }
+
+    Set<Pair<String, String>> periodKeys = idealStockAmounts.stream()
+        .map(isa -> getPeriodKey(isa.getProcessingPeriod()))
+        .filter(key -> !dictionary.periods.containsKey(key))
+        .filter(key -> dictionary.schedules.containsKey(key.getLeft()))
+        .collect(toSet());
+    if (!periodKeys.isEmpty()) {
+      processingPeriodRepository.findByProcessingScheduleInAndNameIn(
+          periodKeys.stream().map(key -> dictionary.schedules.get(key.getLeft())).collect(toSet()),
+          periodKeys.stream().map(Pair::getRight).collect(toSet()))
+          .forEach(period -> dictionary.periods.put(getPeriodKey(period), period));
+    }
+
+    Set<Pair<String, String>> commodityTypeKeys = idealStockAmounts.stream()
+        .map(isa -> getCommodityTypeKey(isa.getCommodityType()))
+        .filter(key -> !dictionary.commodityTypes.containsKey(key))
+        .collect(toSet());
+    if (!commodityTypeKeys.isEmpty()) {
+      commodityTypeRepository.findByClassificationSystemInAndClassificationIdIn(
+          commodityTypeKeys.stream().map(Pair::getLeft).collect(toSet()),
+          commodityTypeKeys.stream().map(Pair::getRight).collect(toSet()))
+          .forEach(commodityType -> dictionary.commodityTypes
+              .put(getCommodityTypeKey(commodityType), commodityType));
+    }
+  }
+
+  private IdealStockAmount prepareNewIdealStockAmountObject(IdealStockAmount isa,
+      Dictionary dictionary) {
+    Facility facility = Optional.ofNullable(dictionary.facilities.get(isa.getFacility().getCode()))
         .orElseThrow(() -> new ValidationMessageException(new Message(ERROR_FACILITY_NOT_FOUND,
             isa.getFacility().getCode())));
 
-    ProcessingSchedule schedule = processingScheduleRepository
-        .findOneByCode(isa.getProcessingPeriod().getProcessingSchedule().getCode())
+    Optional.ofNullable(dictionary.schedules.get(getScheduleCode(isa.getProcessingPeriod())))
         .orElseThrow(() -> new ValidationMessageException(new Message(
             ProcessingScheduleMessageKeys.ERROR_NOT_FOUND_WITH_CODE,
             isa.getProcessingPeriod().getProcessingSchedule().getCode()
         )));
-    ProcessingPeriod period = processingPeriodRepository.findOneByNameAndProcessingSchedule(
-        isa.getProcessingPeriod().getName(),
-        schedule)
+    ProcessingPeriod period = Optional
+        .ofNullable(dictionary.periods.get(getPeriodKey(isa.getProcessingPeriod())))
         .orElseThrow(() -> new ValidationMessageException(
             new Message(ERROR_PROCESSING_PERIOD_NOT_FOUND,
             isa.getProcessingPeriod().getName(),
             isa.getProcessingPeriod().getProcessingSchedule().getCode())));
 
-    CommodityType commodityType = commodityTypeRepository
-        .findByClassificationIdAndClassificationSystem(isa.getCommodityType().getClassificationId(),
-            isa.getCommodityType().getClassificationSystem())
+    CommodityType commodityType = Optional
+        .ofNullable(dictionary.commodityTypes.get(getCommodityTypeKey(isa.getCommodityType())))
         .orElseThrow(() -> new ValidationMessageException(new Message(
             ERROR_COMMODITY_TYPE_NOT_FOUND,
             isa.getCommodityType().getClassificationId(),
@@ -152,11 +223,28 @@ public class IdealStockAmountProcessor
     return result;
   }
 
-  private int hash(IdealStockAmount isa) {
-    return Objects.hash(isa.getFacility().getCode(),
-        isa.getCommodityType().getClassificationId(),
-        isa.getCommodityType().getClassificationSystem(),
-        isa.getProcessingPeriod().getName(),
-        isa.getProcessingPeriod().getProcessingSchedule().getCode());
+  private static String getScheduleCode(ProcessingPeriod period) {
+    return period.getProcessingSchedule().getCode().toString();
+  }
+
+  private static Pair<String, String> getPeriodKey(ProcessingPeriod period) {
+    return new ImmutablePair<>(getScheduleCode(period), period.getName());
+  }
+
+  private static Pair<String, String> getCommodityTypeKey(CommodityType commodityType) {
+    return new ImmutablePair<>(commodityType.getClassificationSystem(),
+        commodityType.getClassificationId());
+  }
+
+  /**
+   * References resolved by codes and names from the file. Missing ones are not kept, as they fail
+   * the upload.
+   */
+  private static final class Dictionary {
+    private final Map<String, Facility> facilities = new ConcurrentHashMap<>();
+    private final Map<String, ProcessingSchedule> schedules = new ConcurrentHashMap<>();
+    private final Map<Pair<String, String>, ProcessingPeriod> periods = new ConcurrentHashMap<>();
+    private final Map<Pair<String, String>, CommodityType> commodityTypes =
+        new ConcurrentHashMap<>();
   }
 }
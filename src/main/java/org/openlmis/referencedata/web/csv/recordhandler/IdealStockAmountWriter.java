@@ -15,6 +15,11 @@
 
 package org.openlmis.referencedata.web.csv.recordhandler;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import org.openlmis.referencedata.domain.IdealStockAmount;
 import org.openlmis.referencedata.repository.IdealStockAmountRepository;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,6 +27,8 @@ import org.springframework.stereotype.Component;
 
 /**
  * This class is responsible for saving {@link IdealStockAmount} instances to the database.
+ * Chunks of a single upload are written by {@link #forUpload()}, so that an amount repeated in
+ * the file updates the one saved for an earlier row instead of being inserted again.
  */
 @Component
 public class IdealStockAmountWriter implements RecordWriter<IdealStockAmount> {
@@ -33,4 +40,43 @@ public class IdealStockAmountWriter implements RecordWriter<IdealStockAmount> {
   public void write(Iterable<IdealStockAmount> records) {
     repository.save(records);
   }
+
+  /**
+   * Returns a writer for chunks of a single upload, in the order of the file. Amounts saved for
+   * a chunk are kept, and the following rows with the same facility, commodity type and period
+   * update them.
+   */
+  public RecordWriter<IdealStockAmount> forUpload() {
+    Map<IdealStockAmountKey, IdealStockAmount> saved = new HashMap<>();
+    return records -> writeChunk(records, saved);
+  }
+
+  private void writeChunk(Iterable<IdealStockAmount> records,
+      Map<IdealStockAmountKey, IdealStockAmount> saved) {
+    Map<IdealStockAmountKey, IdealStockAmount> chunk = new HashMap<>();
+    List<IdealStockAmountKey> keys = new ArrayList<>();
+    List<IdealStockAmount> toSave = new ArrayList<>();
+
+    for (IdealStockAmount isa : records) {
+      IdealStockAmountKey key = new IdealStockAmountKey(isa);
+      IdealStockAmount earlier = saved.containsKey(key) ? saved.get(key) : chunk.get(key);
+
+      if (null == earlier) {
+        chunk.put(key, isa);
+        keys.add(key);
+        toSave.add(isa);
+      } else {
+        earlier.setAmount(isa.getAmount());
+      }
+    }
+
+    if (toSave.isEmpty()) {
+      return;
+    }
+
+    Iterator<IdealStockAmountKey> key = keys.iterator();
+    for (IdealStockAmount isa : repository.save(toSave)) {
+      saved.put(key.next(), isa);
+    }
+  }
 }
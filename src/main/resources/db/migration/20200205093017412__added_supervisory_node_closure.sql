@@ -0,0 +1,82 @@
+-- WHEN COMMITTING OR REVIEWING THIS FILE: Make sure that the timestamp in the file name (that serves as a version) is the latest timestamp, and that no new migration have been added in the meanwhile.
+-- Adding migrations out of order may cause this migration to never execute or behave in an unexpected way.
+-- Migrations should NOT BE EDITED. Add a new migration to apply changes.
+
+-- Closure of the supervisory node hierarchy: one row for every node and each of its ancestors,
+-- including the node itself with depth 0. It is maintained by triggers on supervisory_nodes.
+CREATE TABLE supervisory_node_closure (
+    ancestorid uuid NOT NULL,
+    descendantid uuid NOT NULL,
+    depth integer NOT NULL,
+    CONSTRAINT supervisory_node_closure_pkey PRIMARY KEY (ancestorid, descendantid),
+    CONSTRAINT supervisory_node_closure_ancestorid_fk FOREIGN KEY (ancestorid)
+        REFERENCES supervisory_nodes(id) ON DELETE CASCADE,
+    CONSTRAINT supervisory_node_closure_descendantid_fk FOREIGN KEY (descendantid)
+        REFERENCES supervisory_nodes(id) ON DELETE CASCADE
+);
+
+CREATE INDEX supervisory_node_closure_descendantid_idx
+    ON supervisory_node_closure (descendantid);
+
+WITH RECURSIVE closure AS
+(
+  SELECT sn.id AS ancestorid, sn.id AS descendantid, 0 AS depth
+  FROM supervisory_nodes sn
+  UNION
+  SELECT closure.ancestorid, sn.id, closure.depth + 1
+  FROM closure
+    JOIN supervisory_nodes sn ON sn.parentid = closure.descendantid
+)
+INSERT INTO supervisory_node_closure (ancestorid, descendantid, depth)
+SELECT ancestorid, descendantid, depth
+FROM closure;
+
+-- A new node is its own descendant and a descendant of every ancestor of its parent.
+CREATE OR REPLACE FUNCTION insert_supervisory_node_closure() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+  INSERT INTO referencedata.supervisory_node_closure (ancestorid, descendantid, depth)
+  SELECT NEW.id, NEW.id, 0
+  UNION ALL
+  SELECT c.ancestorid, NEW.id, c.depth + 1
+  FROM referencedata.supervisory_node_closure c
+  WHERE c.descendantid = NEW.parentid;
+
+  RETURN NULL;
+END;
+$$;
+
+-- A node which changes its parent moves with its whole subtree: paths from the old ancestors to
+-- the subtree are removed, and paths from the new ancestors are added. Moving a node under one of
+-- its own descendants would create a cycle, and fails on the primary key.
+CREATE OR REPLACE FUNCTION update_supervisory_node_closure() RETURNS trigger LANGUAGE plpgsql AS $$
+BEGIN
+  DELETE FROM referencedata.supervisory_node_closure c
+  USING referencedata.supervisory_node_closure subtree
+    , referencedata.supervisory_node_closure ancestors
+  WHERE subtree.ancestorid = NEW.id
+    AND ancestors.descendantid = NEW.id
+    AND ancestors.ancestorid <> NEW.id
+    AND c.ancestorid = ancestors.ancestorid
+    AND c.descendantid = subtree.descendantid;
+
+  INSERT INTO referencedata.supervisory_node_closure (ancestorid, descendantid, depth)
+  SELECT ancestors.ancestorid, subtree.descendantid, ancestors.depth + subtree.depth + 1
+  FROM referencedata.supervisory_node_closure ancestors
+    , referencedata.supervisory_node_closure subtree
+  WHERE ancestors.descendantid = NEW.parentid
+    AND subtree.ancestorid = NEW.id;
+
+  RETURN NULL;
+END;
+$$;
+
+CREATE TRIGGER supervisory_node_closure_insert
+    AFTER INSERT ON supervisory_nodes
+    FOR EACH ROW
+    EXECUTE PROCEDURE insert_supervisory_node_closure();
+
+CREATE TRIGGER supervisory_node_closure_update
+    AFTER UPDATE OF parentid ON supervisory_nodes
+    FOR EACH ROW
+    WHEN (OLD.parentid IS DISTINCT FROM NEW.parentid)
+    EXECUTE PROCEDURE update_supervisory_node_closure();
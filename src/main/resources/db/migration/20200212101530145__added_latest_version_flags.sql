@@ -0,0 +1,66 @@
+-- WHEN COMMITTING OR REVIEWING THIS FILE: Make sure that the timestamp in the file name (that serves as a version) is the latest timestamp, and that no new migration have been added in the meanwhile.
+-- Adding migrations out of order may cause this migration to never execute or behave in an unexpected way.
+-- Migrations should NOT BE EDITED. Add a new migration to apply changes.
+
+-- Versioned tables flag the row with the highest version number of each id, so that queries for
+-- the latest versions use a partial index instead of grouping all versions by id. The flags are
+-- maintained by triggers on the versioned tables.
+ALTER TABLE orderables ADD COLUMN islatest boolean NOT NULL DEFAULT false;
+ALTER TABLE facility_type_approved_products ADD COLUMN islatest boolean NOT NULL DEFAULT false;
+
+UPDATE orderables
+SET islatest = true
+WHERE (id, versionnumber) IN (
+  SELECT id, MAX(versionnumber)
+  FROM orderables
+  GROUP BY id);
+
+UPDATE facility_type_approved_products
+SET islatest = true
+WHERE (id, versionnumber) IN (
+  SELECT id, MAX(versionnumber)
+  FROM facility_type_approved_products
+  GROUP BY id);
+
+CREATE UNIQUE INDEX orderables_latest_idx
+    ON orderables (id) WHERE islatest;
+CREATE UNIQUE INDEX facility_type_approved_products_latest_idx
+    ON facility_type_approved_products (id) WHERE islatest;
+
+-- After a version is added or removed, the flag moves to the highest remaining version of the id.
+-- The previous latest version is cleared first, so that the unique index never sees two of them.
+CREATE OR REPLACE FUNCTION update_latest_version() RETURNS trigger LANGUAGE plpgsql AS $$
+DECLARE
+  versioned_id uuid;
+BEGIN
+  IF TG_OP = 'DELETE' THEN
+    versioned_id := OLD.id;
+  ELSE
+    versioned_id := NEW.id;
+  END IF;
+
+  EXECUTE format(
+    'UPDATE %1$I.%2$I SET islatest = false'
+    ' WHERE id = $1 AND islatest'
+    '   AND versionnumber < (SELECT MAX(versionnumber) FROM %1$I.%2$I WHERE id = $1)',
+    TG_TABLE_SCHEMA, TG_TABLE_NAME) USING versioned_id;
+
+  EXECUTE format(
+    'UPDATE %1$I.%2$I SET islatest = true'
+    ' WHERE id = $1 AND NOT islatest'
+    '   AND versionnumber = (SELECT MAX(versionnumber) FROM %1$I.%2$I WHERE id = $1)',
+    TG_TABLE_SCHEMA, TG_TABLE_NAME) USING versioned_id;
+
+  RETURN NULL;
+END;
+$$;
+
+CREATE TRIGGER orderables_latest_version
+    AFTER INSERT OR DELETE ON orderables
+    FOR EACH ROW
+    EXECUTE PROCEDURE update_latest_version();
+
+CREATE TRIGGER facility_type_approved_products_latest_version
+    AFTER INSERT OR DELETE ON facility_type_approved_products
+    FOR EACH ROW
+    EXECUTE PROCEDURE update_latest_version();
@@ -0,0 +1,33 @@
+-- WHEN COMMITTING OR REVIEWING THIS FILE: Make sure that the timestamp in the file name (that serves as a version) is the latest timestamp, and that no new migration have been added in the meanwhile.
+-- Adding migrations out of order may cause this migration to never execute or behave in an unexpected way.
+-- Migrations should NOT BE EDITED. Add a new migration to apply changes.
+
+-- Searches match fragments of codes and names with LIKE '%fragment%' on lowered or uppered
+-- columns, which a b-tree index cannot serve. Trigram GIN indexes on exactly the same
+-- expressions let the planner answer those searches with a bitmap index scan.
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+CREATE INDEX orderables_lower_code_trgm_idx
+    ON orderables USING gin (lower(code) gin_trgm_ops);
+CREATE INDEX orderables_lower_fullproductname_trgm_idx
+    ON orderables USING gin (lower(fullproductname) gin_trgm_ops);
+
+CREATE INDEX facilities_upper_code_trgm_idx
+    ON facilities USING gin (upper(code) gin_trgm_ops);
+CREATE INDEX facilities_upper_name_trgm_idx
+    ON facilities USING gin (upper(name) gin_trgm_ops);
+
+CREATE INDEX users_upper_username_trgm_idx
+    ON users USING gin (upper(username) gin_trgm_ops);
+CREATE INDEX users_upper_firstname_trgm_idx
+    ON users USING gin (upper(firstname) gin_trgm_ops);
+CREATE INDEX users_upper_lastname_trgm_idx
+    ON users USING gin (upper(lastname) gin_trgm_ops);
+
+CREATE INDEX supervisory_nodes_upper_code_trgm_idx
+    ON supervisory_nodes USING gin (upper(code) gin_trgm_ops);
+CREATE INDEX supervisory_nodes_upper_name_trgm_idx
+    ON supervisory_nodes USING gin (upper(name) gin_trgm_ops);
+
+CREATE INDEX lots_upper_lotcode_trgm_idx
+    ON lots USING gin (upper(lotcode) gin_trgm_ops);
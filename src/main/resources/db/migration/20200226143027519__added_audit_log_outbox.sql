@@ -0,0 +1,18 @@
+-- WHEN COMMITTING OR REVIEWING THIS FILE: Make sure that the timestamp in the file name (that serves as a version) is the latest timestamp, and that no new migration have been added in the meanwhile.
+-- Adding migrations out of order may cause this migration to never execute or behave in an unexpected way.
+-- Migrations should NOT BE EDITED. Add a new migration to apply changes.
+
+-- Changes of audited entities waiting to be committed to JaVers in the background.
+CREATE TABLE audit_log_outbox (
+    id BIGSERIAL PRIMARY KEY,
+    entitytype TEXT NOT NULL,
+    entityid TEXT NOT NULL,
+    operation VARCHAR(6) NOT NULL,
+    author TEXT,
+    createddate TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT NOW(),
+    failed BOOLEAN NOT NULL DEFAULT FALSE
+);
+
+-- The processor only reads entries which have not failed, in the order they were added.
+CREATE INDEX audit_log_outbox_pending_idx
+    ON audit_log_outbox (id) WHERE failed IS FALSE;
@@ -0,0 +1,18 @@
+-- WHEN COMMITTING OR REVIEWING THIS FILE: Make sure that the timestamp in the file name (that serves as a version) is the latest timestamp, and that no new migration have been added in the meanwhile.
+-- Adding migrations out of order may cause this migration to never execute or behave in an unexpected way.
+-- Migrations should NOT BE EDITED. Add a new migration to apply changes.
+
+-- Audit log pages are selected by type and instance, and sorted by commit date.
+-- JaVers creates its tables when the service starts, after the migrations, so on a new
+-- database they do not exist yet; the service creates the same indexes once they do.
+DO $$
+BEGIN
+    IF to_regclass('jv_global_id') IS NOT NULL THEN
+        CREATE INDEX IF NOT EXISTS jv_global_id_type_name_local_id_idx
+            ON jv_global_id (type_name, local_id);
+    END IF;
+    IF to_regclass('jv_commit') IS NOT NULL THEN
+        CREATE INDEX IF NOT EXISTS jv_commit_commit_date_idx
+            ON jv_commit (commit_date DESC, commit_pk);
+    END IF;
+END $$;
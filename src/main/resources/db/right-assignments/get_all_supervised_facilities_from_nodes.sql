@@ -0,0 +1,26 @@
+-- This SQL is the set-based version of get_all_supervised_facilities_from_node.sql. Instead of
+-- expanding one supervisory node for one program, it expands all given (supervisory node,
+-- program) pairs in one pass.
+--
+-- The pairs are given as two parallel arrays, which are zipped back into rows with unnest, so
+-- only the requested pairs are expanded (not every combination of the given nodes and programs).
+-- Descendants of each node, including the node itself, are read from the
+-- supervisory_node_closure table. Each descendant is then expanded into the facilities of its
+-- requisition group which support the program of the pair, and the result is grouped by the
+-- given node and program.
+--
+-- Input: array of supervisory node IDs and array of program IDs, the n-th elements forming a pair
+-- Output: a list of (supervisory node ID, program ID, supervised facility ID)
+SELECT DISTINCT np.supervisorynodeid
+  , np.programid
+  , rgm.facilityid
+FROM unnest(CAST(? AS uuid[]), CAST(? AS uuid[])) AS np (supervisorynodeid, programid)
+  JOIN referencedata.supervisory_node_closure snc ON snc.ancestorid = np.supervisorynodeid
+  JOIN referencedata.requisition_groups rg ON rg.supervisorynodeid = snc.descendantid
+  JOIN referencedata.requisition_group_members rgm ON rgm.requisitiongroupid = rg.id
+  JOIN referencedata.requisition_group_program_schedules rgps ON rgps.requisitiongroupid = rg.id
+    AND rgps.programid = np.programid
+  JOIN referencedata.supported_programs sp ON sp.facilityid = rgm.facilityid
+    AND sp.programid = np.programid
+    AND sp.active = TRUE
+;
@@ -0,0 +1,17 @@
+-- Returns the facilities supervised directly by each supervisory node, per program: members of
+-- the node's requisition group which support a program of the group. Together with the
+-- supervisory node hierarchy, this is loaded once per regeneration to expand supervisory nodes
+-- in memory, without running a recursive query per node.
+--
+-- Input: none
+-- Output: a list of (supervisory node ID, program ID, supervised facility ID)
+SELECT DISTINCT rg.supervisorynodeid
+  , rgps.programid
+  , rgm.facilityid
+FROM referencedata.requisition_groups rg
+  JOIN referencedata.requisition_group_members rgm ON rgm.requisitiongroupid = rg.id
+  JOIN referencedata.requisition_group_program_schedules rgps ON rgps.requisitiongroupid = rg.id
+  JOIN referencedata.supported_programs sp ON sp.facilityid = rgm.facilityid
+    AND sp.programid = rgps.programid
+    AND sp.active = TRUE
+;
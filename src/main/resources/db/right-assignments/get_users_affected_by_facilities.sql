@@ -0,0 +1,30 @@
+-- Returns all users whose right assignments may refer to any of the given facilities: users with
+-- the facility as their home facility, users with a fulfillment role assignment for the facility
+-- and users with a supervision role assignment for any supervisory node that supervises the
+-- facility, directly or indirectly.
+--
+-- The supervisory nodes of all requisition groups the facilities are members of are expanded into
+-- all their ancestors, including the nodes themselves, with the supervisory_node_closure table.
+--
+-- Input: array of facility IDs
+-- Output: a list of affected user IDs
+WITH supervising_nodes AS
+(
+  SELECT DISTINCT snc.ancestorid AS id
+  FROM referencedata.requisition_group_members rgm
+    JOIN referencedata.requisition_groups rg ON rg.id = rgm.requisitiongroupid
+    JOIN referencedata.supervisory_node_closure snc ON snc.descendantid = rg.supervisorynodeid
+  WHERE rgm.facilityid = ANY(CAST(? AS uuid[]))
+)
+SELECT u.id AS userid
+FROM referencedata.users u
+WHERE u.homefacilityid = ANY(CAST(? AS uuid[]))
+UNION
+SELECT ra.userid
+FROM referencedata.role_assignments ra
+WHERE ra.warehouseid = ANY(CAST(? AS uuid[]))
+UNION
+SELECT ra.userid
+FROM referencedata.role_assignments ra
+  JOIN supervising_nodes ON supervising_nodes.id = ra.supervisorynodeid
+;
@@ -0,0 +1,9 @@
+-- Returns all users who have a role assignment for any of the given roles. Their right
+-- assignments need to be regenerated when rights are added to or removed from those roles.
+--
+-- Input: array of role IDs
+-- Output: a list of affected user IDs
+SELECT DISTINCT ra.userid
+FROM referencedata.role_assignments ra
+WHERE ra.roleid = ANY(CAST(? AS uuid[]))
+;
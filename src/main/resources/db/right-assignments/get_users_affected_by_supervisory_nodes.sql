@@ -0,0 +1,14 @@
+-- Returns all users with a supervision role assignment for any of the given supervisory nodes or
+-- any of their ancestors. Facilities supervised by those users change whenever the subtree of
+-- one of the given nodes changes.
+--
+-- Ancestors of the given nodes, including the nodes themselves, are read from the
+-- supervisory_node_closure table.
+--
+-- Input: array of supervisory node IDs
+-- Output: a list of affected user IDs
+SELECT DISTINCT ra.userid
+FROM referencedata.supervisory_node_closure snc
+  JOIN referencedata.role_assignments ra ON ra.supervisorynodeid = snc.ancestorid
+WHERE snc.descendantid = ANY(CAST(? AS uuid[]))
+;
@@ -0,0 +1,194 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.Sets;
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.UUID;
+import javax.persistence.EntityManager;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.ManyToOneType;
+import org.hibernate.type.StringType;
+import org.hibernate.type.Type;
+import org.hibernate.type.TypeFactory;
+import org.hibernate.type.UUIDCharType;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openlmis.referencedata.domain.BaseEntity;
+import org.openlmis.referencedata.domain.Facility;
+import org.openlmis.referencedata.domain.GeographicZone;
+import org.openlmis.referencedata.testbuilder.FacilityDataBuilder;
+import org.openlmis.referencedata.testbuilder.GeographicZoneDataBuilder;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AuditLogEntityStateTest {
+
+  private static final String ENTITY_NAME = Facility.class.getName();
+  private static final String ROLE = ENTITY_NAME + ".tags";
+  private static final String ZONE_ENTITY_NAME = GeographicZone.class.getName();
+
+  @Mock
+  private EntityManager entityManager;
+
+  @Mock
+  private SessionImplementor session;
+
+  @Mock
+  private SessionFactoryImplementor sessionFactory;
+
+  @Mock
+  private EntityPersister persister;
+
+  @Mock
+  private CollectionPersister collectionPersister;
+
+  @Mock
+  private CollectionType collectionType;
+
+  @Mock
+  private EntityPersister zonePersister;
+
+  @Mock
+  private TypeFactory.TypeScope typeScope;
+
+  @InjectMocks
+  private AuditLogEntityState entityState;
+
+  private Facility facility = new FacilityDataBuilder().build();
+  private Facility restored = new FacilityDataBuilder().build();
+  private GeographicZone zone = new GeographicZoneDataBuilder().build();
+  private GeographicZone restoredZone = new GeographicZoneDataBuilder().build();
+
+  @Before
+  public void setUp() {
+    when(entityManager.unwrap(SessionImplementor.class)).thenReturn(session);
+    when(session.getFactory()).thenReturn(sessionFactory);
+    when(session.getEntityPersister(null, facility)).thenReturn(persister);
+    when(sessionFactory.getCollectionPersister(ROLE)).thenReturn(collectionPersister);
+    mockPersister(persister, ENTITY_NAME, facility);
+    when(persister.getPropertyTypes())
+        .thenReturn(new Type[]{ StringType.INSTANCE, collectionType });
+
+    when(collectionType.isCollectionType()).thenReturn(true);
+    when(collectionType.getRole()).thenReturn(ROLE);
+    when(collectionType.instantiate(anyInt())).thenReturn(new HashSet<>());
+    when(collectionPersister.getElementType()).thenReturn(StringType.INSTANCE);
+  }
+
+  @Test
+  public void shouldRestoreCapturedState() {
+    when(persister.getPropertyValues(facility))
+        .thenReturn(new Object[]{ "name", Sets.newHashSet("first", "second") });
+    UUID id = UUID.randomUUID();
+    when(persister.instantiate(id, session)).thenReturn(restored);
+
+    byte[] captured = entityState.capture(facility);
+    // changes made after capturing are not restored
+    when(persister.getPropertyValues(facility))
+        .thenReturn(new Object[]{ "other", Sets.newHashSet("third") });
+
+    assertSame(restored, entityState.restore(id, captured));
+
+    ArgumentCaptor<Object[]> values = ArgumentCaptor.forClass(Object[].class);
+    verify(persister).setPropertyValues(eq(restored), values.capture());
+    assertEquals("name", values.getValue()[0]);
+    assertEquals(Sets.newHashSet("first", "second"), values.getValue()[1]);
+  }
+
+  @Test
+  public void shouldRestoreReferencedEntitiesAsTheyWereWhenCaptured() {
+    // given
+    mockPersister(zonePersister, ZONE_ENTITY_NAME, zone);
+    when(session.getEntityPersister(ZONE_ENTITY_NAME, zone)).thenReturn(zonePersister);
+    when(session.getEntityPersister(ENTITY_NAME, facility)).thenReturn(persister);
+    Type zoneType = new ManyToOneType(typeScope, ZONE_ENTITY_NAME);
+    Type facilityType = new ManyToOneType(typeScope, ENTITY_NAME);
+
+    when(persister.getPropertyTypes())
+        .thenReturn(new Type[]{ StringType.INSTANCE, collectionType, zoneType });
+    when(persister.getPropertyValues(facility))
+        .thenReturn(new Object[]{ "name", null, zone });
+    // the zone refers back to the facility
+    when(zonePersister.getPropertyTypes())
+        .thenReturn(new Type[]{ StringType.INSTANCE, facilityType });
+    when(zonePersister.getPropertyValues(zone)).thenReturn(new Object[]{ "zone", facility });
+
+    when(persister.instantiate(facility.getId(), session)).thenReturn(restored);
+    when(zonePersister.instantiate(zone.getId(), session)).thenReturn(restoredZone);
+
+    // when
+    byte[] captured = entityState.capture(facility);
+    // changes of the referenced entity made after capturing are not restored
+    when(zonePersister.getPropertyValues(zone)).thenReturn(new Object[]{ "other", facility });
+
+    // then
+    assertSame(restored, entityState.restore(facility.getId(), captured));
+
+    ArgumentCaptor<Object[]> values = ArgumentCaptor.forClass(Object[].class);
+    verify(persister).setPropertyValues(eq(restored), values.capture());
+    assertSame(restoredZone, values.getValue()[2]);
+
+    verify(zonePersister).setPropertyValues(eq(restoredZone), values.capture());
+    assertEquals("zone", values.getValue()[0]);
+    assertSame(restored, values.getValue()[1]);
+    verify(session, never()).internalLoad(anyString(), any(Serializable.class), anyBoolean(),
+        anyBoolean());
+  }
+
+  @Test
+  public void shouldRestoreMissingCollectionAsNull() {
+    when(persister.getPropertyValues(facility)).thenReturn(new Object[]{ null, null });
+    when(persister.instantiate(any(Serializable.class), eq(session))).thenReturn(restored);
+
+    entityState.restore(facility.getId(), entityState.capture(facility));
+
+    ArgumentCaptor<Object[]> values = ArgumentCaptor.forClass(Object[].class);
+    verify(persister).setPropertyValues(eq(restored), values.capture());
+    assertEquals(2, values.getValue().length);
+    assertNull(values.getValue()[1]);
+  }
+
+  private void mockPersister(EntityPersister entityPersister, String entityName,
+      BaseEntity entity) {
+    when(sessionFactory.getEntityPersister(entityName)).thenReturn(entityPersister);
+    when(entityPersister.getEntityName()).thenReturn(entityName);
+    when(entityPersister.getRootEntityName()).thenReturn(entityName);
+    when(entityPersister.getIdentifierType()).thenReturn(UUIDCharType.INSTANCE);
+    when(entityPersister.getIdentifier(entity, session)).thenReturn(entity.getId());
+  }
+}
@@ -0,0 +1,326 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+import static org.openlmis.referencedata.AuditLogOutbox.DELETE_SQL;
+import static org.openlmis.referencedata.AuditLogOutbox.INSERT_SQL;
+import static org.openlmis.referencedata.AuditLogOutbox.MARK_FAILED_SQL;
+import static org.openlmis.referencedata.AuditLogOutbox.SELECT_PENDING_SQL;
+import static org.openlmis.referencedata.AuditLogOutbox.TRY_LOCK_SQL;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.Type;
+import org.javers.core.Javers;
+import org.javers.repository.jql.GlobalIdDTO;
+import org.joda.time.LocalDateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openlmis.referencedata.AuditLogOutbox.Entry;
+import org.openlmis.referencedata.AuditLogOutbox.Operation;
+import org.openlmis.referencedata.domain.Facility;
+import org.openlmis.referencedata.testbuilder.FacilityDataBuilder;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AuditLogOutboxTest {
+
+  private static final String AUTHOR = "admin";
+  private static final String OTHER_AUTHOR = "administrator";
+  private static final byte[] STATE = { 1, 2, 3 };
+  private static final byte[] OTHER_STATE = { 4, 5, 6 };
+  private static final int BATCH_SIZE = 10;
+
+  @Mock
+  private Javers javers;
+
+  @Mock
+  private JdbcTemplate template;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  @Mock
+  private EntityManager entityManager;
+
+  @Mock
+  private EntityManagerFactory entityManagerFactory;
+
+  @Mock
+  private PersistenceUnitUtil persistenceUnitUtil;
+
+  @Mock
+  private AuditLogEntityState entityState;
+
+  @Mock
+  private Metamodel metamodel;
+
+  @Mock
+  private EntityType<Facility> entityType;
+
+  @Mock
+  private Type<UUID> idType;
+
+  @Mock
+  private TaskScheduler taskScheduler;
+
+  @InjectMocks
+  private AuditLogOutbox outbox;
+
+  private Facility facility = new FacilityDataBuilder().build();
+  private Facility savedFacility = new FacilityDataBuilder().build();
+  private Facility resavedFacility = new FacilityDataBuilder().build();
+  private long outboxId;
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(outbox, "batchSize", BATCH_SIZE);
+
+    when(entityManager.getMetamodel()).thenReturn(metamodel);
+    when(metamodel.entity(Facility.class)).thenReturn(entityType);
+    doReturn(idType).when(entityType).getIdType();
+    when(idType.getJavaType()).thenReturn(UUID.class);
+    when(entityManager.find(Facility.class, facility.getId())).thenReturn(facility);
+    when(template.queryForObject(TRY_LOCK_SQL, Boolean.class)).thenReturn(true);
+  }
+
+  @Test
+  public void shouldRecordSavedEntitiesWithTheirStateInBatch() {
+    Facility other = new FacilityDataBuilder().build();
+    when(entityManager.getEntityManagerFactory()).thenReturn(entityManagerFactory);
+    when(entityManagerFactory.getPersistenceUnitUtil()).thenReturn(persistenceUnitUtil);
+    when(persistenceUnitUtil.getIdentifier(facility)).thenReturn(facility.getId());
+    when(persistenceUnitUtil.getIdentifier(other)).thenReturn(other.getId());
+    when(entityState.capture(facility)).thenReturn(STATE);
+    when(entityState.capture(other)).thenThrow(new IllegalStateException("failure"));
+
+    outbox.recordSaved(Facility.class, Arrays.asList(facility, other), AUTHOR);
+
+    ArgumentCaptor<List> rows = ArgumentCaptor.forClass(List.class);
+    verify(template).batchUpdate(eq(INSERT_SQL), rows.capture());
+    assertEquals(2, rows.getValue().size());
+    Object[] first = (Object[]) rows.getValue().get(0);
+    assertArrayEquals(
+        new Object[]{ Facility.class.getName(), "\"" + facility.getId() + "\"", "SAVE", AUTHOR,
+            STATE },
+        Arrays.copyOf(first, 5));
+    // a state which could not be captured is left to be read when processing
+    assertNull(((Object[]) rows.getValue().get(1))[4]);
+    assertEquals(2L, metric("recorded"));
+  }
+
+  @Test
+  public void shouldRecordDeletedIdsInBatch() {
+    UUID id = UUID.randomUUID();
+
+    outbox.recordDeleted(Facility.class, Collections.singletonList(id), AUTHOR);
+
+    ArgumentCaptor<List> rows = ArgumentCaptor.forClass(List.class);
+    verify(template).batchUpdate(eq(INSERT_SQL), rows.capture());
+    assertArrayEquals(
+        new Object[]{ Facility.class.getName(), "\"" + id + "\"", "DELETE", AUTHOR, null },
+        Arrays.copyOf((Object[]) rows.getValue().get(0), 5));
+  }
+
+  @Test
+  public void shouldCommitEachSaveWithItsStateAuthorAndDate() {
+    Entry first = entry(Operation.SAVE, facility.getId(), AUTHOR, STATE, 1000L);
+    Entry second = entry(Operation.SAVE, facility.getId(), OTHER_AUTHOR, OTHER_STATE, 2000L);
+    mockPending(Arrays.asList(first, second));
+    when(entityState.restore(facility.getId(), STATE)).thenReturn(savedFacility);
+    when(entityState.restore(facility.getId(), OTHER_STATE)).thenReturn(resavedFacility);
+    List<LocalDateTime> commitDates = new ArrayList<>();
+    when(javers.commit(anyString(), any())).thenAnswer(invocation -> {
+      commitDates.add(new JaVersDateProvider().now());
+      return null;
+    });
+
+    outbox.process();
+
+    InOrder order = inOrder(javers);
+    order.verify(javers).commit(AUTHOR, savedFacility);
+    order.verify(javers).commit(OTHER_AUTHOR, resavedFacility);
+    assertEquals(Arrays.asList(commitDate(1000L), commitDate(2000L)), commitDates);
+    verify(entityManager, never()).find(Facility.class, facility.getId());
+    verify(template).batchUpdate(eq(DELETE_SQL), anyListOf(Object[].class));
+    assertEquals(2L, metric("committed"));
+  }
+
+  @Test
+  public void shouldCommitEntityCreatedAndDeletedBeforeProcessing() {
+    UUID id = UUID.randomUUID();
+    when(entityState.restore(id, STATE)).thenReturn(savedFacility);
+    mockPending(Arrays.asList(entry(Operation.SAVE, id, AUTHOR, STATE, 1000L),
+        entry(Operation.DELETE, id)));
+
+    outbox.process();
+
+    InOrder order = inOrder(javers);
+    order.verify(javers).commit(AUTHOR, savedFacility);
+    order.verify(javers).commitShallowDeleteById(eq(AUTHOR), any(GlobalIdDTO.class));
+  }
+
+  @Test
+  public void shouldNotProcessOutboxLockedByOtherInstance() {
+    when(template.queryForObject(TRY_LOCK_SQL, Boolean.class)).thenReturn(false);
+
+    outbox.process();
+
+    verify(template, never()).query(eq(SELECT_PENDING_SQL), any(RowMapper.class), anyInt());
+    verifyZeroInteractions(javers);
+  }
+
+  @Test
+  public void shouldCommitShallowDeleteOfDeletedEntity() {
+    UUID deletedId = UUID.randomUUID();
+    mockPending(Collections.singletonList(entry(Operation.DELETE, deletedId)));
+
+    outbox.process();
+
+    verify(javers).commitShallowDeleteById(eq(AUTHOR), any(GlobalIdDTO.class));
+    verify(entityManager, never()).find(Facility.class, deletedId);
+  }
+
+  @Test
+  public void shouldSkipEntityDeletedBeforeProcessing() {
+    UUID deletedId = UUID.randomUUID();
+    mockPending(Collections.singletonList(entry(Operation.SAVE, deletedId)));
+
+    outbox.process();
+
+    verify(javers, never()).commit(anyString(), any());
+    verify(template).batchUpdate(eq(DELETE_SQL), anyListOf(Object[].class));
+  }
+
+  @Test
+  public void shouldMarkFailingEntryAsFailed() {
+    Entry failing = entry(Operation.SAVE, facility.getId());
+    Entry other = entry(Operation.DELETE, UUID.randomUUID());
+    when(template.query(eq(SELECT_PENDING_SQL), any(RowMapper.class), eq(BATCH_SIZE)))
+        .thenReturn(Arrays.asList(failing, other));
+    when(javers.commit(AUTHOR, facility)).thenThrow(new IllegalStateException("failure"));
+
+    // the mark is made in its own transaction, inside the outer one which holds the lock
+    AtomicInteger openTransactions = new AtomicInteger();
+    AtomicInteger transactionsWhenMarked = new AtomicInteger();
+    when(transactionManager.getTransaction(any(TransactionDefinition.class)))
+        .thenAnswer(invocation -> {
+          openTransactions.incrementAndGet();
+          return null;
+        });
+    doAnswer(invocation -> openTransactions.decrementAndGet())
+        .when(transactionManager).commit(any(TransactionStatus.class));
+    doAnswer(invocation -> openTransactions.decrementAndGet())
+        .when(transactionManager).rollback(any(TransactionStatus.class));
+    when(template.update(MARK_FAILED_SQL, 1L)).thenAnswer(invocation -> {
+      transactionsWhenMarked.set(openTransactions.get());
+      return 1;
+    });
+
+    outbox.process();
+
+    verify(template).update(MARK_FAILED_SQL, 1L);
+    assertEquals(2, transactionsWhenMarked.get());
+    assertEquals(0, openTransactions.get());
+    verify(template).update(DELETE_SQL, 2L);
+    verify(template, never()).batchUpdate(eq(DELETE_SQL), anyListOf(Object[].class));
+    assertEquals(1L, metric("failures"));
+    assertEquals(1L, metric("failed"));
+  }
+
+  @Test
+  public void shouldProcessUntilOutboxIsDrained() {
+    ReflectionTestUtils.setField(outbox, "batchSize", 1);
+    when(template.query(eq(SELECT_PENDING_SQL), any(RowMapper.class), eq(1)))
+        .thenReturn(Collections.singletonList(entry(Operation.SAVE, facility.getId())))
+        .thenReturn(Collections.singletonList(entry(Operation.SAVE, facility.getId())))
+        .thenReturn(Collections.emptyList());
+
+    outbox.process();
+
+    verify(javers, times(2)).commit(AUTHOR, facility);
+    assertEquals(2L, metric("batches"));
+    assertEquals(0L, metric("lagMillis"));
+  }
+
+  private void mockPending(List<Entry> entries) {
+    when(template.query(eq(SELECT_PENDING_SQL), any(RowMapper.class), eq(BATCH_SIZE)))
+        .thenReturn(entries)
+        .thenReturn(Collections.emptyList());
+  }
+
+  private Number metric(String name) {
+    Map<String, Number> metrics = outbox.metrics()
+        .stream()
+        .collect(Collectors.toMap(Metric::getName, Metric::getValue));
+    return metrics.get("auditLog." + name);
+  }
+
+  private Entry entry(Operation operation, UUID id) {
+    return entry(operation, id, AUTHOR, null, System.currentTimeMillis());
+  }
+
+  private Entry entry(Operation operation, UUID id, String author, byte[] state,
+      long createdDate) {
+    return new Entry(++outboxId, Facility.class.getName(), "\"" + id + "\"", operation, author,
+        state, new Timestamp(createdDate));
+  }
+
+  private LocalDateTime commitDate(long createdDate) {
+    return new LocalDateTime(createdDate, JaVersDateProvider.DATE_TIME_ZONE);
+  }
+}
@@ -0,0 +1,227 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.openlmis.referencedata.AuditLogReader.CHUNK_SIZE;
+import static org.openlmis.referencedata.AuditLogReader.INDEXES_SQL;
+import static org.openlmis.referencedata.AuditLogReader.LOCK_INDEXES_SQL;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.StringWriter;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import org.javers.core.Javers;
+import org.javers.core.commit.CommitId;
+import org.javers.core.diff.Change;
+import org.javers.core.json.JsonConverter;
+import org.javers.core.metamodel.type.ManagedType;
+import org.javers.repository.jql.JqlQuery;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openlmis.referencedata.domain.Facility;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AuditLogReaderTest {
+
+  private static final String TYPE_NAME = Facility.class.getName();
+
+  @Mock
+  private Javers javers;
+
+  @Mock
+  private JsonConverter jsonConverter;
+
+  @Mock
+  private ManagedType javersType;
+
+  @Mock
+  private JdbcTemplate template;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  @InjectMocks
+  private AuditLogReader reader;
+
+  private UUID id = UUID.randomUUID();
+
+  @Before
+  public void setUp() {
+    reader = spy(reader);
+    when(javers.getJsonConverter()).thenReturn(jsonConverter);
+    doReturn(javersType).when(javers).getTypeMapping(Facility.class);
+    when(javersType.getName()).thenReturn(TYPE_NAME);
+    when(jsonConverter.toJson(any())).thenAnswer(invocation ->
+        "\"" + invocation.getArguments()[0] + "\"");
+  }
+
+  @Test
+  public void shouldCompareOnlySnapshotsOnPageNewestFirst() {
+    Change third = change(3, id);
+    Change second = change(2, id);
+    mockSnapshots(Arrays.asList(key(3, id), key(2, id)));
+    mockChanges(Arrays.asList(second, third, change(1, id)));
+
+    List<Change> changes = reader.findChanges(Facility.class, id, "", "", new PageRequest(1, 2));
+
+    assertEquals(Arrays.asList(third, second), changes);
+    assertEquals(Arrays.asList(TYPE_NAME, "\"" + id + "\"", 2, 2L), getQueryParams(1));
+  }
+
+  @Test
+  public void shouldLeaveOutSnapshotsOfSameCommitOnOtherPages() {
+    UUID childId = UUID.randomUUID();
+    Change parent = change(5, id);
+    mockSnapshots(Collections.singletonList(key(5, id)));
+    mockChanges(Arrays.asList(change(5, childId), parent));
+
+    List<Change> changes = reader.findChanges(Facility.class, null, "", "", new PageRequest(0, 1));
+
+    assertEquals(Collections.singletonList(parent), changes);
+    assertEquals(Arrays.asList(TYPE_NAME, 1, 0L), getQueryParams(1));
+  }
+
+  @Test
+  public void shouldFilterSnapshotsByAuthorAndChangedProperty() {
+    mockSnapshots(Collections.emptyList());
+
+    List<Change> changes = reader.findChanges(Facility.class, id, "admin", "name",
+        new PageRequest(0, 10));
+
+    assertTrue(changes.isEmpty());
+    assertEquals(Arrays.asList(TYPE_NAME, "\"" + id + "\"", "admin", "%\"name\"%", 10, 0L),
+        getQueryParams(1));
+  }
+
+  @Test
+  public void shouldMatchChangedPropertyLiterally() {
+    mockSnapshots(Collections.emptyList());
+
+    reader.findChanges(Facility.class, id, "", "%_name", new PageRequest(0, 10));
+
+    assertEquals(Arrays.asList(TYPE_NAME, "\"" + id + "\"", "%\"\\%\\_name\"%", 10, 0L),
+        getQueryParams(1));
+  }
+
+  @Test
+  public void shouldCreateIndexesUnderLock() {
+    reader.createIndexes();
+
+    InOrder order = inOrder(template);
+    order.verify(template).queryForObject(LOCK_INDEXES_SQL, Object.class);
+    for (String sql : INDEXES_SQL) {
+      order.verify(template).execute(sql);
+    }
+  }
+
+  @Test
+  public void shouldWriteAllChangesAsJsonArrayInChunks() throws Exception {
+    List<Object[]> firstChunk = new ArrayList<>();
+    List<Change> changes = new ArrayList<>();
+    for (int version = CHUNK_SIZE + 1; version > 1; version--) {
+      firstChunk.add(key(version, id));
+      changes.add(change(version, id));
+    }
+    mockSnapshots(firstChunk, Collections.singletonList(key(1, id)));
+    changes.add(change(1, id));
+    mockChanges(changes);
+
+    StringWriter writer = new StringWriter();
+    reader.writeJson(Facility.class, id, null, null, writer);
+
+    JsonNode json = new ObjectMapper().readTree(writer.toString());
+    assertEquals(CHUNK_SIZE + 1, json.size());
+
+    Object[] last = firstChunk.get(CHUNK_SIZE - 1);
+    assertEquals(Arrays.asList(TYPE_NAME, "\"" + id + "\"", CHUNK_SIZE,
+        TYPE_NAME, "\"" + id + "\"", last[2], last[3], CHUNK_SIZE), getQueryParams(2));
+  }
+
+  private Object[] key(long commitId, UUID localId) {
+    return new Object[]{ new CommitId(commitId, 0), "\"" + localId + "\"",
+        new Timestamp(commitId * 1000), commitId };
+  }
+
+  private Change change(long commitId, UUID localId) {
+    Change change = mock(Change.class);
+    when(change.getAffectedLocalId()).thenReturn(localId);
+    doReturn(new CommitId(commitId, 0)).when(reader).getCommitId(change);
+    return change;
+  }
+
+  @SafeVarargs
+  private final void mockSnapshots(List<Object[]>... chunks) {
+    List<List<Object[]>> remaining = new ArrayList<>(Arrays.asList(chunks));
+    when(template.query(anyString(), any(RowMapper.class), anyVararg())).thenAnswer(invocation -> {
+      RowMapper<?> mapper = (RowMapper<?>) invocation.getArguments()[1];
+      List<Object> rows = new ArrayList<>();
+      for (Object[] key : remaining.isEmpty() ? new ArrayList<Object[]>() : remaining.remove(0)) {
+        rows.add(mapper.mapRow(toResultSet(key), rows.size()));
+      }
+      return rows;
+    });
+  }
+
+  private void mockChanges(List<Change> changes) {
+    doReturn(changes).when(reader).queryChanges(any(JqlQuery.class));
+  }
+
+  private ResultSet toResultSet(Object[] key) throws SQLException {
+    ResultSet rs = mock(ResultSet.class);
+    when(rs.getBigDecimal("commit_id")).thenReturn(((CommitId) key[0]).valueAsNumber());
+    when(rs.getString("local_id")).thenReturn((String) key[1]);
+    when(rs.getTimestamp("commit_date")).thenReturn((Timestamp) key[2]);
+    when(rs.getLong("snapshot_pk")).thenReturn((Long) key[3]);
+    return rs;
+  }
+
+  private List<Object> getQueryParams(int queries) {
+    ArgumentCaptor<Object> params = ArgumentCaptor.forClass(Object.class);
+    verify(template, times(queries)).query(anyString(), any(RowMapper.class), params.capture());
+
+    // varargs of all queries are captured one after another
+    return params.getAllValues();
+  }
+}
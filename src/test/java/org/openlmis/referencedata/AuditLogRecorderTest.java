@@ -0,0 +1,142 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnitUtil;
+import org.aspectj.lang.JoinPoint;
+import org.javers.core.Javers;
+import org.javers.repository.jql.GlobalIdDTO;
+import org.javers.repository.jql.InstanceIdDTO;
+import org.javers.spring.auditable.AuthorProvider;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openlmis.referencedata.domain.Facility;
+import org.openlmis.referencedata.repository.FacilityRepository;
+import org.openlmis.referencedata.testbuilder.FacilityDataBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AuditLogRecorderTest {
+
+  private static final String AUTHOR = "admin";
+
+  @Mock
+  private Javers javers;
+
+  @Mock
+  private AuthorProvider authorProvider;
+
+  @Mock
+  private AuditLogOutbox outbox;
+
+  @Mock
+  private EntityManagerFactory entityManagerFactory;
+
+  @Mock
+  private PersistenceUnitUtil persistenceUnitUtil;
+
+  @Mock
+  private JoinPoint joinPoint;
+
+  @InjectMocks
+  private AuditLogRecorder recorder;
+
+  private Facility facility = new FacilityDataBuilder().build();
+  private Facility otherFacility = new FacilityDataBuilder().build();
+
+  @Before
+  public void setUp() {
+    when(authorProvider.provide()).thenReturn(AUTHOR);
+    when(joinPoint.getThis()).thenReturn(mock(FacilityRepository.class));
+    when(entityManagerFactory.getPersistenceUnitUtil()).thenReturn(persistenceUnitUtil);
+    when(persistenceUnitUtil.getIdentifier(any())).thenAnswer(invocation ->
+        ((Facility) invocation.getArguments()[0]).getId());
+  }
+
+  @Test
+  public void shouldCommitSavedEntityWhenSynchronous() {
+    recorder.onSave(joinPoint, facility);
+
+    verify(javers).commit(AUTHOR, facility);
+    verifyZeroInteractions(outbox);
+  }
+
+  @Test
+  public void shouldRecordSavedEntitiesInOutboxWhenAsynchronous() {
+    ReflectionTestUtils.setField(recorder, "async", true);
+
+    recorder.onSave(joinPoint, Arrays.asList(facility, otherFacility));
+
+    verify(outbox).recordSaved(Facility.class, Arrays.asList(facility, otherFacility), AUTHOR);
+    verify(javers, never()).commit(anyString(), any());
+  }
+
+  @Test
+  public void shouldIgnoreSavesWithoutResult() {
+    recorder.onSave(joinPoint, null);
+    recorder.onSave(joinPoint, Collections.emptyList());
+
+    verifyZeroInteractions(javers, outbox);
+  }
+
+  @Test
+  public void shouldCommitShallowDeletesWhenSynchronous() {
+    UUID id = UUID.randomUUID();
+
+    when(joinPoint.getArgs()).thenReturn(new Object[]{ facility });
+    recorder.onDelete(joinPoint);
+    when(joinPoint.getArgs()).thenReturn(new Object[]{ id });
+    recorder.onDelete(joinPoint);
+
+    verify(javers).commitShallowDelete(AUTHOR, facility);
+    verify(javers).commitShallowDeleteById(eq(AUTHOR), any(GlobalIdDTO.class));
+    verify(outbox, never()).recordDeleted(any(), anyListOf(Object.class), anyString());
+  }
+
+  @Test
+  public void shouldRecordDeletedIdsInOutboxWhenAsynchronous() {
+    ReflectionTestUtils.setField(recorder, "async", true);
+    UUID id = UUID.randomUUID();
+
+    when(joinPoint.getArgs()).thenReturn(new Object[]{ Arrays.asList(facility, otherFacility) });
+    recorder.onDelete(joinPoint);
+    when(joinPoint.getArgs()).thenReturn(new Object[]{ id });
+    recorder.onDelete(joinPoint);
+
+    verify(outbox).recordDeleted(Facility.class,
+        Arrays.asList(facility.getId(), otherFacility.getId()), AUTHOR);
+    verify(outbox).recordDeleted(Facility.class, Collections.singletonList(id), AUTHOR);
+    verify(javers, never()).commitShallowDeleteById(anyString(), any(InstanceIdDTO.class));
+  }
+}
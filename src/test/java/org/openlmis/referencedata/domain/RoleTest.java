@@ -116,4 +116,42 @@ public class RoleTest {
     assertTrue(containsRight1);
     assertFalse(containsRight2);
   }
+
+  @Test
+  public void shouldContainRightsAddedAfterCheckingContents() {
+    //given
+    Right right1 = Right.newRight(right1Name, RightType.SUPERVISION);
+    Right right2 = Right.newRight(right2Name, RightType.SUPERVISION);
+    Role role = Role.newRole(roleName, right1);
+    assertFalse(role.contains(right2));
+
+    //when
+    role.add(right2);
+
+    //then
+    assertTrue(role.contains(right2));
+  }
+
+  @Test
+  public void shouldNotContainRightsReplacedByGrouping() {
+    //given
+    Right right1 = Right.newRight(right1Name, RightType.SUPERVISION);
+    Right right2 = Right.newRight(right2Name, RightType.SUPERVISION);
+    Role role = Role.newRole(roleName, right1);
+    assertTrue(role.contains(right1));
+
+    //when
+    role.group(right2);
+
+    //then
+    assertFalse(role.contains(right1));
+    assertTrue(role.contains(right2));
+  }
+
+  @Test
+  public void shouldNotContainNullRight() {
+    Role role = Role.newRole(roleName, Right.newRight(right1Name, RightType.SUPERVISION));
+
+    assertFalse(role.contains(null));
+  }
 }
@@ -0,0 +1,171 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.security;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.DefaultAccessTokenConverter;
+
+public class CachingTokenServicesTest {
+
+  private static final String CHECK_TOKEN = "/api/oauth/check_token";
+  private static final String TOKEN = "418c89c5-7f21-4cd1-a63a-38c47892b0fe";
+  private static final String INVALID_TOKEN = "6d6896a5-e94c-4183-839d-911bc63174ff";
+
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(wireMockConfig().dynamicPort());
+
+  private UUID userId = UUID.randomUUID();
+  private ExecutorService executor = Executors.newFixedThreadPool(4);
+
+  private CachingTokenServices tokenServices;
+
+  @Before
+  public void setUp() {
+    tokenServices = createTokenServices(60000);
+
+    wireMockRule.stubFor(post(urlEqualTo(CHECK_TOKEN))
+        .withRequestBody(equalTo("token=" + INVALID_TOKEN))
+        .willReturn(aResponse()
+            .withStatus(400)
+            .withHeader("Content-Type", "application/json")
+            .withBody("{\"error\":\"invalid_token\",\"error_description\":\"" + INVALID_TOKEN
+                + "\"}")));
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void shouldCheckTokenOnceWhileItIsCached() {
+    stubCheckToken(expiresIn(3600), 0);
+
+    OAuth2Authentication first = tokenServices.loadAuthentication(TOKEN);
+    OAuth2Authentication second = tokenServices.loadAuthentication(TOKEN);
+
+    wireMockRule.verify(1, postRequestedFor(urlEqualTo(CHECK_TOKEN)));
+    assertThat(first.getPrincipal(), is(userId));
+    assertThat(second.getPrincipal(), is(userId));
+    assertThat(second, is(not(sameInstance(first))));
+    assertThat(tokenServices.metrics(), hasItem(metric("tokenCache.hits", 1L)));
+    assertThat(tokenServices.metrics(), hasItem(metric("tokenCache.misses", 1L)));
+    assertThat(tokenServices.metrics(), hasItem(metric("tokenCache.remote.checks", 1L)));
+  }
+
+  @Test
+  public void shouldNotCacheExpiredToken() {
+    stubCheckToken(expiresIn(-1), 0);
+
+    tokenServices.loadAuthentication(TOKEN);
+    tokenServices.loadAuthentication(TOKEN);
+
+    wireMockRule.verify(2, postRequestedFor(urlEqualTo(CHECK_TOKEN)));
+  }
+
+  @Test
+  public void shouldCheckTokenEveryTimeIfTtlIsZero() {
+    stubCheckToken(expiresIn(3600), 0);
+    tokenServices = createTokenServices(0);
+
+    tokenServices.loadAuthentication(TOKEN);
+    tokenServices.loadAuthentication(TOKEN);
+
+    wireMockRule.verify(2, postRequestedFor(urlEqualTo(CHECK_TOKEN)));
+  }
+
+  @Test
+  public void shouldNotCacheInvalidToken() {
+    for (int attempt = 0; attempt < 2; ++attempt) {
+      try {
+        tokenServices.loadAuthentication(INVALID_TOKEN);
+      } catch (InvalidTokenException ex) {
+        // expected
+      }
+    }
+
+    wireMockRule.verify(2, postRequestedFor(urlEqualTo(CHECK_TOKEN)));
+  }
+
+  @Test
+  public void shouldCoalesceConcurrentChecksOfSameToken() throws Exception {
+    stubCheckToken(expiresIn(3600), 500);
+
+    List<Future<OAuth2Authentication>> checks = new ArrayList<>();
+    Callable<OAuth2Authentication> check = () -> tokenServices.loadAuthentication(TOKEN);
+    for (int i = 0; i < 4; ++i) {
+      checks.add(executor.submit(check));
+    }
+
+    for (Future<OAuth2Authentication> future : checks) {
+      assertThat(future.get().getPrincipal(), is(userId));
+    }
+    wireMockRule.verify(1, postRequestedFor(urlEqualTo(CHECK_TOKEN)));
+  }
+
+  private CachingTokenServices createTokenServices(long ttl) {
+    DefaultAccessTokenConverter converter = new DefaultAccessTokenConverter();
+    converter.setUserTokenConverter(new CustomUserAuthenticationConverter());
+
+    return new CachingTokenServices("http://localhost:" + wireMockRule.port() + CHECK_TOKEN,
+        "trusted-client", "secret", converter, ttl, 10);
+  }
+
+  private void stubCheckToken(long exp, int delay) {
+    wireMockRule.stubFor(post(urlEqualTo(CHECK_TOKEN))
+        .withRequestBody(equalTo("token=" + TOKEN))
+        .willReturn(aResponse()
+            .withFixedDelay(delay)
+            .withHeader("Content-Type", "application/json")
+            .withBody("{\"referenceDataUserId\":\"" + userId + "\","
+                + "\"authorities\":[\"USER\"],\"client_id\":\"user-client\","
+                + "\"scope\":[\"read\",\"write\"],\"exp\":" + exp + "}")));
+  }
+
+  private long expiresIn(long seconds) {
+    return System.currentTimeMillis() / 1000 + seconds;
+  }
+
+  private Metric<Long> metric(String name, long value) {
+    return new Metric<>(name, value);
+  }
+}
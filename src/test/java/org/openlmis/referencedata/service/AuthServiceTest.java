@@ -16,19 +16,29 @@
 package org.openlmis.referencedata.service;
 
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.collect.ImmutableMap;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -36,15 +46,19 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
 @RunWith(MockitoJUnitRunner.class)
 public class AuthServiceTest {
   private static final String TOKEN = UUID.randomUUID().toString();
+  private static final String NEW_TOKEN = UUID.randomUUID().toString();
   private static final String AUTHORIZATION_URL = "http://localhost/auth/oauth/token";
   private static final URI AUTHORIZATION_URI = URI.create(
       AUTHORIZATION_URL + "?grant_type=client_credentials"
@@ -56,6 +70,8 @@ public class AuthServiceTest {
   @Captor
   private ArgumentCaptor<HttpEntity<String>> entityStringCaptor;
 
+  private List<Runnable> backgroundTasks = new ArrayList<>();
+
   private AuthService authService;
 
   @Before
@@ -66,6 +82,9 @@ public class AuthServiceTest {
     ReflectionTestUtils.setField(authService, "clientId", "trusted-client");
     ReflectionTestUtils.setField(authService, "clientSecret", "secret");
     ReflectionTestUtils.setField(authService, "authorizationUrl", AUTHORIZATION_URL);
+    ReflectionTestUtils.setField(authService, "refreshAhead", 60000L);
+    ReflectionTestUtils.setField(authService, "taskExecutor",
+        (TaskExecutor) backgroundTasks::add);
   }
 
   @Test
@@ -92,4 +111,109 @@ public class AuthServiceTest {
         contains("Basic dHJ1c3RlZC1jbGllbnQ6c2VjcmV0")
     );
   }
+
+  @Test
+  public void shouldReuseTokenUntilItExpiresSoon() {
+    mockTokenResponses(ImmutableMap.of("access_token", TOKEN, "expires_in", 3600));
+
+    assertThat(authService.obtainAccessToken(), is(TOKEN));
+    assertThat(authService.obtainAccessToken(), is(TOKEN));
+
+    verifyTokenRequests(1);
+    assertThat(backgroundTasks, is(empty()));
+    assertThat(authService.metrics(), hasItem(metric("serviceToken.reuses", 1L)));
+  }
+
+  @Test
+  public void shouldRequestNewTokenIfCurrentOneIsAboutToExpire() {
+    mockTokenResponses(
+        ImmutableMap.of("access_token", TOKEN, "expires_in", 3),
+        ImmutableMap.of("access_token", NEW_TOKEN, "expires_in", 3));
+
+    assertThat(authService.obtainAccessToken(), is(TOKEN));
+    assertThat(authService.obtainAccessToken(), is(NEW_TOKEN));
+
+    verifyTokenRequests(2);
+  }
+
+  @Test
+  public void shouldRequestNewTokenInBackgroundBeforeCurrentOneExpires() {
+    mockTokenResponses(
+        ImmutableMap.of("access_token", TOKEN, "expires_in", 30),
+        ImmutableMap.of("access_token", NEW_TOKEN, "expires_in", 3600));
+
+    assertThat(authService.obtainAccessToken(), is(TOKEN));
+    assertThat(authService.obtainAccessToken(), is(TOKEN));
+    assertThat(authService.obtainAccessToken(), is(TOKEN));
+    assertThat(backgroundTasks, hasSize(1));
+
+    backgroundTasks.get(0).run();
+
+    assertThat(authService.obtainAccessToken(), is(NEW_TOKEN));
+    verifyTokenRequests(2);
+    assertThat(authService.metrics(), hasItem(metric("serviceToken.backgroundRequests", 1L)));
+  }
+
+  @Test
+  public void shouldKeepCurrentTokenIfBackgroundRequestFails() {
+    mockTokenResponses(ImmutableMap.of("access_token", TOKEN, "expires_in", 30));
+
+    assertThat(authService.obtainAccessToken(), is(TOKEN));
+    assertThat(authService.obtainAccessToken(), is(TOKEN));
+
+    when(restTemplate.exchange(
+        eq(AUTHORIZATION_URI), eq(HttpMethod.POST), any(HttpEntity.class), eq(Object.class)
+    )).thenThrow(new RestClientException("auth is down"));
+    backgroundTasks.get(0).run();
+
+    assertThat(authService.obtainAccessToken(), is(TOKEN));
+    assertThat(authService.metrics(), hasItem(metric("serviceToken.failures", 1L)));
+    assertThat(backgroundTasks, hasSize(2));
+  }
+
+  @Test
+  public void shouldShareTokenRequestBetweenConcurrentCallers() throws Exception {
+    ResponseEntity<Object> response = mock(ResponseEntity.class);
+    when(response.getBody()).thenReturn(ImmutableMap.of("access_token", TOKEN, "expires_in", 60));
+
+    doAnswer(invocation -> {
+      Thread.sleep(200);
+      return response;
+    }).when(restTemplate).exchange(
+        eq(AUTHORIZATION_URI), eq(HttpMethod.POST), any(HttpEntity.class), eq(Object.class));
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<String>> tokens = new ArrayList<>();
+      for (int i = 0; i < 4; ++i) {
+        tokens.add(executor.submit(authService::obtainAccessToken));
+      }
+
+      for (Future<String> token : tokens) {
+        assertThat(token.get(), is(TOKEN));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    verifyTokenRequests(1);
+  }
+
+  private void mockTokenResponses(Map<String, ?> body, Map<String, ?>... nextBodies) {
+    ResponseEntity<Object> response = mock(ResponseEntity.class);
+    when(response.getBody()).thenReturn(body, (Object[]) nextBodies);
+
+    when(restTemplate.exchange(
+        eq(AUTHORIZATION_URI), eq(HttpMethod.POST), any(HttpEntity.class), eq(Object.class)
+    )).thenReturn(response);
+  }
+
+  private void verifyTokenRequests(int count) {
+    verify(restTemplate, times(count)).exchange(
+        eq(AUTHORIZATION_URI), eq(HttpMethod.POST), any(HttpEntity.class), eq(Object.class));
+  }
+
+  private Metric<Long> metric(String name, long value) {
+    return new Metric<>(name, value);
+  }
 }
@@ -0,0 +1,107 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.UUID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openlmis.referencedata.domain.User;
+import org.openlmis.referencedata.dto.UserPrincipal;
+import org.openlmis.referencedata.exception.NotFoundException;
+import org.openlmis.referencedata.repository.UserRepository;
+import org.openlmis.referencedata.testbuilder.OAuth2AuthenticationDataBuilder;
+import org.openlmis.referencedata.testbuilder.UserDataBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AuthenticationHelperTest {
+
+  @Mock
+  private UserRepository userRepository;
+
+  @Mock
+  private PermissionCache permissionCache;
+
+  @InjectMocks
+  private AuthenticationHelper authenticationHelper;
+
+  private User user = new UserDataBuilder().build();
+  private UserPrincipal principal = new UserPrincipal(user.getId(), null, true);
+
+  @Before
+  public void setUp() {
+    SecurityContextHolder.getContext().setAuthentication(new OAuth2AuthenticationDataBuilder()
+        .withUserId(user.getId())
+        .buildUserAuthentication());
+  }
+
+  @After
+  public void tearDown() {
+    SecurityContextHolder.clearContext();
+    RequestContextHolder.resetRequestAttributes();
+  }
+
+  @Test
+  public void shouldReturnCurrentUser() {
+    when(userRepository.findOne(user.getId())).thenReturn(user);
+
+    assertEquals(user, authenticationHelper.getCurrentUser());
+  }
+
+  @Test(expected = NotFoundException.class)
+  public void shouldThrowExceptionIfCurrentUserDoesNotExist() {
+    authenticationHelper.getCurrentUser();
+  }
+
+  @Test
+  public void shouldReturnPrincipalWithoutLoadingUser() {
+    when(permissionCache.getPrincipal(user.getId())).thenReturn(principal);
+
+    assertEquals(principal, authenticationHelper.getCurrentUserPrincipal());
+    verifyZeroInteractions(userRepository);
+  }
+
+  @Test
+  public void shouldKeepPrincipalForRestOfRequest() {
+    RequestContextHolder.setRequestAttributes(
+        new ServletRequestAttributes(new MockHttpServletRequest()));
+    when(permissionCache.getPrincipal(user.getId())).thenReturn(principal);
+
+    assertEquals(principal, authenticationHelper.getCurrentUserPrincipal());
+    assertEquals(principal, authenticationHelper.getCurrentUserPrincipal());
+
+    verify(permissionCache, times(1)).getPrincipal(user.getId());
+  }
+
+  @Test(expected = NotFoundException.class)
+  public void shouldThrowExceptionIfPrincipalDoesNotExist() {
+    authenticationHelper.getCurrentUserPrincipal();
+  }
+}
@@ -16,12 +16,14 @@
 package org.openlmis.referencedata.service;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.Collections;
 import java.util.UUID;
+import java.util.stream.Stream;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -30,6 +32,7 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.openlmis.referencedata.domain.IdealStockAmount;
+import org.openlmis.referencedata.dto.IdealStockAmountCsvModel;
 import org.openlmis.referencedata.repository.IdealStockAmountRepository;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -52,18 +55,6 @@ public class IdealStockAmountServiceTest {
     when(isa.getId()).thenReturn(isaId);
   }
 
-  @Test
-  public void shouldCallRepositorySearch() {
-    when(repository.search(null))
-        .thenReturn(Collections.singletonList(isaId));
-    when(repository.findAll(any(Iterable.class)))
-        .thenReturn(Collections.singletonList(isa));
-
-    assertEquals(Collections.singletonList(isa), service.search());
-    verify(repository).search(null);
-    verify(repository).findAll(any(Iterable.class));
-  }
-
   @Test
   public void shouldCallRepositorySearchWithListParameter() {
     when(repository.search(Collections.singletonList(isa)))
@@ -75,4 +66,12 @@ public class IdealStockAmountServiceTest {
     verify(repository).search(Collections.singletonList(isa));
     verify(repository).findAll(any(Iterable.class));
   }
+
+  @Test
+  public void shouldStreamCsvModelsFromRepository() {
+    Stream<IdealStockAmountCsvModel> stream = Stream.of(new IdealStockAmountCsvModel());
+    when(repository.streamAllCsvModels()).thenReturn(stream);
+
+    assertSame(stream, service.streamCsvModels());
+  }
 }
@@ -0,0 +1,335 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.openlmis.referencedata.service.OrderableCatalog.SELECT_NAME_ORDER_SQL;
+import static org.openlmis.referencedata.service.OrderableCatalog.SELECT_PROGRAM_CODES_SQL;
+import static org.openlmis.referencedata.service.OrderableCatalog.SELECT_STAMP_SQL;
+
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openlmis.referencedata.domain.Code;
+import org.openlmis.referencedata.domain.Orderable;
+import org.openlmis.referencedata.domain.Program;
+import org.openlmis.referencedata.dto.OrderableDto;
+import org.openlmis.referencedata.dto.VersionIdentityDto;
+import org.openlmis.referencedata.repository.OrderableRepository;
+import org.openlmis.referencedata.testbuilder.OrderableDataBuilder;
+import org.openlmis.referencedata.testbuilder.OrderableDisplayCategoryDataBuilder;
+import org.openlmis.referencedata.testbuilder.ProgramDataBuilder;
+import org.openlmis.referencedata.testbuilder.ProgramOrderableDataBuilder;
+import org.openlmis.referencedata.web.OrderableSearchParams;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+@RunWith(MockitoJUnitRunner.class)
+@SuppressWarnings("PMD.TooManyMethods")
+public class OrderableCatalogTest {
+
+  @Mock
+  private OrderableRepository orderableRepository;
+
+  @Mock
+  private JdbcTemplate template;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  @Mock
+  private TaskScheduler taskScheduler;
+
+  @InjectMocks
+  private OrderableCatalog catalog;
+
+  private Program program = new ProgramDataBuilder().withCode("PRG").build();
+  private Orderable syringe;
+  private Orderable vaccine;
+  private Orderable tablet;
+  private Pageable pageable = new PageRequest(0, 10);
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(catalog, "enabled", true);
+    ReflectionTestUtils.setField(catalog, "checkInterval", 1000L);
+    ReflectionTestUtils.setField(catalog, "reloadInterval", 60000L);
+
+    syringe = new OrderableDataBuilder()
+        .withProductCode(Code.code("SYR"))
+        .withFullProductName("Syringe")
+        .build();
+    vaccine = new OrderableDataBuilder()
+        .withProductCode(Code.code("VAC"))
+        .withFullProductName("BCG Vaccine")
+        .withProgramOrderables(Collections.singletonList(
+            new ProgramOrderableDataBuilder()
+                .withProgram(program)
+                .withOrderabeDisplayCategory(new OrderableDisplayCategoryDataBuilder().build())
+                .build()))
+        .build();
+    tablet = new OrderableDataBuilder()
+        .withProductCode(Code.code("TAB"))
+        .withFullProductName("Antibiotic tablet")
+        .build();
+
+    doAnswer(invocation -> {
+      RowCallbackHandler handler = (RowCallbackHandler) invocation.getArguments()[1];
+      ResultSet row = mock(ResultSet.class);
+      when(row.getString("id")).thenReturn(program.getId().toString());
+      when(row.getString("code")).thenReturn(program.getCode().toString());
+      handler.processRow(row);
+      return null;
+    }).when(template).query(eq(SELECT_PROGRAM_CODES_SQL), any(RowCallbackHandler.class));
+
+    when(orderableRepository.findAllLatest(null))
+        .thenReturn(new PageImpl<>(Arrays.asList(syringe, vaccine, tablet)));
+    mockNameOrder(tablet, vaccine, syringe);
+  }
+
+  @Test
+  public void shouldScheduleChecksIfEnabled() {
+    catalog.scheduleChecks();
+
+    verify(taskScheduler).scheduleWithFixedDelay(any(Runnable.class), eq(1000L));
+  }
+
+  @Test
+  public void shouldNotScheduleChecksIfDisabled() {
+    ReflectionTestUtils.setField(catalog, "enabled", false);
+
+    catalog.scheduleChecks();
+
+    verify(taskScheduler, never()).scheduleWithFixedDelay(any(Runnable.class), anyLong());
+  }
+
+  @Test
+  public void shouldFallBackToDatabaseUntilLoaded() {
+    assertNull(catalog.search(params(null, null, null), Collections.emptySet(), pageable));
+  }
+
+  @Test
+  public void shouldFindAllOrderablesSortedByName() {
+    catalog.reload();
+
+    OrderableCatalog.Result result = catalog
+        .search(params(null, null, null), Collections.emptySet(), pageable);
+
+    assertEquals(Arrays.asList(tablet.getId(), vaccine.getId(), syringe.getId()), ids(result));
+    assertEquals(3, result.getPage(pageable).getTotalElements());
+  }
+
+  @Test
+  public void shouldSortOrderablesLikeDatabase() {
+    mockNameOrder(syringe, tablet, vaccine);
+    catalog.reload();
+
+    OrderableCatalog.Result result = catalog
+        .search(params(null, null, null), Collections.emptySet(), pageable);
+
+    assertEquals(Arrays.asList(syringe.getId(), tablet.getId(), vaccine.getId()), ids(result));
+  }
+
+  @Test
+  public void shouldFindOrderablesByIds() {
+    catalog.reload();
+
+    OrderableCatalog.Result result = catalog.search(params("SYR", null, null),
+        Collections.singleton(vaccine.getId()), pageable);
+
+    assertEquals(Collections.singletonList(vaccine.getId()), ids(result));
+  }
+
+  @Test
+  public void shouldFindOrderablesByCodeAndNameIgnoringCase() {
+    catalog.reload();
+
+    assertEquals(Collections.singletonList(syringe.getId()), ids(
+        catalog.search(params("sy", null, null), Collections.emptySet(), pageable)));
+    assertEquals(Arrays.asList(tablet.getId(), vaccine.getId()), ids(
+        catalog.search(params(null, "C", null), Collections.emptySet(), pageable)));
+    assertEquals(Collections.emptyList(), ids(
+        catalog.search(params("SYR", "vaccine", null), Collections.emptySet(), pageable)));
+  }
+
+  @Test
+  public void shouldFindOrderablesByProgramCode() {
+    catalog.reload();
+
+    assertEquals(Collections.singletonList(vaccine.getId()), ids(
+        catalog.search(params(null, null, "prg"), Collections.emptySet(), pageable)));
+    assertEquals(Collections.emptyList(), ids(
+        catalog.search(params(null, null, "other"), Collections.emptySet(), pageable)));
+  }
+
+  @Test
+  public void shouldReturnHighestLastUpdatedDateOfMatchingOrderables() {
+    catalog.reload();
+
+    OrderableCatalog.Result result = catalog
+        .search(params("VAC", null, null), Collections.emptySet(), pageable);
+    assertEquals(vaccine.getLastUpdated(), result.getLastUpdated());
+
+    result = catalog.search(params("none", null, null), Collections.emptySet(), pageable);
+    assertNull(result.getLastUpdated());
+  }
+
+  @Test
+  public void shouldFallBackToDatabaseForSortedAndVersionedSearches() {
+    catalog.reload();
+
+    assertNull(catalog.search(params(null, null, null), Collections.emptySet(),
+        new PageRequest(0, 10, new Sort("productCode"))));
+
+    OrderableSearchParams versioned = params(null, null, null);
+    versioned.setIdentities(
+        Collections.singletonList(new VersionIdentityDto(vaccine.getId(), 1L)));
+    assertNull(catalog.search(versioned, Collections.emptySet(), pageable));
+  }
+
+  @Test
+  public void shouldRefreshSavedOrderables() {
+    catalog.reload();
+    Orderable newVaccine = new OrderableDataBuilder()
+        .withProductCode(Code.code("VAC"))
+        .withFullProductName("Measles vaccine")
+        .build();
+    newVaccine.setId(vaccine.getId());
+    Set<UUID> ids = Collections.singleton(vaccine.getId());
+    when(orderableRepository.findAllLatestByIds(ids, null))
+        .thenReturn(new PageImpl<>(Collections.singletonList(newVaccine)));
+
+    catalog.refresh(ids);
+
+    OrderableCatalog.Result result = catalog
+        .search(params(null, "vaccine", null), Collections.emptySet(), pageable);
+    assertEquals(Collections.singletonList("Measles vaccine"), result.getPage(pageable)
+        .getContent()
+        .stream()
+        .map(OrderableDto::getFullProductName)
+        .collect(Collectors.toList()));
+  }
+
+  @Test
+  public void shouldReloadWhenStampChanged() {
+    catalog.reload();
+    mockStamp(2, vaccine);
+
+    catalog.check();
+
+    verify(orderableRepository, times(2)).findAllLatest(null);
+  }
+
+  @Test
+  public void shouldNotReloadWhenStampIsCurrent() {
+    catalog.reload();
+    Orderable newest = Arrays.asList(syringe, vaccine, tablet)
+        .stream()
+        .max((left, right) -> left.getLastUpdated().compareTo(right.getLastUpdated()))
+        .get();
+    mockStamp(3, newest);
+
+    catalog.check();
+
+    verify(orderableRepository, times(1)).findAllLatest(null);
+  }
+
+  @Test
+  public void shouldCountHitsAndMisses() {
+    catalog.search(params(null, null, null), Collections.emptySet(), pageable);
+    catalog.reload();
+    catalog.search(params(null, null, null), Collections.emptySet(), pageable);
+    catalog.search(params(null, null, null), Collections.emptySet(), pageable);
+
+    Map<String, Number> metrics = catalog.metrics()
+        .stream()
+        .collect(Collectors.toMap(Metric::getName, Metric::getValue));
+
+    assertEquals(3, metrics.get("orderableCatalog.size"));
+    assertEquals(2L, metrics.get("orderableCatalog.hits"));
+    assertEquals(1L, metrics.get("orderableCatalog.misses"));
+    assertEquals(1L, metrics.get("orderableCatalog.rebuilds"));
+    assertNotNull(metrics.get("orderableCatalog.lastRebuildDuration"));
+  }
+
+  private void mockNameOrder(Orderable... orderables) {
+    doAnswer(invocation -> {
+      RowCallbackHandler handler = (RowCallbackHandler) invocation.getArguments()[1];
+      for (Orderable orderable : orderables) {
+        ResultSet row = mock(ResultSet.class);
+        when(row.getString("id")).thenReturn(orderable.getId().toString());
+        handler.processRow(row);
+      }
+      return null;
+    }).when(template).query(eq(SELECT_NAME_ORDER_SQL), any(RowCallbackHandler.class));
+  }
+
+  @SuppressWarnings("unchecked")
+  private void mockStamp(long count, Orderable newest) {
+    doAnswer(invocation -> {
+      RowMapper<Object> mapper = (RowMapper<Object>) invocation.getArguments()[1];
+      ResultSet row = mock(ResultSet.class);
+      when(row.getLong("count")).thenReturn(count);
+      when(row.getTimestamp("lastupdated"))
+          .thenReturn(Timestamp.from(newest.getLastUpdated().toInstant()));
+      return mapper.mapRow(row, 0);
+    }).when(template).queryForObject(eq(SELECT_STAMP_SQL), any(RowMapper.class));
+  }
+
+  private OrderableSearchParams params(String code, String name, String programCode) {
+    return new OrderableSearchParams(code, name, programCode, null, null, null);
+  }
+
+  private List<UUID> ids(OrderableCatalog.Result result) {
+    return result.getPage(pageable)
+        .getContent()
+        .stream()
+        .map(OrderableDto::getId)
+        .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.Sets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openlmis.referencedata.dto.UserPrincipal;
+import org.openlmis.referencedata.repository.RightAssignmentRepository;
+import org.openlmis.referencedata.repository.UserRepository;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PermissionCacheTest {
+
+  private static final String RIGHT_NAME = "RIGHT_NAME";
+  private static final String OTHER_RIGHT_NAME = "OTHER_RIGHT_NAME";
+
+  @Mock
+  private RightAssignmentRepository rightAssignmentRepository;
+
+  @Mock
+  private UserRepository userRepository;
+
+  @InjectMocks
+  private PermissionCache permissionCache;
+
+  private UUID userId = UUID.randomUUID();
+  private UUID otherUserId = UUID.randomUUID();
+  private UserPrincipal principal = new UserPrincipal(userId, UUID.randomUUID(), true);
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(permissionCache, "ttl", 60_000L);
+    ReflectionTestUtils.setField(permissionCache, "maxSize", 10);
+
+    when(rightAssignmentRepository.findRightNamesByUser(userId))
+        .thenReturn(Sets.newHashSet(RIGHT_NAME));
+    when(rightAssignmentRepository.findRightNamesByUser(otherUserId))
+        .thenReturn(Sets.newHashSet(OTHER_RIGHT_NAME));
+    when(userRepository.findPrincipal(userId)).thenReturn(principal);
+  }
+
+  @Test
+  public void shouldLoadRightsOnceAndServeThemFromCache() {
+    assertTrue(permissionCache.hasRight(userId, RIGHT_NAME));
+    assertFalse(permissionCache.hasRight(userId, OTHER_RIGHT_NAME));
+    assertFalse(permissionCache.hasRight(userId, null));
+
+    verify(rightAssignmentRepository, times(1)).findRightNamesByUser(userId);
+    Map<String, Number> metrics = getMetrics();
+    assertEquals(1L, metrics.get("permissionCache.misses"));
+    assertEquals(1L, metrics.get("permissionCache.hits"));
+  }
+
+  @Test
+  public void shouldLoadPrincipalTogetherWithRights() {
+    assertTrue(permissionCache.hasRight(userId, RIGHT_NAME));
+    assertEquals(principal, permissionCache.getPrincipal(userId));
+
+    verify(userRepository, times(1)).findPrincipal(userId);
+    verify(rightAssignmentRepository, times(1)).findRightNamesByUser(userId);
+  }
+
+  @Test
+  public void shouldReturnNullPrincipalOfMissingUser() {
+    assertNull(permissionCache.getPrincipal(otherUserId));
+    assertNull(permissionCache.getPrincipal(otherUserId));
+
+    verify(userRepository, times(1)).findPrincipal(otherUserId);
+  }
+
+  @Test
+  public void shouldReloadRightsAfterTtl() {
+    ReflectionTestUtils.setField(permissionCache, "ttl", 0L);
+
+    permissionCache.hasRight(userId, RIGHT_NAME);
+    permissionCache.hasRight(userId, RIGHT_NAME);
+
+    verify(rightAssignmentRepository, times(2)).findRightNamesByUser(userId);
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedUserWhenFull() {
+    ReflectionTestUtils.setField(permissionCache, "maxSize", 1);
+
+    permissionCache.hasRight(userId, RIGHT_NAME);
+    permissionCache.hasRight(otherUserId, RIGHT_NAME);
+    permissionCache.hasRight(userId, RIGHT_NAME);
+
+    verify(rightAssignmentRepository, times(2)).findRightNamesByUser(userId);
+    Map<String, Number> metrics = getMetrics();
+    assertEquals(2L, metrics.get("permissionCache.evictions"));
+    assertEquals(1, metrics.get("permissionCache.size"));
+  }
+
+  @Test
+  public void shouldReloadRightsOfInvalidatedUsersOnly() {
+    permissionCache.hasRight(userId, RIGHT_NAME);
+    permissionCache.hasRight(otherUserId, RIGHT_NAME);
+
+    permissionCache.invalidate(Collections.singleton(userId));
+    permissionCache.hasRight(userId, RIGHT_NAME);
+    permissionCache.hasRight(otherUserId, RIGHT_NAME);
+
+    verify(rightAssignmentRepository, times(2)).findRightNamesByUser(userId);
+    verify(rightAssignmentRepository, times(1)).findRightNamesByUser(otherUserId);
+  }
+
+  @Test
+  public void shouldReloadRightsOfAllUsersAfterInvalidateAll() {
+    permissionCache.hasRight(userId, RIGHT_NAME);
+    permissionCache.hasRight(otherUserId, RIGHT_NAME);
+
+    permissionCache.invalidateAll();
+    permissionCache.hasRight(userId, RIGHT_NAME);
+    permissionCache.hasRight(otherUserId, RIGHT_NAME);
+    permissionCache.hasRight(userId, RIGHT_NAME);
+
+    verify(rightAssignmentRepository, times(2)).findRightNamesByUser(userId);
+    verify(rightAssignmentRepository, times(2)).findRightNamesByUser(otherUserId);
+  }
+
+  @Test
+  public void shouldInvalidateOnlyAfterCommit() {
+    permissionCache.hasRight(userId, RIGHT_NAME);
+
+    TransactionSynchronizationManager.initSynchronization();
+    try {
+      permissionCache.invalidate(Collections.singleton(userId));
+      permissionCache.hasRight(userId, RIGHT_NAME);
+      verify(rightAssignmentRepository, times(1)).findRightNamesByUser(userId);
+
+      TransactionSynchronizationManager.getSynchronizations()
+          .forEach(TransactionSynchronization::afterCommit);
+    } finally {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    permissionCache.hasRight(userId, RIGHT_NAME);
+    verify(rightAssignmentRepository, times(2)).findRightNamesByUser(userId);
+  }
+
+  @Test
+  public void shouldNotCacheRightsLoadedBeforeInvalidation() {
+    when(rightAssignmentRepository.findRightNamesByUser(userId)).thenAnswer(invocation -> {
+      permissionCache.invalidate(Collections.singleton(userId));
+      return Sets.newHashSet(RIGHT_NAME);
+    });
+
+    assertTrue(permissionCache.hasRight(userId, RIGHT_NAME));
+    assertTrue(permissionCache.hasRight(userId, RIGHT_NAME));
+
+    verify(rightAssignmentRepository, times(2)).findRightNamesByUser(userId);
+    assertEquals(0, getMetrics().get("permissionCache.size"));
+  }
+
+  private Map<String, Number> getMetrics() {
+    return permissionCache.metrics()
+        .stream()
+        .collect(Collectors.toMap(Metric::getName, Metric::getValue));
+  }
+}
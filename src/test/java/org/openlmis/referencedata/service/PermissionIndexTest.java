@@ -0,0 +1,315 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+import static org.openlmis.referencedata.service.PermissionIndex.SELECT_ALL_SQL;
+import static org.openlmis.referencedata.service.PermissionIndex.SELECT_BY_USERS_SQL;
+import static org.openlmis.referencedata.service.PermissionIndex.SELECT_FACILITY_NAMES_SQL;
+
+import com.google.common.collect.Sets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openlmis.referencedata.dto.NamedResource;
+import org.openlmis.referencedata.repository.FacilityRepository;
+import org.openlmis.referencedata.repository.RightAssignmentRepository;
+import org.openlmis.referencedata.util.ContentVersion;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+@SuppressWarnings("PMD.TooManyMethods")
+public class PermissionIndexTest {
+
+  private static final String ADMIN_RIGHT = "ADMIN_RIGHT";
+  private static final String SUPERVISION_RIGHT = "SUPERVISION_RIGHT";
+  private static final String FULFILLMENT_RIGHT = "FULFILLMENT_RIGHT";
+
+  @Mock
+  private JdbcTemplate template;
+
+  @Mock
+  private RightAssignmentRepository rightAssignmentRepository;
+
+  @Mock
+  private FacilityRepository facilityRepository;
+
+  @Mock
+  private TaskScheduler taskScheduler;
+
+  @InjectMocks
+  private PermissionIndex permissionIndex;
+
+  private UUID userId = UUID.randomUUID();
+  private UUID otherUserId = UUID.randomUUID();
+  private UUID facilityId = UUID.randomUUID();
+  private UUID warehouseId = UUID.randomUUID();
+  private UUID programId = UUID.randomUUID();
+  private Map<UUID, String> facilityNames = new HashMap<>();
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(permissionIndex, "enabled", true);
+    ReflectionTestUtils.setField(permissionIndex, "reloadInterval", 1000L);
+
+    facilityNames.put(facilityId, "facility");
+    facilityNames.put(warehouseId, "warehouse");
+    doAnswer(invocation -> {
+      RowCallbackHandler handler = (RowCallbackHandler) invocation.getArguments()[2];
+      for (Map.Entry<UUID, String> facility : facilityNames.entrySet()) {
+        ResultSet row = mock(ResultSet.class);
+        when(row.getString("id")).thenReturn(facility.getKey().toString());
+        when(row.getString("name")).thenReturn(facility.getValue());
+        handler.processRow(row);
+      }
+      return null;
+    }).when(template).query(eq(SELECT_FACILITY_NAMES_SQL), any(PreparedStatementSetter.class),
+        any(RowCallbackHandler.class));
+
+    mockRows(Arrays.asList(
+        row(userId, ADMIN_RIGHT, null, null),
+        row(userId, SUPERVISION_RIGHT, facilityId, programId),
+        row(userId, SUPERVISION_RIGHT, facilityId, programId),
+        row(userId, FULFILLMENT_RIGHT, warehouseId, null),
+        row(otherUserId, ADMIN_RIGHT, null, null)));
+  }
+
+  @Test
+  public void shouldScheduleReloadsIfEnabled() {
+    permissionIndex.scheduleReloads();
+
+    verify(taskScheduler).scheduleWithFixedDelay(any(Runnable.class), eq(1000L));
+  }
+
+  @Test
+  public void shouldNotScheduleReloadsIfDisabled() {
+    ReflectionTestUtils.setField(permissionIndex, "enabled", false);
+
+    permissionIndex.scheduleReloads();
+
+    verify(taskScheduler, never())
+        .scheduleWithFixedDelay(any(Runnable.class), anyLong());
+  }
+
+  @Test
+  public void shouldFallBackToDatabaseUntilLoaded() {
+    when(rightAssignmentRepository.findByUser(userId))
+        .thenReturn(Collections.singleton(ADMIN_RIGHT));
+    when(rightAssignmentRepository.existsByUserIdAndRightName(userId, ADMIN_RIGHT))
+        .thenReturn(true);
+
+    assertEquals(Collections.singleton(ADMIN_RIGHT),
+        permissionIndex.getPermissionStrings(userId));
+    assertTrue(permissionIndex.hasRight(userId, ADMIN_RIGHT));
+    verifyZeroInteractions(template);
+  }
+
+  @Test
+  public void shouldReturnPermissionStringsFromIndex() {
+    permissionIndex.reload();
+
+    assertEquals(
+        Sets.newHashSet(ADMIN_RIGHT,
+            SUPERVISION_RIGHT + '|' + facilityId + '|' + programId,
+            FULFILLMENT_RIGHT + '|' + warehouseId),
+        permissionIndex.getPermissionStrings(userId));
+    assertEquals(Collections.emptySet(), permissionIndex.getPermissionStrings(UUID.randomUUID()));
+    verifyZeroInteractions(rightAssignmentRepository);
+  }
+
+  @Test
+  public void shouldCheckRightsInIndex() {
+    permissionIndex.reload();
+
+    assertTrue(permissionIndex.hasRight(userId, ADMIN_RIGHT));
+    assertTrue(permissionIndex.hasRight(userId, SUPERVISION_RIGHT));
+    assertTrue(permissionIndex.hasRight(userId, FULFILLMENT_RIGHT, warehouseId));
+    assertTrue(permissionIndex.hasRight(userId, SUPERVISION_RIGHT, facilityId));
+    assertTrue(permissionIndex.hasRight(userId, SUPERVISION_RIGHT, facilityId, programId));
+
+    assertFalse(permissionIndex.hasRight(otherUserId, SUPERVISION_RIGHT));
+    assertFalse(permissionIndex.hasRight(userId, "UNKNOWN_RIGHT"));
+    assertFalse(permissionIndex.hasRight(userId, null));
+    assertFalse(permissionIndex.hasRight(userId, FULFILLMENT_RIGHT, facilityId));
+    assertFalse(permissionIndex.hasRight(userId, SUPERVISION_RIGHT, warehouseId, programId));
+    assertFalse(permissionIndex.hasRight(userId, SUPERVISION_RIGHT, facilityId,
+        UUID.randomUUID()));
+    assertFalse(permissionIndex.hasRight(UUID.randomUUID(), ADMIN_RIGHT));
+    verifyZeroInteractions(rightAssignmentRepository);
+  }
+
+  @Test
+  public void shouldReturnSupervisedFacilitiesFromIndex() {
+    permissionIndex.reload();
+
+    assertEquals(Collections.singleton(new NamedResource(facilityId, "facility")),
+        permissionIndex.getSupervisionFacilities(userId));
+    assertEquals(Collections.emptySet(), permissionIndex.getSupervisionFacilities(otherUserId));
+    verifyZeroInteractions(facilityRepository);
+  }
+
+  @Test
+  public void shouldSkipSupervisedFacilitiesWhichDoNotExist() {
+    facilityNames.remove(facilityId);
+
+    permissionIndex.reload();
+
+    assertEquals(Collections.emptySet(), permissionIndex.getSupervisionFacilities(userId));
+  }
+
+  @Test
+  public void shouldReturnVersionsMatchingContent() {
+    assertNull(permissionIndex.getPermissionStringsVersion(userId));
+
+    permissionIndex.reload();
+
+    assertEquals(ContentVersion.ofStrings(permissionIndex.getPermissionStrings(userId)),
+        permissionIndex.getPermissionStringsVersion(userId));
+    assertEquals(
+        ContentVersion.ofNamedResources(permissionIndex.getSupervisionFacilities(userId)),
+        permissionIndex.getSupervisionFacilitiesVersion(userId));
+    assertNull(permissionIndex.getPermissionStringsVersion(UUID.randomUUID()));
+    assertNull(permissionIndex.getSupervisionFacilitiesVersion(UUID.randomUUID()));
+  }
+
+  @Test
+  public void shouldChangeVersionsOfRefreshedUsersOnly() {
+    permissionIndex.reload();
+    final String permissionStringsVersion = permissionIndex.getPermissionStringsVersion(userId);
+    final String otherVersion = permissionIndex.getPermissionStringsVersion(otherUserId);
+    mockRows(Collections.singletonList(row(userId, ADMIN_RIGHT, null, null)));
+
+    permissionIndex.refresh(Collections.singleton(userId));
+
+    assertNotEquals(permissionStringsVersion, permissionIndex.getPermissionStringsVersion(userId));
+    assertEquals(otherVersion, permissionIndex.getPermissionStringsVersion(otherUserId));
+  }
+
+  @Test
+  public void shouldChangeFacilitiesVersionWhenSupervisedFacilityIsRenamed() {
+    permissionIndex.reload();
+    final String facilitiesVersion = permissionIndex.getSupervisionFacilitiesVersion(userId);
+    final String permissionStringsVersion = permissionIndex.getPermissionStringsVersion(userId);
+    facilityNames.put(facilityId, "renamed");
+
+    permissionIndex.refreshFacilities(Collections.singleton(facilityId));
+
+    assertEquals(Collections.singleton(new NamedResource(facilityId, "renamed")),
+        permissionIndex.getSupervisionFacilities(userId));
+    assertNotEquals(facilitiesVersion, permissionIndex.getSupervisionFacilitiesVersion(userId));
+    assertEquals(permissionStringsVersion, permissionIndex.getPermissionStringsVersion(userId));
+  }
+
+  @Test
+  public void shouldRefreshOnlyGivenUsers() {
+    permissionIndex.reload();
+    UUID newUserId = UUID.randomUUID();
+    mockRows(Collections.singletonList(row(newUserId, ADMIN_RIGHT, null, null)));
+
+    permissionIndex.refresh(Arrays.asList(userId, newUserId));
+
+    assertFalse(permissionIndex.hasRight(userId, ADMIN_RIGHT));
+    assertTrue(permissionIndex.hasRight(newUserId, ADMIN_RIGHT));
+    assertTrue(permissionIndex.hasRight(otherUserId, ADMIN_RIGHT));
+    assertEquals(2, getMetrics().get("permissionIndex.users"));
+  }
+
+  @Test
+  public void shouldNotRefreshUsersBeforeFirstLoad() {
+    permissionIndex.refresh(Collections.singleton(userId));
+
+    verifyZeroInteractions(template);
+  }
+
+  @Test
+  public void shouldReportSizeOfIndex() {
+    permissionIndex.reload();
+
+    Map<String, Number> metrics = getMetrics();
+    assertEquals(2, metrics.get("permissionIndex.users"));
+    assertEquals(4L, metrics.get("permissionIndex.rightAssignments"));
+    assertTrue(metrics.containsKey("permissionIndex.lastReloadDuration"));
+  }
+
+  private Map<String, Number> getMetrics() {
+    return permissionIndex.metrics()
+        .stream()
+        .collect(Collectors.toMap(Metric::getName, Metric::getValue));
+  }
+
+  private void mockRows(List<ResultSet> rows) {
+    doAnswer(invocation -> {
+      RowCallbackHandler handler = (RowCallbackHandler) invocation.getArguments()[1];
+      for (ResultSet row : rows) {
+        handler.processRow(row);
+      }
+      return null;
+    }).when(template).query(eq(SELECT_ALL_SQL), any(RowCallbackHandler.class));
+
+    doAnswer(invocation -> {
+      RowCallbackHandler handler = (RowCallbackHandler) invocation.getArguments()[2];
+      for (ResultSet row : rows) {
+        handler.processRow(row);
+      }
+      return null;
+    }).when(template).query(eq(SELECT_BY_USERS_SQL), any(PreparedStatementSetter.class),
+        any(RowCallbackHandler.class));
+  }
+
+  private ResultSet row(UUID userId, String rightName, UUID facilityId, UUID programId) {
+    ResultSet row = mock(ResultSet.class);
+    try {
+      when(row.getString("userid")).thenReturn(userId.toString());
+      when(row.getString("rightname")).thenReturn(rightName);
+      when(row.getString("facilityid")).thenReturn(Objects.toString(facilityId, null));
+      when(row.getString("programid")).thenReturn(Objects.toString(programId, null));
+    } catch (SQLException ex) {
+      throw new IllegalStateException(ex);
+    }
+    return row;
+  }
+}
@@ -18,24 +18,16 @@ package org.openlmis.referencedata.service;
 import static org.junit.Assert.assertEquals;
 
 import org.junit.Test;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
-import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 public class RightAssignmentExecutorTest {
 
   @Test
-  public void shouldReturnProperThreadPoolTaskExecutor() {
+  public void shouldReturnSingleThreadedTaskScheduler() {
     RightAssignmentExecutor executor = new RightAssignmentExecutor();
-    ReflectionTestUtils.setField(executor, "corePoolSize", 1);
-    ReflectionTestUtils.setField(executor, "maxPoolSize", 1);
-    ReflectionTestUtils.setField(executor, "queueCapacity", 1);
-    ReflectionTestUtils.setField(executor, "threadTimeout", 60);
 
-    ThreadPoolTaskExecutor threadPoolTaskExecutor = executor.rightAssignmentTaskExecutor();
+    ThreadPoolTaskScheduler threadPoolTaskScheduler = executor.rightAssignmentTaskScheduler();
 
-    assertEquals(1, threadPoolTaskExecutor.getCorePoolSize());
-    assertEquals(1, threadPoolTaskExecutor.getMaxPoolSize());
-    assertEquals(1, ReflectionTestUtils.getField(threadPoolTaskExecutor, "queueCapacity"));
-    assertEquals(60, threadPoolTaskExecutor.getKeepAliveSeconds());
+    assertEquals(1, threadPoolTaskScheduler.getPoolSize());
   }
 }
@@ -0,0 +1,219 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RightAssignmentSchedulerTest {
+
+  @Mock
+  private RightAssignmentService rightAssignmentService;
+
+  @Mock
+  private TaskScheduler taskScheduler;
+
+  @InjectMocks
+  private RightAssignmentScheduler scheduler;
+
+  private static final long DELAY = 1000L;
+
+  private UUID facility1Id = UUID.randomUUID();
+  private UUID facility2Id = UUID.randomUUID();
+  private UUID roleId = UUID.randomUUID();
+
+  @Before
+  public void setUp() {
+    when(rightAssignmentService.isIncrementalEnabled()).thenReturn(true);
+  }
+
+  @Test
+  public void shouldMergeRequestsMadeBeforeRunIntoOneRun() {
+    // when
+    scheduler.schedule(RightAssignmentChange.forFacilities(facility1Id));
+    scheduler.schedule(RightAssignmentChange.forFacilities(facility2Id));
+    scheduler.schedule(RightAssignmentChange.forRoles(roleId));
+    scheduler.run();
+
+    // then
+    verify(taskScheduler, times(1)).schedule(any(Runnable.class), any(Date.class));
+    verify(rightAssignmentService).regenerateRightAssignments(
+        RightAssignmentChange.of(RightAssignmentChange.Type.FACILITY,
+            Arrays.asList(facility1Id, facility2Id)));
+    verify(rightAssignmentService).regenerateRightAssignments(
+        RightAssignmentChange.forRoles(roleId));
+    assertEquals(2L, getMetrics().get("rightAssignments.regeneration.coalescedRequests"));
+  }
+
+  @Test
+  public void shouldRegenerateAllOnceForAllChangesIfIncrementalRegenerationIsDisabled() {
+    // given
+    when(rightAssignmentService.isIncrementalEnabled()).thenReturn(false);
+
+    // when
+    scheduler.schedule(RightAssignmentChange.forFacilities(facility1Id));
+    scheduler.schedule(RightAssignmentChange.forRoles(roleId));
+    scheduler.schedule(RightAssignmentChange.forSupervisoryNodes(UUID.randomUUID()));
+    scheduler.run();
+
+    // then
+    verify(rightAssignmentService, times(1)).regenerateRightAssignments();
+    verify(rightAssignmentService, never())
+        .regenerateRightAssignments(any(RightAssignmentChange.class));
+    assertEquals(0, getMetrics().get("rightAssignments.regeneration.pending"));
+  }
+
+  @Test
+  public void shouldScheduleExactlyOneFollowUpRunForRequestsMadeDuringRun() {
+    // given
+    scheduler.schedule(RightAssignmentChange.forFacilities(facility1Id));
+    doAnswer(invocation -> {
+      scheduler.schedule(RightAssignmentChange.forFacilities(facility2Id));
+      scheduler.schedule(RightAssignmentChange.forRoles(roleId));
+      return null;
+    }).when(rightAssignmentService).regenerateRightAssignments(
+        RightAssignmentChange.forFacilities(facility1Id));
+
+    // when
+    scheduler.run();
+
+    // then
+    verify(taskScheduler, times(2)).schedule(any(Runnable.class), any(Date.class));
+    assertEquals(2, getMetrics().get("rightAssignments.regeneration.pending"));
+  }
+
+  @Test
+  public void shouldNotScheduleRunForEmptyChange() {
+    // when
+    scheduler.schedule(RightAssignmentChange.forFacilities());
+
+    // then
+    verifyZeroInteractions(taskScheduler);
+  }
+
+  @Test
+  public void shouldAcceptRequestMadeInTransactionOnlyAfterCommit() {
+    TransactionSynchronizationManager.initSynchronization();
+    try {
+      // when
+      scheduler.schedule(RightAssignmentChange.forFacilities(facility1Id));
+
+      // then
+      verify(taskScheduler, never()).schedule(any(Runnable.class), any(Date.class));
+
+      TransactionSynchronizationManager.getSynchronizations()
+          .forEach(TransactionSynchronization::afterCommit);
+      verify(taskScheduler).schedule(any(Runnable.class), any(Date.class));
+    } finally {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+  }
+
+  @Test
+  public void shouldCountFailedRunsAndKeepScheduling() {
+    // given
+    scheduler.schedule(RightAssignmentChange.forFacilities(facility1Id));
+    doThrow(new IllegalStateException("test")).when(rightAssignmentService)
+        .regenerateRightAssignments(any(RightAssignmentChange.class));
+
+    // when
+    scheduler.run();
+    scheduler.schedule(RightAssignmentChange.forFacilities(facility2Id));
+
+    // then
+    Map<String, Number> metrics = getMetrics();
+    assertEquals(1L, metrics.get("rightAssignments.regeneration.runs"));
+    assertEquals(1L, metrics.get("rightAssignments.regeneration.failedRuns"));
+    // the failed change is retried along with the new request
+    assertEquals(2, metrics.get("rightAssignments.regeneration.pending"));
+    assertFalse(metrics.containsKey("rightAssignments.regeneration.timeSinceLastSuccessfulRun"));
+    verify(taskScheduler, times(2)).schedule(any(Runnable.class), any(Date.class));
+  }
+
+  @Test
+  public void shouldRegenerateOtherTypesAndRetryFailedOneWithBackoff() {
+    // given
+    ReflectionTestUtils.setField(scheduler, "delay", DELAY);
+    UUID nodeId = UUID.randomUUID();
+    scheduler.schedule(RightAssignmentChange.forSupervisoryNodes(nodeId));
+    scheduler.schedule(RightAssignmentChange.forRoles(roleId));
+    scheduler.schedule(RightAssignmentChange.forFacilities(facility1Id));
+    doThrow(new IllegalStateException("test")).when(rightAssignmentService)
+        .regenerateRightAssignments(RightAssignmentChange.forRoles(roleId));
+
+    // when
+    final long before = System.currentTimeMillis();
+    scheduler.run();
+
+    // then
+    verify(rightAssignmentService).regenerateRightAssignments(
+        RightAssignmentChange.forSupervisoryNodes(nodeId));
+    verify(rightAssignmentService).regenerateRightAssignments(
+        RightAssignmentChange.forFacilities(facility1Id));
+
+    ArgumentCaptor<Date> runDate = ArgumentCaptor.forClass(Date.class);
+    verify(taskScheduler, times(2)).schedule(any(Runnable.class), runDate.capture());
+    assertTrue(runDate.getValue().getTime() >= before + 2 * DELAY);
+    assertEquals(1L, getMetrics().get("rightAssignments.regeneration.failedRuns"));
+
+    // when
+    doNothing().when(rightAssignmentService)
+        .regenerateRightAssignments(RightAssignmentChange.forRoles(roleId));
+    scheduler.run();
+
+    // then
+    verify(rightAssignmentService, times(2)).regenerateRightAssignments(
+        RightAssignmentChange.forRoles(roleId));
+    verify(rightAssignmentService).regenerateRightAssignments(
+        RightAssignmentChange.forSupervisoryNodes(nodeId));
+    assertEquals(0, getMetrics().get("rightAssignments.regeneration.pending"));
+  }
+
+  private Map<String, Number> getMetrics() {
+    return scheduler.metrics()
+        .stream()
+        .collect(Collectors.toMap(Metric::getName, Metric::getValue));
+  }
+}
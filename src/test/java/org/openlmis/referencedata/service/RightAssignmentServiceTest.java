@@ -15,39 +15,81 @@
 
 package org.openlmis.referencedata.service;
 
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
+import static org.openlmis.referencedata.service.RightAssignmentService.DELETE_BY_IDS_SQL;
+import static org.openlmis.referencedata.service.RightAssignmentService.DELETE_SQL;
+import static org.openlmis.referencedata.service.RightAssignmentService.SELECT_BY_USERS_SQL;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.openlmis.referencedata.dto.RightAssignmentDto;
 import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
 
 @RunWith(MockitoJUnitRunner.class)
 public class RightAssignmentServiceTest {
 
   private static final String RIGHT_NAME = "rightName";
 
+  private static final String AFFECTED_USERS_SQL = "SELECT affected users";
+  private static final String USER_RIGHT_ASSIGNMENTS_SQL = "SELECT user right assignments";
+
   @Mock
   private JdbcTemplate jdbcTemplate;
 
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  @Mock
+  private ResourceLoader resourceLoader;
+
+  @Mock
+  private SupervisedFacilityExpander supervisedFacilityExpander;
+
+  @Mock
+  private PermissionCache permissionCache;
+
+  @Mock
+  private PermissionIndex permissionIndex;
+
   @InjectMocks
   private RightAssignmentService rightAssignmentService;
 
@@ -75,7 +117,7 @@ public class RightAssignmentServiceTest {
 
     // when
     Set<RightAssignmentDto> actual = rightAssignmentService
-        .convertForInsert(Collections.singletonList(expected), null);
+        .convertForInsert(Collections.singletonList(expected));
 
     // then
     assertEquals(1, actual.size());
@@ -86,11 +128,6 @@ public class RightAssignmentServiceTest {
   public void convertForInsertShouldConvertSupervisoryNodeRightAssignments()
       throws IOException {
     // given
-    Resource resource = mock(Resource.class);
-    when(resource.getDescription()).thenReturn("description");
-    InputStream inputStream = spy(IOUtils.toInputStream("some data"));
-    when(resource.getInputStream()).thenReturn(inputStream);
-
     RightAssignmentDto rightAssignmentDto = new RightAssignmentDto(
         userId,
         RIGHT_NAME,
@@ -101,15 +138,13 @@ public class RightAssignmentServiceTest {
     UUID facility1Id = UUID.randomUUID();
     UUID facility2Id = UUID.randomUUID();
     List<UUID> facilityIds = Arrays.asList(facility1Id, facility2Id);
-    when(jdbcTemplate.queryForList(
-        any(String.class),
-        any(Class.class),
-        any(UUID.class),
-        any(UUID.class))).thenReturn(facilityIds);
-    
+    Pair<UUID, UUID> nodeProgram = ImmutablePair.of(supervisoryNodeId, programId);
+    when(supervisedFacilityExpander.expand(Collections.singleton(nodeProgram)))
+        .thenReturn(Collections.singletonMap(nodeProgram, new HashSet<>(facilityIds)));
+
     // when
     Set<RightAssignmentDto> actual = rightAssignmentService
-        .convertForInsert(Collections.singletonList(rightAssignmentDto), resource);
+        .convertForInsert(Arrays.asList(rightAssignmentDto, rightAssignmentDto));
 
     // then
     assertEquals(2, actual.size());
@@ -120,4 +155,154 @@ public class RightAssignmentServiceTest {
       assertTrue(facilityIds.contains(current.getFacilityId()));
     }
   }
+
+  @Test
+  public void shouldOnlyApplyDeltaForUsersAffectedByChange() throws Exception {
+    // given
+    enableIncrementalRegeneration(true);
+    final UUID roleId = UUID.randomUUID();
+    UUID facilityId = UUID.randomUUID();
+    UUID keptId = UUID.randomUUID();
+    UUID removedId = UUID.randomUUID();
+
+    RightAssignmentDto kept = new RightAssignmentDto(userId, RIGHT_NAME, facilityId, programId);
+    RightAssignmentDto removed = new RightAssignmentDto(userId, "removed", facilityId, programId);
+    RightAssignmentDto added = new RightAssignmentDto(userId, "added", null, null);
+
+    when(jdbcTemplate.query(eq(AFFECTED_USERS_SQL), any(PreparedStatementSetter.class),
+        any(RowMapper.class))).thenReturn(Collections.singletonList(userId));
+    when(jdbcTemplate.query(eq(USER_RIGHT_ASSIGNMENTS_SQL), any(PreparedStatementSetter.class),
+        any(RowMapper.class))).thenReturn(Arrays.asList(kept, added));
+    when(jdbcTemplate.query(eq(SELECT_BY_USERS_SQL), any(PreparedStatementSetter.class),
+        any(RowMapper.class))).thenReturn(Arrays.asList(
+            ImmutablePair.of(kept, keptId), ImmutablePair.of(removed, removedId)));
+    when(jdbcTemplate.batchUpdate(anyString(), anyListOf(Object[].class)))
+        .thenReturn(new int[]{1});
+
+    // when
+    rightAssignmentService.regenerateRightAssignments(RightAssignmentChange.forRoles(roleId));
+
+    // then
+    verify(jdbcTemplate, never()).update(DELETE_SQL);
+    assertThat(getBoundValues(DELETE_BY_IDS_SQL), containsInAnyOrder(removedId));
+
+    ArgumentCaptor<List> inserted = ArgumentCaptor.forClass(List.class);
+    verify(jdbcTemplate).batchUpdate(anyString(), inserted.capture());
+    assertEquals(1, inserted.getValue().size());
+    Object[] row = (Object[]) inserted.getValue().get(0);
+    assertEquals(userId.toString(), row[1]);
+    assertEquals("added", row[2]);
+
+    verify(permissionCache).invalidate(Collections.singletonList(userId));
+    verify(permissionCache, never()).invalidateAll();
+    verify(permissionIndex).refresh(Collections.singletonList(userId));
+  }
+
+  @Test
+  public void shouldNotChangeRightAssignmentsIfNoUsersAreAffected() {
+    // given
+    enableIncrementalRegeneration(true);
+    when(jdbcTemplate.query(eq(AFFECTED_USERS_SQL), any(PreparedStatementSetter.class),
+        any(RowMapper.class))).thenReturn(Collections.emptyList());
+
+    // when
+    rightAssignmentService.regenerateRightAssignments(
+        RightAssignmentChange.forFacilities(UUID.randomUUID()));
+
+    // then
+    verify(jdbcTemplate, never()).update(anyString(), any(PreparedStatementSetter.class));
+    verify(jdbcTemplate, never()).batchUpdate(anyString(), anyListOf(Object[].class));
+    verifyZeroInteractions(permissionCache, permissionIndex);
+  }
+
+  @Test
+  public void shouldRebuildAllRightAssignmentsIfIncrementalRegenerationIsDisabled() {
+    // given
+    enableIncrementalRegeneration(false);
+
+    // when
+    rightAssignmentService.regenerateRightAssignments(
+        RightAssignmentChange.forSupervisoryNodes(supervisoryNodeId));
+
+    // then
+    verify(jdbcTemplate).update(DELETE_SQL);
+    verify(permissionCache).invalidateAll();
+    verify(permissionIndex).refreshAll();
+  }
+
+  @Test
+  public void shouldRebuildAllRightAssignmentsIfAffectedUsersCannotBeRead() throws Exception {
+    // given
+    enableIncrementalRegeneration(true);
+    Resource brokenResource = mock(Resource.class);
+    when(brokenResource.getInputStream()).thenThrow(new IOException("test"));
+    when(resourceLoader.getResource(anyString())).thenReturn(brokenResource);
+
+    // when
+    rightAssignmentService.regenerateRightAssignments(
+        RightAssignmentChange.forFacilities(UUID.randomUUID()));
+
+    // then
+    verify(jdbcTemplate).update(DELETE_SQL);
+    verify(permissionCache).invalidateAll();
+    verify(permissionIndex).refreshAll();
+  }
+
+  @Test
+  public void shouldRebuildRightAssignmentsInShadowTableIfEnabled() {
+    // given
+    enableIncrementalRegeneration(false);
+    ReflectionTestUtils.setField(rightAssignmentService, "shadowTableEnabled", true);
+
+    // when
+    rightAssignmentService.regenerateRightAssignments();
+
+    // then
+    verify(jdbcTemplate, never()).update(DELETE_SQL);
+    InOrder order = inOrder(jdbcTemplate);
+    order.verify(jdbcTemplate).execute("CREATE TABLE referencedata.right_assignments_shadow"
+        + " (LIKE referencedata.right_assignments INCLUDING DEFAULTS)");
+    order.verify(jdbcTemplate).execute("ANALYZE referencedata.right_assignments_shadow");
+    order.verify(jdbcTemplate).execute("LOCK TABLE referencedata.right_assignments"
+        + " IN ACCESS EXCLUSIVE MODE");
+    order.verify(jdbcTemplate).execute("DROP TABLE referencedata.right_assignments");
+    order.verify(jdbcTemplate).execute("ALTER TABLE referencedata.right_assignments_shadow"
+        + " RENAME TO \"right_assignments\"");
+  }
+
+  private void enableIncrementalRegeneration(boolean enabled) {
+    ReflectionTestUtils.setField(rightAssignmentService, "incrementalEnabled", enabled);
+    ReflectionTestUtils.setField(rightAssignmentService, "rightAssignmentsResource",
+        mockResource("SELECT all right assignments"));
+    ReflectionTestUtils.setField(rightAssignmentService, "userRightAssignmentsResource",
+        mockResource(USER_RIGHT_ASSIGNMENTS_SQL));
+    Resource affectedUsersResource = mockResource(AFFECTED_USERS_SQL);
+    when(resourceLoader.getResource(anyString())).thenReturn(affectedUsersResource);
+  }
+
+  private Resource mockResource(String content) {
+    Resource resource = mock(Resource.class);
+    try {
+      when(resource.getInputStream()).thenAnswer(invocation -> IOUtils.toInputStream(content));
+    } catch (IOException ioe) {
+      throw new IllegalStateException(ioe);
+    }
+    return resource;
+  }
+
+  private List<Object> getBoundValues(String sql) throws SQLException {
+    ArgumentCaptor<PreparedStatementSetter> setter =
+        ArgumentCaptor.forClass(PreparedStatementSetter.class);
+    verify(jdbcTemplate).update(eq(sql), setter.capture());
+
+    PreparedStatement statement = mock(PreparedStatement.class);
+    Connection connection = mock(Connection.class);
+    when(statement.getConnection()).thenReturn(connection);
+    when(connection.createArrayOf(eq("uuid"), any(Object[].class))).thenReturn(mock(Array.class));
+    setter.getValue().setValues(statement);
+
+    ArgumentCaptor<Object[]> values = ArgumentCaptor.forClass(Object[].class);
+    verify(connection).createArrayOf(eq("uuid"), values.capture());
+    return Arrays.asList(values.getValue());
+  }
 }
@@ -18,6 +18,8 @@ package org.openlmis.referencedata.service;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.openlmis.referencedata.testbuilder.OAuth2AuthenticationDataBuilder.API_KEY_PREFIX;
 import static org.openlmis.referencedata.testbuilder.OAuth2AuthenticationDataBuilder.SERVICE_CLIENT_ID;
@@ -29,11 +31,8 @@ import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
-import org.openlmis.referencedata.domain.RightQuery;
-import org.openlmis.referencedata.domain.User;
+import org.openlmis.referencedata.dto.UserPrincipal;
 import org.openlmis.referencedata.exception.UnauthorizedException;
-import org.openlmis.referencedata.repository.RightAssignmentRepository;
-import org.openlmis.referencedata.repository.UserRepository;
 import org.openlmis.referencedata.testbuilder.OAuth2AuthenticationDataBuilder;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -47,10 +46,7 @@ public class RightServiceTest {
   private static final String RIGHT_NAME = "RIGHT_NAME";
 
   @Mock
-  private UserRepository userRepository;
-
-  @Mock
-  private RightAssignmentRepository rightAssignmentRepository;
+  private PermissionCache permissionCache;
 
   @Mock
   private AuthenticationHelper authenticationHelper;
@@ -62,7 +58,6 @@ public class RightServiceTest {
   private OAuth2Authentication trustedClient;
   private OAuth2Authentication userClient;
   private OAuth2Authentication apiKeyClient;
-  private User user;
   private UUID userId;
   
   @Before
@@ -70,11 +65,10 @@ public class RightServiceTest {
     securityContext = mock(SecurityContext.class);
     SecurityContextHolder.setContext(securityContext);
 
-    user = mock(User.class);
     userId = UUID.randomUUID();
-    when(user.getId()).thenReturn(userId);
 
-    when(authenticationHelper.getCurrentUser()).thenReturn(user);
+    when(authenticationHelper.getCurrentUserPrincipal())
+        .thenReturn(new UserPrincipal(userId, null, true));
 
     trustedClient = new OAuth2AuthenticationDataBuilder().buildServiceAuthentication();
     userClient = new OAuth2AuthenticationDataBuilder().withUserId(userId).buildUserAuthentication();
@@ -108,7 +102,7 @@ public class RightServiceTest {
   @Test
   public void checkAdminRightShouldAllowUserWhoHasRight() {
     when(securityContext.getAuthentication()).thenReturn(userClient);
-    when(rightAssignmentRepository.existsByUserIdAndRightName(user.getId(), RIGHT_NAME))
+    when(permissionCache.hasRight(userId, RIGHT_NAME))
         .thenReturn(true);
 
     rightService.checkAdminRight(RIGHT_NAME);
@@ -117,17 +111,24 @@ public class RightServiceTest {
   @Test
   public void checkAdminRightShouldAllowRequesterWithSpecifiedUserId() {
     when(securityContext.getAuthentication()).thenReturn(userClient);
-    when(userRepository.exists(any(UUID.class))).thenReturn(true);
-    when(userRepository.findOne(any(UUID.class))).thenReturn(user);
-    when(user.hasRight(any(RightQuery.class))).thenReturn(false);
 
-    rightService.checkAdminRight(RIGHT_NAME, true, user.getId());
+    rightService.checkAdminRight(RIGHT_NAME, true, userId);
+
+    verify(permissionCache, never()).hasRight(any(UUID.class), any(String.class));
+    verify(authenticationHelper, never()).getCurrentUser();
+  }
+
+  @Test(expected = UnauthorizedException.class)
+  public void checkAdminRightShouldNotAllowRequesterWithOtherUserIdWithoutRight() {
+    when(securityContext.getAuthentication()).thenReturn(userClient);
+
+    rightService.checkAdminRight(RIGHT_NAME, true, UUID.randomUUID());
   }
   
   @Test(expected = UnauthorizedException.class)
   public void checkAdminRightShouldThrowUnauthorizedExceptionForUserWhoDoesNotHaveRight() {
     when(securityContext.getAuthentication()).thenReturn(userClient);
-    when(rightAssignmentRepository.existsByUserIdAndRightName(user.getId(), RIGHT_NAME))
+    when(permissionCache.hasRight(userId, RIGHT_NAME))
         .thenReturn(false);
 
     rightService.checkAdminRight(RIGHT_NAME);
@@ -157,7 +158,7 @@ public class RightServiceTest {
   @Test
   public void shouldReturnTrueIfUserHasRight() {
     when(securityContext.getAuthentication()).thenReturn(userClient);
-    when(rightAssignmentRepository.existsByUserIdAndRightName(user.getId(), RIGHT_NAME))
+    when(permissionCache.hasRight(userId, RIGHT_NAME))
         .thenReturn(true);
 
     assertThat(rightService.hasRight(RIGHT_NAME)).isTrue();
@@ -166,7 +167,7 @@ public class RightServiceTest {
   @Test
   public void shouldReturnFalseIfUserHasNoRight() {
     when(securityContext.getAuthentication()).thenReturn(userClient);
-    when(rightAssignmentRepository.existsByUserIdAndRightName(user.getId(), RIGHT_NAME))
+    when(permissionCache.hasRight(userId, RIGHT_NAME))
         .thenReturn(false);
 
     assertThat(rightService.hasRight(RIGHT_NAME)).isFalse();
@@ -0,0 +1,251 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.service;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+import static org.openlmis.referencedata.service.SupervisedFacilityExpander.SELECT_NODE_PARENTS_SQL;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openlmis.referencedata.service.SupervisedFacilityExpander.Strategy;
+import org.springframework.core.io.Resource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SupervisedFacilityExpanderTest {
+
+  private static final String PER_NODE_SQL = "SELECT facilities of node";
+  private static final String ALL_NODES_SQL = "SELECT facilities of nodes";
+  private static final String DIRECTLY_SUPERVISED_SQL = "SELECT directly supervised facilities";
+
+  @Mock
+  private JdbcTemplate template;
+
+  @InjectMocks
+  private SupervisedFacilityExpander expander;
+
+  private UUID programId = UUID.randomUUID();
+  private UUID otherProgramId = UUID.randomUUID();
+  private UUID rootNodeId = UUID.randomUUID();
+  private UUID childNodeId = UUID.randomUUID();
+  private UUID grandchildNodeId = UUID.randomUUID();
+  private UUID rootFacilityId = UUID.randomUUID();
+  private UUID childFacilityId = UUID.randomUUID();
+  private UUID grandchildFacilityId = UUID.randomUUID();
+
+  @Before
+  public void setUp() throws IOException {
+    ReflectionTestUtils.setField(expander, "supervisedFacilitiesResource",
+        mockResource(PER_NODE_SQL));
+    ReflectionTestUtils.setField(expander, "allSupervisedFacilitiesResource",
+        mockResource(ALL_NODES_SQL));
+    ReflectionTestUtils.setField(expander, "directlySupervisedFacilitiesResource",
+        mockResource(DIRECTLY_SUPERVISED_SQL));
+  }
+
+  @Test
+  public void shouldNotQueryDatabaseIfThereIsNothingToExpand() throws IOException {
+    for (Strategy strategy : Strategy.values()) {
+      assertTrue(expander.expand(Collections.emptyList(), strategy).isEmpty());
+    }
+
+    verifyZeroInteractions(template);
+  }
+
+  @Test
+  public void shouldExpandEachPairWithSeparateQueryForPerRowStrategy() throws IOException {
+    // given
+    when(template.queryForList(PER_NODE_SQL, UUID.class, rootNodeId, programId))
+        .thenReturn(Arrays.asList(rootFacilityId, childFacilityId));
+    when(template.queryForList(PER_NODE_SQL, UUID.class, childNodeId, programId))
+        .thenReturn(Collections.singletonList(childFacilityId));
+
+    // when
+    Map<Pair<UUID, UUID>, Set<UUID>> result = expander.expand(Arrays.asList(
+        ImmutablePair.of(rootNodeId, programId), ImmutablePair.of(childNodeId, programId)),
+        Strategy.PER_ROW);
+
+    // then
+    assertThat(result.get(ImmutablePair.of(rootNodeId, programId)),
+        containsInAnyOrder(rootFacilityId, childFacilityId));
+    assertThat(result.get(ImmutablePair.of(childNodeId, programId)),
+        containsInAnyOrder(childFacilityId));
+  }
+
+  @Test
+  public void shouldPassRequestedPairsAsParallelArraysForSingleQueryStrategy()
+      throws IOException, SQLException {
+    // given
+    doAnswer(invocation -> {
+      RowCallbackHandler handler = (RowCallbackHandler) invocation.getArguments()[2];
+      processRows(handler, Arrays.asList(
+          row(rootNodeId, programId, rootFacilityId),
+          row(rootNodeId, programId, childFacilityId),
+          row(childNodeId, otherProgramId, childFacilityId)));
+      return null;
+    }).when(template).query(eq(ALL_NODES_SQL), any(PreparedStatementSetter.class),
+        any(RowCallbackHandler.class));
+
+    // when
+    final Map<Pair<UUID, UUID>, Set<UUID>> result = expander.expand(Arrays.asList(
+        ImmutablePair.of(rootNodeId, programId), ImmutablePair.of(childNodeId, otherProgramId)),
+        Strategy.SINGLE_QUERY);
+
+    // then
+    ArgumentCaptor<PreparedStatementSetter> setter =
+        ArgumentCaptor.forClass(PreparedStatementSetter.class);
+    verify(template, times(1)).query(anyString(), setter.capture(),
+        any(RowCallbackHandler.class));
+
+    Connection connection = mock(Connection.class);
+    PreparedStatement statement = mock(PreparedStatement.class);
+    when(statement.getConnection()).thenReturn(connection);
+    setter.getValue().setValues(statement);
+
+    ArgumentCaptor<Object[]> arrays = ArgumentCaptor.forClass(Object[].class);
+    verify(connection, times(2)).createArrayOf(eq("uuid"), arrays.capture());
+    Object[] nodeIds = arrays.getAllValues().get(0);
+    Object[] programIds = arrays.getAllValues().get(1);
+    assertEquals(2, nodeIds.length);
+    for (int index = 0; index < nodeIds.length; ++index) {
+      assertEquals(nodeIds[index].equals(rootNodeId) ? programId : otherProgramId,
+          programIds[index]);
+    }
+
+    assertEquals(2, result.size());
+    assertThat(result.get(ImmutablePair.of(rootNodeId, programId)),
+        containsInAnyOrder(rootFacilityId, childFacilityId));
+    assertThat(result.get(ImmutablePair.of(childNodeId, otherProgramId)),
+        containsInAnyOrder(childFacilityId));
+  }
+
+  @Test
+  public void shouldIncludeFacilitiesOfDescendantNodesForInMemoryStrategy() throws IOException {
+    // given
+    mockHierarchy();
+
+    // when
+    Map<Pair<UUID, UUID>, Set<UUID>> result = expander.expand(Arrays.asList(
+        ImmutablePair.of(rootNodeId, programId),
+        ImmutablePair.of(childNodeId, programId),
+        ImmutablePair.of(rootNodeId, otherProgramId)),
+        Strategy.IN_MEMORY);
+
+    // then
+    assertThat(result.get(ImmutablePair.of(rootNodeId, programId)),
+        containsInAnyOrder(rootFacilityId, childFacilityId, grandchildFacilityId));
+    assertThat(result.get(ImmutablePair.of(childNodeId, programId)),
+        containsInAnyOrder(childFacilityId, grandchildFacilityId));
+    assertThat(result.get(ImmutablePair.of(rootNodeId, otherProgramId)),
+        containsInAnyOrder(grandchildFacilityId));
+  }
+
+  @Test
+  public void shouldReturnEmptySetForNodeWithoutFacilitiesForInMemoryStrategy()
+      throws IOException {
+    // given
+    mockHierarchy();
+    UUID leafNodeId = UUID.randomUUID();
+
+    // when
+    Map<Pair<UUID, UUID>, Set<UUID>> result = expander.expand(
+        Collections.singletonList(ImmutablePair.of(leafNodeId, programId)), Strategy.IN_MEMORY);
+
+    // then
+    assertThat(result.get(ImmutablePair.of(leafNodeId, programId)), empty());
+  }
+
+  private void mockHierarchy() {
+    doAnswer(invocation -> {
+      processRows((RowCallbackHandler) invocation.getArguments()[1], Arrays.asList(
+          parent(childNodeId, rootNodeId),
+          parent(grandchildNodeId, childNodeId)));
+      return null;
+    }).when(template).query(eq(SELECT_NODE_PARENTS_SQL), any(RowCallbackHandler.class));
+
+    doAnswer(invocation -> {
+      processRows((RowCallbackHandler) invocation.getArguments()[1], Arrays.asList(
+          row(rootNodeId, programId, rootFacilityId),
+          row(childNodeId, programId, childFacilityId),
+          row(grandchildNodeId, programId, grandchildFacilityId),
+          row(grandchildNodeId, otherProgramId, grandchildFacilityId)));
+      return null;
+    }).when(template).query(eq(DIRECTLY_SUPERVISED_SQL), any(RowCallbackHandler.class));
+  }
+
+  private void processRows(RowCallbackHandler handler, List<ResultSet> rows)
+      throws SQLException {
+    for (ResultSet row : rows) {
+      handler.processRow(row);
+    }
+  }
+
+  private ResultSet row(UUID nodeId, UUID programId, UUID facilityId) throws SQLException {
+    ResultSet rs = mock(ResultSet.class);
+    when(rs.getString("supervisorynodeid")).thenReturn(nodeId.toString());
+    when(rs.getString("programid")).thenReturn(programId.toString());
+    when(rs.getString("facilityid")).thenReturn(facilityId.toString());
+    return rs;
+  }
+
+  private ResultSet parent(UUID nodeId, UUID parentId) throws SQLException {
+    ResultSet rs = mock(ResultSet.class);
+    when(rs.getString("id")).thenReturn(nodeId.toString());
+    when(rs.getString("parentid")).thenReturn(parentId.toString());
+    return rs;
+  }
+
+  private Resource mockResource(String content) throws IOException {
+    Resource resource = mock(Resource.class);
+    when(resource.getInputStream()).thenAnswer(invocation -> IOUtils.toInputStream(content));
+    return resource;
+  }
+}
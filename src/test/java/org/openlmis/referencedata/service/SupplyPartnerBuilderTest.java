@@ -143,6 +143,8 @@ public class SupplyPartnerBuilderTest {
     when(supervisoryNodeRepository.findOne(supervisoryNode.getId())).thenReturn(supervisoryNode);
     when(facilityRepository.findAll(Sets.newHashSet(facility.getId())))
         .thenReturn(Lists.newArrayList(facility));
+    when(facilityRepository.findSupervisedFacilities(supervisoryNode.getId(), program.getId()))
+        .thenReturn(Sets.newHashSet(facility));
     when(orderableRepository.findAllLatestByIds(
         Sets.newHashSet(orderable.getId()), new PageRequest(0, 1)))
         .thenReturn(Pagination.getPage(Lists.newArrayList(orderable)));
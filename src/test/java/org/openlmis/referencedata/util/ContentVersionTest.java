@@ -0,0 +1,61 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import com.google.common.collect.Sets;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.UUID;
+import org.junit.Test;
+import org.openlmis.referencedata.dto.NamedResource;
+
+public class ContentVersionTest {
+
+  @Test
+  public void shouldNotDependOnOrderOfElements() {
+    LinkedHashSet<String> first = new LinkedHashSet<>(Sets.newHashSet("b", "a", "c"));
+    LinkedHashSet<String> second = new LinkedHashSet<>(Sets.newHashSet("c", "b", "a"));
+
+    assertEquals(ContentVersion.ofStrings(first), ContentVersion.ofStrings(second));
+  }
+
+  @Test
+  public void shouldDifferForSetsWithSameHashCode() {
+    // "Aa" and "BB" have the same String hash code
+    assertEquals(Collections.singleton("Aa").hashCode(), Collections.singleton("BB").hashCode());
+
+    assertNotEquals(ContentVersion.ofStrings(Collections.singleton("Aa")),
+        ContentVersion.ofStrings(Collections.singleton("BB")));
+  }
+
+  @Test
+  public void shouldDifferWhenBoundariesBetweenElementsMove() {
+    assertNotEquals(ContentVersion.ofStrings(Sets.newHashSet("ab", "c")),
+        ContentVersion.ofStrings(Sets.newHashSet("a", "bc")));
+  }
+
+  @Test
+  public void shouldDifferWhenNamedResourceIsRenamed() {
+    UUID id = UUID.randomUUID();
+
+    assertNotEquals(
+        ContentVersion.ofNamedResources(Collections.singleton(new NamedResource(id, "name"))),
+        ContentVersion.ofNamedResources(Collections.singleton(new NamedResource(id, "other"))));
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.util;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HotPathTimerTest {
+
+  private HotPathTimer timer;
+
+  @Before
+  public void setUp() {
+    timer = HotPathTimer.get("hotPathTimerTest");
+    timer.reset();
+  }
+
+  @After
+  public void tearDown() {
+    HotPathTimer.setSampleRate(0);
+    timer.reset();
+  }
+
+  @Test
+  public void shouldReturnSameTimerForSameName() {
+    assertSame(timer, HotPathTimer.get("hotPathTimerTest"));
+    assertTrue(HotPathTimer.getAll().contains(timer));
+  }
+
+  @Test
+  public void shouldNotTimeCallsWhenDisabled() {
+    HotPathTimer.setSampleRate(0);
+
+    long start = timer.start();
+    timer.stop(start);
+
+    assertEquals(0, start);
+    assertEquals(0, timer.getCount());
+    assertEquals(0, timer.getMeanNanos());
+    assertEquals(0, timer.getPercentileNanos(99));
+  }
+
+  @Test
+  public void shouldTimeAllCallsWithSampleRateOfOne() {
+    HotPathTimer.setSampleRate(1);
+
+    for (int call = 0; call < 10; ++call) {
+      timer.stop(timer.start());
+    }
+
+    assertEquals(10, timer.getCount());
+  }
+
+  @Test
+  public void shouldTimeSomeCallsWithHigherSampleRate() {
+    HotPathTimer.setSampleRate(10);
+
+    for (int call = 0; call < 10_000; ++call) {
+      timer.stop(timer.start());
+    }
+
+    assertThat(timer.getCount(), greaterThanOrEqualTo(500L));
+    assertThat(timer.getCount(), lessThanOrEqualTo(2_000L));
+  }
+
+  @Test
+  public void shouldEstimatePercentilesAsBucketUpperBounds() {
+    HotPathTimer.setSampleRate(1);
+    long now = System.nanoTime();
+
+    timer.stop(now);
+    final long duration = System.nanoTime() - now;
+
+    long percentile = timer.getPercentileNanos(50);
+    assertEquals(1, timer.getCount());
+    assertThat(percentile, greaterThanOrEqualTo(timer.getMeanNanos()));
+    assertEquals(Long.highestOneBit(percentile + 1), percentile + 1);
+    assertThat(timer.getMeanNanos(), lessThanOrEqualTo(duration));
+  }
+
+  @Test
+  public void shouldClearCountsOnReset() {
+    HotPathTimer.setSampleRate(1);
+    timer.stop(timer.start());
+
+    timer.reset();
+
+    assertEquals(0, timer.getCount());
+    assertEquals(0, timer.getPercentileNanos(50));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectNegativeSampleRate() {
+    HotPathTimer.setSampleRate(-1);
+  }
+}
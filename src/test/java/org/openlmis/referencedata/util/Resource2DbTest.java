@@ -17,25 +17,45 @@ package org.openlmis.referencedata.util;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
 import org.springframework.core.io.Resource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.UncategorizedSQLException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -150,4 +170,96 @@ public class Resource2DbTest {
   public void insertToDbFromCsvWithNullResourceShouldThrowException() throws IOException {
     resource2Db.insertToDbFromCsv("test", null);
   }
+
+  @Test
+  public void insertToDbFromIteratorShouldCopyRowsInCsvFormat() throws SQLException {
+    // given
+    CopyIn copyIn = mockCopyIn();
+    ByteArrayOutputStream written = new ByteArrayOutputStream();
+    doAnswer(invocation -> {
+      written.write((byte[]) invocation.getArguments()[0], (int) invocation.getArguments()[1],
+          (int) invocation.getArguments()[2]);
+      return null;
+    }).when(copyIn).writeToCopy(any(byte[].class), anyInt(), anyInt());
+    when(copyIn.endCopy()).thenReturn(2L);
+
+    // when
+    long inserted = resource2Db.insertToDbFromIterator("sometable", Arrays.asList("a", "b", "c"),
+        Arrays.asList(new Object[]{"a", null, "x\"y"}, new Object[]{"", 1, "x,\ny"}).iterator());
+
+    // then
+    assertEquals(2, inserted);
+    assertEquals("\"a\",,\"x\"\"y\"\n\"\",\"1\",\"x,\ny\"\n",
+        new String(written.toByteArray(), StandardCharsets.UTF_8));
+    verify(template, never()).batchUpdate(anyString(), any(List.class));
+  }
+
+  @Test
+  public void insertToDbFromIteratorShouldCancelCopyIfWritingFails() throws SQLException {
+    // given
+    CopyIn copyIn = mockCopyIn();
+    doThrow(new SQLException("test")).when(copyIn).writeToCopy(any(byte[].class), anyInt(),
+        anyInt());
+    when(copyIn.isActive()).thenReturn(true);
+
+    // when
+    try {
+      resource2Db.insertToDbFromIterator("sometable", Collections.singletonList("a"),
+          Collections.singletonList(new Object[]{"a"}).iterator());
+      fail("Expected DataAccessException");
+    } catch (DataAccessException ex) {
+      // then
+      verify(copyIn).cancelCopy();
+    }
+  }
+
+  @Test
+  public void insertToDbFromIteratorShouldUseBatchInsertsIfCopyIsNotSupported()
+      throws SQLException {
+    // given
+    Connection connection = mockConnection();
+    when(connection.isWrapperFor(PGConnection.class)).thenReturn(false);
+    when(template.batchUpdate(anyString(), any(List.class)))
+        .thenAnswer(invocation -> new int[((List) invocation.getArguments()[1]).size()]);
+    List<Object[]> rows = new ArrayList<>();
+    for (int i = 0; i <= Resource2Db.BATCH_SIZE; i++) {
+      rows.add(new Object[]{i});
+    }
+
+    // when
+    resource2Db.insertToDbFromIterator("sometable", Collections.singletonList("a"),
+        rows.iterator());
+
+    // then
+    ArgumentCaptor<List> batches = ArgumentCaptor.forClass(List.class);
+    verify(template, times(2))
+        .batchUpdate(eq("INSERT INTO sometable (a) VALUES (?)"), batches.capture());
+    assertEquals(Resource2Db.BATCH_SIZE, batches.getAllValues().get(0).size());
+    assertEquals(1, batches.getAllValues().get(1).size());
+  }
+
+  private CopyIn mockCopyIn() throws SQLException {
+    Connection connection = mockConnection();
+    PGConnection pgConnection = mock(PGConnection.class);
+    CopyManager copyManager = mock(CopyManager.class);
+    CopyIn copyIn = mock(CopyIn.class);
+
+    when(connection.isWrapperFor(PGConnection.class)).thenReturn(true);
+    when(connection.unwrap(PGConnection.class)).thenReturn(pgConnection);
+    when(pgConnection.getCopyAPI()).thenReturn(copyManager);
+    when(copyManager.copyIn(anyString())).thenReturn(copyIn);
+    return copyIn;
+  }
+
+  private Connection mockConnection() {
+    Connection connection = mock(Connection.class);
+    when(template.execute(any(ConnectionCallback.class))).thenAnswer(invocation -> {
+      try {
+        return ((ConnectionCallback) invocation.getArguments()[0]).doInConnection(connection);
+      } catch (SQLException ex) {
+        throw new UncategorizedSQLException("test", null, ex);
+      }
+    });
+    return connection;
+  }
 }
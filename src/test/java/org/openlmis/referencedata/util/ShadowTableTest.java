@@ -0,0 +1,150 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.openlmis.referencedata.util.ShadowTable.SELECT_CONSTRAINTS_SQL;
+import static org.openlmis.referencedata.util.ShadowTable.SELECT_GRANTS_SQL;
+import static org.openlmis.referencedata.util.ShadowTable.SELECT_INDEXES_SQL;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ShadowTableTest {
+
+  private static final String TABLE = "referencedata.some_table";
+  private static final String SHADOW_TABLE = "referencedata.some_table_shadow";
+
+  @Mock
+  private JdbcTemplate template;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  private ShadowTable shadowTable;
+
+  @Before
+  public void setUp() throws SQLException {
+    shadowTable = new ShadowTable(template, transactionManager, "referencedata", "some_table");
+
+    ResultSet constraint = mock(ResultSet.class);
+    when(constraint.getString("name")).thenReturn("some_table_pkey");
+    when(constraint.getString("definition")).thenReturn("PRIMARY KEY (id)");
+    mockQuery(SELECT_CONSTRAINTS_SQL, constraint);
+
+    ResultSet index = mock(ResultSet.class);
+    when(index.getString("name")).thenReturn("some_table_code_idx");
+    when(index.getString("uniqueness")).thenReturn("UNIQUE ");
+    when(index.getString("definition")).thenReturn(" USING btree (code)");
+    mockQuery(SELECT_INDEXES_SQL, index);
+
+    ResultSet grant = mock(ResultSet.class);
+    when(grant.getString("grantee")).thenReturn("\"reader\"");
+    when(grant.getString("privilege")).thenReturn("SELECT");
+    when(grant.getBoolean("grantable")).thenReturn(false);
+    mockQuery(SELECT_GRANTS_SQL, grant);
+  }
+
+  @Test
+  public void shouldCreateShadowTableWithoutConstraintsAndIndexes() {
+    // when
+    shadowTable.create();
+
+    // then
+    InOrder order = inOrder(template);
+    order.verify(template).execute("DROP TABLE IF EXISTS " + SHADOW_TABLE);
+    order.verify(template).execute("CREATE TABLE " + SHADOW_TABLE
+        + " (LIKE " + TABLE + " INCLUDING DEFAULTS)");
+  }
+
+  @Test
+  public void shouldCopyConstraintsAndIndexesWithShadowNames() {
+    // when
+    shadowTable.build();
+
+    // then
+    InOrder order = inOrder(template);
+    order.verify(template).execute("ALTER TABLE " + SHADOW_TABLE
+        + " ADD CONSTRAINT \"some_table_pkey_shadow\" PRIMARY KEY (id)");
+    order.verify(template).execute("CREATE UNIQUE INDEX \"some_table_code_idx_shadow\" ON "
+        + SHADOW_TABLE + " USING btree (code)");
+    order.verify(template).execute("ANALYZE " + SHADOW_TABLE);
+  }
+
+  @Test
+  public void shouldReplaceTableAndRestoreNamesAndPrivilegesInOneTransaction() {
+    // given
+    shadowTable.build();
+
+    // when
+    shadowTable.swap();
+
+    // then
+    InOrder order = inOrder(transactionManager, template);
+    order.verify(transactionManager).getTransaction(any(TransactionDefinition.class));
+    order.verify(template).execute("LOCK TABLE " + TABLE + " IN ACCESS EXCLUSIVE MODE");
+    order.verify(template).query(eq(SELECT_GRANTS_SQL), any(RowMapper.class), eq(TABLE));
+    order.verify(template).execute("DROP TABLE " + TABLE);
+    order.verify(template).execute("ALTER TABLE " + SHADOW_TABLE + " RENAME TO \"some_table\"");
+    order.verify(template).execute("ALTER TABLE " + TABLE
+        + " RENAME CONSTRAINT \"some_table_pkey_shadow\" TO \"some_table_pkey\"");
+    order.verify(template).execute("ALTER INDEX referencedata.\"some_table_code_idx_shadow\""
+        + " RENAME TO \"some_table_code_idx\"");
+    order.verify(template).execute("GRANT SELECT ON " + TABLE + " TO \"reader\"");
+    order.verify(transactionManager).commit(any(TransactionStatus.class));
+  }
+
+  @Test
+  public void shouldKeepShadowNamesWithinIdentifierLength() {
+    // given
+    String longName = "a_very_long_table_name_which_is_exactly_sixty_three_characters_";
+    assertEquals(63, longName.length());
+
+    // when
+    String shadowName =
+        new ShadowTable(template, transactionManager, "s", longName).getShadowTableName();
+
+    // then
+    assertEquals(63, shadowName.length() - "s.".length());
+  }
+
+  private void mockQuery(String sql, ResultSet row) {
+    when(template.query(eq(sql), any(RowMapper.class), eq(TABLE))).thenAnswer(invocation -> {
+      List<Object> rows = new ArrayList<>();
+      rows.add(((RowMapper) invocation.getArguments()[1]).mapRow(row, 0));
+      return rows;
+    });
+  }
+}
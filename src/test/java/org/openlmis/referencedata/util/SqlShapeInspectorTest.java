@@ -0,0 +1,85 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+
+public class SqlShapeInspectorTest {
+
+  private SqlShapeInspector inspector = new SqlShapeInspector();
+
+  @Before
+  public void setUp() {
+    SqlShapeInspector.reset();
+  }
+
+  @After
+  public void tearDown() {
+    SqlShapeInspector.reset();
+  }
+
+  @Test
+  public void shouldNotChangeStatements() {
+    assertNull(inspector.inspect("SELECT 1"));
+  }
+
+  @Test
+  public void shouldCountDistinctShapes() {
+    inspector.inspect("SELECT * FROM facilities WHERE id = ?");
+    inspector.inspect("SELECT * FROM facilities WHERE id = ?");
+    inspector.inspect("SELECT * FROM users WHERE id = ?");
+
+    assertEquals(2, SqlShapeInspector.getShapeCount());
+    assertEquals(3, SqlShapeInspector.getStatementCount());
+    assertEquals(0, SqlShapeInspector.getUntrackedCount());
+  }
+
+  @Test
+  public void shouldStopTrackingShapesAboveLimit() {
+    for (int i = 0; i < SqlShapeInspector.MAX_SHAPES; i++) {
+      inspector.inspect("SELECT " + i);
+    }
+
+    inspector.inspect("SELECT 0");
+    inspector.inspect("SELECT -1");
+
+    assertEquals(SqlShapeInspector.MAX_SHAPES, SqlShapeInspector.getShapeCount());
+    assertEquals(SqlShapeInspector.MAX_SHAPES + 2L, SqlShapeInspector.getStatementCount());
+    assertEquals(1, SqlShapeInspector.getUntrackedCount());
+  }
+
+  @Test
+  public void shouldPublishCountsAsMetrics() {
+    inspector.inspect("SELECT 1");
+    inspector.inspect("SELECT 1");
+
+    Map<String, Number> metrics = new SqlShapeMetrics().metrics()
+        .stream()
+        .collect(Collectors.toMap(Metric::getName, Metric::getValue));
+
+    assertEquals(1, metrics.get("sqlShapes.distinct"));
+    assertEquals(2L, metrics.get("sqlShapes.statements"));
+    assertEquals(0L, metrics.get("sqlShapes.untracked"));
+  }
+}
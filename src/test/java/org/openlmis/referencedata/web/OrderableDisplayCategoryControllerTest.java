@@ -30,6 +30,7 @@ import org.openlmis.referencedata.domain.OrderableDisplayCategory;
 import org.openlmis.referencedata.domain.OrderedDisplayValue;
 import org.openlmis.referencedata.dto.OrderableDisplayCategoryDto;
 import org.openlmis.referencedata.repository.OrderableDisplayCategoryRepository;
+import org.openlmis.referencedata.service.OrderableCatalog;
 import org.openlmis.referencedata.service.RightService;
 
 @SuppressWarnings({"PMD.UnusedPrivateField"})
@@ -41,6 +42,9 @@ public class OrderableDisplayCategoryControllerTest {
   @Mock
   private RightService rightService;
 
+  @Mock
+  private OrderableCatalog orderableCatalog;
+
   @InjectMocks
   private OrderableDisplayCategoryController controller;
 
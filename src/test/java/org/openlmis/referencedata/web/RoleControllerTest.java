@@ -38,7 +38,8 @@ import org.openlmis.referencedata.repository.CountResource;
 import org.openlmis.referencedata.repository.RightRepository;
 import org.openlmis.referencedata.repository.RoleAssignmentRepository;
 import org.openlmis.referencedata.repository.RoleRepository;
-import org.openlmis.referencedata.service.RightAssignmentService;
+import org.openlmis.referencedata.service.RightAssignmentChange;
+import org.openlmis.referencedata.service.RightAssignmentScheduler;
 import org.openlmis.referencedata.service.RightService;
 import org.openlmis.referencedata.testbuilder.RightDataBuilder;
 import org.openlmis.referencedata.testbuilder.RoleDataBuilder;
@@ -61,7 +62,7 @@ public class RoleControllerTest {
   private RightService rightService;
   
   @Mock
-  private RightAssignmentService rightAssignmentService;
+  private RightAssignmentScheduler rightAssignmentScheduler;
 
   @InjectMocks
   private RoleController controller = new RoleController();
@@ -180,7 +181,8 @@ public class RoleControllerTest {
 
     //then
     verify(repository).saveAndFlush(updatedRole1);
-    verify(rightAssignmentService).regenerateRightAssignments();
+    verify(rightAssignmentScheduler).schedule(
+        RightAssignmentChange.forRoles(role1.getId()));
   }
 
   @Test
@@ -197,7 +199,8 @@ public class RoleControllerTest {
 
     //then
     verify(repository).saveAndFlush(updatedRole1);
-    verify(rightAssignmentService).regenerateRightAssignments();
+    verify(rightAssignmentScheduler).schedule(
+        RightAssignmentChange.forRoles(role1.getId()));
   }
 
   @Test
@@ -217,7 +220,8 @@ public class RoleControllerTest {
 
     //then
     verify(repository).saveAndFlush(updatedRole1);
-    verify(rightAssignmentService).regenerateRightAssignments();
+    verify(rightAssignmentScheduler).schedule(
+        RightAssignmentChange.forRoles(role1.getId()));
   }
 
   @Test
@@ -237,7 +241,8 @@ public class RoleControllerTest {
 
     //then
     verify(repository).saveAndFlush(updatedRole1);
-    verify(rightAssignmentService).regenerateRightAssignments();
+    verify(rightAssignmentScheduler).schedule(
+        RightAssignmentChange.forRoles(role1.getId()));
   }
 
   @Test
@@ -254,7 +259,8 @@ public class RoleControllerTest {
 
     //then
     verify(repository).saveAndFlush(updatedRole1);
-    verify(rightAssignmentService).regenerateRightAssignments();
+    verify(rightAssignmentScheduler).schedule(
+        RightAssignmentChange.forRoles(role1.getId()));
   }
 
   @Test
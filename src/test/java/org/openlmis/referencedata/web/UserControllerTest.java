@@ -18,6 +18,7 @@ package org.openlmis.referencedata.web;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -44,6 +45,7 @@ import org.openlmis.referencedata.domain.SupervisoryNode;
 import org.openlmis.referencedata.domain.SupportedProgram;
 import org.openlmis.referencedata.domain.User;
 import org.openlmis.referencedata.dto.FacilityDto;
+import org.openlmis.referencedata.dto.NamedResource;
 import org.openlmis.referencedata.dto.RoleAssignmentDto;
 import org.openlmis.referencedata.dto.UserDto;
 import org.openlmis.referencedata.exception.NotFoundException;
@@ -56,6 +58,8 @@ import org.openlmis.referencedata.repository.RoleRepository;
 import org.openlmis.referencedata.repository.SupervisoryNodeRepository;
 import org.openlmis.referencedata.repository.UserRepository;
 import org.openlmis.referencedata.repository.UserSearchParams;
+import org.openlmis.referencedata.service.PermissionCache;
+import org.openlmis.referencedata.service.PermissionIndex;
 import org.openlmis.referencedata.service.RightService;
 import org.openlmis.referencedata.service.UserService;
 import org.openlmis.referencedata.testbuilder.SupportedProgramDataBuilder;
@@ -65,6 +69,8 @@ import org.openlmis.referencedata.util.UserSearchParamsDataBuilder;
 import org.openlmis.referencedata.validate.UserValidator;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
 
 @SuppressWarnings({"PMD.UnusedPrivateField", "PMD.TooManyMethods"})
@@ -104,6 +110,12 @@ public class UserControllerTest {
   @Mock
   private UserService userService;
 
+  @Mock
+  private PermissionCache permissionCache;
+
+  @Mock
+  private PermissionIndex permissionIndex;
+
   @InjectMocks
   private UserController controller = new UserController();
 
@@ -477,6 +489,51 @@ public class UserControllerTest {
     controller.getUserPrograms(userId);
   }
 
+  @Test
+  public void shouldReturnNotModifiedPermissionStringsIfAnyEtagMatches() {
+    //given
+    when(permissionIndex.getPermissionStringsVersion(userId)).thenReturn("123");
+
+    //when
+    ResponseEntity<Set<String>> response = controller.getUserPermissionStrings(userId,
+        "\"456\", W/\"123\"");
+
+    //then
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+    assertThat(response.getHeaders().getETag()).isEqualTo("\"123\"");
+    verify(permissionIndex, never()).getPermissionStrings(userId);
+  }
+
+  @Test
+  public void shouldReturnPermissionStringsIfEtagIsStale() {
+    //given
+    Set<String> permissionStrings = Collections.singleton("RIGHT");
+    when(permissionIndex.getPermissionStringsVersion(userId)).thenReturn("123");
+    when(permissionIndex.getPermissionStrings(userId)).thenReturn(permissionStrings);
+    when(repository.exists(userId)).thenReturn(true);
+
+    //when
+    ResponseEntity<Set<String>> response = controller.getUserPermissionStrings(userId,
+        "\"456\"");
+
+    //then
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(response.getBody()).isEqualTo(permissionStrings);
+  }
+
+  @Test
+  public void shouldReturnSupervisionFacilitiesIfIndexHasNoVersion() {
+    //given
+    when(repository.exists(userId)).thenReturn(true);
+
+    //when
+    ResponseEntity<Set<NamedResource>> response = controller.getUserFacilities(userId, "*");
+
+    //then
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    verify(permissionIndex).getSupervisionFacilities(userId);
+  }
+
   @Test
   public void shouldGetUserFulfillmentFacilities() {
     //given
@@ -0,0 +1,181 @@
+/*
+ * This program is part of the OpenLMIS logistics management information system platform software.
+ * Copyright © 2017 VillageReach
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms
+ * of the GNU Affero General Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details. You should have received a copy of
+ * the GNU Affero General Public License along with this program. If not, see
+ * http://www.gnu.org/licenses.  For additional information contact info@OpenLMIS.org.
+ */
+
+package org.openlmis.referencedata.web.csv.parser;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.openlmis.referencedata.util.messagekeys.CsvUploadMessageKeys.ERROR_UPLOAD_RECORD_INVALID;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.openlmis.referencedata.domain.IdealStockAmount;
+import org.openlmis.referencedata.dto.IdealStockAmountCsvModel;
+import org.openlmis.referencedata.exception.ValidationMessageException;
+import org.openlmis.referencedata.validate.CsvHeaderValidator;
+import org.openlmis.referencedata.web.csv.model.ModelClass;
+import org.openlmis.referencedata.web.csv.processor.ParseCommodityType;
+import org.openlmis.referencedata.web.csv.processor.ParseProcessingPeriod;
+import org.openlmis.referencedata.web.csv.recordhandler.RecordProcessor;
+import org.openlmis.referencedata.web.csv.recordhandler.RecordWriter;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CsvParserTest {
+
+  private static final String HEADER = "Facility Code,Commodity Type,Period,Ideal Stock Amount\n";
+  private static final String ROW = "facility-code,system|id,schedule|period,%s\n";
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  private ThreadPoolTaskExecutor readerExecutor = newExecutor();
+  private ThreadPoolTaskExecutor processorExecutor = newExecutor();
+
+  private CsvParser csvParser = new CsvParser();
+
+  private List<Integer> written = Collections.synchronizedList(new ArrayList<>());
+
+  private RecordProcessor<IdealStockAmountCsvModel, IdealStockAmount> processor = records -> {
+    sleepRandomly();
+    return records.stream()
+        .map(record -> new IdealStockAmount(null, null, null, record.getAmount()))
+        .collect(Collectors.toList());
+  };
+
+  private RecordWriter<IdealStockAmount> writer = entities -> entities
+      .forEach(isa -> written.add(isa.getAmount()));
+
+  @Before
+  public void setUp() {
+    ParseCommodityType.SEPARATOR = "|";
+    ParseProcessingPeriod.SEPARATOR = "|";
+
+    ReflectionTestUtils.setField(csvParser, "chunkSize", 2);
+    ReflectionTestUtils.setField(csvParser, "poolSize", 3);
+    ReflectionTestUtils.setField(csvParser, "readerExecutor", readerExecutor);
+    ReflectionTestUtils.setField(csvParser, "processorExecutor", processorExecutor);
+    ReflectionTestUtils.setField(csvParser, "transactionManager", transactionManager);
+    csvParser.init();
+  }
+
+  @After
+  public void tearDown() {
+    readerExecutor.shutdown();
+    processorExecutor.shutdown();
+  }
+
+  @Test
+  public void shouldWriteProcessedChunksInOrderOfFile() throws IOException {
+    int result = parse(csv(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11));
+
+    assertEquals(11, result);
+    assertThat(written).containsExactly(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11);
+  }
+
+  @Test
+  public void shouldReportRowNumberOfInvalidRecord() throws IOException {
+    try {
+      parse(csv(1, 2, 3, 4, "invalid", 6, 7));
+      fail("Expected ValidationMessageException");
+    } catch (ValidationMessageException ex) {
+      assertThat(ex.asMessage().toString()).startsWith(ERROR_UPLOAD_RECORD_INVALID + ": 5, ");
+    }
+
+    assertThat(written).containsExactly(1, 2, 3, 4);
+  }
+
+  @Test
+  public void shouldStopOnFirstFailedChunk() throws IOException {
+    processor = records -> {
+      if (records.get(0).getAmount() == 3) {
+        throw new IllegalStateException("failed");
+      }
+      return Collections.emptyList();
+    };
+
+    try {
+      parse(csv(1, 2, 3, 4, 5, 6, 7, 8));
+      fail("Expected IllegalStateException");
+    } catch (IllegalStateException ex) {
+      assertEquals("failed", ex.getMessage());
+    }
+  }
+
+  @Test
+  public void shouldPublishStageMetrics() throws IOException {
+    parse(csv(1, 2, 3, 4, 5));
+
+    Map<String, Number> metrics = csvParser.metrics().stream()
+        .collect(Collectors.toMap(Metric::getName, Metric::getValue));
+
+    assertEquals(4L, metrics.get("csvParser.read.chunks"));
+    assertEquals(5L, metrics.get("csvParser.read.rows"));
+    assertEquals(3L, metrics.get("csvParser.process.chunks"));
+    assertEquals(5L, metrics.get("csvParser.process.rows"));
+    assertEquals(3L, metrics.get("csvParser.write.chunks"));
+    assertEquals(5L, metrics.get("csvParser.write.rows"));
+    assertThat(metrics).containsKeys("csvParser.process.meanMillis",
+        "csvParser.process.maxMillis", "csvParser.process.rowsPerSecond",
+        "csvParser.write.waitMillis");
+  }
+
+  private int parse(InputStream csv) throws IOException {
+    return csvParser.parse(csv, new ModelClass<>(IdealStockAmountCsvModel.class),
+        new CsvHeaderValidator(), processor, writer);
+  }
+
+  private InputStream csv(Object... amounts) {
+    StringBuilder csv = new StringBuilder(HEADER);
+    for (Object amount : amounts) {
+      csv.append(String.format(ROW, amount));
+    }
+    return new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void sleepRandomly() {
+    try {
+      TimeUnit.MILLISECONDS.sleep(ThreadLocalRandom.current().nextInt(10));
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static ThreadPoolTaskExecutor newExecutor() {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(3);
+    executor.initialize();
+    return executor;
+  }
+}
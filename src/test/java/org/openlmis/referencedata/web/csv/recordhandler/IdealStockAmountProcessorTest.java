@@ -15,14 +15,20 @@
 
 package org.openlmis.referencedata.web.csv.recordhandler;
 
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Optional;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.InjectMocks;
@@ -101,13 +107,16 @@ public class IdealStockAmountProcessorTest {
     when(service.search(anyListOf(IdealStockAmount.class)))
         .thenReturn(Collections.emptyList());
 
-    when(facilityRepository.findByCode(FACILITY_CODE)).thenReturn(Optional.of(facility));
-    when(processingScheduleRepository.findOneByCode(schedule.getCode()))
-        .thenReturn(Optional.of(schedule));
-    when(processingPeriodRepository.findOneByNameAndProcessingSchedule(PERIOD, schedule))
-        .thenReturn(Optional.of(processingPeriod));
-    when(commodityTypeRepository.findByClassificationIdAndClassificationSystem(ID, SYSTEM))
-        .thenReturn(Optional.of(commodityType));
+    when(facilityRepository.findByCodeIn(singleton(FACILITY_CODE)))
+        .thenReturn(singletonList(facility));
+    when(processingScheduleRepository.findByCodeIn(singleton(SCHEDULE)))
+        .thenReturn(singletonList(schedule));
+    when(processingPeriodRepository
+        .findByProcessingScheduleInAndNameIn(singleton(schedule), singleton(PERIOD)))
+        .thenReturn(singletonList(processingPeriod));
+    when(commodityTypeRepository
+        .findByClassificationSystemInAndClassificationIdIn(singleton(SYSTEM), singleton(ID)))
+        .thenReturn(singletonList(commodityType));
   }
 
   @Test
@@ -133,7 +142,8 @@ public class IdealStockAmountProcessorTest {
     idealStockAmountsValidator.validate(isa);
     when(service.search(anyListOf(IdealStockAmount.class)))
         .thenReturn(Collections.emptyList());
-    when(facilityRepository.findByCode(FACILITY_CODE)).thenReturn(Optional.empty());
+    when(facilityRepository.findByCodeIn(singleton(FACILITY_CODE)))
+        .thenReturn(Collections.emptyList());
 
     idealStockAmountProcessor.process(Collections.singletonList(isa));
   }
@@ -145,8 +155,8 @@ public class IdealStockAmountProcessorTest {
     idealStockAmountsValidator.validate(isa);
     when(service.search(anyListOf(IdealStockAmount.class)))
         .thenReturn(Collections.emptyList());
-    when(processingScheduleRepository.findOneByCode(schedule.getCode()))
-        .thenReturn(Optional.empty());
+    when(processingScheduleRepository.findByCodeIn(singleton(SCHEDULE)))
+        .thenReturn(Collections.emptyList());
 
     idealStockAmountProcessor.process(Collections.singletonList(isa));
   }
@@ -158,8 +168,9 @@ public class IdealStockAmountProcessorTest {
     idealStockAmountsValidator.validate(isa);
     when(service.search(anyListOf(IdealStockAmount.class)))
         .thenReturn(Collections.emptyList());
-    when(processingPeriodRepository.findOneByNameAndProcessingSchedule(PERIOD, schedule))
-        .thenReturn(Optional.empty());
+    when(processingPeriodRepository
+        .findByProcessingScheduleInAndNameIn(singleton(schedule), singleton(PERIOD)))
+        .thenReturn(Collections.emptyList());
 
     idealStockAmountProcessor.process(Collections.singletonList(isa));
   }
@@ -171,12 +182,83 @@ public class IdealStockAmountProcessorTest {
     idealStockAmountsValidator.validate(isa);
     when(service.search(anyListOf(IdealStockAmount.class)))
         .thenReturn(Collections.emptyList());
-    when(commodityTypeRepository.findByClassificationIdAndClassificationSystem(ID, SYSTEM))
-        .thenReturn(Optional.empty());
+    when(commodityTypeRepository
+        .findByClassificationSystemInAndClassificationIdIn(singleton(SYSTEM), singleton(ID)))
+        .thenReturn(Collections.emptyList());
 
     idealStockAmountProcessor.process(Collections.singletonList(isa));
   }
 
+  @Test
+  public void shouldResolveReferencesOnceForAllRecordsOfChunk() {
+    List<IdealStockAmount> result = idealStockAmountProcessor
+        .process(Arrays.asList(createIsaDto(), createIsaDto(), createIsaDto()));
+
+    assertEquals(3, result.size());
+    verify(facilityRepository).findByCodeIn(singleton(FACILITY_CODE));
+    verify(processingScheduleRepository).findByCodeIn(singleton(SCHEDULE));
+    verify(processingPeriodRepository)
+        .findByProcessingScheduleInAndNameIn(singleton(schedule), singleton(PERIOD));
+    verify(commodityTypeRepository)
+        .findByClassificationSystemInAndClassificationIdIn(singleton(SYSTEM), singleton(ID));
+  }
+
+  @Test
+  public void shouldReuseReferencesResolvedForPreviousChunksOfUpload() {
+    RecordProcessor<IdealStockAmountCsvModel, IdealStockAmount> processor =
+        idealStockAmountProcessor.forUpload();
+
+    processor.process(singletonList(createIsaDto()));
+    processor.process(singletonList(createIsaDto()));
+
+    verify(facilityRepository).findByCodeIn(anySetOf(String.class));
+    verify(processingScheduleRepository).findByCodeIn(anySetOf(String.class));
+    verify(processingPeriodRepository)
+        .findByProcessingScheduleInAndNameIn(anySetOf(ProcessingSchedule.class),
+            anySetOf(String.class));
+    verify(commodityTypeRepository)
+        .findByClassificationSystemInAndClassificationIdIn(anySetOf(String.class),
+            anySetOf(String.class));
+  }
+
+  @Test
+  public void shouldResolveReferencesAgainForEachChunkProcessedOutsideOfUpload() {
+    idealStockAmountProcessor.process(singletonList(createIsaDto()));
+    idealStockAmountProcessor.process(singletonList(createIsaDto()));
+
+    verify(facilityRepository, times(2)).findByCodeIn(anySetOf(String.class));
+  }
+
+  @Test
+  public void shouldNotResolveReferencesOfExistingObjects() {
+    when(service.search(anyListOf(IdealStockAmount.class)))
+        .thenReturn(singletonList(idealStockAmount));
+
+    List<IdealStockAmount> result = idealStockAmountProcessor
+        .process(singletonList(createIsaDto()));
+
+    assertSame(idealStockAmount, result.get(0));
+    verify(facilityRepository, times(0)).findByCodeIn(any());
+  }
+
+  @Test
+  public void shouldMatchExistingObjectOnlyByWholeKey() {
+    ProcessingPeriod otherPeriod = new ProcessingPeriod();
+    otherPeriod.setName(SCHEDULE);
+    ProcessingSchedule otherSchedule = new ProcessingSchedule();
+    otherSchedule.setCode(Code.code(PERIOD));
+    otherPeriod.setProcessingSchedule(otherSchedule);
+    IdealStockAmount other = new IdealStockAmount(facility, commodityType, otherPeriod, 5);
+    when(service.search(anyListOf(IdealStockAmount.class)))
+        .thenReturn(singletonList(other));
+
+    List<IdealStockAmount> result = idealStockAmountProcessor
+        .process(singletonList(createIsaDto()));
+
+    assertEquals(processingPeriod, result.get(0).getProcessingPeriod());
+    assertEquals(Integer.valueOf(5), other.getAmount());
+  }
+
   private IdealStockAmountCsvModel createIsaDto() {
     BasicFacilityDto facilityDto = new BasicFacilityDto();
     facilityDto.setCode(FACILITY_CODE);
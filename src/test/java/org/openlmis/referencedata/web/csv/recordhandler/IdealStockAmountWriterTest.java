@@ -15,7 +15,12 @@
 
 package org.openlmis.referencedata.web.csv.recordhandler;
 
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import java.time.LocalDate;
 import java.util.Arrays;
@@ -25,10 +30,12 @@ import org.junit.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.openlmis.referencedata.domain.Code;
 import org.openlmis.referencedata.domain.CommodityType;
 import org.openlmis.referencedata.domain.Facility;
 import org.openlmis.referencedata.domain.IdealStockAmount;
 import org.openlmis.referencedata.domain.ProcessingPeriod;
+import org.openlmis.referencedata.domain.ProcessingSchedule;
 import org.openlmis.referencedata.repository.IdealStockAmountRepository;
 
 public class IdealStockAmountWriterTest {
@@ -45,9 +52,15 @@ public class IdealStockAmountWriterTest {
   public void setUp() {
     MockitoAnnotations.initMocks(this);
 
-    Facility facility = new Facility("facility-code");
+    final Facility facility = new Facility("facility-code");
     CommodityType commodityType = new CommodityType();
+    commodityType.setClassificationSystem("system");
+    commodityType.setClassificationId("id");
+    ProcessingSchedule schedule = new ProcessingSchedule();
+    schedule.setCode(Code.code("schedule"));
     ProcessingPeriod processingPeriod = new ProcessingPeriod();
+    processingPeriod.setName("period");
+    processingPeriod.setProcessingSchedule(schedule);
     processingPeriod.setStartDate(LocalDate.of(2017, 10, 1));
     processingPeriod.setEndDate(LocalDate.of(2017, 10, 30));
 
@@ -63,4 +76,37 @@ public class IdealStockAmountWriterTest {
 
     verify(idealStockAmountRepository).save(Arrays.asList(idealStockAmount));
   }
+
+  @Test
+  public void shouldUpdateAmountSavedForEarlierChunkOfUpload() {
+    IdealStockAmount saved = new IdealStockAmount(idealStockAmount.getFacility(),
+        idealStockAmount.getCommodityType(), idealStockAmount.getProcessingPeriod(), 123);
+    saved.setId(UUID.randomUUID());
+    when(idealStockAmountRepository.save(singletonList(idealStockAmount)))
+        .thenReturn(singletonList(saved));
+
+    IdealStockAmount repeated = new IdealStockAmount(idealStockAmount.getFacility(),
+        idealStockAmount.getCommodityType(), idealStockAmount.getProcessingPeriod(), 456);
+
+    RecordWriter<IdealStockAmount> writer = idealStockAmountWriter.forUpload();
+    writer.write(singletonList(idealStockAmount));
+    writer.write(singletonList(repeated));
+
+    verify(idealStockAmountRepository).save(singletonList(idealStockAmount));
+    verify(idealStockAmountRepository, never()).save(emptyList());
+    assertEquals(Integer.valueOf(456), saved.getAmount());
+  }
+
+  @Test
+  public void shouldSaveAmountRepeatedInChunkOnce() {
+    IdealStockAmount repeated = new IdealStockAmount(idealStockAmount.getFacility(),
+        idealStockAmount.getCommodityType(), idealStockAmount.getProcessingPeriod(), 456);
+    when(idealStockAmountRepository.save(singletonList(idealStockAmount)))
+        .thenReturn(singletonList(idealStockAmount));
+
+    idealStockAmountWriter.forUpload().write(Arrays.asList(idealStockAmount, repeated));
+
+    verify(idealStockAmountRepository).save(singletonList(idealStockAmount));
+    assertEquals(Integer.valueOf(456), idealStockAmount.getAmount());
+  }
 }